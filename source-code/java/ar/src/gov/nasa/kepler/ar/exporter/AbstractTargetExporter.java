@@ -55,14 +55,18 @@ import gov.nasa.kepler.fs.api.TimeSeries;
 import gov.nasa.kepler.fs.api.TimeSeriesBatch;
 import gov.nasa.kepler.fs.api.TimeSeriesDataType;
 import gov.nasa.kepler.hibernate.cm.CelestialObject;
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
 import gov.nasa.kepler.hibernate.tps.AbstractTpsDbResult;
 import gov.nasa.kepler.mc.dr.MjdToCadence;
 import gov.nasa.kepler.mc.dr.MjdToCadence.TimestampSeries;
 import gov.nasa.spiffy.common.collect.Pair;
+import gov.nasa.spiffy.common.concurrent.DaemonThreadFactory;
 import gov.nasa.spiffy.common.io.FileUtil;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import nom.tam.fits.FitsException;
 import nom.tam.util.BufferedDataOutputStream;
@@ -86,6 +90,13 @@ public abstract class AbstractTargetExporter
 
     private static final Log log = LogFactory.getLog(AbstractTargetExporter.class);
     
+    /**
+     * The number of threads that write per-target files.  The default is the
+     * number of cores, up to {@link #MAX_DEFAULT_EXPORT_THREADS}.
+     */
+    public static final String EXPORT_THREAD_COUNT_PROP = "ar.exporter.perTarget.threadCount";
+    private static final int MAX_DEFAULT_EXPORT_THREADS = 8;
+    
     /**
      * Remove from the target-to-metadata map all entries whose values lack time series.
      * @param keplerIdToTargetPixelMetadatM must not be null
@@ -239,6 +250,207 @@ public abstract class AbstractTargetExporter
         }
     }
     
+    /**
+     * Writes the files of all the targets in exportData.  When there is more
+     * than one target the files are written by a pool of
+     * {@link #EXPORT_THREAD_COUNT_PROP} threads.  The export threads see the
+     * source through an {@link OwnerThreadSource}, so every call they make on
+     * the source, and hence every database and file store access made by the
+     * source, runs on the calling thread.  Any per-target preparation that
+     * modifies exportData must be complete before calling this.
+     * 
+     * Once the file of a target has been written the time series which are
+     * not needed by any other target are released, so the time series maps
+     * of exportData are empty when this returns.
+     * 
+     * @param source non-null
+     * @param exportData non-null
+     * @throws IOException
+     * @throws FitsException
+     */
+    protected void exportFiles(S source, ExportData<M> exportData)
+        throws IOException, FitsException {
+        
+        List<M> targets = new ArrayList<M>(exportData.targetMetdatas);
+        if (targets.isEmpty()) {
+            return;
+        }
+        
+        final ExportData<M> releasableData = new ExportData<M>(
+            Collections.synchronizedMap(new HashMap<FsId, TimeSeries>(exportData.allTimeSeries)),
+            Collections.synchronizedMap(new HashMap<FsId, FloatMjdTimeSeries>(exportData.floatMjdTimeSeries)),
+            exportData.targetMetdatas, exportData.originators);
+        exportData.allTimeSeries.clear();
+        exportData.floatMjdTimeSeries.clear();
+        
+        final Map<FsId, AtomicInteger> referenceCounts = referenceCounts(targets);
+        
+        int nThreads = Math.min(exportThreadCount(), targets.size());
+        if (nThreads == 1) {
+            for (M targetMetadata : targets) {
+                exportFileAndRelease(targetMetadata, source, releasableData,
+                    referenceCounts);
+            }
+            return;
+        }
+        
+        prepareForExportThreads(source);
+        
+        log.info("Writing " + targets.size() + " files with " + nThreads
+            + " threads.");
+        BlockingQueue<FutureTask<?>> ownerQueue =
+            new LinkedBlockingQueue<FutureTask<?>>();
+        final S threadSafeSource =
+            new OwnerThreadSource<S>(source, ownerQueue).proxy();
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads,
+            new DaemonThreadFactory("target-export"));
+        try {
+            Iterator<M> it = targets.iterator();
+            int inFlight = 0;
+            while (it.hasNext() || inFlight > 0) {
+                while (it.hasNext() && inFlight < nThreads * 2) {
+                    final M targetMetadata = it.next();
+                    executor.execute(new ExportTask(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            exportFileAndRelease(targetMetadata, threadSafeSource,
+                                releasableData, referenceCounts);
+                            return null;
+                        }
+                    }, ownerQueue));
+                    inFlight++;
+                }
+                FutureTask<?> task = takeOwnerTask(ownerQueue);
+                if (task instanceof ExportTask) {
+                    ((ExportTask) task).checkCompleted();
+                    inFlight--;
+                } else {
+                    task.run();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * The number of threads used by {@link #exportFiles(BaseExporterSource, ExportData)}.
+     */
+    protected int exportThreadCount() {
+        int defaultThreadCount = Math.min(MAX_DEFAULT_EXPORT_THREADS,
+            Runtime.getRuntime().availableProcessors());
+        return Math.max(1, ConfigurationServiceFactory.getInstance()
+            .getInt(EXPORT_THREAD_COUNT_PROP, defaultThreadCount));
+    }
+    
+    /**
+     * Called on the calling thread of
+     * {@link #exportFiles(BaseExporterSource, ExportData)} before the export
+     * threads are started.  This loads the state which the export threads use
+     * without going through the source.  The MjdToCadence returned by the
+     * source reads the pixel logs on a cache miss, so its cache is filled for
+     * the unit of work here.
+     * 
+     * @param source non-null
+     */
+    protected void prepareForExportThreads(S source) {
+        source.mjdToCadence().cacheInterval(source.startCadence(),
+            source.endCadence(), false);
+    }
+    
+    private void exportFileAndRelease(M targetMetadata, S source,
+        ExportData<M> exportData, Map<FsId, AtomicInteger> referenceCounts)
+        throws IOException, FitsException {
+        
+        log.info("Writing file for target " + targetMetadata.keplerId() + ".");
+        exportFile(targetMetadata, source, exportData);
+        
+        for (FsId id : targetFsIds(targetMetadata)) {
+            if (referenceCounts.get(id).decrementAndGet() == 0) {
+                exportData.allTimeSeries.remove(id);
+                exportData.floatMjdTimeSeries.remove(id);
+            }
+        }
+    }
+    
+    private Map<FsId, AtomicInteger> referenceCounts(List<M> targets) {
+        Map<FsId, AtomicInteger> referenceCounts = new HashMap<FsId, AtomicInteger>();
+        for (M targetMetadata : targets) {
+            for (FsId id : targetFsIds(targetMetadata)) {
+                AtomicInteger count = referenceCounts.get(id);
+                if (count == null) {
+                    count = new AtomicInteger();
+                    referenceCounts.put(id, count);
+                }
+                count.incrementAndGet();
+            }
+        }
+        return referenceCounts;
+    }
+    
+    private Set<FsId> targetFsIds(M targetMetadata) {
+        Map<FsId, TimeSeriesDataType> timeSeriesIds = new HashMap<FsId, TimeSeriesDataType>();
+        Set<FsId> ids = new HashSet<FsId>();
+        targetMetadata.addToTimeSeriesIds(timeSeriesIds);
+        targetMetadata.addToMjdTimeSeriesIds(ids);
+        ids.addAll(timeSeriesIds.keySet());
+        return ids;
+    }
+    
+    private static FutureTask<?> takeOwnerTask(BlockingQueue<FutureTask<?>> ownerQueue)
+        throws IOException {
+        
+        try {
+            return ownerQueue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing target files.");
+        }
+    }
+    
+    /**
+     * Writes the file of one target on an export thread and then adds itself
+     * to the owner's queue so the calling thread learns of its completion.
+     */
+    private static final class ExportTask extends FutureTask<Void> {
+        
+        private final BlockingQueue<FutureTask<?>> ownerQueue;
+        
+        ExportTask(Callable<Void> export, BlockingQueue<FutureTask<?>> ownerQueue) {
+            super(export);
+            this.ownerQueue = ownerQueue;
+        }
+        
+        @Override
+        protected void done() {
+            ownerQueue.add(this);
+        }
+        
+        void checkCompleted() throws IOException, FitsException {
+            try {
+                get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing target files.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                if (cause instanceof FitsException) {
+                    throw (FitsException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+    
     /**
      * Performs M dummy write, the results of which are discarded, in order to
      * compute the checksums.
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.ar.exporter;
+
+import static gov.nasa.kepler.common.FitsConstants.HDU_BLOCK_SIZE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Accumulates the FITS 32-bit 1's complement checksum.  Aligned data is
+ * summed eight bytes at a time; the two 16-bit halves of each 32-bit word
+ * are added into separate 32-bit lanes of a long and the carries are only
+ * folded when the checksum is requested.  Checksums of consecutive segments
+ * of a file can be computed independently and then combined with
+ * {@link #merge(FitsChecksum)}.
+ * 
+ * See _FITS Checksum Proposal_, R.L. Seaman, W.D. Pence, A.H. Rots 2002
+ * 
+ * @author R J Mathar
+ */
+public final class FitsChecksum {
+
+    /** ASCII checksum encoder parameters. */
+    private static final int[] exclude = { 0x3a, 0x3b, 0x3c, 0x3d, 0x3e, 0x3f, 0x40, 0x5b, 0x5c, 0x5d, 0x5e, 0x5f, 0x60 } ;
+    private static final long[] mask = { 0xff000000L, 0xff0000L, 0xff00L, 0xffL} ;
+    private static final int offset = 0x30 ;   /* ASCII 0 (zero */
+    
+    /** Selects the lower 16 bits of each 32-bit half of a long. */
+    private static final long LANE_MASK = 0x0000ffff0000ffffL;
+    
+    /**
+     * The number of longs that can be added into the 32-bit lanes before
+     * they may overflow.
+     */
+    private static final int MAX_LONGS_PER_FOLD = 0x10000;
+    
+    private static final int FILE_BUFFER_SIZE = HDU_BLOCK_SIZE * 128;
+    
+    private long bytesUpdated = 0;
+    
+    /** high order 16-bit sum */
+    private long hiSum = 0;
+    
+    /** lower order 16-bit sum */
+    private long lowSum = 0;
+    
+    private int prevByte = 0;
+    
+    /**
+     * Computes the checksum of a region of a file using the specified
+     * executor.  The region is split into segments of whole HDU blocks, each
+     * segment is checksummed by a separate task and the partial checksums
+     * are merged.
+     * 
+     * @param channel this is only accessed with positional reads
+     * @param position the start of the region
+     * @param length the length of the region in bytes
+     * @param executor non-null
+     * @param nSegments the maximum number of segments to split the region into
+     * @return non-null
+     */
+    public static FitsChecksum checksum(final FileChannel channel,
+        long position, long length, ExecutorService executor, int nSegments)
+        throws IOException {
+        
+        if (nSegments < 1) {
+            throw new IllegalArgumentException("nSegments must be positive.");
+        }
+        
+        long nBlocks = (length + HDU_BLOCK_SIZE - 1) / HDU_BLOCK_SIZE;
+        long segmentLength = Math.max(1, (nBlocks + nSegments - 1) / nSegments) * HDU_BLOCK_SIZE;
+        
+        List<Future<FitsChecksum>> partialChecksums = new ArrayList<Future<FitsChecksum>>();
+        long end = position + length;
+        for (long start = position; start < end; start += segmentLength) {
+            final long segmentStart = start;
+            final long segmentEnd = Math.min(end, start + segmentLength);
+            partialChecksums.add(executor.submit(new Callable<FitsChecksum>() {
+                @Override
+                public FitsChecksum call() throws Exception {
+                    FitsChecksum partial = new FitsChecksum();
+                    partial.update(channel, segmentStart, segmentEnd - segmentStart);
+                    return partial;
+                }
+            }));
+        }
+        
+        FitsChecksum checksum = new FitsChecksum();
+        try {
+            for (Future<FitsChecksum> partial : partialChecksums) {
+                checksum.merge(partial.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while computing checksum.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<FitsChecksum> partial : partialChecksums) {
+                partial.cancel(true);
+            }
+        }
+        return checksum;
+    }
+    
+    public long bytesUpdated() {
+        return bytesUpdated;
+    }
+    
+    public void update(int b) {
+        b = b & 0xff;
+        switch ((int)(bytesUpdated &  0x03)) {
+            case 0: prevByte = b << 8; break;
+            case 1: hiSum += (prevByte | b); break;
+            case 2: prevByte = b << 8; break;
+            case 3: lowSum += (prevByte | b); break;
+            default:
+                throw new IllegalStateException();
+        }
+        bytesUpdated++;
+    }
+    
+    public void update(byte[] buf, int off, int len) {
+        if (off < 0) {
+            throw new IllegalArgumentException("Offset may not be negative.");
+        }
+        
+        if (len < 0) {
+            throw new IllegalArgumentException("Length may not be negative.");
+        }
+        
+        if (off + len > buf.length) {
+            throw new IllegalArgumentException("Offset is greater than buffer length.");
+        }
+        
+        update(ByteBuffer.wrap(buf, off, len));
+    }
+    
+    /**
+     * Adds the remaining bytes of the buffer to the checksum.  This consumes
+     * the buffer.
+     * 
+     * @param buf heap or direct, the byte order of buf is not modified.
+     */
+    public void update(ByteBuffer buf) {
+        //Advance to some point where the byte counter is at a 4 byte alignment.
+        while (buf.hasRemaining() && (bytesUpdated & 0x03) != 0) {
+            update(buf.get());
+        }
+        
+        ByteOrder originalOrder = buf.order();
+        buf.order(ByteOrder.BIG_ENDIAN);
+        try {
+            while (buf.remaining() >= 8) {
+                int nLongs = Math.min(MAX_LONGS_PER_FOLD, buf.remaining() >>> 3);
+                long hiLanes = 0;
+                long lowLanes = 0;
+                for (int i = 0; i < nLongs; i++) {
+                    long word = buf.getLong();
+                    hiLanes += (word >>> 16) & LANE_MASK;
+                    lowLanes += word & LANE_MASK;
+                }
+                hiSum += (hiLanes >>> 32) + (hiLanes & 0xffffffffL);
+                lowSum += (lowLanes >>> 32) + (lowLanes & 0xffffffffL);
+                bytesUpdated += nLongs << 3;
+            }
+        } finally {
+            buf.order(originalOrder);
+        }
+        
+        //Checksum any trailing bytes
+        while (buf.hasRemaining()) {
+            update(buf.get());
+        }
+    }
+    
+    /**
+     * Adds a region of a file to the checksum.  The channel's position is not
+     * modified.
+     * 
+     * @throws IOException if the region extends beyond the end of the file.
+     */
+    public void update(FileChannel channel, long position, long length)
+        throws IOException {
+        
+        ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(FILE_BUFFER_SIZE, Math.max(length, 8)));
+        long end = position + length;
+        while (position < end) {
+            buf.clear();
+            buf.limit((int) Math.min(buf.capacity(), end - position));
+            while (buf.hasRemaining()) {
+                int nRead = channel.read(buf, position + buf.position());
+                if (nRead < 0) {
+                    throw new IOException("Unexpected end of file at " +
+                        (position + buf.position()) + ".");
+                }
+            }
+            buf.flip();
+            position += buf.remaining();
+            update(buf);
+        }
+    }
+    
+    /**
+     * Adds the checksum of the bytes that immediately follow the bytes
+     * already seen by this checksum.
+     * 
+     * @param other the checksum of the following bytes.
+     * @throws IllegalStateException if the number of bytes seen by this
+     * checksum is not a multiple of four.
+     */
+    public void merge(FitsChecksum other) {
+        if ((bytesUpdated & 0x03) != 0) {
+            throw new IllegalStateException("Can't merge checksum after " +
+                bytesUpdated + " bytes; this is not a multiple of four bytes.");
+        }
+        hiSum += other.hiSum;
+        lowSum += other.lowSum;
+        prevByte = other.prevByte;
+        bytesUpdated += other.bytesUpdated;
+    }
+    
+    /**
+     * @return The 32-bit 1's complement sum of the bytes seen so far.
+     */
+    public long checksum() {
+        if (bytesUpdated % HDU_BLOCK_SIZE != 0) {
+            throw new IllegalStateException("Number of bytes written (" + 
+                bytesUpdated + ") must be multiple of HDU block size.");
+        }
+        
+        /* fold carry bits from each 16-bit sum into the other sums */
+        long hi = hiSum;
+        long low = lowSum;
+        long hiCarry = hi >>> 16;
+        long lowCarry = low >>> 16;
+            
+        while ((hiCarry | lowCarry) != 0) {
+            hi = (hi & 0xffffL) + lowCarry;
+            low = (low & 0xffffL) + hiCarry;
+            hiCarry = hi >>> 16;
+            lowCarry = low >>> 16;
+        }
+        
+        return (hi << 16) | low;
+    }
+    
+    /**
+     * 
+     * This is the difference between the checksum and negative zero in 
+     * 1s-compliment notation.
+     * 
+     * I don't know why FITS can't just have you print out the numerical version
+     * of this in a hexadecimal string.  Instead they have their own hokey
+     * encoding.
+     * 
+     * 
+     * @return
+     */
+    public String checksumString() {
+        long checksum = checksum();
+        
+        return checksumEnc(checksum, true);
+    }
+    
+    /** 
+     * I got this from nom.tam.fits.Fits
+     * 
+     * Encode a 32bit integer according to the Seaman-Pence proposal.
+     * @param c the checksum previously calculated
+     * @return the encoded string of 16 bytes.
+     * @see http://heasarc.gsfc.nasa.gov/docs/heasarc/ofwg/docs/general/checksum/node14.html#SECTION00035000000000000000
+     * @author R J Mathar
+     * @since 2005-10-05
+     */
+    static String checksumEnc(final long c, final boolean compl) {
+        byte[] asc = new byte[16] ;
+       
+        final long value = compl ? ~c: c ;
+        for (int i=0 ; i < 4 ; i++) {
+            final int byt = (int) ((value & mask[i]) >>> (24 - 8*i)) ;  // each byte becomes four
+            final int quotient = byt /4 + offset ;
+            final int remainder = byt % 4 ;
+            int[] ch = new int[4] ;
+            for (int j=0 ; j < 4 ; j++) {
+                ch[j] = quotient ;
+            }
+
+            ch[0] += remainder ;
+            boolean check = true ;
+            for(; check ; ) { // avoid ASCII punctuation
+                check= false ;
+                for (int k=0; k < exclude.length ; k++) {
+                    for (int j=0; j < 4 ; j +=2) {
+                        if ( ch[j] == exclude[k] || ch[j+1] == exclude[k]) {
+                            ch[j]++ ;
+                            ch[j+1]-- ;
+                            check = true ;
+                        }
+                    }
+                }
+            }
+
+            for (int j=0; j < 4 ; j++) { // assign the bytes
+                asc[4*j+i] = (byte)(ch[j]) ;
+            }
+        }
+
+        // shift the bytes 1 to the right circularly.
+        StringBuilder bldr = new StringBuilder(16);
+        bldr.append((char) asc[15]);
+        for (int i=0; i < 15; i++) {
+            bldr.append((char) asc[i]);
+        }
+        return bldr.toString();
+    }
+}
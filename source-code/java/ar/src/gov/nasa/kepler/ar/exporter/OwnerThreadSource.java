@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+
+package gov.nasa.kepler.ar.exporter;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs the methods of an exporter source on the thread which created this
+ * object.  The exporter sources are not thread safe, they load their state
+ * lazily and they use the database session and the file store transaction
+ * of the thread that owns them.  A call made through {@link #proxy()} on any
+ * other thread is queued on the owner's queue and the caller blocks until
+ * the owner has run it.  The owner must keep running the calls it takes from
+ * the queue while other threads use the proxy.
+ * 
+ * The results of methods without parameters are kept so that the owner
+ * is only asked once for each of them.
+ * 
+ * @param <S> This must be an interface which the source implements.
+ */
+final class OwnerThreadSource<S> implements InvocationHandler {
+
+    private static final Object NULL_RESULT = new Object();
+
+    private final S source;
+    private final Thread owner;
+    private final BlockingQueue<FutureTask<?>> ownerQueue;
+    private final ConcurrentMap<Method, Object> noArgResults =
+        new ConcurrentHashMap<Method, Object>();
+    private final S proxy;
+
+    /**
+     * 
+     * @param source non-null
+     * @param ownerQueue the calls made on other threads are added to this
+     * queue.
+     */
+    @SuppressWarnings("unchecked")
+    OwnerThreadSource(S source, BlockingQueue<FutureTask<?>> ownerQueue) {
+        this.source = source;
+        this.ownerQueue = ownerQueue;
+        this.owner = Thread.currentThread();
+        this.proxy = (S) Proxy.newProxyInstance(source.getClass().getClassLoader(),
+            interfaces(source.getClass()), this);
+    }
+
+    /**
+     * 
+     * @return A source which may be used on any thread.
+     */
+    S proxy() {
+        return proxy;
+    }
+
+    @Override
+    public Object invoke(Object proxy, final Method method, final Object[] args)
+        throws Throwable {
+
+        if (method.getDeclaringClass() == Object.class) {
+            return invokeObjectMethod(proxy, method, args);
+        }
+
+        boolean noArgs = args == null || args.length == 0;
+        if (noArgs) {
+            Object result = noArgResults.get(method);
+            if (result != null) {
+                return result == NULL_RESULT ? null : result;
+            }
+        }
+
+        Object result;
+        if (Thread.currentThread() == owner) {
+            result = invokeOnSource(method, args);
+        } else {
+            result = invokeOnOwner(method, args);
+        }
+
+        if (noArgs) {
+            noArgResults.putIfAbsent(method, result == null ? NULL_RESULT : result);
+        }
+        return result;
+    }
+
+    private Object invokeOnOwner(final Method method, final Object[] args)
+        throws Throwable {
+
+        FutureTask<Object> call = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    return invokeOnSource(method, args);
+                } catch (Exception e) {
+                    throw e;
+                } catch (Error e) {
+                    throw e;
+                } catch (Throwable t) {
+                    throw new IllegalStateException(t);
+                }
+            }
+        });
+        ownerQueue.add(call);
+        try {
+            return call.get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            call.cancel(false);
+            throw new IllegalStateException("Interrupted while waiting for "
+                + method.getName() + "() to run on thread " + owner.getName()
+                + ".", e);
+        }
+    }
+
+    private Object invokeOnSource(Method method, Object[] args)
+        throws Throwable {
+
+        try {
+            return method.invoke(source, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args)
+        throws Throwable {
+
+        if (method.getName().equals("equals")) {
+            return proxy == args[0];
+        }
+        if (method.getName().equals("hashCode")) {
+            return System.identityHashCode(proxy);
+        }
+        return invokeOnSource(method, args);
+    }
+
+    private static Class<?>[] interfaces(Class<?> c) {
+        Set<Class<?>> interfaces = new LinkedHashSet<Class<?>>();
+        for (Class<?> current = c; current != null; current = current.getSuperclass()) {
+            for (Class<?> i : current.getInterfaces()) {
+                interfaces.add(i);
+            }
+        }
+        return interfaces.toArray(new Class<?>[interfaces.size()]);
+    }
+}
@@ -147,11 +147,7 @@ public class DvTimeSeriesExporter2
             
         }
         
-        // There may be multiple files to write for this target
-        for (DvTargetMetadata dvTargetMetadata : exportData.targetMetdatas) {
-            log.info("Writing FITS file for target " + dvTargetMetadata.keplerId());
-            super.exportFile(dvTargetMetadata, exporterSource, exportData);
-        }
+        super.exportFiles(exporterSource, exportData);
         return exportData.originators;
     }
     
@@ -144,11 +144,11 @@ public class FluxExporter2 extends AbstractSingleQuarterTargetExporter<FluxTarge
      
         Map<Integer, TargetAperture> keplerIdToTargetAperture = source.targetApertures(centroidTimeSeries);
         for (FluxTargetMetadata targetMetadata : exportData.targetMetdatas) {
-            log.info("Writing light curve file for target " + targetMetadata.keplerId());
             targetMetadata.setTargetAperture(keplerIdToTargetAperture.get(targetMetadata.keplerId()));
-            super.exportFile(targetMetadata, source, exportData);
         }
         
+        super.exportFiles(source, exportData);
+        
         return exportData.originators;
     }
     
@@ -84,8 +84,6 @@ import nom.tam.util.ArrayDataOutput;
 import nom.tam.util.BufferedDataOutputStream;
 
 import org.apache.commons.lang.ArrayUtils;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 
 /**
  * Similar to the target pixel exporter except that we only assume that K2 data
@@ -97,7 +95,6 @@ import org.apache.commons.logging.LogFactory;
  */
 public final class K2Exporter extends AbstractSingleQuarterTargetExporter<K2Target, K2Source> {
 
-    private final Log log = LogFactory.getLog(K2Exporter.class);
    
     private final PixelOutputStreamFactory outputStreamFactory;
     
@@ -159,11 +156,7 @@ public final class K2Exporter extends AbstractSingleQuarterTargetExporter<K2Targ
             allPixels.addAll(metadata.aperturePixels());
         }
         
-        for (K2Target targetMetadata : exportData.targetMetdatas) {
-            log.info("Writing file for target with kepler id "
-                + targetMetadata.keplerId());
-            exportFile(targetMetadata, source, exportData);
-        }
+        exportFiles(source, exportData);
         
         return exportData.originators;
     }
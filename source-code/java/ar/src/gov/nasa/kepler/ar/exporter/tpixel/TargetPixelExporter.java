@@ -75,8 +75,6 @@ import nom.tam.fits.HeaderCardException;
 import nom.tam.util.ArrayDataOutput;
 import nom.tam.util.BufferedDataOutputStream;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 
 import static gov.nasa.kepler.ar.exporter.binarytable.BinaryTableUtils.*;
 import static gov.nasa.kepler.ar.exporter.binarytable.SingleCadenceImageWriter.newImageWriter;
@@ -92,7 +90,6 @@ import static gov.nasa.kepler.common.FitsConstants.RB_LEVEL_TCOLUMN;
 public class TargetPixelExporter 
     extends AbstractSingleQuarterTargetExporter<TargetPixelMetadata, TargetPixelExporterSource> {
 
-    private static final Log log = LogFactory.getLog(TargetPixelExporter.class);
 
     private final PixelOutputStreamFactory outputStreamFactory = 
         new PixelOutputStreamFactory();
@@ -156,8 +153,6 @@ public class TargetPixelExporter
         FluxPixelValueCalculator calCalc = new FluxPixelValueCalculator();
         
         for (TargetPixelMetadata targetMetadata : exportData.targetMetdatas) {
-            log.info("Writing file for target with kepler id "
-                + targetMetadata.keplerId());
             calCalc.modifyCalibratedPixels(
                     targetMetadata.calibratedPixels(exportData.allTimeSeries),
                     targetMetadata.cosmicRays(exportData.floatMjdTimeSeries),
@@ -167,8 +162,9 @@ public class TargetPixelExporter
                source.mjdToCadence(), GAP_FILL);
             targetMetadata.setBackground(background);
             targetMetadata.setTargetAperture(keplerIdToTargetAperture.get(targetMetadata.keplerId()));
-            exportFile(targetMetadata, source, exportData);
         }
+        
+        exportFiles(source, exportData);
 
         return exportData.originators;
     }
@@ -89,6 +89,7 @@ public class AutoTestSuite {
         suite.addTest(new JUnit4TestAdapter(FfiPrimaryHeaderFormatterTest.class));
         suite.addTest(new JUnit4TestAdapter(TargetPixelMetadataTest.class));
         suite.addTest(new JUnit4TestAdapter(FitsChecksumTest.class));
+        suite.addTest(new JUnit4TestAdapter(AbstractTargetExporterTest.class));
         suite.addTest(new JUnit4TestAdapter(FluxExporter2Test.class));
         suite.addTest(new JUnit4TestAdapter(ExposureCalculatorTest.class));
         suite.addTest(new JUnit4TestAdapter(DefaultTargetPixelExporterSourceTest.class));
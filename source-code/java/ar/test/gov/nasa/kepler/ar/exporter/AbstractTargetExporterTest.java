@@ -0,0 +1,430 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+
+package gov.nasa.kepler.ar.exporter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gnu.trove.TLongHashSet;
+import gov.nasa.kepler.ar.exporter.AbstractTargetExporter.ExportData;
+import gov.nasa.kepler.common.ConfigMap;
+import gov.nasa.kepler.common.Cadence.CadenceType;
+import gov.nasa.kepler.fs.api.FileStoreClient;
+import gov.nasa.kepler.fs.api.FloatMjdTimeSeries;
+import gov.nasa.kepler.fs.api.FsId;
+import gov.nasa.kepler.fs.api.IntTimeSeries;
+import gov.nasa.kepler.fs.api.TimeSeries;
+import gov.nasa.kepler.fs.api.TimeSeriesDataType;
+import gov.nasa.kepler.hibernate.cm.CelestialObject;
+import gov.nasa.kepler.hibernate.cm.Kic;
+import gov.nasa.kepler.hibernate.dr.DataAnomaly;
+import gov.nasa.kepler.mc.Pixel;
+import gov.nasa.kepler.mc.dr.MjdToCadence;
+import gov.nasa.kepler.mc.dr.MjdToCadence.TimestampSeries;
+import gov.nasa.kepler.mc.pi.OriginatorsModelRegistryChecker;
+import gov.nasa.spiffy.common.intervals.SimpleInterval;
+import gov.nasa.spiffy.common.intervals.TaggedInterval;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nom.tam.fits.FitsException;
+import nom.tam.util.ArrayDataOutput;
+import nom.tam.util.BufferedDataOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Checks that the files written by several export threads are the same as
+ * the files written by a single thread and that the export threads never
+ * call the source themselves.
+ */
+public class AbstractTargetExporterTest {
+
+    private static final int START_CADENCE = 100;
+    private static final int END_CADENCE = 199;
+    private static final int N_TARGETS = 17;
+    private static final long ORIGINATOR = 7;
+    private static final FsId SHARED_ID = new FsId("/test/shared/0");
+    private static final int HDU_BLOCK_SIZE = 2880;
+
+    @Test
+    public void multipleThreadsWriteSameFilesAsOneThread() throws Exception {
+        TestSource singleThreadSource = new TestSource();
+        TestExporter singleThreadExporter = new TestExporter(1);
+        ExportData<TestTarget> singleThreadData = exportData();
+        singleThreadExporter.exportFiles(singleThreadSource, singleThreadData);
+        assertEquals(N_TARGETS, singleThreadExporter.files.size());
+        assertEquals(0, singleThreadExporter.preparedCount.get());
+
+        TestSource multiThreadSource = new TestSource();
+        TestExporter multiThreadExporter = new TestExporter(4);
+        ExportData<TestTarget> multiThreadData = exportData();
+        multiThreadExporter.exportFiles(multiThreadSource, multiThreadData);
+        assertEquals(1, multiThreadExporter.preparedCount.get());
+
+        assertEquals(singleThreadExporter.files.keySet(),
+            multiThreadExporter.files.keySet());
+        for (Integer keplerId : singleThreadExporter.files.keySet()) {
+            assertArrayEquals("target " + keplerId,
+                singleThreadExporter.files.get(keplerId).toByteArray(),
+                multiThreadExporter.files.get(keplerId).toByteArray());
+        }
+
+        assertEquals(Collections.singleton(Thread.currentThread()),
+            multiThreadSource.callingThreads);
+        assertEquals(1, multiThreadSource.anomaliesLoadCount.get());
+        assertTrue(multiThreadData.allTimeSeries.isEmpty());
+        assertTrue(multiThreadData.floatMjdTimeSeries.isEmpty());
+    }
+
+    private static ExportData<TestTarget> exportData() {
+        Map<FsId, TimeSeries> allTimeSeries = new HashMap<FsId, TimeSeries>();
+        List<TestTarget> targets = new ArrayList<TestTarget>();
+        allTimeSeries.put(SHARED_ID, intTimeSeries(SHARED_ID, -1));
+        for (int i = 0; i < N_TARGETS; i++) {
+            int keplerId = 1000 + i;
+            FsId id = new FsId("/test/target/" + keplerId);
+            allTimeSeries.put(id, intTimeSeries(id, keplerId));
+            targets.add(new TestTarget(new Kic.Builder(keplerId, 0, 0).build(), id));
+        }
+        // The export data may have entries for time series which were not
+        // found.
+        allTimeSeries.put(new FsId("/test/missing/0"), null);
+
+        return new ExportData<TestTarget>(allTimeSeries,
+            new HashMap<FsId, FloatMjdTimeSeries>(), targets,
+            new TLongHashSet(new long[] { ORIGINATOR }));
+    }
+
+    private static IntTimeSeries intTimeSeries(FsId id, int value) {
+        int[] iseries = new int[END_CADENCE - START_CADENCE + 1];
+        for (int i = 0; i < iseries.length; i++) {
+            iseries[i] = value * i;
+        }
+        return new IntTimeSeries(id, iseries, START_CADENCE, END_CADENCE,
+            Collections.singletonList(new SimpleInterval(START_CADENCE, END_CADENCE)),
+            Collections.singletonList(new TaggedInterval(START_CADENCE, END_CADENCE, ORIGINATOR)));
+    }
+
+    private static final class TestExporter
+        extends AbstractTargetExporter<TestTarget, BaseExporterSource> {
+
+        private final int threadCount;
+        private final ConcurrentMap<Integer, ByteArrayOutputStream> files =
+            new ConcurrentHashMap<Integer, ByteArrayOutputStream>();
+        private final AtomicInteger preparedCount = new AtomicInteger();
+
+        TestExporter(int threadCount) {
+            this.threadCount = threadCount;
+        }
+
+        @Override
+        protected int exportThreadCount() {
+            return threadCount;
+        }
+
+        @Override
+        protected void prepareForExportThreads(BaseExporterSource source) {
+            preparedCount.incrementAndGet();
+        }
+
+        @Override
+        protected BufferedDataOutputStream outputStream(TestTarget targetMetadata,
+            BaseExporterSource source, ExportData<TestTarget> exportData)
+            throws IOException, FitsException {
+
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            files.put(targetMetadata.keplerId(), bout);
+            return new BufferedDataOutputStream(bout);
+        }
+
+        @Override
+        protected void writeFileUnsafe(BaseExporterSource source,
+            TestTarget targetMetadata, ExportData<TestTarget> exportData,
+            ChecksumsAndOutputs outputs) throws IOException, FitsException {
+
+            ByteArrayOutputStream hdu = new ByteArrayOutputStream();
+            DataOutputStream dout = new DataOutputStream(hdu);
+            dout.writeBytes(outputs.checksums().get(0));
+            dout.writeInt(targetMetadata.keplerId());
+            dout.writeInt(source.startCadence());
+            dout.writeInt(source.endCadence());
+            dout.writeInt(source.anomalies().size());
+            for (FsId id : Arrays.asList(targetMetadata.id, SHARED_ID)) {
+                for (int value : ((IntTimeSeries) exportData.allTimeSeries.get(id)).iseries()) {
+                    dout.writeInt(value);
+                }
+            }
+            dout.close();
+
+            ArrayDataOutput out = outputs.outputs().get(0);
+            out.write(hdu.toByteArray());
+            out.write(new byte[HDU_BLOCK_SIZE - hdu.size() % HDU_BLOCK_SIZE]);
+            // Finish the targets in a different order than they were started.
+            Thread.yield();
+            if (targetMetadata.keplerId() % 3 == 0) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted.");
+                }
+            }
+        }
+
+        @Override
+        protected boolean checkExport(TestTarget targetMetadata,
+            BaseExporterSource source, ExportData<TestTarget> exportData) {
+            return true;
+        }
+
+        @Override
+        protected int apertureMaskPixelMask() {
+            return 0;
+        }
+    }
+
+    /**
+     * Like the default sources this loads its state lazily and is not
+     * thread safe.
+     */
+    private static final class TestSource implements BaseExporterSource {
+
+        private final Set<Thread> callingThreads =
+            Collections.synchronizedSet(new HashSet<Thread>());
+        private final AtomicInteger anomaliesLoadCount = new AtomicInteger();
+        private final Date generatedAt = new Date(0);
+        private List<DataAnomaly> anomalies;
+
+        private void called() {
+            callingThreads.add(Thread.currentThread());
+        }
+
+        @Override
+        public Date generatedAt() {
+            called();
+            return generatedAt;
+        }
+
+        @Override
+        public File exportDirectory() {
+            called();
+            return new File(".");
+        }
+
+        @Override
+        public CadenceType cadenceType() {
+            called();
+            return CadenceType.LONG;
+        }
+
+        @Override
+        public int startCadence() {
+            called();
+            return START_CADENCE;
+        }
+
+        @Override
+        public int endCadence() {
+            called();
+            return END_CADENCE;
+        }
+
+        @Override
+        public int cadenceCount() {
+            called();
+            return END_CADENCE - START_CADENCE + 1;
+        }
+
+        @Override
+        public List<CelestialObject> celestialObjects() {
+            called();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String programName() {
+            called();
+            return AbstractTargetExporterTest.class.getSimpleName();
+        }
+
+        @Override
+        public int dataReleaseNumber() {
+            called();
+            return -1;
+        }
+
+        @Override
+        public long pipelineTaskId() {
+            called();
+            return -1;
+        }
+
+        @Override
+        public TimestampSeries timestampSeries() {
+            called();
+            return null;
+        }
+
+        @Override
+        public MjdToCadence mjdToCadence() {
+            called();
+            return null;
+        }
+
+        @Override
+        public Collection<ConfigMap> configMaps() {
+            called();
+            return Collections.emptyList();
+        }
+
+        @Override
+        public FileStoreClient fsClient() {
+            called();
+            return null;
+        }
+
+        @Override
+        public OriginatorsModelRegistryChecker originatorsModelRegistryChecker() {
+            called();
+            return null;
+        }
+
+        @Override
+        public List<DataAnomaly> anomalies() {
+            called();
+            if (anomalies == null) {
+                anomaliesLoadCount.incrementAndGet();
+                anomalies = Collections.emptyList();
+            }
+            return anomalies;
+        }
+    }
+
+    private static final class TestTarget extends AbstractTargetMetadata {
+
+        private final FsId id;
+
+        TestTarget(CelestialObject celestialObject, FsId id) {
+            super(celestialObject, CadenceType.LONG, null);
+            this.id = id;
+        }
+
+        @Override
+        protected Set<FsId> allTimeSeriesIds() {
+            Set<FsId> ids = new HashSet<FsId>();
+            ids.add(id);
+            ids.add(SHARED_ID);
+            return ids;
+        }
+
+        @Override
+        public void addToLongCadenceFsIds(Map<FsId, TimeSeriesDataType> lcSet) {
+        }
+
+        @Override
+        public Set<FsId> rollingBandFlagsFsId(int externalTtableId) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<FsId> rollingBandFlagsOptimalApertureFsId(int externalTtableId) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public Set<FloatMjdTimeSeries> optimalApertureCollateralCosmicRays(
+            Map<FsId, FloatMjdTimeSeries> allSeries, int externalTtableId) {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public SortedMap<Pixel, FloatMjdTimeSeries> optimalApertureCosmicRays(
+            Map<FsId, FloatMjdTimeSeries> allSeries, int externalTtableId) {
+            return new TreeMap<Pixel, FloatMjdTimeSeries>();
+        }
+
+        @Override
+        public RollingBandFlags rollingBandFlags(int externalTargetTableId) {
+            return null;
+        }
+
+        @Override
+        public RollingBandFlags optimalApertureRollingBandFlags(int externalTargetTableId) {
+            return null;
+        }
+
+        @Override
+        public void setRollingBandFlags(RollingBandFlags rbFlags, int externalTtableId) {
+        }
+
+        @Override
+        public void setOptimalApertureRollingBandFlags(RollingBandFlags rbFlags,
+            int externalTtableId) {
+        }
+
+        @Override
+        public int hduCount() {
+            return 1;
+        }
+
+        @Override
+        public boolean hasData(Map<FsId, TimeSeries> allSeries,
+            Map<FsId, FloatMjdTimeSeries> allMjdTimeSeries) {
+            return allSeries.containsKey(id);
+        }
+
+        @Override
+        public void addToMjdTimeSeriesIds(Set<FsId> totalSet) {
+        }
+
+        @Override
+        public void addToTimeSeriesIds(Map<FsId, TimeSeriesDataType> totalSet) {
+            for (FsId fsId : allTimeSeriesIds()) {
+                totalSet.put(fsId, TimeSeriesDataType.IntType);
+            }
+        }
+    }
+}
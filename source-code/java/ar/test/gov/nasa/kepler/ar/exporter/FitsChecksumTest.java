@@ -39,6 +39,16 @@ package gov.nasa.kepler.ar.exporter;
 
 import static gov.nasa.kepler.common.FitsConstants.*;
 import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import nom.tam.fits.Header;
 import nom.tam.util.BufferedDataOutputStream;
 
@@ -72,4 +82,111 @@ public class FitsChecksumTest {
 //        h.write(bufFile);
         
     }
+    
+    @Test
+    public void unalignedWrites() throws Exception {
+        byte[] data = randomData(HDU_BLOCK_SIZE * 7);
+        String expected = referenceChecksum(data);
+        
+        Random rand = new Random(5);
+        FitsChecksumOutputStream checksumOutput = new FitsChecksumOutputStream();
+        for (int off = 0; off < data.length; ) {
+            int len = Math.min(data.length - off, rand.nextInt(37));
+            checksumOutput.write(data, off, len);
+            off += len;
+        }
+        assertEquals(expected, checksumOutput.checksumString());
+        
+        checksumOutput = new FitsChecksumOutputStream();
+        for (byte b : data) {
+            checksumOutput.write(b);
+        }
+        assertEquals(expected, checksumOutput.checksumString());
+    }
+    
+    @Test
+    public void directBuffer() throws Exception {
+        byte[] data = randomData(HDU_BLOCK_SIZE * 3);
+        ByteBuffer directBuffer = ByteBuffer.allocateDirect(data.length + 1);
+        directBuffer.put((byte) 1);
+        directBuffer.put(data);
+        directBuffer.flip();
+        directBuffer.get();
+        
+        FitsChecksum checksum = new FitsChecksum();
+        checksum.update(directBuffer);
+        assertEquals(0, directBuffer.remaining());
+        assertEquals(referenceChecksum(data), checksum.checksumString());
+    }
+    
+    @Test
+    public void fileChannelSegments() throws Exception {
+        byte[] data = randomData(HDU_BLOCK_SIZE * 301);
+        File testFile = File.createTempFile("fitsChecksum", ".fits");
+        testFile.deleteOnExit();
+        FileOutputStream fout = new FileOutputStream(testFile);
+        fout.write(data);
+        fout.close();
+        
+        String expected = referenceChecksum(data);
+        RandomAccessFile raf = new RandomAccessFile(testFile, "r");
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            FileChannel channel = raf.getChannel();
+            FitsChecksum checksum = new FitsChecksum();
+            checksum.update(channel, 0, data.length);
+            assertEquals(expected, checksum.checksumString());
+            
+            FitsChecksum merged = new FitsChecksum();
+            FitsChecksum first = new FitsChecksum();
+            first.update(channel, 0, HDU_BLOCK_SIZE * 100);
+            FitsChecksum second = new FitsChecksum();
+            second.update(channel, HDU_BLOCK_SIZE * 100, data.length - HDU_BLOCK_SIZE * 100);
+            merged.merge(first);
+            merged.merge(second);
+            assertEquals(expected, merged.checksumString());
+            
+            FitsChecksum parallel = 
+                FitsChecksum.checksum(channel, 0, data.length, executor, 4);
+            assertEquals(data.length, parallel.bytesUpdated());
+            assertEquals(expected, parallel.checksumString());
+        } finally {
+            executor.shutdown();
+            raf.close();
+        }
+    }
+    
+    @Test(expected=IllegalStateException.class)
+    public void partialHdu() throws Exception {
+        FitsChecksumOutputStream checksumOutput = new FitsChecksumOutputStream();
+        checksumOutput.write(new byte[HDU_BLOCK_SIZE - 4]);
+        checksumOutput.checksumString();
+    }
+    
+    private static byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+    
+    /**
+     * Sums one 16-bit word at a time and folds the carries as they happen.
+     */
+    private static String referenceChecksum(byte[] data) {
+        long hi = 0;
+        long low = 0;
+        for (int i = 0; i < data.length; i += 4) {
+            hi += ((data[i] & 0xff) << 8) | (data[i + 1] & 0xff);
+            low += ((data[i + 2] & 0xff) << 8) | (data[i + 3] & 0xff);
+            long hiCarry = hi >>> 16;
+            long lowCarry = low >>> 16;
+            while ((hiCarry | lowCarry) != 0) {
+                hi = (hi & 0xffffL) + lowCarry;
+                low = (low & 0xffffL) + hiCarry;
+                hiCarry = hi >>> 16;
+                lowCarry = low >>> 16;
+            }
+        }
+        return FitsChecksum.checksumEnc((hi << 16) | low, true);
+    }
 }
@@ -299,6 +299,7 @@ public class TestUtils {
             }
             allowing(mjdToCadence).cadenceType();
             will(returnValue(cadenceType));
+            allowing(mjdToCadence).cacheInterval(startCadence, endCadence, false);
         }
         });
         
@@ -46,6 +46,7 @@ import gov.nasa.kepler.cal.io.CommonParameters;
 import gov.nasa.kepler.common.Cadence.CadenceType;
 import gov.nasa.kepler.common.pi.CadenceTypePipelineParameters;
 import gov.nasa.kepler.fs.api.FsId;
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
 import gov.nasa.kepler.hibernate.mc.ObservingLogModel;
 import gov.nasa.kepler.hibernate.pi.DataAccountabilityTrail;
 import gov.nasa.kepler.hibernate.pi.DataAccountabilityTrailCrud;
@@ -64,6 +65,7 @@ import gov.nasa.kepler.mc.uow.ModOutCadenceUowTask;
 import gov.nasa.kepler.pi.models.ModelOperations;
 import gov.nasa.kepler.pi.module.*;
 import gov.nasa.spiffy.common.collect.Pair;
+import gov.nasa.spiffy.common.concurrent.DaemonThreadFactory;
 import gov.nasa.spiffy.common.pi.Parameters;
 import gov.nasa.spiffy.common.pi.PipelineException;
 
@@ -71,6 +73,7 @@ import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.*;
 
 import nom.tam.fits.FitsException;
 
@@ -96,6 +99,25 @@ implements AsyncPipelineModule{
 
     public static final String MODULE_NAME = "cal";
 
+    /**
+     * The number of threads used to read the pixel data of the work particles.
+     */
+    public static final String INPUTS_THREAD_COUNT_PROP = "cal.inputs.threadCount";
+    
+    /**
+     * The approximate number of bytes of work particles which may be held in
+     * memory waiting to be serialized.  Defaults to a quarter of the heap.
+     */
+    public static final String INPUTS_MAX_BYTES_PROP = "cal.inputs.maxBytesInFlight";
+    
+    private static final int MAX_DEFAULT_INPUTS_THREADS = 8;
+    
+    /**
+     * The uncalibrated time series read from the file store and the copy
+     * held by the CalInputs each need a value and a gap indicator per cadence.
+     */
+    private static final int BYTES_PER_PIXEL_CADENCE = 16;
+
     private PipelineTask pipelineTask;
 
     /**
@@ -276,32 +298,139 @@ implements AsyncPipelineModule{
 
         InputsGroup inputsGroup = inputsHandler.createGroup();
         Set<Long> producerTaskIds = Sets.newHashSet();
-        for (List<CalWorkParticle> subList : workParticles) {
-            
-            if (subList.isEmpty()) {
-                log.warn("Work particle list is empty.");
-                continue;
-            }
-            int firstParticleNumber = subList.get(0).particleNumber();
-            int lastParticleNumber = subList.get(subList.size() - 1).particleNumber();
-            inputsGroup.add(firstParticleNumber, lastParticleNumber);
-            //subTaskSequence.add(firstParticleNumber, lastParticleNumber);
-            for (CalWorkParticle workParticle : subList) {
-                CalWorkParticle identity = workParticle.call();  //This was once called in different threads.
-                if (identity == null) {
-                    throw new NullPointerException("Work particle " + workParticle + " is empty.");
+        int nThreads = inputsThreadCount();
+        int maxParticlesInFlight = maxParticlesInFlight(nThreads, maxChunkSize,
+            endCadence - startCadence + 1);
+        ExecutorService executor = null;
+        try {
+            for (List<CalWorkParticle> subList : workParticles) {
+                
+                if (subList.isEmpty()) {
+                    log.warn("Work particle list is empty.");
+                    continue;
+                }
+                int firstParticleNumber = subList.get(0).particleNumber();
+                int lastParticleNumber = subList.get(subList.size() - 1).particleNumber();
+                inputsGroup.add(firstParticleNumber, lastParticleNumber);
+                //subTaskSequence.add(firstParticleNumber, lastParticleNumber);
+                if (subList.size() == 1 || nThreads == 1) {
+                    for (CalWorkParticle workParticle : subList) {
+                        addSubTaskInputs(inputsGroup, producerTaskIds,
+                            workParticle, workParticle.call());
+                    }
+                    continue;
                 }
-                log.info("Generating input " + workParticle.particleNumber()+".");
-                CalInputs calInputs = workParticle.calInputs();
-                inputsGroup.addSubTaskInputs(calInputs);
-                workParticle.clear();
-                producerTaskIds.addAll(workParticle.producerTaskIds());
+                
+                if (executor == null) {
+                    log.info("Generating inputs with " + nThreads + 
+                        " threads and at most " + maxParticlesInFlight + 
+                        " work particles in memory.");
+                    executor = Executors.newFixedThreadPool(nThreads,
+                        new DaemonThreadFactory("cal-inputs"));
+                }
+                generateInputsInParallel(executor, maxParticlesInFlight,
+                    subList, inputsGroup, producerTaskIds);
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
             }
         }
 
         createProducerTaskIdsStream().write(workingDirectory, producerTaskIds);
     }
 
+    /**
+     * Reads the data for the work particles, which must be independent of
+     * each other, on the executor while serializing the completed inputs on
+     * the calling thread.  Inputs are serialized in particle order so
+     * particle numbers still match sub-task numbers.  At most
+     * maxParticlesInFlight particles are read but not yet serialized.
+     */
+    static void generateInputsInParallel(ExecutorService executor,
+        int maxParticlesInFlight, List<CalWorkParticle> subList,
+        InputsGroup inputsGroup, Set<Long> producerTaskIds) throws Exception {
+        
+        Queue<Pair<CalWorkParticle, Future<CalWorkParticle>>> inFlight = 
+            new ArrayDeque<Pair<CalWorkParticle, Future<CalWorkParticle>>>();
+        Iterator<CalWorkParticle> it = subList.iterator();
+        try {
+            while (it.hasNext() || !inFlight.isEmpty()) {
+                while (it.hasNext() && inFlight.size() < maxParticlesInFlight) {
+                    CalWorkParticle workParticle = it.next();
+                    inFlight.add(Pair.of(workParticle, executor.submit(workParticle)));
+                }
+                Pair<CalWorkParticle, Future<CalWorkParticle>> next = inFlight.remove();
+                addSubTaskInputs(inputsGroup, producerTaskIds, next.left,
+                    waitForParticle(next.right));
+            }
+        } finally {
+            for (Pair<CalWorkParticle, Future<CalWorkParticle>> abandoned : inFlight) {
+                abandoned.right.cancel(true);
+            }
+        }
+    }
+    
+    private static CalWorkParticle waitForParticle(Future<CalWorkParticle> future) 
+        throws Exception {
+        
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PipelineException("Interrupted while generating inputs.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+    
+    private static void addSubTaskInputs(InputsGroup inputsGroup,
+        Set<Long> producerTaskIds, CalWorkParticle workParticle, 
+        CalWorkParticle identity) {
+        
+        if (identity == null) {
+            throw new NullPointerException("Work particle " + workParticle + " is empty.");
+        }
+        log.info("Generating input " + workParticle.particleNumber()+".");
+        CalInputs calInputs = workParticle.calInputs();
+        inputsGroup.addSubTaskInputs(calInputs);
+        workParticle.clear();
+        producerTaskIds.addAll(workParticle.producerTaskIds());
+    }
+    
+    /**
+     * The number of threads used to read the data of the work particles.  The
+     * default is the number of cores, up to {@link #MAX_DEFAULT_INPUTS_THREADS}.
+     */
+    protected int inputsThreadCount() {
+        int defaultThreadCount = Math.min(MAX_DEFAULT_INPUTS_THREADS,
+            Runtime.getRuntime().availableProcessors());
+        return Math.max(1, ConfigurationServiceFactory.getInstance()
+            .getInt(INPUTS_THREAD_COUNT_PROP, defaultThreadCount));
+    }
+    
+    /**
+     * The number of work particles which fit in the
+     * {@link #INPUTS_MAX_BYTES_PROP} budget, but never more than twice the
+     * number of threads and never less than one.
+     */
+    static int maxParticlesInFlight(int nThreads, int maxChunkSize, int nCadences) {
+        long defaultMaxBytes = Runtime.getRuntime().maxMemory() / 4;
+        long maxBytes = ConfigurationServiceFactory.getInstance()
+            .getLong(INPUTS_MAX_BYTES_PROP, defaultMaxBytes);
+        long particleBytes = Math.max(1L, 
+            (long) maxChunkSize * nCadences * BYTES_PER_PIXEL_CADENCE);
+        long nParticles = Math.min(maxBytes / particleBytes, 2L * nThreads);
+        return (int) Math.max(1L, nParticles);
+    }
+
     private static Map<FsId, Pixel> findPixels(PmrfOperations pmrfOps, 
         CadenceType cadenceType, int sciTargetTableId, int ccdModule, int ccdOutput,
         int bkgTargetTableId) {
@@ -38,6 +38,7 @@
 package gov.nasa.kepler.cal;
 
 import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
 import gov.nasa.kepler.cal.io.CalCosmicRayParameters;
 import gov.nasa.kepler.cal.io.CalHarmonicsIdentificationParameters;
 import gov.nasa.kepler.cal.io.CalInputs;
@@ -69,9 +70,13 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.Sequence;
 import org.jmock.integration.junit4.JMock;
 import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.Before;
@@ -82,6 +87,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 @RunWith(JMock.class)
 public class CalPipelineModuleTest {
@@ -216,6 +222,70 @@ public class CalPipelineModuleTest {
         calPipelineModule.processOutputs(pipelineTask, resultsList.iterator());
     }
     
+    @Test
+    public void maxParticlesInFlightTest() {
+        assertEquals(8, CalPipelineModule.maxParticlesInFlight(4, 1, 1));
+        assertEquals(1, CalPipelineModule.maxParticlesInFlight(4, 
+            1 << 20, 1 << 20));
+    }
+    
+    /**
+     * The work particles finish in the reverse of their particle order, but
+     * their inputs must still be serialized in particle order so that each
+     * particle number is its sub-task number.
+     */
+    @Test
+    public void particlesFinishOutOfOrderTest() throws Exception {
+        final int nParticles = 4;
+        final List<Integer> finishOrder = 
+            Collections.synchronizedList(Lists.<Integer>newArrayList());
+        final CalInputs[] particleInputs = new CalInputs[nParticles];
+        final CountDownLatch[] mayFinish = new CountDownLatch[nParticles];
+        for (int i=0; i < nParticles; i++) {
+            particleInputs[i] = new CalInputs();
+            mayFinish[i] = new CountDownLatch(i == nParticles - 1 ? 0 : 1);
+        }
+        
+        List<CalWorkParticle> particles = newArrayList();
+        for (int i=0; i < nParticles; i++) {
+            final int particleNumber = i;
+            particles.add(new CalWorkParticle(null, particleNumber, nParticles) {
+                @Override
+                public CalWorkParticle call() throws Exception {
+                    mayFinish[particleNumber].await();
+                    calInputs = particleInputs[particleNumber];
+                    producerTaskIds = ImmutableSet.of((long) particleNumber);
+                    finishOrder.add(particleNumber);
+                    if (particleNumber > 0) {
+                        mayFinish[particleNumber - 1].countDown();
+                    }
+                    return this;
+                }
+            });
+        }
+        
+        final InputsGroup inputsGroup = mockery.mock(InputsGroup.class);
+        final Sequence subTasks = mockery.sequence("subTasks");
+        mockery.checking(new Expectations() {{
+            for (int i=0; i < nParticles; i++) {
+                one(inputsGroup).addSubTaskInputs(with(same(particleInputs[i])));
+                inSequence(subTasks);
+            }
+        }});
+        
+        Set<Long> producerTaskIds = Sets.newHashSet();
+        ExecutorService executor = Executors.newFixedThreadPool(nParticles);
+        try {
+            CalPipelineModule.generateInputsInParallel(executor, nParticles,
+                particles, inputsGroup, producerTaskIds);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(ImmutableList.of(3, 2, 1, 0), finishOrder);
+        assertEquals(ImmutableSet.of(0L, 1L, 2L, 3L), producerTaskIds);
+    }
+    
     private ProducerTaskIdsStream createProducerTaskIdsStream(final File blobDir) {
         final ProducerTaskIdsStream ptis = mockery.mock(ProducerTaskIdsStream.class);
         final Set<Long> originatorSet = ImmutableSet.of(originator);
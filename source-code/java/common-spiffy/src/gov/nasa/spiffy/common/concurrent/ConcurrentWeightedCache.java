@@ -0,0 +1,508 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.spiffy.common.concurrent;
+
+import gov.nasa.spiffy.common.collect.Cache;
+
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded cache where get() does not take a lock.  Entries are kept in a
+ * ConcurrentHashMap.  Reads are recorded in small, lossy, striped buffers
+ * and writes are queued; both are replayed against the replacement policy
+ * by whichever thread acquires the eviction lock.
+ * 
+ * The replacement policy is a small LRU admission window in front of a
+ * main LRU region.  When an entry leaves the window it must be used more
+ * frequently than the LRU entry of the main region in order to displace it.
+ * The frequencies are estimated with a count-min sketch that is
+ * periodically halved so old popularity fades.  This keeps one-hit
+ * wonders, like a scan through many files, from flushing the entries that
+ * are used over and over.
+ * 
+ * The cache is bounded by the total weight of its entries.  Each entry
+ * weighs one unless a {@link Weigher} is specified.
+ * 
+ * Like ConcurrentLruCache this does not store null keys or values.
+ */
+public class ConcurrentWeightedCache<K,V> implements Cache<K, V> {
+
+    private static final Map<ConcurrentWeightedCache<?,?>, Object> allCaches =
+        Collections.synchronizedMap(new WeakHashMap<ConcurrentWeightedCache<?, ?>, Object>());
+    
+    private static final int READ_BUFFER_SIZE = 32;
+    
+    public static void clearAllCaches() {
+        boolean done = false;
+        while (!done) {
+            try {
+                for (ConcurrentWeightedCache<?, ?> c : allCaches.keySet()) {
+                    c.clear();
+                }
+                done = true;
+            } catch (ConcurrentModificationException cmx) {
+                //This can happen if the garbage collector collects an entry
+                //while iterating through this collection.
+            }
+        }
+    }
+    
+    /**
+     * Computes the weight of a cache entry.
+     */
+    public interface Weigher<K,V> {
+        /**
+         * @return a non-negative weight.
+         */
+        int weightOf(K key, V value);
+    }
+    
+    private final ConcurrentHashMap<K, Node<K,V>> data;
+    private final Weigher<? super K, ? super V> weigher;
+    
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final ConcurrentLinkedQueue<Node<K,V>> addBuffer = 
+        new ConcurrentLinkedQueue<Node<K,V>>();
+    private final ConcurrentLinkedQueue<Node<K,V>> removeBuffer =
+        new ConcurrentLinkedQueue<Node<K,V>>();
+    private final AtomicReferenceArray<Node<K,V>>[] readBuffers;
+    private final AtomicInteger[] readBufferCounts;
+    
+    /** These are protected by the eviction lock. */
+    private final long maxWeight;
+    private final long maxWindowWeight;
+    private final Node<K,V> window = new Node<K,V>(null, null, 0);
+    private final Node<K,V> main = new Node<K,V>(null, null, 0);
+    private long windowWeight = 0;
+    private long mainWeight = 0;
+    private final FrequencySketch sketch;
+    
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    
+    /**
+     * Every entry weighs one.
+     * 
+     * @param capacity the maximum number of entries.
+     */
+    public ConcurrentWeightedCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * @param maxWeight the maximum total weight of the entries.
+     * @param weigher this may be null in which case every entry weighs one.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentWeightedCache(long maxWeight, Weigher<? super K, ? super V> weigher) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive.");
+        }
+        
+        this.maxWeight = maxWeight;
+        this.maxWindowWeight = Math.max(1, maxWeight / 100);
+        this.weigher = weigher;
+        
+        int expectedSize = (int) Math.min(maxWeight, 1 << 20);
+        data = new ConcurrentHashMap<K, Node<K,V>>(Math.min(expectedSize, 1024 * 16));
+        sketch = new FrequencySketch(expectedSize);
+        
+        window.prev = window.next = window;
+        main.prev = main.next = main;
+        
+        int nStripes = ConcurrentUtil.numberOfConcurrentBins(1);
+        readBuffers = new AtomicReferenceArray[nStripes];
+        readBufferCounts = new AtomicInteger[nStripes];
+        for (int i=0; i < nStripes; i++) {
+            readBuffers[i] = new AtomicReferenceArray<Node<K,V>>(READ_BUFFER_SIZE);
+            readBufferCounts[i] = new AtomicInteger();
+        }
+        
+        allCaches.put(this, Boolean.TRUE);
+    }
+    
+    @Override
+    public V get(Object key) {
+        Node<K,V> node = data.get(key);
+        if (node == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        recordRead(node);
+        return node.value;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        if (key == null || value == null) {
+            throw new NullPointerException("Null keys and values are not supported.");
+        }
+        int weight = (weigher == null) ? 1 : weigher.weightOf(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("Negative weight " + weight + ".");
+        }
+        
+        Node<K,V> node = new Node<K,V>(key, value, weight);
+        Node<K,V> prior = data.put(key, node);
+        addBuffer.add(node);
+        if (prior != null) {
+            removeBuffer.add(prior);
+        }
+        drainBuffers(true);
+        return (prior == null) ? null : prior.value;
+    }
+
+    @Override
+    public V remove(Object key) {
+        Node<K,V> prior = data.remove(key);
+        if (prior == null) {
+            return null;
+        }
+        removeBuffer.add(prior);
+        drainBuffers(false);
+        return prior.value;
+    }
+    
+    public void clear() {
+        evictionLock.lock();
+        try {
+            for (Node<K,V> node : data.values()) {
+                removeBuffer.add(node);
+            }
+            data.clear();
+            drainBuffersUnderLock();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    public int size() {
+        return data.size();
+    }
+    
+    /**
+     * @return The total weight of the entries that have been accounted for by
+     * the replacement policy.
+     */
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            drainBuffersUnderLock();
+            return windowWeight + mainWeight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    public long maxWeight() {
+        return maxWeight;
+    }
+    
+    public long hitCount() {
+        return hitCount.get();
+    }
+    
+    public long missCount() {
+        return missCount.get();
+    }
+    
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+    
+    public void resetCounters() {
+        hitCount.set(0);
+        missCount.set(0);
+        evictionCount.set(0);
+    }
+    
+    /**
+     * Records the read in the buffer stripe of this thread.  If the buffer
+     * is full the read is dropped, it only affects the replacement policy.
+     */
+    private void recordRead(Node<K,V> node) {
+        int stripe = (int) ((Thread.currentThread().getId() & 0x7FFFFFFF) % readBuffers.length);
+        int index = readBufferCounts[stripe].getAndIncrement();
+        if (index < READ_BUFFER_SIZE) {
+            readBuffers[stripe].lazySet(index, node);
+        }
+        if (index >= READ_BUFFER_SIZE - 1) {
+            drainBuffers(false);
+        }
+    }
+    
+    /**
+     * @param mustDrain when true this waits for the eviction lock so the
+     * weight bound is enforced before returning.  Otherwise this gives up if
+     * some other thread is already draining.
+     */
+    private void drainBuffers(boolean mustDrain) {
+        if (mustDrain) {
+            evictionLock.lock();
+        } else if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            drainBuffersUnderLock();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+    
+    private void drainBuffersUnderLock() {
+        for (int stripe=0; stripe < readBuffers.length; stripe++) {
+            int count = Math.min(READ_BUFFER_SIZE, readBufferCounts[stripe].get());
+            for (int i=0; i < count; i++) {
+                Node<K,V> node = readBuffers[stripe].getAndSet(i, null);
+                if (node != null) {
+                    onRead(node);
+                }
+            }
+            readBufferCounts[stripe].set(0);
+        }
+        
+        Node<K,V> node;
+        while ((node = addBuffer.poll()) != null) {
+            onAdd(node);
+        }
+        while ((node = removeBuffer.poll()) != null) {
+            retire(node);
+        }
+        
+        evict();
+    }
+    
+    private void onRead(Node<K,V> node) {
+        sketch.increment(node.key);
+        if (!node.isLinked()) {
+            return;
+        }
+        node.unlink();
+        node.linkBefore(node.inWindow ? window : main);
+    }
+    
+    private void onAdd(Node<K,V> node) {
+        if (node.retired) {
+            return;
+        }
+        sketch.increment(node.key);
+        node.inWindow = true;
+        node.linkBefore(window);
+        windowWeight += node.weight;
+    }
+    
+    private void retire(Node<K,V> node) {
+        if (node.retired) {
+            return;
+        }
+        node.retired = true;
+        if (!node.isLinked()) {
+            return;
+        }
+        node.unlink();
+        if (node.inWindow) {
+            windowWeight -= node.weight;
+        } else {
+            mainWeight -= node.weight;
+        }
+    }
+    
+    /**
+     * Moves entries that have overflowed the window into the main region. If
+     * the cache is then too heavy the candidate from the window and the LRU
+     * entry of the main region compete on frequency.
+     */
+    private void evict() {
+        while (windowWeight > maxWindowWeight) {
+            Node<K,V> candidate = window.next;
+            candidate.unlink();
+            windowWeight -= candidate.weight;
+            candidate.inWindow = false;
+            candidate.linkBefore(main);
+            mainWeight += candidate.weight;
+            
+            while (windowWeight + mainWeight > maxWeight) {
+                Node<K,V> victim = main.next;
+                if (victim == candidate || 
+                    sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    evictNode(candidate);
+                    break;
+                }
+                evictNode(victim);
+            }
+        }
+        
+        while (windowWeight + mainWeight > maxWeight) {
+            evictNode((main.next != main) ? main.next : window.next);
+        }
+    }
+    
+    private void evictNode(Node<K,V> node) {
+        data.remove(node.key, node);
+        retire(node);
+        evictionCount.incrementAndGet();
+    }
+    
+    private static final class Node<K,V> {
+        final K key;
+        final V value;
+        final int weight;
+        
+        /** These are protected by the eviction lock. */
+        Node<K,V> prev;
+        Node<K,V> next;
+        boolean inWindow;
+        boolean retired;
+        
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+        
+        boolean isLinked() {
+            return next != null;
+        }
+        
+        void linkBefore(Node<K,V> sentinel) {
+            next = sentinel;
+            prev = sentinel.prev;
+            prev.next = this;
+            sentinel.prev = this;
+        }
+        
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+    }
+    
+    /**
+     * A count-min sketch with four bit counters.  Each long holds sixteen
+     * counters; an item uses one counter in each of four longs.  When the
+     * number of increments reaches ten times the table size all the counters
+     * are halved.  This is not MT-safe.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+            0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+        
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size;
+        
+        FrequencySketch(int expectedSize) {
+            int tableSize = Integer.highestOneBit(Math.max(2, expectedSize) - 1) << 1;
+            table = new long[tableSize];
+            tableMask = tableSize - 1;
+            sampleSize = 10 * tableSize;
+        }
+        
+        int frequency(Object item) {
+            int hash = spread(item.hashCode());
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i=0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+        
+        void increment(Object item) {
+            int hash = spread(item.hashCode());
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i=0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++size == sampleSize) {
+                reset();
+            }
+        }
+        
+        private boolean incrementAt(int index, int counter) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+        
+        private void reset() {
+            int oddCounters = 0;
+            for (int i=0; i < table.length; i++) {
+                oddCounters += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size >>> 1) - (oddCounters >>> 2);
+        }
+        
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int) h) & tableMask;
+        }
+        
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+}
@@ -41,13 +41,20 @@ import gov.nasa.spiffy.common.collect.Cache;
 import gov.nasa.spiffy.common.collect.LruCache;
 
 /**
- * Also keeps thread local copies of frequently used cache entries.  Somewhat less
- * LRU than ConcurrentLruCache.  Changes to the cache are written through to 
- * the primary cache.  But changes to the primary cache are not reflected in
- * the thread local caches.  The thread local caches are not coherent either.
- * This can lead to problem if you expect the return values from put() or 
- * remove to be consistent.  get() may return different values from different
- * threads.
+ * A two level cache.  The L2 cache is a {@link ConcurrentWeightedCache} of
+ * the given capacity shared by all threads.  In front of it each thread has
+ * an L1 {@link LruCache} of the few entries it used most recently.  get()
+ * only consults the L2 cache when the entry is not in the L1 cache of the
+ * calling thread, so hits in an L1 cache are not seen by the replacement
+ * policy of the L2 cache and entries that a thread uses heavily may be
+ * evicted from the L2 cache while that thread still holds them.
+ * 
+ * Changes to the cache are written through to the L2 cache and to the L1
+ * cache of the calling thread.  But changes to the L2 cache are not
+ * reflected in the L1 caches of other threads.  The L1 caches are not
+ * coherent either.  This can lead to problem if you expect the return values
+ * from put() or remove to be consistent.  get() may return different values
+ * from different threads.
  * 
  * @author Sean McCauliff
  *
@@ -63,10 +70,10 @@ public class MultiLevelConcurrentLruCache<K,V> implements Cache<K, V> {
         }
     };
     
-    private final ConcurrentLruCache<K, V> L2Cache;
+    private final ConcurrentWeightedCache<K, V> L2Cache;
     
     public MultiLevelConcurrentLruCache(int capacity) {
-        L2Cache = new ConcurrentLruCache<K, V>(capacity);
+        L2Cache = new ConcurrentWeightedCache<K, V>(capacity);
     }
     
     @SuppressWarnings("unchecked")
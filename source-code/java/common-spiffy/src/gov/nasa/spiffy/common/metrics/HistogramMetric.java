@@ -0,0 +1,359 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.spiffy.common.metrics;
+
+import gov.nasa.spiffy.common.collect.Pair;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A metric which keeps the distribution of the values added to it so that
+ * percentiles like the median and the 99th percentile can be reported in
+ * addition to the min, max and mean kept by ValueMetric.
+ * 
+ * Values are counted in logarithmic buckets.  Values less than 16 have their
+ * own bucket, larger values share a bucket with values that have the same
+ * highest 5 bits so a reported percentile is within 1/16 of the true
+ * value.  Negative values are counted as zero.
+ * 
+ * Adding a value does not lock; bucket counts are updated with atomic
+ * increments and the sum is striped over several counters so that threads
+ * recording at the same time do not contend on a single monitor.  Reads
+ * are not an atomic snapshot of concurrent updates.
+ */
+public class HistogramMetric extends Metric implements Serializable {
+
+    private static final long serialVersionUID = -4166004806424342402L;
+
+    public static final String HISTOGRAM_TYPE = "H";
+    
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int N_BUCKETS = SUB_BUCKETS * (64 - SUB_BUCKET_BITS);
+    
+    /** Number of sum counters.  This must be a power of two. */
+    private static final int SUM_STRIPES = 8;
+    /** Keep each sum counter on its own cache line. */
+    private static final int SUM_STRIPE_PAD = 8;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(N_BUCKETS);
+    private final AtomicLongArray sums = new AtomicLongArray(SUM_STRIPES * SUM_STRIPE_PAD);
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    
+    protected HistogramMetric(String name) {
+        setName(name);
+    }
+    
+    public static HistogramMetric addValue(String name, long value) {
+        Pair<HistogramMetric, HistogramMetric> m = getHistogramMetric(name);
+        m.left.addValue(value);
+        if (m.right != null) {
+            m.right.addValue(value);
+        }
+        return m.left;
+    }
+    
+    /**
+     * Use this with stop() to time an interval.
+     */
+    public static IntervalMetricKey start() {
+        return IntervalMetric.start();
+    }
+    
+    /**
+     * Adds the time, in milliseconds, since the key was started.
+     */
+    public static HistogramMetric stop(String name, IntervalMetricKey key) {
+        return addValue(name, System.currentTimeMillis() - key.getStartTime());
+    }
+    
+    protected static Pair<HistogramMetric, HistogramMetric> getHistogramMetric(String name) {
+        Metric globalMetric = Metric.getGlobalMetric(name);
+        if ((globalMetric == null) || !(globalMetric instanceof HistogramMetric)) {
+            globalMetric = Metric.addNewGlobalMetric(new HistogramMetric(name));
+        }
+
+        Metric threadMetric = null;
+        if (Metric.threadMetricsEnabled()) {
+            threadMetric = Metric.getThreadMetric(name);
+            if ((threadMetric == null) || !(threadMetric instanceof HistogramMetric)) {
+                threadMetric = addNewThreadMetric(new HistogramMetric(name));
+            }
+        }
+
+        return Pair.of((HistogramMetric) globalMetric, (HistogramMetric) threadMetric);
+    }
+    
+    protected void addValue(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketIndex(value));
+        int stripe = (int) (Thread.currentThread().getId() & (SUM_STRIPES - 1));
+        sums.addAndGet(stripe * SUM_STRIPE_PAD, value);
+        
+        for (long currentMin = min.get(); value < currentMin; currentMin = min.get()) {
+            if (min.compareAndSet(currentMin, value)) {
+                break;
+            }
+        }
+        for (long currentMax = max.get(); value > currentMax; currentMax = max.get()) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+    
+    /**
+     * @param value non-negative
+     * @return The index of the bucket which counts the value.
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+    
+    /**
+     * @return The smallest value counted by the specified bucket.
+     */
+    static long bucketLowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long subBucket = index & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+    
+    /**
+     * @return The largest value counted by the specified bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index == N_BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+        return bucketLowerBound(index + 1) - 1;
+    }
+    
+    public int getCount() {
+        long count = 0;
+        for (int i=0; i < N_BUCKETS; i++) {
+            count += buckets.get(i);
+        }
+        return (int) count;
+    }
+    
+    public long getSum() {
+        long sum = 0;
+        for (int i=0; i < SUM_STRIPES; i++) {
+            sum += sums.get(i * SUM_STRIPE_PAD);
+        }
+        return sum;
+    }
+    
+    public double getAverage() {
+        int count = getCount();
+        if (count > 0) {
+            return ((double) getSum()) / ((double) count);
+        }
+        return 0;
+    }
+    
+    public long getMin() {
+        long v = min.get();
+        return (v == Long.MAX_VALUE) ? 0 : v;
+    }
+    
+    public long getMax() {
+        long v = max.get();
+        return (v == Long.MIN_VALUE) ? 0 : v;
+    }
+    
+    /**
+     * @param quantile A number in [0,1], for example 0.99 for the 99th
+     * percentile.
+     * @return The largest value which may have been counted in the same
+     * bucket as the value at the specified quantile, this is never more than
+     * the max.  Returns zero when no values have been added.
+     */
+    public long getPercentile(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("quantile " + quantile + 
+                " is not in the range [0,1].");
+        }
+        
+        long[] counts = new long[N_BUCKETS];
+        long total = 0;
+        for (int i=0; i < N_BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        
+        long rank = Math.max(1L, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i=0; i < N_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long value = Math.min(bucketUpperBound(i), getMax());
+                return Math.max(value, getMin());
+            }
+        }
+        return getMax();
+    }
+    
+    @Override
+    public void toLogString(StringBuilder bldr) {
+        bldr.append(name).append(',').append(HISTOGRAM_TYPE).append(',')
+            .append(getMin()).append(',').append(getMax()).append(',')
+            .append(getAverage()).append(',').append(getCount()).append(',')
+            .append(getSum()).append(',')
+            .append(getPercentile(0.5)).append(',')
+            .append(getPercentile(0.9)).append(',')
+            .append(getPercentile(0.99)).append(',')
+            .append(getPercentile(0.999));
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder bldr = new StringBuilder();
+        bldr.append("mean: ").append(getAverage())
+            .append(", min: ").append(getMin())
+            .append(", max: ").append(getMax())
+            .append(", count: ").append(getCount())
+            .append(", sum: ").append(getSum())
+            .append(", p50: ").append(getPercentile(0.5))
+            .append(", p90: ").append(getPercentile(0.9))
+            .append(", p99: ").append(getPercentile(0.99))
+            .append(", p999: ").append(getPercentile(0.999));
+        return bldr.toString();
+    }
+
+    @Override
+    public void merge(Metric other) {
+        if (!(other instanceof HistogramMetric)) {
+            throw new IllegalArgumentException("Specified Metric is not a HistogramMetric, type=" + 
+                other.getClass().getName());
+        }
+        HistogramMetric otherHm = (HistogramMetric) other;
+        for (int i=0; i < N_BUCKETS; i++) {
+            long count = otherHm.buckets.get(i);
+            if (count != 0) {
+                buckets.addAndGet(i, count);
+            }
+        }
+        sums.addAndGet(0, otherHm.getSum());
+        if (otherHm.getCount() != 0) {
+            addExtremes(otherHm.min.get(), otherHm.max.get());
+        }
+    }
+    
+    private void addExtremes(long otherMin, long otherMax) {
+        for (long currentMin = min.get(); otherMin < currentMin; currentMin = min.get()) {
+            if (min.compareAndSet(currentMin, otherMin)) {
+                break;
+            }
+        }
+        for (long currentMax = max.get(); otherMax > currentMax; currentMax = max.get()) {
+            if (max.compareAndSet(currentMax, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public HistogramMetric makeCopy() {
+        HistogramMetric copy = new HistogramMetric(name);
+        copy.merge(this);
+        return copy;
+    }
+
+    @Override
+    protected void reset() {
+        for (int i=0; i < N_BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        for (int i=0; i < SUM_STRIPES; i++) {
+            sums.set(i * SUM_STRIPE_PAD, 0);
+        }
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+    
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = super.hashCode();
+        result = prime * result + getCount();
+        long sum = getSum();
+        result = prime * result + (int) (sum ^ (sum >>> 32));
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!super.equals(obj))
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        final HistogramMetric other = (HistogramMetric) obj;
+        if (getSum() != other.getSum())
+            return false;
+        if (min.get() != other.min.get())
+            return false;
+        if (max.get() != other.max.get())
+            return false;
+        for (int i=0; i < N_BUCKETS; i++) {
+            if (buckets.get(i) != other.buckets.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
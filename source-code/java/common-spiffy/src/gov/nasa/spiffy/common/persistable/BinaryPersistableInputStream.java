@@ -39,6 +39,13 @@ package gov.nasa.spiffy.common.persistable;
 
 import java.io.DataInput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -61,11 +68,36 @@ public class BinaryPersistableInputStream extends PersistableInputStream {
     private DataInput input = null;
     private boolean bigEndian = true;
 
+    /** Non-null when primitive arrays can be decoded directly from a mapping. */
+    private final MappedFileDataInput mappedInput;
+    private final ByteOrder byteOrder;
+    private final byte[] chunk = new byte[BinaryPersistableOutputStream.ARRAY_CHUNK_SIZE];
+    private final ShortBuffer shortChunk;
+    private final IntBuffer intChunk;
+    private final LongBuffer longChunk;
+    private final FloatBuffer floatChunk;
+    private final DoubleBuffer doubleChunk;
+
     public BinaryPersistableInputStream(DataInput input) {
         this.input = input;
         if (System.getProperty("sun.cpu.endian").equals("little")) {
             bigEndian = false;
         }
+        
+        byteOrder = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        if (input instanceof MappedFileDataInput) {
+            mappedInput = (MappedFileDataInput) input;
+        } else {
+            mappedInput = null;
+        }
+        
+        ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+        chunkBuffer.order(byteOrder);
+        shortChunk = chunkBuffer.asShortBuffer();
+        intChunk = chunkBuffer.asIntBuffer();
+        longChunk = chunkBuffer.asLongBuffer();
+        floatChunk = chunkBuffer.asFloatBuffer();
+        doubleChunk = chunkBuffer.asDoubleBuffer();
     }
     
     @Override
@@ -163,4 +195,106 @@ public class BinaryPersistableInputStream extends PersistableInputStream {
         T e = Enum.valueOf(clazz, s);
         return e;
     }
+
+    @Override
+    protected void readBooleanArray(boolean[] data) throws IOException {
+        for (int off=0; off < data.length; off += chunk.length) {
+            int n = Math.min(chunk.length, data.length - off);
+            input.readFully(chunk, 0, n);
+            for (int i=0; i < n; i++) {
+                data[off + i] = chunk[i] != 0;
+            }
+        }
+    }
+
+    @Override
+    protected void readByteArray(byte[] data) throws IOException {
+        input.readFully(data);
+    }
+
+    @Override
+    protected void readCharArray(char[] data) throws IOException {
+        for (int off=0; off < data.length; off += chunk.length) {
+            int n = Math.min(chunk.length, data.length - off);
+            input.readFully(chunk, 0, n);
+            for (int i=0; i < n; i++) {
+                data[off + i] = (char) chunk[i];
+            }
+        }
+    }
+
+    @Override
+    protected void readShortArray(short[] data) throws IOException {
+        if (mappedInput != null) {
+            mappedInput.readShorts(data, 0, data.length, byteOrder);
+            return;
+        }
+        final int chunkLength = chunk.length / 2;
+        for (int off=0; off < data.length; off += chunkLength) {
+            int n = Math.min(chunkLength, data.length - off);
+            input.readFully(chunk, 0, n * 2);
+            shortChunk.clear();
+            shortChunk.get(data, off, n);
+        }
+    }
+
+    @Override
+    protected void readIntArray(int[] data) throws IOException {
+        if (mappedInput != null) {
+            mappedInput.readInts(data, 0, data.length, byteOrder);
+            return;
+        }
+        final int chunkLength = chunk.length / 4;
+        for (int off=0; off < data.length; off += chunkLength) {
+            int n = Math.min(chunkLength, data.length - off);
+            input.readFully(chunk, 0, n * 4);
+            intChunk.clear();
+            intChunk.get(data, off, n);
+        }
+    }
+
+    @Override
+    protected void readLongArray(long[] data) throws IOException {
+        if (mappedInput != null) {
+            mappedInput.readLongs(data, 0, data.length, byteOrder);
+            return;
+        }
+        final int chunkLength = chunk.length / 8;
+        for (int off=0; off < data.length; off += chunkLength) {
+            int n = Math.min(chunkLength, data.length - off);
+            input.readFully(chunk, 0, n * 8);
+            longChunk.clear();
+            longChunk.get(data, off, n);
+        }
+    }
+
+    @Override
+    protected void readFloatArray(float[] data) throws IOException {
+        if (mappedInput != null) {
+            mappedInput.readFloats(data, 0, data.length, byteOrder);
+            return;
+        }
+        final int chunkLength = chunk.length / 4;
+        for (int off=0; off < data.length; off += chunkLength) {
+            int n = Math.min(chunkLength, data.length - off);
+            input.readFully(chunk, 0, n * 4);
+            floatChunk.clear();
+            floatChunk.get(data, off, n);
+        }
+    }
+
+    @Override
+    protected void readDoubleArray(double[] data) throws IOException {
+        if (mappedInput != null) {
+            mappedInput.readDoubles(data, 0, data.length, byteOrder);
+            return;
+        }
+        final int chunkLength = chunk.length / 8;
+        for (int off=0; off < data.length; off += chunkLength) {
+            int n = Math.min(chunkLength, data.length - off);
+            input.readFully(chunk, 0, n * 8);
+            doubleChunk.clear();
+            doubleChunk.get(data, off, n);
+        }
+    }
 }
@@ -39,6 +39,13 @@ package gov.nasa.spiffy.common.persistable;
 
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Stack;
@@ -58,12 +65,25 @@ import org.apache.commons.logging.LogFactory;
 public class BinaryPersistableOutputStream extends PersistableOutputStream {
     private static final Log log = LogFactory.getLog(BinaryPersistableOutputStream.class);
 
+    /** Primitive arrays are encoded this many bytes at a time. */
+    static final int ARRAY_CHUNK_SIZE = 64 * 1024;
+
     private DataOutput output = null;
     private boolean bigEndian = true;
     private Stack<Struct> currentPath = new Stack<Struct>();
     private BinaryPersistableFilter filter = null;
     private boolean filteringEnabled = false;
     
+    /** Non-null when primitive arrays can be encoded directly into a mapping. */
+    private final MappedFileDataOutput mappedOutput;
+    private final ByteOrder byteOrder;
+    private final byte[] chunk = new byte[ARRAY_CHUNK_SIZE];
+    private final ShortBuffer shortChunk;
+    private final IntBuffer intChunk;
+    private final LongBuffer longChunk;
+    private final FloatBuffer floatChunk;
+    private final DoubleBuffer doubleChunk;
+    
     /**
      * Used to track the nesting level as we serialize the object tree.
      * This information supports filtering (including only sub-ranges
@@ -93,6 +113,21 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if (System.getProperty("sun.cpu.endian").equals("little")) {
             bigEndian = false;
         }
+        
+        byteOrder = bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+        if (output instanceof MappedFileDataOutput) {
+            mappedOutput = (MappedFileDataOutput) output;
+        } else {
+            mappedOutput = null;
+        }
+        
+        ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+        chunkBuffer.order(byteOrder);
+        shortChunk = chunkBuffer.asShortBuffer();
+        intChunk = chunkBuffer.asIntBuffer();
+        longChunk = chunkBuffer.asLongBuffer();
+        floatChunk = chunkBuffer.asFloatBuffer();
+        doubleChunk = chunkBuffer.asDoubleBuffer();
     }
     
     private void pushPath(String fieldName, boolean array, int arrayLength){
@@ -348,8 +383,12 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if(!filteringEnabled){
             final int length = data.length;
             writeInt(fieldName, length);
-            for (int i=0; i < length; i++) {
-                writeBoolean(fieldName, data[i]);
+            for (int off=0; off < length; off += ARRAY_CHUNK_SIZE) {
+                int n = Math.min(ARRAY_CHUNK_SIZE, length - off);
+                for (int i=0; i < n; i++) {
+                    chunk[i] = (byte) (data[off + i] ? 1 : 0);
+                }
+                output.write(chunk, 0, n);
             }
         }
     }
@@ -359,9 +398,7 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if(!filteringEnabled){
             final int length = data.length;
             writeInt(fieldName, length);
-            for (int i=0; i < length; i++) {
-                writeByte(fieldName, data[i]);
-            }        
+            output.write(data);
         }
     }
 
@@ -370,9 +407,13 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if(!filteringEnabled){
             final int length = data.length;
             writeInt(fieldName, length);
-            for (int i=0; i < length; i++) {
-                writeChar(fieldName, data[i]);
-            }        
+            for (int off=0; off < length; off += ARRAY_CHUNK_SIZE) {
+                int n = Math.min(ARRAY_CHUNK_SIZE, length - off);
+                for (int i=0; i < n; i++) {
+                    chunk[i] = (byte) data[off + i];
+                }
+                output.write(chunk, 0, n);
+            }
         }
     }
 
@@ -381,9 +422,17 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if(!filteringEnabled){
             final int length = data.length;
             writeInt(fieldName, length);
-            for (int i=0; i < length; i++) {
-                writeDouble(fieldName, data[i]);
-            }        
+            if (mappedOutput != null) {
+                mappedOutput.writeDoubles(data, 0, length, byteOrder);
+                return;
+            }
+            final int chunkLength = ARRAY_CHUNK_SIZE / 8;
+            for (int off=0; off < length; off += chunkLength) {
+                int n = Math.min(chunkLength, length - off);
+                doubleChunk.clear();
+                doubleChunk.put(data, off, n);
+                output.write(chunk, 0, n * 8);
+            }
         }
     }
 
@@ -392,8 +441,16 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if(!filteringEnabled){
             final int length = data.length;
             writeInt(fieldName, length);
-            for (int i=0; i < length; i++) {
-                writeFloat(fieldName, data[i]);
+            if (mappedOutput != null) {
+                mappedOutput.writeFloats(data, 0, length, byteOrder);
+                return;
+            }
+            final int chunkLength = ARRAY_CHUNK_SIZE / 4;
+            for (int off=0; off < length; off += chunkLength) {
+                int n = Math.min(chunkLength, length - off);
+                floatChunk.clear();
+                floatChunk.put(data, off, n);
+                output.write(chunk, 0, n * 4);
             }
         }
     }
@@ -403,9 +460,17 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if(!filteringEnabled){
             final int length = data.length;
             writeInt(fieldName, length);
-            for (int i=0; i < length; i++) {
-                writeInt(fieldName, data[i]);
-            }        
+            if (mappedOutput != null) {
+                mappedOutput.writeInts(data, 0, length, byteOrder);
+                return;
+            }
+            final int chunkLength = ARRAY_CHUNK_SIZE / 4;
+            for (int off=0; off < length; off += chunkLength) {
+                int n = Math.min(chunkLength, length - off);
+                intChunk.clear();
+                intChunk.put(data, off, n);
+                output.write(chunk, 0, n * 4);
+            }
         }
     }
 
@@ -414,9 +479,17 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if(!filteringEnabled){
             final int length = data.length;
             writeInt(fieldName, length);
-            for (int i=0; i < length; i++) {
-                writeLong(fieldName, data[i]);
-            }        
+            if (mappedOutput != null) {
+                mappedOutput.writeLongs(data, 0, length, byteOrder);
+                return;
+            }
+            final int chunkLength = ARRAY_CHUNK_SIZE / 8;
+            for (int off=0; off < length; off += chunkLength) {
+                int n = Math.min(chunkLength, length - off);
+                longChunk.clear();
+                longChunk.put(data, off, n);
+                output.write(chunk, 0, n * 8);
+            }
         }
     }
 
@@ -425,9 +498,17 @@ public class BinaryPersistableOutputStream extends PersistableOutputStream {
         if(!filteringEnabled){
             final int length = data.length;
             writeInt(fieldName, length);
-            for (int i=0; i < length; i++) {
-                writeShort(fieldName, data[i]);
-            }        
+            if (mappedOutput != null) {
+                mappedOutput.writeShorts(data, 0, length, byteOrder);
+                return;
+            }
+            final int chunkLength = ARRAY_CHUNK_SIZE / 2;
+            for (int off=0; off < length; off += chunkLength) {
+                int n = Math.min(chunkLength, length - off);
+                shortChunk.clear();
+                shortChunk.put(data, off, n);
+                output.write(chunk, 0, n * 2);
+            }
         }
     }
 
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.spiffy.common.persistable;
+
+import gov.nasa.spiffy.common.io.FileUtil;
+
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A DataInput which reads a file through read-only memory mapped windows.
+ * Windows are mapped as the reader reaches them so a file is only brought
+ * into memory as it is read, and files larger than the address space of a
+ * single mapping can be read.  The bulk readX(array) methods decode
+ * primitive arrays directly out of the mapping into the destination array
+ * without an intermediate buffer or any read() system calls.
+ * 
+ * Only one window is mapped at a time; the previous window is unmapped when
+ * the next one is mapped and the last one when this is closed.  Scalar reads
+ * are big endian as specified by DataInput.  This class is not MT-safe.
+ */
+public final class MappedFileDataInput implements DataInput, Closeable {
+
+    static final int DEFAULT_WINDOW_SIZE = 128 * 1024 * 1024;
+    
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+    /** The file offset of the start of the current window. */
+    private long windowStart = 0;
+    private MappedByteBuffer window;
+    
+    public MappedFileDataInput(File f) throws IOException {
+        this(f, DEFAULT_WINDOW_SIZE);
+    }
+    
+    MappedFileDataInput(File f, int windowSize) throws IOException {
+        if (windowSize < 8) {
+            throw new IllegalArgumentException("windowSize " + windowSize + " is too small.");
+        }
+        this.file = new RandomAccessFile(f, "r");
+        this.channel = file.getChannel();
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+    }
+    
+    /**
+     * @return the current window with at least minBytes remaining.
+     */
+    private ByteBuffer window(int minBytes) throws IOException {
+        if (window != null && window.remaining() >= minBytes) {
+            return window;
+        }
+        long position = position();
+        long size = Math.min(windowSize, fileSize - position);
+        if (size < minBytes) {
+            throw new EOFException("Attempt to read " + minBytes + 
+                " bytes at offset " + position + " of " + fileSize + " byte file.");
+        }
+        unmapWindow();
+        window = channel.map(MapMode.READ_ONLY, position, size);
+        windowStart = position;
+        return window;
+    }
+    
+    /**
+     * The caller must set windowStart if the position should not move to the
+     * end of the window.
+     */
+    private void unmapWindow() {
+        if (window == null) {
+            return;
+        }
+        windowStart += window.position();
+        FileUtil.unmap(window);
+        window = null;
+    }
+    
+    /**
+     * @return the file offset of the next byte to be read.
+     */
+    public long position() {
+        if (window == null) {
+            return windowStart;
+        }
+        return windowStart + window.position();
+    }
+    
+    public void readShorts(short[] dest, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(2);
+            int n = Math.min(len, w.remaining() / 2);
+            w.slice().order(order).asShortBuffer().get(dest, off, n);
+            w.position(w.position() + n * 2);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    public void readInts(int[] dest, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(4);
+            int n = Math.min(len, w.remaining() / 4);
+            w.slice().order(order).asIntBuffer().get(dest, off, n);
+            w.position(w.position() + n * 4);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    public void readLongs(long[] dest, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(8);
+            int n = Math.min(len, w.remaining() / 8);
+            w.slice().order(order).asLongBuffer().get(dest, off, n);
+            w.position(w.position() + n * 8);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    public void readFloats(float[] dest, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(4);
+            int n = Math.min(len, w.remaining() / 4);
+            w.slice().order(order).asFloatBuffer().get(dest, off, n);
+            w.position(w.position() + n * 4);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    public void readDoubles(double[] dest, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(8);
+            int n = Math.min(len, w.remaining() / 8);
+            w.slice().order(order).asDoubleBuffer().get(dest, off, n);
+            w.position(w.position() + n * 8);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(1);
+            int n = Math.min(len, w.remaining());
+            w.get(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        int skip = (int) Math.min(n, fileSize - position());
+        if (skip <= 0) {
+            return 0;
+        }
+        if (window != null && window.remaining() >= skip) {
+            window.position(window.position() + skip);
+        } else {
+            long newPosition = position() + skip;
+            unmapWindow();
+            windowStart = newPosition;
+        }
+        return skip;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return window(1).get() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return window(1).get();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return window(1).get() & 0xff;
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return window(2).getShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return window(2).getShort() & 0xffff;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return window(2).getChar();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return window(4).getInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return window(8).getLong();
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return window(4).getFloat();
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return window(8).getDouble();
+    }
+
+    /**
+     * Reads bytes up to the next line terminator as RandomAccessFile does.
+     * 
+     * @return null if already at the end of the file.
+     */
+    @Override
+    public String readLine() throws IOException {
+        if (position() >= fileSize) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        while (position() < fileSize) {
+            int c = readUnsignedByte();
+            if (c == '\n') {
+                break;
+            }
+            if (c == '\r') {
+                if (position() < fileSize && window(1).get(window.position()) == '\n') {
+                    window.get();
+                }
+                break;
+            }
+            line.append((char) c);
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+
+    /**
+     * Unmaps the current window and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            unmapWindow();
+        } finally {
+            file.close();
+        }
+    }
+}
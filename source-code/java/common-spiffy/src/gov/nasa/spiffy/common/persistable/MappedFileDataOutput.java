@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.spiffy.common.persistable;
+
+import gov.nasa.spiffy.common.io.FileUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A DataOutput which writes a new file through read-write memory mapped
+ * windows.  The file grows a window at a time as it is written and is
+ * truncated to the number of bytes actually written when it is closed.  The
+ * bulk writeX(array) methods encode primitive arrays directly into the
+ * mapping without an intermediate buffer or any write() system calls.
+ * 
+ * Only one window is mapped at a time; the previous window is unmapped when
+ * the next one is mapped and the last one when this is closed.  Scalar
+ * writes are big endian as specified by DataOutput.  This class is not
+ * MT-safe.
+ */
+public final class MappedFileDataOutput implements DataOutput, Closeable {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int windowSize;
+    private long windowStart = 0;
+    private MappedByteBuffer window;
+    private boolean closed = false;
+    
+    public MappedFileDataOutput(File f) throws IOException {
+        this(f, DEFAULT_WINDOW_SIZE);
+    }
+    
+    MappedFileDataOutput(File f, int windowSize) throws IOException {
+        if (windowSize < 8) {
+            throw new IllegalArgumentException("windowSize " + windowSize + " is too small.");
+        }
+        this.file = new RandomAccessFile(f, "rw");
+        this.channel = file.getChannel();
+        this.windowSize = windowSize;
+        channel.truncate(0);
+    }
+    
+    /**
+     * @return the current window with at least minBytes remaining.
+     */
+    private ByteBuffer window(int minBytes) throws IOException {
+        if (window != null && window.remaining() >= minBytes) {
+            return window;
+        }
+        long position = position();
+        unmapWindow();
+        window = channel.map(MapMode.READ_WRITE, position, windowSize);
+        windowStart = position;
+        return window;
+    }
+    
+    private void unmapWindow() {
+        if (window == null) {
+            return;
+        }
+        windowStart += window.position();
+        FileUtil.unmap(window);
+        window = null;
+    }
+    
+    /**
+     * @return the number of bytes written so far.
+     */
+    public long position() {
+        if (window == null) {
+            return windowStart;
+        }
+        return windowStart + window.position();
+    }
+    
+    public void writeShorts(short[] src, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(2);
+            int n = Math.min(len, w.remaining() / 2);
+            w.slice().order(order).asShortBuffer().put(src, off, n);
+            w.position(w.position() + n * 2);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    public void writeInts(int[] src, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(4);
+            int n = Math.min(len, w.remaining() / 4);
+            w.slice().order(order).asIntBuffer().put(src, off, n);
+            w.position(w.position() + n * 4);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    public void writeLongs(long[] src, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(8);
+            int n = Math.min(len, w.remaining() / 8);
+            w.slice().order(order).asLongBuffer().put(src, off, n);
+            w.position(w.position() + n * 8);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    public void writeFloats(float[] src, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(4);
+            int n = Math.min(len, w.remaining() / 4);
+            w.slice().order(order).asFloatBuffer().put(src, off, n);
+            w.position(w.position() + n * 4);
+            off += n;
+            len -= n;
+        }
+    }
+    
+    public void writeDoubles(double[] src, int off, int len, ByteOrder order) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(8);
+            int n = Math.min(len, w.remaining() / 8);
+            w.slice().order(order).asDoubleBuffer().put(src, off, n);
+            w.position(w.position() + n * 8);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        window(1).put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            ByteBuffer w = window(1);
+            int n = Math.min(len, w.remaining());
+            w.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        window(1).put((byte) (v ? 1 : 0));
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        window(1).put((byte) v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        window(2).putShort((short) v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        window(2).putChar((char) v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        window(4).putInt(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        window(8).putLong(v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        window(4).putFloat(v);
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        window(8).putDouble(v);
+    }
+
+    @Override
+    public void writeBytes(String s) throws IOException {
+        for (int i=0; i < s.length(); i++) {
+            writeByte(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        for (int i=0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(s.length() + 2);
+        DataOutputStream dout = new DataOutputStream(bout);
+        dout.writeUTF(s);
+        dout.flush();
+        write(bout.toByteArray());
+    }
+
+    /**
+     * Unmaps the current window and truncates the file to the bytes written.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            long length = position();
+            unmapWindow();
+            channel.truncate(length);
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.spiffy.common.persistable;
+
+import static gov.nasa.spiffy.common.persistable.PersistableUtils.hasAnnotation;
+import gov.nasa.spiffy.common.collect.Pair;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The serialization plan for a single class.  This is built the first time a
+ * class is saved or loaded and then cached so that the class hierarchy,
+ * field annotations and container type parameters are only examined once
+ * per class rather than once per object.  Each field is tagged with a
+ * {@link Kind} so primitive fields can be read and written with the typed
+ * Field accessors rather than boxing through Field.get()/Field.set().
+ */
+final class PersistableClassLayout {
+
+    /**
+     * How a field is serialized.
+     */
+    enum Kind {
+        BOOLEAN, BYTE, SHORT, CHAR, INT, LONG, FLOAT, DOUBLE,
+        PRIMITIVE_ARRAY, ARRAY, LIST, SET, MAP, PERSISTABLE, OTHER;
+    }
+
+    /**
+     * Keyed by (enforcePersistable, ignoreStaticsDefault).
+     */
+    @SuppressWarnings("unchecked")
+    private static final ConcurrentMap<Class<?>, PersistableClassLayout>[] cache = 
+        new ConcurrentMap[] {
+            new ConcurrentHashMap<Class<?>, PersistableClassLayout>(),
+            new ConcurrentHashMap<Class<?>, PersistableClassLayout>(),
+            new ConcurrentHashMap<Class<?>, PersistableClassLayout>(),
+            new ConcurrentHashMap<Class<?>, PersistableClassLayout>() };
+
+    final List<FieldLayout> fields;
+
+    private PersistableClassLayout(List<FieldLayout> fields) {
+        this.fields = fields;
+    }
+
+    static PersistableClassLayout forClass(Class<?> clazz,
+        boolean enforcePersistable, boolean ignoreStaticsDefault) {
+
+        ConcurrentMap<Class<?>, PersistableClassLayout> layouts = 
+            cache[(enforcePersistable ? 2 : 0) + (ignoreStaticsDefault ? 1 : 0)];
+        PersistableClassLayout layout = layouts.get(clazz);
+        if (layout == null) {
+            layout = build(clazz, enforcePersistable, ignoreStaticsDefault);
+            PersistableClassLayout existing = layouts.putIfAbsent(clazz, layout);
+            if (existing != null) {
+                layout = existing;
+            }
+        }
+        return layout;
+    }
+
+    private static PersistableClassLayout build(Class<?> clazz,
+        boolean enforcePersistable, boolean ignoreStaticsDefault) {
+
+        // include all superclasses, as long as they are Persistable (if
+        // enforcePersistable)
+        Stack<Class<?>> hierarchy = PersistableUtils.classHierarchy(clazz,
+            enforcePersistable);
+
+        List<FieldLayout> fields = new ArrayList<FieldLayout>();
+        while (!hierarchy.isEmpty()) {
+            Class<?> hClazz = hierarchy.pop();
+
+            boolean ignoreAllStatics = ignoreStaticsDefault
+                || hasAnnotation(hClazz, ProxyIgnoreStatics.class);
+
+            for (Field field : hClazz.getDeclaredFields()) {
+                if (!PersistableUtils.isIgnored(field, ignoreAllStatics)) {
+                    field.setAccessible(true);
+                    fields.add(new FieldLayout(hClazz, field));
+                }
+            }
+        }
+
+        return new PersistableClassLayout(Collections.unmodifiableList(fields));
+    }
+
+    static Kind kindOf(Class<?> type) {
+        if (type == Boolean.TYPE) {
+            return Kind.BOOLEAN;
+        } else if (type == Byte.TYPE) {
+            return Kind.BYTE;
+        } else if (type == Short.TYPE) {
+            return Kind.SHORT;
+        } else if (type == Character.TYPE) {
+            return Kind.CHAR;
+        } else if (type == Integer.TYPE) {
+            return Kind.INT;
+        } else if (type == Long.TYPE) {
+            return Kind.LONG;
+        } else if (type == Float.TYPE) {
+            return Kind.FLOAT;
+        } else if (type == Double.TYPE) {
+            return Kind.DOUBLE;
+        } else if (PersistableUtils.isPrimitiveArray(type)) {
+            return Kind.PRIMITIVE_ARRAY;
+        } else if (PersistableUtils.isArray(type)) {
+            return Kind.ARRAY;
+        } else if (List.class.isAssignableFrom(type)) {
+            return Kind.LIST;
+        } else if (Set.class.isAssignableFrom(type)) {
+            return Kind.SET;
+        } else if (Map.class.isAssignableFrom(type)) {
+            return Kind.MAP;
+        } else if (Persistable.class.isAssignableFrom(type)) {
+            return Kind.PERSISTABLE;
+        }
+        return Kind.OTHER;
+    }
+
+    /**
+     * A single serialized field.
+     */
+    static final class FieldLayout {
+        final Class<?> declaringClass;
+        final Field field;
+        final String name;
+        final Class<?> type;
+        final Kind kind;
+        final boolean isFinal;
+        final boolean oracleDouble;
+
+        /** Container element types.  Only computed when a field is loaded. */
+        private volatile ContainerLayout containerLayout;
+
+        private FieldLayout(Class<?> declaringClass, Field field) {
+            this.declaringClass = declaringClass;
+            this.field = field;
+            this.name = field.getName();
+            this.type = field.getType();
+            this.kind = kindOf(type);
+            this.isFinal = Modifier.isFinal(field.getModifiers());
+            this.oracleDouble = hasAnnotation(field,
+                gov.nasa.spiffy.common.persistable.OracleDouble.class);
+        }
+
+        ContainerLayout containerLayout() throws ClassNotFoundException {
+            ContainerLayout layout = containerLayout;
+            if (layout == null) {
+                layout = new ContainerLayout(this);
+                containerLayout = layout;
+            }
+            return layout;
+        }
+    }
+
+    /**
+     * The concrete container class and element types of a List, Set or Map
+     * field.
+     */
+    static final class ContainerLayout {
+        final Class<?> containerClass;
+        final ContainerAttributes elementAttributes;
+        final ContainerAttributes valueAttributes;
+
+        private ContainerLayout(FieldLayout fieldLayout) throws ClassNotFoundException {
+            Field field = fieldLayout.field;
+            ProxyInfo ann = field.getAnnotation(ProxyInfo.class);
+            switch (fieldLayout.kind) {
+                case LIST:
+                    containerClass = (ann != null) ? Class.forName(ann.containerClass()) : ArrayList.class;
+                    elementAttributes = PersistableUtils.determineListAttributes(field);
+                    valueAttributes = null;
+                    break;
+                case SET:
+                    containerClass = (ann != null) ? Class.forName(ann.containerClass()) : HashSet.class;
+                    elementAttributes = PersistableUtils.determineSetAttributes(field);
+                    valueAttributes = null;
+                    break;
+                case MAP:
+                    containerClass = (ann != null) ? Class.forName(ann.containerClass()) : HashMap.class;
+                    Pair<ContainerAttributes, ContainerAttributes> mapAttrs = 
+                        PersistableUtils.determineMapAttributes(field);
+                    elementAttributes = mapAttrs.left;
+                    valueAttributes = mapAttrs.right;
+                    break;
+                default:
+                    throw new IllegalStateException("Field \"" + field.getName()
+                        + "\" is not a container.");
+            }
+        }
+    }
+}
@@ -38,22 +38,14 @@
 package gov.nasa.spiffy.common.persistable;
 
 import static gov.nasa.spiffy.common.persistable.PersistableUtils.hasAnnotation;
-import static gov.nasa.spiffy.common.persistable.PersistableUtils.isArray;
-import static gov.nasa.spiffy.common.persistable.PersistableUtils.isPrimitiveArray;
-import gov.nasa.spiffy.common.collect.Pair;
 
 import java.io.IOException;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.apache.commons.logging.Log;
@@ -103,81 +95,113 @@ public abstract class PersistableInputStream {
             throw new IllegalArgumentException("object cannot be null.");
         }
 
-        // include all superclasses, as long as they are Persistable
-        Class<?> hClazz = object.getClass();
-        Stack<Class<?>> hierarchy = PersistableUtils.classHierarchy(hClazz);
-
-        while (!hierarchy.isEmpty()) {
-            hClazz = hierarchy.pop();
-
-            boolean ignoreAllStatics = hasAnnotation(hClazz,
-                ProxyIgnoreStatics.class);
-
-            Field[] fields = hClazz.getDeclaredFields();
-            for (int i = 0; i < fields.length; i++) {
-                Field field = fields[i];
-
-                if (!PersistableUtils.isIgnored(field, ignoreAllStatics)) {
-                    field.setAccessible(true);
-                    Class<?> fieldClass = field.getType();
-                    Object value;
-                    if (isPrimitiveArray(fieldClass)) {
-                        value = loadPrimitiveArray(fieldClass, field);
-                    } else if (isArray(fieldClass)) {
-                        value = loadArray(fieldClass, field);
-                    } else if (java.util.List.class.isAssignableFrom(fieldClass)) {
-                        Class<?> containerClass = ArrayList.class;
-
-                        ProxyInfo ann = field.getAnnotation(ProxyInfo.class);
-                        if (ann != null) {
-                            containerClass = Class.forName(ann.containerClass());
-                        }
-
-                        ContainerAttributes listAttrs = PersistableUtils.determineListAttributes(field);
-
-                        List<?> list = (List<?>) containerClass.newInstance();
-                        loadList(list, listAttrs.elementClass,
-                            listAttrs.dimensions);
-                        value = list;
-                    } else if (java.util.Set.class.isAssignableFrom(fieldClass)) {
-                        Class<?> containerClass = HashSet.class;
-
-                        ProxyInfo ann = field.getAnnotation(ProxyInfo.class);
-                        if (ann != null) {
-                            containerClass = Class.forName(ann.containerClass());
-                        }
-
-                        ContainerAttributes setAttrs = PersistableUtils.determineSetAttributes(field);
-
-                        Set<?> set = (Set<?>) containerClass.newInstance();
-                        loadSet(set, setAttrs.elementClass);
-                        value = set;
-                    } else if (java.util.Map.class.isAssignableFrom(fieldClass)) {
-                        Class<?> containerClass = HashMap.class;
-
-                        ProxyInfo ann = field.getAnnotation(ProxyInfo.class);
-                        if (ann != null) {
-                            containerClass = Class.forName(ann.containerClass());
-                        }
-
-                        Pair<ContainerAttributes, ContainerAttributes> mapAttrs = PersistableUtils.determineMapAttributes(field);
-
-                        Map<?, ?> map = (Map<?, ?>) containerClass.newInstance();
-                        loadMap(map, mapAttrs.left.elementClass,
-                            mapAttrs.right.elementClass);
-                        value = map;
-                    } else if (Persistable.class.isAssignableFrom(fieldClass)) {
-                        value = fieldClass.newInstance();
-                        load(value);
-                    } else {
-                        value = loadPrimitive(fieldClass, field);
+        PersistableClassLayout layout = PersistableClassLayout.forClass(
+            object.getClass(), true, false);
+
+        for (PersistableClassLayout.FieldLayout fieldLayout : layout.fields) {
+            Field field = fieldLayout.field;
+            Class<?> fieldClass = fieldLayout.type;
+            boolean isFinal = fieldLayout.isFinal;
+            Object value;
+            switch (fieldLayout.kind) {
+                case BOOLEAN: {
+                    boolean v = readBoolean();
+                    if (!isFinal) {
+                        field.setBoolean(object, v);
+                    }
+                    continue;
+                }
+                case BYTE: {
+                    byte v = readByte();
+                    if (!isFinal) {
+                        field.setByte(object, v);
+                    }
+                    continue;
+                }
+                case SHORT: {
+                    short v = readShort();
+                    if (!isFinal) {
+                        field.setShort(object, v);
+                    }
+                    continue;
+                }
+                case CHAR: {
+                    char v = readChar();
+                    if (!isFinal) {
+                        field.setChar(object, v);
+                    }
+                    continue;
+                }
+                case INT: {
+                    int v = readInt();
+                    if (!isFinal) {
+                        field.setInt(object, v);
+                    }
+                    continue;
+                }
+                case LONG: {
+                    long v = readLong();
+                    if (!isFinal) {
+                        field.setLong(object, v);
+                    }
+                    continue;
+                }
+                case FLOAT: {
+                    float v = readFloat();
+                    if (!isFinal) {
+                        field.setFloat(object, v);
+                    }
+                    continue;
+                }
+                case DOUBLE: {
+                    double v = readDouble();
+                    if (fieldLayout.oracleDouble) {
+                        v = OracleDouble.valueOf(v);
                     }
-
-                    boolean isFinal = Modifier.isFinal(field.getModifiers());
                     if (!isFinal) {
-                        field.set(object, value);
+                        field.setDouble(object, v);
                     }
+                    continue;
+                }
+                case PRIMITIVE_ARRAY:
+                    value = loadPrimitiveArray(fieldClass, fieldLayout.oracleDouble);
+                    break;
+                case ARRAY:
+                    value = loadArray(fieldClass, field);
+                    break;
+                case LIST: {
+                    PersistableClassLayout.ContainerLayout listLayout = fieldLayout.containerLayout();
+                    List<?> list = (List<?>) listLayout.containerClass.newInstance();
+                    loadList(list, listLayout.elementAttributes.elementClass,
+                        listLayout.elementAttributes.dimensions);
+                    value = list;
+                    break;
+                }
+                case SET: {
+                    PersistableClassLayout.ContainerLayout setLayout = fieldLayout.containerLayout();
+                    Set<?> set = (Set<?>) setLayout.containerClass.newInstance();
+                    loadSet(set, setLayout.elementAttributes.elementClass);
+                    value = set;
+                    break;
                 }
+                case MAP: {
+                    PersistableClassLayout.ContainerLayout mapLayout = fieldLayout.containerLayout();
+                    Map<?, ?> map = (Map<?, ?>) mapLayout.containerClass.newInstance();
+                    loadMap(map, mapLayout.elementAttributes.elementClass,
+                        mapLayout.valueAttributes.elementClass);
+                    value = map;
+                    break;
+                }
+                case PERSISTABLE:
+                    value = fieldClass.newInstance();
+                    load(value);
+                    break;
+                default:
+                    value = loadPrimitive(fieldClass, field);
+            }
+
+            if (!isFinal) {
+                field.set(object, value);
             }
         }
     }
@@ -247,64 +271,95 @@ public abstract class PersistableInputStream {
         }
     }
 
-    private Object loadPrimitiveArray(Class<?> clazz, Field field)
+    private Object loadPrimitiveArray(Class<?> clazz, boolean oracleDouble)
         throws IOException {
         final int length = readInt();
         Object object = Array.newInstance(clazz.getComponentType(), length);
+        readPrimitiveArray(object, oracleDouble);
+        return object;
+    }
+
+    private void readPrimitiveArray(Object object, boolean oracleDouble)
+        throws IOException {
+        Class<?> clazz = object.getClass();
         if (ArrayUtils.EMPTY_BOOLEAN_ARRAY.getClass() == clazz) {
-            boolean[] data = (boolean[]) object;
-            for (int i = 0; i < length; i++) {
-                data[i] = readBoolean();
-            }
+            readBooleanArray((boolean[]) object);
         } else if (ArrayUtils.EMPTY_BYTE_ARRAY.getClass() == clazz) {
-            // TODO: The underlying stream should really support some kind
-            // of direct byte array read.
-            byte[] data = (byte[]) object;
-            for (int i = 0; i < length; i++) {
-                data[i] = readByte();
-            }
+            readByteArray((byte[]) object);
         } else if (ArrayUtils.EMPTY_DOUBLE_ARRAY.getClass() == clazz) {
-            boolean oracleDouble = hasAnnotation(field,
-                gov.nasa.spiffy.common.persistable.OracleDouble.class);
             double[] data = (double[]) object;
-            for (int i = 0; i < length; i++) {
-                if (oracleDouble) {
-                    data[i] = OracleDouble.valueOf(readDouble());
-                } else {
-                    data[i] = readDouble();
+            readDoubleArray(data);
+            if (oracleDouble) {
+                for (int i = 0; i < data.length; i++) {
+                    data[i] = OracleDouble.valueOf(data[i]);
                 }
             }
         } else if (ArrayUtils.EMPTY_FLOAT_ARRAY.getClass() == clazz) {
-            float[] data = (float[]) object;
-            for (int i = 0; i < length; i++) {
-                data[i] = readFloat();
-            }
+            readFloatArray((float[]) object);
         } else if (ArrayUtils.EMPTY_INT_ARRAY.getClass() == clazz) {
-            int[] data = (int[]) object;
-            for (int i = 0; i < length; i++) {
-                data[i] = readInt();
-            }
+            readIntArray((int[]) object);
         } else if (ArrayUtils.EMPTY_LONG_ARRAY.getClass() == clazz) {
-            long[] data = (long[]) object;
-            for (int i = 0; i < length; i++) {
-                data[i] = readLong();
-            }
+            readLongArray((long[]) object);
         } else if (ArrayUtils.EMPTY_SHORT_ARRAY.getClass() == clazz) {
-            short[] data = (short[]) object;
-            for (int i = 0; i < length; i++) {
-                data[i] = readShort();
-            }
+            readShortArray((short[]) object);
         } else if (ArrayUtils.EMPTY_CHAR_ARRAY.getClass() == clazz) {
-            char[] data = (char[]) object;
-            for (int i = 0; i < length; i++) {
-                data[i] = readChar();
-            }
+            readCharArray((char[]) object);
         } else {
             throw new IllegalStateException("Class \"" + clazz
                 + "\" is not a primitive array.");
         }
+    }
 
-        return object;
+    /**
+     * Fills the array with the next data.length values.  Subclasses which
+     * can decode many values at once should override these.
+     */
+    protected void readBooleanArray(boolean[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readBoolean();
+        }
+    }
+
+    protected void readByteArray(byte[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readByte();
+        }
+    }
+
+    protected void readShortArray(short[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readShort();
+        }
+    }
+
+    protected void readCharArray(char[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readChar();
+        }
+    }
+
+    protected void readIntArray(int[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readInt();
+        }
+    }
+
+    protected void readLongArray(long[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readLong();
+        }
+    }
+
+    protected void readFloatArray(float[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readFloat();
+        }
+    }
+
+    protected void readDoubleArray(double[] data) throws IOException {
+        for (int i = 0; i < data.length; i++) {
+            data[i] = readDouble();
+        }
     }
 
     /**
@@ -335,7 +390,12 @@ public abstract class PersistableInputStream {
                 Object nestedArray = Array.newInstance(nestedComponentType,
                     nestedLength);
                 Array.set(array, i, nestedArray);
-                populateArray(nestedArray, field);
+                if (nestedComponentType.isPrimitive()) {
+                    readPrimitiveArray(nestedArray, hasAnnotation(field,
+                        gov.nasa.spiffy.common.persistable.OracleDouble.class));
+                } else {
+                    populateArray(nestedArray, field);
+                }
             } else {
                 Object arrayElement = null;
                 if (Persistable.class.isAssignableFrom(componentType)) {
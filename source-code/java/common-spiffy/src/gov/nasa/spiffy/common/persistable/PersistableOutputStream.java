@@ -37,7 +37,6 @@
 
 package gov.nasa.spiffy.common.persistable;
 
-import static gov.nasa.spiffy.common.persistable.PersistableUtils.hasAnnotation;
 import static gov.nasa.spiffy.common.persistable.PersistableUtils.isArray;
 
 import java.io.IOException;
@@ -47,7 +46,6 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 import org.apache.commons.lang.ArrayUtils;
 
@@ -208,31 +206,45 @@ public abstract class PersistableOutputStream {
 
         beginClass(fieldName, object.getClass());
 
-        // include all superclasses, as long as they are Persistable (if
-        // enforcePersistable)
-        Class<?> hClazz = object.getClass();
-        Stack<Class<?>> hierarchy = PersistableUtils.classHierarchy(hClazz,
-            enforcePersistable);
-
-        while (!hierarchy.isEmpty()) {
-            hClazz = hierarchy.pop();
-
-            boolean ignoreAllStatics = ignoreStaticsDefault
-                || hasAnnotation(hClazz, ProxyIgnoreStatics.class);
-
-            Field[] fields = hClazz.getDeclaredFields();
-            for (Field field : fields) {
-                if (!PersistableUtils.isIgnored(field, ignoreAllStatics)) {
-                    field.setAccessible(true);
+        PersistableClassLayout layout = PersistableClassLayout.forClass(
+            object.getClass(), enforcePersistable, ignoreStaticsDefault);
+
+        for (PersistableClassLayout.FieldLayout fieldLayout : layout.fields) {
+            Field field = fieldLayout.field;
+            switch (fieldLayout.kind) {
+                case BOOLEAN:
+                    writeBoolean(fieldLayout.name, field.getBoolean(object));
+                    break;
+                case BYTE:
+                    writeByte(fieldLayout.name, field.getByte(object));
+                    break;
+                case SHORT:
+                    writeShort(fieldLayout.name, field.getShort(object));
+                    break;
+                case CHAR:
+                    writeChar(fieldLayout.name, field.getChar(object));
+                    break;
+                case INT:
+                    writeInt(fieldLayout.name, field.getInt(object));
+                    break;
+                case LONG:
+                    writeLong(fieldLayout.name, field.getLong(object));
+                    break;
+                case FLOAT:
+                    writeFloat(fieldLayout.name, field.getFloat(object));
+                    break;
+                case DOUBLE:
+                    writeDouble(fieldLayout.name, field.getDouble(object));
+                    break;
+                default:
                     Object o = field.get(object);
                     if (o == null) {
                         throw new IllegalArgumentException(
                             "field cannot be null." + "\n  class: "
-                                + hClazz.getName() + "\n  field: "
-                                + field.getName());
+                                + fieldLayout.declaringClass.getName()
+                                + "\n  field: " + fieldLayout.name);
                     }
-                    saveObject(o, field.getType(), field.getName());
-                }
+                    saveObject(o, fieldLayout.type, fieldLayout.name);
             }
         }
 
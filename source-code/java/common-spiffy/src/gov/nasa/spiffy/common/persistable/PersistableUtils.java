@@ -43,11 +43,15 @@ import gov.nasa.spiffy.common.pi.PipelineException;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
 import java.io.DataInputStream;
+import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
@@ -94,19 +98,37 @@ public class PersistableUtils {
      * @param file
      */
     public static void readBinFile(Persistable object, File file) {
-        DataInputStream dis = null;
+        readBinFile(object, file, false);
+    }
+
+    /**
+     * Read the specified {@link Persistable} object from the specified file
+     * using {@link BinaryPersistableInputStream}
+     * 
+     * @param object
+     * @param file
+     * @param memoryMapped when true the file is read through a
+     * {@link MappedFileDataInput} so large primitive arrays are decoded
+     * directly from the mapping.
+     */
+    public static void readBinFile(Persistable object, File file, boolean memoryMapped) {
+        DataInput input = null;
         try {
-            FileInputStream fis = new FileInputStream(file);
-            BufferedInputStream bis = new BufferedInputStream(fis);
-            dis = new DataInputStream(bis);
-            BinaryPersistableInputStream bpis = new BinaryPersistableInputStream(dis);
+            if (memoryMapped) {
+                input = new MappedFileDataInput(file);
+            } else {
+                FileInputStream fis = new FileInputStream(file);
+                BufferedInputStream bis = new BufferedInputStream(fis);
+                input = new DataInputStream(bis);
+            }
+            BinaryPersistableInputStream bpis = new BinaryPersistableInputStream(input);
             bpis.load(object);
         } catch (Exception e) {
             throw new ModuleFatalProcessingException("failed to deserialize/read outputs file[" + file + "], e = " + e, e);
         } finally {
-            if (dis != null) {
+            if (input != null) {
                 try {
-                    dis.close();
+                    ((Closeable) input).close();
                 } catch (IOException ignore) {
                     log.warn("failed to close " + file);
                 }
@@ -144,21 +166,44 @@ public class PersistableUtils {
      * @param file
      */
     public static void writeBinFile(Persistable object, File file, BinaryPersistableFilter filter) {
-        DataOutputStream dos = null;
+        writeBinFile(object, file, filter, false);
+    }
+
+    /**
+     * Write the specified {@link Persistable} object to the specified file
+     * using {@link BinaryPersistableOutputStream}
+     * 
+     * @param object
+     * @param file
+     * @param filter this may be null
+     * @param memoryMapped when true the file is written through a
+     * {@link MappedFileDataOutput} so large primitive arrays are encoded
+     * directly into the mapping.
+     */
+    public static void writeBinFile(Persistable object, File file, 
+        BinaryPersistableFilter filter, boolean memoryMapped) {
+        
+        DataOutput output = null;
 
         try {
-            FileOutputStream fos = new FileOutputStream(file);
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
-            dos = new DataOutputStream(bos);
-            BinaryPersistableOutputStream bpos = new BinaryPersistableOutputStream(dos, filter);
+            if (memoryMapped) {
+                output = new MappedFileDataOutput(file);
+            } else {
+                FileOutputStream fos = new FileOutputStream(file);
+                BufferedOutputStream bos = new BufferedOutputStream(fos);
+                output = new DataOutputStream(bos);
+            }
+            BinaryPersistableOutputStream bpos = new BinaryPersistableOutputStream(output, filter);
             bpos.save(object);
-            dos.flush();
+            if (output instanceof Flushable) {
+                ((Flushable) output).flush();
+            }
         } catch (Exception e) {
             throw new ModuleFatalProcessingException("failed to serialize/write inputs file[" + file + "], e = " + e, e);
         } finally {
-            if (dos != null) {
+            if (output != null) {
                 try {
-                    dos.close();
+                    ((Closeable) output).close();
                 } catch (IOException ignore) {
                     log.warn("failed to close " + file);
                 }
@@ -38,6 +38,7 @@
 package gov.nasa.spiffy.common;
 
 import gov.nasa.spiffy.common.collect.ArrayUtilsTest;
+import gov.nasa.spiffy.common.concurrent.ConcurrentWeightedCacheTest;
 import gov.nasa.spiffy.common.intervals.IntervalSetTest;
 import gov.nasa.spiffy.common.io.FileCopyVisitorTest;
 import gov.nasa.spiffy.common.io.FileUtilTest;
@@ -46,6 +47,7 @@ import gov.nasa.spiffy.common.io.ParallelDirectoryVisitorTest;
 import gov.nasa.spiffy.common.jmx.JmxTest;
 import gov.nasa.spiffy.common.lang.StringUtilsTest;
 import gov.nasa.spiffy.common.metrics.CounterMetricTest;
+import gov.nasa.spiffy.common.metrics.HistogramMetricTest;
 import gov.nasa.spiffy.common.metrics.IntervalMetricTest;
 import gov.nasa.spiffy.common.metrics.MetricTest;
 import gov.nasa.spiffy.common.metrics.ValueMetricTest;
@@ -71,6 +73,9 @@ import org.junit.runners.Suite.SuiteClasses;
     // gov.nasa.spiffy.common.collect
     ArrayUtilsTest.class,
     
+    // gov.nasa.spiffy.common.concurrent
+    ConcurrentWeightedCacheTest.class,
+    
     // gov.nasa.spiffy.common.intervals
     IntervalSetTest.class,
     
@@ -85,6 +90,7 @@ import org.junit.runners.Suite.SuiteClasses;
     
     // gov.nasa.spiffy.common.metrics
     CounterMetricTest.class,
+    HistogramMetricTest.class,
     IntervalMetricTest.class,
     MetricTest.class,
     ValueMetricTest.class,
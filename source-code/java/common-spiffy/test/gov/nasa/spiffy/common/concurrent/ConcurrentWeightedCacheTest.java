@@ -0,0 +1,169 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.spiffy.common.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ConcurrentWeightedCacheTest {
+
+    @Test
+    public void putGetRemove() {
+        ConcurrentWeightedCache<String, Integer> cache = 
+            new ConcurrentWeightedCache<String, Integer>(10);
+        assertNull(cache.get("a"));
+        assertNull(cache.put("a", 1));
+        assertEquals((Integer) 1, cache.get("a"));
+        assertEquals((Integer) 1, cache.put("a", 2));
+        assertEquals((Integer) 2, cache.get("a"));
+        assertEquals(1L, cache.weightedSize());
+        assertEquals((Integer) 2, cache.remove("a"));
+        assertNull(cache.get("a"));
+        assertNull(cache.remove("a"));
+        assertEquals(0L, cache.weightedSize());
+        
+        assertEquals(2L, cache.hitCount());
+        assertEquals(2L, cache.missCount());
+        
+        cache.put("b", 3);
+        ConcurrentWeightedCache.clearAllCaches();
+        assertEquals(0, cache.size());
+        assertEquals(0L, cache.weightedSize());
+    }
+    
+    @Test
+    public void boundedByWeight() {
+        ConcurrentWeightedCache.Weigher<Integer, String> weigher = 
+            new ConcurrentWeightedCache.Weigher<Integer, String>() {
+            
+            @Override
+            public int weightOf(Integer key, String value) {
+                return value.length();
+            }
+        };
+        ConcurrentWeightedCache<Integer, String> cache =
+            new ConcurrentWeightedCache<Integer, String>(100, weigher);
+        for (int i=0; i < 1000; i++) {
+            cache.put(i, "0123456789");
+            assertTrue(cache.weightedSize() <= 100);
+        }
+        assertEquals(100L, cache.weightedSize());
+        assertEquals(10, cache.size());
+        assertEquals(990L, cache.evictionCount());
+    }
+    
+    /**
+     * Frequently used entries should survive a scan through many entries that
+     * are only used once.
+     */
+    @Test
+    public void frequentlyUsedEntriesSurviveScan() {
+        ConcurrentWeightedCache<Integer, Integer> cache = 
+            new ConcurrentWeightedCache<Integer, Integer>(100);
+        for (int i=0; i < 50; i++) {
+            cache.put(i, i);
+        }
+        for (int round=0; round < 10; round++) {
+            for (int i=0; i < 50; i++) {
+                assertEquals((Integer) i, cache.get(i));
+            }
+        }
+        
+        for (int i=1000; i < 1500; i++) {
+            cache.put(i, i);
+        }
+        
+        int hotHits = 0;
+        for (int i=0; i < 50; i++) {
+            if (cache.get(i) != null) {
+                hotHits++;
+            }
+        }
+        assertEquals(50, hotHits);
+        assertEquals(100L, cache.weightedSize());
+    }
+    
+    @Test
+    public void concurrentAccess() throws Exception {
+        final ConcurrentWeightedCache<Integer, Integer> cache = 
+            new ConcurrentWeightedCache<Integer, Integer>(256);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t=0; t < 8; t++) {
+                final int seed = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i=0; i < 100000; i++) {
+                            int key = (i * 31 + seed) % 1024;
+                            Integer value = cache.get(key);
+                            if (value == null) {
+                                cache.put(key, key);
+                            } else {
+                                assertEquals(key, value.intValue());
+                            }
+                            if (i % 97 == 0) {
+                                cache.remove(key);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        
+        assertTrue(cache.weightedSize() <= 256);
+        assertEquals(cache.size(), cache.weightedSize());
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.spiffy.common.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HistogramMetricTest {
+    private static final String METRIC_1_NAME = "HistogramTest-1";
+    private static final String METRIC_2_NAME = "HistogramTest-2";
+
+    @Before
+    public void setUp() {
+        Metric.clear();
+    }
+
+    @Test
+    public void bucketBounds() {
+        long prevUpper = -1;
+        for (int i=0; i < HistogramMetric.N_BUCKETS; i++) {
+            long lower = HistogramMetric.bucketLowerBound(i);
+            long upper = HistogramMetric.bucketUpperBound(i);
+            assertEquals(prevUpper + 1, lower);
+            assertEquals(i, HistogramMetric.bucketIndex(lower));
+            assertEquals(i, HistogramMetric.bucketIndex(upper));
+            prevUpper = upper;
+        }
+        assertEquals(Long.MAX_VALUE, prevUpper);
+    }
+
+    @Test
+    public void histogramEmpty() {
+        HistogramMetric m = HistogramMetric.getHistogramMetric(METRIC_1_NAME).left;
+
+        assertEquals(0, m.getCount());
+        assertEquals(0, m.getAverage(), 0);
+        assertEquals(0, m.getSum());
+        assertEquals(0, m.getMin());
+        assertEquals(0, m.getMax());
+        assertEquals(0, m.getPercentile(0.99));
+    }
+
+    @Test
+    public void histogramPercentiles() {
+        for (int i=1; i <= 1000; i++) {
+            HistogramMetric.addValue(METRIC_1_NAME, i);
+        }
+
+        HistogramMetric m = HistogramMetric.getHistogramMetric(METRIC_1_NAME).left;
+
+        assertEquals(1000, m.getCount());
+        assertEquals(500500, m.getSum());
+        assertEquals(1, m.getMin());
+        assertEquals(1000, m.getMax());
+        assertWithinBucket(500, m.getPercentile(0.5));
+        assertWithinBucket(900, m.getPercentile(0.9));
+        assertWithinBucket(990, m.getPercentile(0.99));
+        assertEquals(1000, m.getPercentile(0.999));
+        assertEquals(1, m.getPercentile(0));
+        assertEquals(1000, m.getPercentile(1));
+    }
+
+    @Test
+    public void histogramMerge() {
+        HistogramMetric.addValue(METRIC_1_NAME, 2);
+        HistogramMetric.addValue(METRIC_1_NAME, 4);
+        HistogramMetric.addValue(METRIC_2_NAME, 6000);
+
+        HistogramMetric m = HistogramMetric.getHistogramMetric(METRIC_1_NAME).left.makeCopy();
+        m.merge(HistogramMetric.getHistogramMetric(METRIC_2_NAME).left);
+
+        assertEquals(3, m.getCount());
+        assertEquals(6006, m.getSum());
+        assertEquals(2, m.getMin());
+        assertEquals(6000, m.getMax());
+        assertEquals(6000, m.getPercentile(0.99));
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void mergeValueMetric() {
+        HistogramMetric m = HistogramMetric.getHistogramMetric(METRIC_1_NAME).left;
+        m.merge(ValueMetric.getValueMetric(METRIC_2_NAME).left);
+    }
+
+    @Test
+    public void histogramMultiThread() throws Exception {
+        final int nThreads = 8;
+        final int nValues = 10000;
+        ExecutorService exec = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int t=0; t < nThreads; t++) {
+                futures.add(exec.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        for (int i=0; i < nValues; i++) {
+                            HistogramMetric.addValue(METRIC_1_NAME, i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> f : futures) {
+                f.get();
+            }
+        } finally {
+            exec.shutdown();
+        }
+
+        HistogramMetric m = HistogramMetric.getHistogramMetric(METRIC_1_NAME).left;
+        assertEquals(nThreads * nValues, m.getCount());
+        assertEquals(nThreads * ((long) nValues * (nValues - 1)) / 2, m.getSum());
+        assertEquals(0, m.getMin());
+        assertEquals(nValues - 1, m.getMax());
+    }
+
+    @Test
+    public void logString() {
+        HistogramMetric.addValue(METRIC_1_NAME, 7);
+
+        StringBuilder bldr = new StringBuilder();
+        HistogramMetric.getHistogramMetric(METRIC_1_NAME).left.toLogString(bldr);
+        assertEquals(METRIC_1_NAME + ",H,7,7,7.0,1,7,7,7,7,7", bldr.toString());
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual, actual >= expected);
+        assertTrue("expected " + expected + " but was " + actual, actual <= expected + expected / 16);
+    }
+}
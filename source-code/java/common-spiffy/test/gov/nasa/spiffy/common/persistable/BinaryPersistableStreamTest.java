@@ -37,12 +37,22 @@
 
 package gov.nasa.spiffy.common.persistable;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.util.Arrays;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
 
 public class BinaryPersistableStreamTest extends PersistableStreamTest {
     private static final File TEST_FILE = new File(TEST_DIR,
@@ -61,4 +71,149 @@ public class BinaryPersistableStreamTest extends PersistableStreamTest {
         return new BinaryPersistableInputStream(new DataInputStream(
             new FileInputStream(TEST_FILE)));
     }
+
+    @Test
+    public void testSaveLoadAllFieldTypes() throws Exception {
+        TestPersistable expected = new TestPersistable(1);
+        TestPersistable actual = new TestPersistable();
+        roundTrip(expected, actual);
+
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Arrays larger than the chunk the binary streams encode at a time.
+     */
+    @Test
+    public void testSaveLoadLargeArrays() throws Exception {
+        LargeArrays expected = new LargeArrays(BinaryPersistableOutputStream.ARRAY_CHUNK_SIZE * 2 + 3);
+        LargeArrays actual = new LargeArrays();
+        roundTrip(expected, actual);
+
+        assertLargeArraysEquals(expected, actual);
+    }
+
+    /**
+     * Memory mapped files produce the same bytes as the stream based files.
+     * The small, odd window size makes values straddle window boundaries.
+     */
+    @Test
+    public void testMappedSaveLoad() throws Exception {
+        LargeArrays expected = new LargeArrays(1013);
+        roundTrip(expected, new LargeArrays());
+
+        File mappedFile = new File(TEST_DIR, "binaryPersistableStreamTest-mapped.bin");
+        MappedFileDataOutput mout = new MappedFileDataOutput(mappedFile, 1001);
+        new BinaryPersistableOutputStream(mout).save(expected);
+        mout.close();
+        assertTrue(FileUtils.contentEquals(TEST_FILE, mappedFile));
+
+        LargeArrays fromStream = new LargeArrays();
+        DataInputStream din = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(mappedFile)));
+        new BinaryPersistableInputStream(din).load(fromStream);
+        din.close();
+        assertLargeArraysEquals(expected, fromStream);
+
+        LargeArrays fromMapping = new LargeArrays();
+        MappedFileDataInput min = new MappedFileDataInput(mappedFile, 1001);
+        new BinaryPersistableInputStream(min).load(fromMapping);
+        assertEquals(mappedFile.length(), min.position());
+        min.close();
+        assertLargeArraysEquals(expected, fromMapping);
+    }
+
+    /**
+     * The text methods of the mapped input and output across window
+     * boundaries.
+     */
+    @Test
+    public void testMappedText() throws Exception {
+        File mappedFile = new File(TEST_DIR, "binaryPersistableStreamTest-text.bin");
+        MappedFileDataOutput mout = new MappedFileDataOutput(mappedFile, 16);
+        mout.writeUTF("caf\u00e9 \u03bb");
+        mout.writeBytes("first line\r\nsecond\rthird\nlast");
+        mout.close();
+
+        DataInputStream din = new DataInputStream(new FileInputStream(mappedFile));
+        assertEquals("caf\u00e9 \u03bb", din.readUTF());
+        din.close();
+
+        MappedFileDataInput min = new MappedFileDataInput(mappedFile, 16);
+        assertEquals("caf\u00e9 \u03bb", min.readUTF());
+        assertEquals("first line", min.readLine());
+        assertEquals("second", min.readLine());
+        assertEquals("third", min.readLine());
+        assertEquals("last", min.readLine());
+        assertEquals(null, min.readLine());
+        min.close();
+    }
+
+    private static void assertLargeArraysEquals(LargeArrays expected, LargeArrays actual) {
+        assertEquals(expected.n, actual.n);
+        assertTrue(Arrays.equals(expected.booleans, actual.booleans));
+        assertArrayEquals(expected.bytes, actual.bytes);
+        assertArrayEquals(expected.chars, actual.chars);
+        assertArrayEquals(expected.shorts, actual.shorts);
+        assertArrayEquals(expected.ints, actual.ints);
+        assertArrayEquals(expected.longs, actual.longs);
+        assertTrue(Arrays.equals(expected.floats, actual.floats));
+        assertTrue(Arrays.equals(expected.doubles, actual.doubles));
+        assertEquals(expected.nested.length, actual.nested.length);
+        for (int i=0; i < expected.nested.length; i++) {
+            assertTrue(Arrays.equals(expected.nested[i], actual.nested[i]));
+        }
+    }
+
+    private static void roundTrip(Object src, Object dest) throws Exception {
+        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(TEST_FILE)));
+        new BinaryPersistableOutputStream(dout).save(src);
+        dout.close();
+
+        DataInputStream din = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(TEST_FILE)));
+        new BinaryPersistableInputStream(din).load(dest);
+        assertEquals(-1, din.read());
+        din.close();
+    }
+
+    public static class LargeArrays implements Persistable {
+        private int n;
+        private boolean[] booleans = {};
+        private byte[] bytes = {};
+        private char[] chars = {};
+        private short[] shorts = {};
+        private int[] ints = {};
+        private long[] longs = {};
+        private float[] floats = {};
+        private double[] doubles = {};
+        private double[][] nested = {};
+
+        public LargeArrays() {
+        }
+
+        public LargeArrays(int n) {
+            this.n = n;
+            booleans = new boolean[n];
+            bytes = new byte[n];
+            chars = new char[n];
+            shorts = new short[n];
+            ints = new int[n];
+            longs = new long[n];
+            floats = new float[n];
+            doubles = new double[n];
+            for (int i=0; i < n; i++) {
+                booleans[i] = (i % 3) == 0;
+                bytes[i] = (byte) i;
+                chars[i] = (char) ('a' + (i % 26));
+                shorts[i] = (short) (i * 7);
+                ints[i] = i * 31;
+                longs[i] = i * 1000000007L;
+                floats[i] = i * 0.5f;
+                doubles[i] = i * Math.PI;
+            }
+            nested = new double[][] { doubles, new double[0], { Double.NaN, -0.0 } };
+        }
+    }
 }
@@ -141,8 +141,10 @@ public class Data {
                 rowCount = referenceData.rowCount;
                 extensionDataBytesCount = referenceData.extensionDataBytesCount;
                 columnCount = referenceData.columnCount;
-                tableData = referenceData.tableData;
-                tableDataType = referenceData.tableDataType;
+                // Allocate our own column arrays, the reference may be in use
+                // by another thread.
+                tableData = new Object[columnCount];
+                tableDataType = referenceData.tableDataType.clone();
             } else {
                 fileOffset = fileReader.getFilePointer();
 
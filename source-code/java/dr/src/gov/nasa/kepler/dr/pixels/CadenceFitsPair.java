@@ -175,6 +175,18 @@ class CadenceFitsPair {
             getCadenceNumber(), rawValueColumn[rowIndex]);
     }
 
+    /**
+     * @return the raw pixel values of the current module/output, one per
+     * PMRF row. Callers must not modify the returned array.
+     */
+    int[] getRawValueColumn() {
+        return rawValueColumn;
+    }
+
+    PmrfTable getPmrfTable() {
+        return pmrfTable;
+    }
+
     void setCurrentModuleOutput(int desiredCcdModule, int desiredCcdOutput) {
         int desiredCcdChannel = channelNums[desiredCcdModule]
             + desiredCcdOutput;
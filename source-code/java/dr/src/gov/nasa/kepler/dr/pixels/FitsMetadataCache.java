@@ -47,6 +47,8 @@ import java.util.Map;
  * every time the file is accessed. This includes the cadence number and PMRF
  * filename.
  * 
+ * This is shared by the pixel reader threads so access is synchronized.
+ * 
  * @author tklaus
  * 
  */
@@ -70,15 +72,16 @@ class FitsMetadataCache {
     public FitsMetadataCache() {
     }
 
-    CadenceMetadata getMetadata(String fitsFilename) {
+    synchronized CadenceMetadata getMetadata(String fitsFilename) {
         return cache.get(fitsFilename);
     }
 
-    CadenceMetadata putMetadata(String fitsFilename, CadenceMetadata value) {
+    synchronized CadenceMetadata putMetadata(String fitsFilename,
+        CadenceMetadata value) {
         return cache.put(fitsFilename, value);
     }
 
-    LazyFits getReferenceFits(String referenceFitsPmrfFilename) {
+    synchronized LazyFits getReferenceFits(String referenceFitsPmrfFilename) {
         if (referenceFitsPmrfFilename.equals(this.referenceFitsPmrfFilename)) {
             return referenceFits;
         } else {
@@ -86,7 +89,7 @@ class FitsMetadataCache {
         }
     }
 
-    void setReferenceFits(String referenceFitsPmrfFilename,
+    synchronized void setReferenceFits(String referenceFitsPmrfFilename,
         LazyFits referenceFits) {
         this.referenceFitsPmrfFilename = referenceFitsPmrfFilename;
         this.referenceFits = referenceFits;
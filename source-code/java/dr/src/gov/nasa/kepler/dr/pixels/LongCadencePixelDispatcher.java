@@ -38,7 +38,6 @@
 package gov.nasa.kepler.dr.pixels;
 
 import gov.nasa.kepler.common.Cadence;
-import gov.nasa.kepler.common.Cadence.CadenceType;
 import gov.nasa.kepler.common.FcConstants;
 import gov.nasa.kepler.dr.dispatch.DispatchException;
 import gov.nasa.kepler.hibernate.dr.LogCrud;
@@ -54,8 +53,11 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
@@ -96,10 +98,16 @@ public class LongCadencePixelDispatcher extends PixelDispatcher {
      * Extracts the pixel values from the cadence FITS files, turns them into
      * time series, and stores them in the file store
      * 
-     * The file store call to store the time series (the flusher task) is done
-     * in a background thread using java.util.concurrent.ThreadPoolExecutor so
-     * that the next module/output can be read while the previous one is writing
-     * to the file store. Only one flusher task is allowed to run at a time.
+     * Each module/output is read into its own {@link TimeSeriesBuffer} by a
+     * pool of reader threads. Finished buffers are handed back to this thread,
+     * which passes them to the file store call (the flusher task). The flusher
+     * task is done in a background thread using
+     * java.util.concurrent.ThreadPoolExecutor so that the next module/outputs
+     * can be read while the previous one is writing to the file store. Only
+     * one flusher task is allowed to run at a time. Before a reader starts
+     * filling a buffer it reserves the memory that buffer will need, so the
+     * readers can't get further ahead of the flusher than the configured
+     * {@link PixelDispatcher#MAX_BUFFERED_MEGABYTES_PROP} allows.
      */
     @Override
     protected void extractAndStoreTimeSeriesData(List<String> fileNames,
@@ -109,61 +117,51 @@ public class LongCadencePixelDispatcher extends PixelDispatcher {
             new ArrayBlockingQueue<Runnable>(FLUSHER_QUEUE_MAX_SIZE));
         Future<?> flusherTaskResult = null;
 
-        pmrfCache = new PmrfCache(CadenceType.valueOf(cadenceType));
+        ExecutorService readerPool = createReaderPool();
+        CompletionService<TimeSeriesBuffer> readerResults = new ExecutorCompletionService<TimeSeriesBuffer>(
+            readerPool);
+        int maxBufferedKiloBytes = getMaxBufferedKiloBytes();
+        Semaphore memoryBudget = new Semaphore(maxBufferedKiloBytes, true);
 
         long startTime = System.currentTimeMillis();
-        long modOutStartTime;
 
-        for (int ccdModule : FcConstants.modulesList) {
-            for (int ccdOutput : FcConstants.outputsList) {
-                modOutStartTime = System.currentTimeMillis();
-
-                log.info("Processing (module/output/dataset/table) = ("
-                    + ccdModule + "/" + ccdOutput + "/" + dataSetType + "/"
-                    + targetTableType + ")");
+        try {
+            int moduleOutputCount = 0;
+            for (int ccdModule : FcConstants.modulesList) {
+                for (int ccdOutput : FcConstants.outputsList) {
+                    // The writer is created on this thread since it may use
+                    // the database.
+                    TimeSeriesBuffer buffer = new TimeSeriesBuffer(
+                        startCadence, endCadence, overwriteGaps,
+                        createPixelTimeSeriesWriter(dataSetType, ccdModule,
+                            ccdOutput));
+                    readerResults.submit(new ModuleOutputReader(fileNames,
+                        sourceDirectory, ccdModule, ccdOutput, buffer,
+                        memoryBudget, maxBufferedKiloBytes));
+                    moduleOutputCount++;
+                }
+            }
 
-                timeSeriesBuffer = new TimeSeriesBuffer(startCadence,
-                    endCadence, overwriteGaps, createPixelTimeSeriesWriter(
-                        dataSetType, ccdModule, ccdOutput));
+            for (int i = 0; i < moduleOutputCount; i++) {
+                timeSeriesBuffer = takeReaderResult(readerResults);
 
-                IntervalMetricKey allCadenceKey = null;
                 try {
-                    allCadenceKey = IntervalMetric.start();
-                    for (String fitsFileName : fileNames) {
-                        if (!ignoredFilenames.contains(fitsFileName)) {
-                            CadenceFitsPair fitsFiles = new CadenceFitsPair(
-                                sourceDirectory, fitsFileName, dataSetType,
-                                targetTableType, pmrfCache, fitsMetadataCache);
-                            fitsFiles.setCurrentModuleOutput(ccdModule,
-                                ccdOutput);
-
-                            processCadenceForModuleOutput(fitsFiles, ccdModule,
-                                ccdOutput);
-
-                            try {
-                                fitsFiles.close();
-                            } catch (IOException e) {
-                                throw new DispatchException(
-                                    "Unable to close.  ", e);
-                            }
-                        }
-                    }
-                } finally {
-                    IntervalMetric.stop(
-                        "dr.dispatch.pixel.oneModuleOutput.process",
-                        allCadenceKey);
+                    flusherTaskResult = checkAndFlush(flusherThread,
+                        flusherTaskResult);
+                } catch (RuntimeException e) {
+                    // This buffer will not be flushed.
+                    timeSeriesBuffer.releaseMemory();
+                    throw e;
                 }
-
-                log.info("Time to process files for this mod/out: "
-                    + ((System.currentTimeMillis() - modOutStartTime) / 1000F)
-                    + " secs.");
-
-                flusherTaskResult = checkAndFlush(flusherThread,
-                    flusherTaskResult);
             }
-        }
 
-        check(flusherTaskResult);
+            check(flusherTaskResult);
+        } finally {
+            // Interrupts readers that are waiting for memory. Readers that fail
+            // give back what they reserved themselves.
+            readerPool.shutdownNow();
+            flusherThread.shutdown();
+        }
 
         log.info("total time = "
             + ((System.currentTimeMillis() - startTime) / 1000F) + " secs.");
@@ -194,36 +192,104 @@ public class LongCadencePixelDispatcher extends PixelDispatcher {
         return new PixelTimeSeriesOperations();
     }
 
-    private static class FlusherTask implements Callable<Object> {
-        private TimeSeriesBuffer bufferToFlush = null;
-
-        private FlusherTask(TimeSeriesBuffer bufferToFlush) {
-            this.bufferToFlush = bufferToFlush;
+    /**
+     * Reads all the cadences of one module/output into the given
+     * {@link TimeSeriesBuffer}. Runs on the reader pool. If reading fails, the
+     * memory reserved for the buffer is given back.
+     */
+    private class ModuleOutputReader implements Callable<TimeSeriesBuffer> {
+        private final List<String> fileNames;
+        private final String sourceDirectory;
+        private final int ccdModule;
+        private final int ccdOutput;
+        private final TimeSeriesBuffer buffer;
+        private final Semaphore memoryBudget;
+        private final int maxBufferedKiloBytes;
+
+        private ModuleOutputReader(List<String> fileNames,
+            String sourceDirectory, int ccdModule, int ccdOutput,
+            TimeSeriesBuffer buffer, Semaphore memoryBudget,
+            int maxBufferedKiloBytes) {
+            this.fileNames = fileNames;
+            this.sourceDirectory = sourceDirectory;
+            this.ccdModule = ccdModule;
+            this.ccdOutput = ccdOutput;
+            this.buffer = buffer;
+            this.memoryBudget = memoryBudget;
+            this.maxBufferedKiloBytes = maxBufferedKiloBytes;
         }
 
-        public Object call() throws Exception {
-            bufferToFlush.flush();
-            return null;
-        }
-    }
+        @Override
+        public TimeSeriesBuffer call() throws Exception {
+            long modOutStartTime = System.currentTimeMillis();
 
-    /**
-     * Blocks until the flusher task completes.
-     */
-    private void checkFlusherTaskResult(Future<?> flusherTaskResult) {
-        if (flusherTaskResult != null) {
-            log.info("Waiting for flusher task to complete");
-            IntervalMetricKey flusherWaitKey = IntervalMetric.start();
+            log.info("Processing (module/output/dataset/table) = ("
+                + ccdModule + "/" + ccdOutput + "/" + dataSetType + "/"
+                + targetTableType + ")");
+
+            PmrfCache pmrfCache = getReaderPmrfCache();
+            boolean memoryReserved = false;
+            boolean done = false;
+
+            IntervalMetricKey allCadenceKey = null;
             try {
-                flusherTaskResult.get();
-            } catch (InterruptedException e) {
-                throw new DispatchException("Flusher tasked failed", e);
-            } catch (ExecutionException e) {
-                throw new DispatchException("Flusher tasked failed", e);
+                allCadenceKey = IntervalMetric.start();
+                for (String fitsFileName : fileNames) {
+                    if (!ignoredFilenames.contains(fitsFileName)) {
+                        CadenceFitsPair fitsFiles = new CadenceFitsPair(
+                            sourceDirectory, fitsFileName, dataSetType,
+                            targetTableType, pmrfCache, fitsMetadataCache);
+                        try {
+                            fitsFiles.setCurrentModuleOutput(ccdModule,
+                                ccdOutput);
+
+                            if (!memoryReserved) {
+                                buffer.reserveMemory(memoryBudget,
+                                    estimateKiloBytes(fitsFiles.getPmrfTable()
+                                        .length()));
+                                memoryReserved = true;
+                            }
+
+                            processCadenceForModuleOutput(fitsFiles,
+                                ccdModule, ccdOutput, buffer);
+                        } finally {
+                            try {
+                                fitsFiles.close();
+                            } catch (IOException e) {
+                                throw new DispatchException(
+                                    "Unable to close.  ", e);
+                            }
+                        }
+                    }
+                }
+                done = true;
             } finally {
-                IntervalMetric.stop("dr.dispatch.pixel.flusher.waitTime",
-                    flusherWaitKey);
+                IntervalMetric.stop(
+                    "dr.dispatch.pixel.oneModuleOutput.process",
+                    allCadenceKey);
+
+                if (!done) {
+                    buffer.releaseMemory();
+                }
             }
+
+            log.info("Time to process files for this mod/out: "
+                + ((System.currentTimeMillis() - modOutStartTime) / 1000F)
+                + " secs.");
+
+            return buffer;
+        }
+
+        /**
+         * The cadence columns plus the transposed time series and gaps that
+         * exist while the buffer is flushed.
+         */
+        private int estimateKiloBytes(int pixelCount) {
+            long cadenceCount = endCadence - startCadence + 1;
+            long bytes = pixelCount * cadenceCount * (4 + 4 + 1);
+
+            return (int) Math.min(maxBufferedKiloBytes,
+                Math.max(1, bytes / 1024));
         }
     }
 
@@ -39,7 +39,6 @@ package gov.nasa.kepler.dr.pixels;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
-import static com.google.common.collect.Sets.newHashSet;
 import static gov.nasa.kepler.common.FitsConstants.BASELINE_KW;
 import static gov.nasa.kepler.common.FitsConstants.BASENAME_KW;
 import static gov.nasa.kepler.common.FitsConstants.BASERCON_KW;
@@ -107,7 +106,7 @@ import gov.nasa.kepler.mc.KeplerException;
 import gov.nasa.kepler.mc.fs.DrFsIdFactory;
 import gov.nasa.kepler.mc.pmrf.PmrfCache;
 import gov.nasa.kepler.pi.pipeline.PipelineOperations;
-import gov.nasa.spiffy.common.collect.Pair;
+import gov.nasa.spiffy.common.concurrent.DaemonThreadFactory;
 import gov.nasa.spiffy.common.metrics.IntervalMetric;
 import gov.nasa.spiffy.common.metrics.IntervalMetricKey;
 import gov.nasa.spiffy.common.pi.Parameters;
@@ -115,6 +114,7 @@ import gov.nasa.spiffy.common.pi.PipelineException;
 
 import java.io.DataOutputStream;
 import java.io.File;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -122,6 +122,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nom.tam.fits.BasicHDU;
 import nom.tam.fits.Fits;
@@ -144,6 +150,20 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
 
     private static final Log log = LogFactory.getLog(PixelDispatcher.class);
 
+    /**
+     * The number of threads that read pixel FITS files in parallel. The
+     * default is the number of cores, up to {@link #MAX_DEFAULT_READER_THREADS}.
+     */
+    public static final String READER_THREAD_COUNT_PROP = "dr.pixels.dispatch.readerThreadCount";
+    private static final int MAX_DEFAULT_READER_THREADS = 8;
+
+    /**
+     * The amount of pixel data that may be held in time series buffers that are
+     * being filled or waiting to be written to the file store.
+     */
+    public static final String MAX_BUFFERED_MEGABYTES_PROP = "dr.pixels.dispatch.maxBufferedMegaBytes";
+    private static final int DEFAULT_MAX_BUFFERED_MEGABYTES = 2048;
+
     protected DataSetType dataSetType;
     protected TargetType targetTableType;
     protected int cadenceType;
@@ -157,7 +177,15 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
 
     private Map<String, PixelLog> filenameToPixelLogMap;
 
-    private Pair<Short, Set<Integer>> externalIdRequantValueSetPair;
+    private Map<Short, int[]> compressionTableIdToRequantValues = newHashMap();
+
+    private Set<String> pmrfFilenames;
+    private Map<String, byte[]> pmrfFilenameToBytes;
+
+    /**
+     * PmrfCache is not thread safe, so each reader thread gets its own.
+     */
+    private ThreadLocal<PmrfCache> readerPmrfCache;
 
     protected Set<String> ignoredFilenames;
 
@@ -257,6 +285,7 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
 
         filenameToPixelLogMap = new HashMap<String, PixelLog>();
         ignoredFilenames = new HashSet<String>();
+        pmrfFilenames = new TreeSet<String>();
 
         IntervalMetricKey metricKey = null;
         try {
@@ -265,6 +294,9 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
             log.info("extracting and storing cadence meta data");
             extractAndStoreCadenceMetaData(fileNames);
 
+            loadRequantValues();
+            loadPmrfs();
+
         } finally {
             IntervalMetric.stop("dr.dispatch.pixel.cadenceMetaData."
                 + dataSetType + ".process", metricKey);
@@ -367,6 +399,7 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
                 CadenceMetadata metadata = new CadenceMetadata(cadenceNumber,
                     pmrfFilename);
                 fitsMetadataCache.putMetadata(fitsFileName, metadata);
+                pmrfFilenames.add(pmrfFilename);
 
                 PixelLog pixelLog = new PixelLog();
                 pixelLog.setDispatchLog(dispatchLog);
@@ -600,8 +633,142 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
     protected abstract void extractAndStoreTimeSeriesData(
         List<String> fileNames, String sourceDirectory);
 
+    /**
+     * Retrieves the requant tables of this data set up front so that the
+     * pixel values can be validated from reader threads, which do not have a
+     * database session.
+     */
+    private void loadRequantValues() {
+        for (PixelLog pixelLog : filenameToPixelLogMap.values()) {
+            if (pixelLog.isDataRequantizedForDownlink()) {
+                getRequantValues(pixelLog.getCompressionTableId());
+            }
+        }
+    }
+
+    /**
+     * Reads the PMRFs of this data set from the file store on this thread, which
+     * owns the file store transaction, so that the reader threads never call
+     * the file store themselves.
+     */
+    private void loadPmrfs() {
+        pmrfFilenameToBytes = newHashMap();
+        for (String pmrfFilename : pmrfFilenames) {
+            pmrfFilenameToBytes.put(pmrfFilename,
+                PmrfCache.readPmrf(pmrfFilename));
+        }
+    }
+
+    protected int getReaderThreadCount() {
+        int defaultThreadCount = Math.min(MAX_DEFAULT_READER_THREADS,
+            Runtime.getRuntime()
+                .availableProcessors());
+
+        return Math.max(1, ConfigurationServiceFactory.getInstance()
+            .getInt(READER_THREAD_COUNT_PROP, defaultThreadCount));
+    }
+
+    protected int getMaxBufferedKiloBytes() {
+        int maxBufferedMegaBytes = ConfigurationServiceFactory.getInstance()
+            .getInt(MAX_BUFFERED_MEGABYTES_PROP, DEFAULT_MAX_BUFFERED_MEGABYTES);
+
+        return Math.max(1, maxBufferedMegaBytes) * 1024;
+    }
+
+    /**
+     * Creates the pool that reads pixel FITS files. Each thread of the pool
+     * gets its own {@link PmrfCache} from {@link #getReaderPmrfCache()}, which
+     * only uses the PMRFs that were read by {@link #loadPmrfs()}. Reader
+     * threads must not use the file store or the database, since the
+     * transaction and session of this dispatch belong to the calling thread.
+     */
+    protected ExecutorService createReaderPool() {
+        final CadenceType pmrfCadenceType = CadenceType.valueOf(cadenceType);
+        final Map<String, byte[]> pmrfs = pmrfFilenameToBytes;
+        readerPmrfCache = new ThreadLocal<PmrfCache>() {
+            @Override
+            protected PmrfCache initialValue() {
+                return new PmrfCache(pmrfCadenceType, pmrfs);
+            }
+        };
+
+        int readerThreadCount = getReaderThreadCount();
+        log.info("Reading pixel FITS files with " + readerThreadCount
+            + " threads.");
+
+        return Executors.newFixedThreadPool(readerThreadCount,
+            new DaemonThreadFactory("PixelReader"));
+    }
+
+    protected PmrfCache getReaderPmrfCache() {
+        return readerPmrfCache.get();
+    }
+
+    /**
+     * Writes a {@link TimeSeriesBuffer} to the file store in the background.
+     */
+    protected static class FlusherTask implements Callable<Object> {
+        private TimeSeriesBuffer bufferToFlush = null;
+
+        protected FlusherTask(TimeSeriesBuffer bufferToFlush) {
+            this.bufferToFlush = bufferToFlush;
+        }
+
+        public Object call() throws Exception {
+            bufferToFlush.flush();
+            return null;
+        }
+    }
+
+    /**
+     * Blocks until the flusher task completes.
+     */
+    protected void checkFlusherTaskResult(Future<?> flusherTaskResult) {
+        if (flusherTaskResult != null) {
+            log.info("Waiting for flusher task to complete");
+            IntervalMetricKey flusherWaitKey = IntervalMetric.start();
+            try {
+                flusherTaskResult.get();
+            } catch (InterruptedException e) {
+                throw new DispatchException("Flusher tasked failed", e);
+            } catch (ExecutionException e) {
+                throw new DispatchException("Flusher tasked failed", e);
+            } finally {
+                IntervalMetric.stop("dr.dispatch.pixel.flusher.waitTime",
+                    flusherWaitKey);
+            }
+        }
+    }
+
+    /**
+     * Waits for a task submitted to the reader pool and rethrows its failure.
+     */
+    protected <T> T takeReaderResult(CompletionService<T> completionService) {
+        try {
+            return completionService.take()
+                .get();
+        } catch (InterruptedException e) {
+            throw new DispatchException("Interrupted while reading pixels", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DispatchException("Failed to read pixels", e.getCause());
+        }
+    }
+
     protected void processCadenceForModuleOutput(CadenceFitsPair fitsFiles,
         int ccdModule, int ccdOutput) {
+        processCadenceForModuleOutput(fitsFiles, ccdModule, ccdOutput,
+            timeSeriesBuffer);
+    }
+
+    /**
+     * Validates the pixels of one cadence for one module/output and adds them
+     * to the given buffer. This may be called from reader threads.
+     */
+    protected void processCadenceForModuleOutput(CadenceFitsPair fitsFiles,
+        int ccdModule, int ccdOutput, TimeSeriesBuffer buffer) {
         IntervalMetricKey oneCadenceKey = null;
         try {
             oneCadenceKey = IntervalMetric.start();
@@ -615,62 +782,63 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
             }
 
             int rowCount = fitsFiles.getRowCountForCurrentModuleOutput();
+            int[] rawValueColumn = fitsFiles.getRawValueColumn();
+            PixelLog pixelLog = filenameToPixelLogMap.get(fitsFiles.getFitsFileName());
 
             IntervalMetricKey fitsReadRowsKey = null;
             try {
                 fitsReadRowsKey = IntervalMetric.start();
-                for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
-                    TimeSeriesEntry timeSeriesEntry = fitsFiles.readRow(rowIndex);
-
-                    int rawPixelValue = timeSeriesEntry.getValue();
-                    if (rawPixelValue != MISSING_PIXEL_VALUE) {
-                        PixelLog pixelLog = filenameToPixelLogMap.get(fitsFiles.getFitsFileName());
-                        if (pixelLog != null) {
-                            Set<Integer> requantValueSet = getRequantValueSet(pixelLog.getCompressionTableId());
-
-                            if (pixelLog.isDataRequantizedForDownlink()) {
-                                if (!requantValueSet.contains(rawPixelValue)) {
-                                    throw new PipelineException(
-                                        "Pixel values must exist in the requant table."
-                                            + "\n  compressionExternalId: "
-                                            + pixelLog.getCompressionTableId()
-                                            + "\n  fitsFile: "
-                                            + fitsFiles.getFitsFileName()
-                                            + "\n  cadenceNumber: "
-                                            + fitsFiles.getCadenceNumber()
-                                            + "\n  channel: "
-                                            + FcConstants.getChannelNumber(
-                                                ccdModule, ccdOutput)
-                                            + "\n  rowInBinaryTable: "
-                                            + rowIndex + "\n  pixelValue: "
-                                            + rawPixelValue);
-                                }
-                            } else {
-                                if (rawPixelValue > FcConstants.REQUANT_TABLE_MAX_VALUE
-                                    || rawPixelValue < FcConstants.REQUANT_TABLE_MIN_VALUE) {
-                                    throw new PipelineException(
-                                        "Pixel values must be in the valid range for requant table values."
-                                            + "\n  requantTableMaxValue: "
-                                            + FcConstants.REQUANT_TABLE_MAX_VALUE
-                                            + "\n  requantTableMinValue: "
-                                            + FcConstants.REQUANT_TABLE_MIN_VALUE
-                                            + "\n  fitsFile: "
-                                            + fitsFiles.getFitsFileName()
-                                            + "\n  cadenceNumber: "
-                                            + fitsFiles.getCadenceNumber()
-                                            + "\n  channel: "
-                                            + FcConstants.getChannelNumber(
-                                                ccdModule, ccdOutput)
-                                            + "\n  rowInBinaryTable: "
-                                            + rowIndex + "\n  pixelValue: "
-                                            + rawPixelValue);
-                                }
+                if (pixelLog != null) {
+                    if (pixelLog.isDataRequantizedForDownlink()) {
+                        int[] requantValues = getRequantValues(pixelLog.getCompressionTableId());
+                        for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+                            int rawPixelValue = rawValueColumn[rowIndex];
+                            if (rawPixelValue != MISSING_PIXEL_VALUE
+                                && Arrays.binarySearch(requantValues,
+                                    rawPixelValue) < 0) {
+                                throw new PipelineException(
+                                    "Pixel values must exist in the requant table."
+                                        + "\n  compressionExternalId: "
+                                        + pixelLog.getCompressionTableId()
+                                        + "\n  fitsFile: "
+                                        + fitsFiles.getFitsFileName()
+                                        + "\n  cadenceNumber: "
+                                        + fitsFiles.getCadenceNumber()
+                                        + "\n  channel: "
+                                        + FcConstants.getChannelNumber(
+                                            ccdModule, ccdOutput)
+                                        + "\n  rowInBinaryTable: " + rowIndex
+                                        + "\n  pixelValue: " + rawPixelValue);
+                            }
+                        }
+                    } else {
+                        for (int rowIndex = 0; rowIndex < rowCount; rowIndex++) {
+                            int rawPixelValue = rawValueColumn[rowIndex];
+                            if (rawPixelValue != MISSING_PIXEL_VALUE
+                                && (rawPixelValue > FcConstants.REQUANT_TABLE_MAX_VALUE
+                                || rawPixelValue < FcConstants.REQUANT_TABLE_MIN_VALUE)) {
+                                throw new PipelineException(
+                                    "Pixel values must be in the valid range for requant table values."
+                                        + "\n  requantTableMaxValue: "
+                                        + FcConstants.REQUANT_TABLE_MAX_VALUE
+                                        + "\n  requantTableMinValue: "
+                                        + FcConstants.REQUANT_TABLE_MIN_VALUE
+                                        + "\n  fitsFile: "
+                                        + fitsFiles.getFitsFileName()
+                                        + "\n  cadenceNumber: "
+                                        + fitsFiles.getCadenceNumber()
+                                        + "\n  channel: "
+                                        + FcConstants.getChannelNumber(
+                                            ccdModule, ccdOutput)
+                                        + "\n  rowInBinaryTable: " + rowIndex
+                                        + "\n  pixelValue: " + rawPixelValue);
                             }
                         }
                     }
-
-                    timeSeriesBuffer.addValue(timeSeriesEntry);
                 }
+
+                buffer.addColumn(fitsFiles.getPmrfTable(),
+                    fitsFiles.getCadenceNumber(), rawValueColumn);
             } finally {
                 IntervalMetric.stop(
                     "dr.dispatch.pixel.oneCadence.fitsReadRowsModOut",
@@ -682,9 +850,13 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
         }
     }
 
-    private Set<Integer> getRequantValueSet(short compressionTableId) {
-        if (externalIdRequantValueSetPair == null
-            || externalIdRequantValueSetPair.left != compressionTableId) {
+    /**
+     * @return the requant flux values of the given table, sorted for
+     * {@link Arrays#binarySearch(int[], int)}.
+     */
+    private synchronized int[] getRequantValues(short compressionTableId) {
+        int[] requantValues = compressionTableIdToRequantValues.get(compressionTableId);
+        if (requantValues == null) {
             CompressionCrud compressionCrud = new CompressionCrud();
             RequantTable requantTable = compressionCrud.retrieveUplinkedRequantTable(compressionTableId);
 
@@ -694,16 +866,19 @@ public abstract class PixelDispatcher implements Dispatcher, Launchable {
                         + compressionTableId + ".");
             }
 
-            Set<Integer> requantValueSet = newHashSet();
-            for (RequantEntry entry : requantTable.getRequantEntries()) {
-                requantValueSet.add(entry.getRequantFlux());
+            List<RequantEntry> requantEntries = requantTable.getRequantEntries();
+            requantValues = new int[requantEntries.size()];
+            int i = 0;
+            for (RequantEntry entry : requantEntries) {
+                requantValues[i++] = entry.getRequantFlux();
             }
+            Arrays.sort(requantValues);
 
-            externalIdRequantValueSetPair = Pair.of(compressionTableId,
-                requantValueSet);
+            compressionTableIdToRequantValues.put(compressionTableId,
+                requantValues);
         }
 
-        return externalIdRequantValueSetPair.right;
+        return requantValues;
     }
 
 }
@@ -37,14 +37,22 @@
 
 package gov.nasa.kepler.dr.pixels;
 
+import static com.google.common.collect.Lists.newArrayList;
 import gov.nasa.kepler.common.Cadence;
-import gov.nasa.kepler.common.Cadence.CadenceType;
 import gov.nasa.kepler.common.FcConstants;
 import gov.nasa.kepler.dr.dispatch.DispatchException;
 import gov.nasa.kepler.mc.pmrf.PmrfCache;
+import gov.nasa.spiffy.common.concurrent.DaemonThreadFactory;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -59,50 +67,101 @@ public class ShortCadencePixelDispatcher extends PixelDispatcher {
 
     private static final Log log = LogFactory.getLog(ShortCadencePixelDispatcher.class);
 
+    /**
+     * The number of files given to a reader thread at a time.
+     */
+    private static final int FILES_PER_CHUNK = 32;
+
     public ShortCadencePixelDispatcher() {
         cadenceType = Cadence.CADENCE_SHORT;
     }
 
+    /**
+     * Short cadence data has many small files, so each file is opened once and
+     * all of its module/outputs are read. Chunks of files are read in parallel
+     * by the reader pool into a shared {@link TimeSeriesBuffer}. When the
+     * buffer grows beyond {@link PixelDispatcher#MAX_BUFFERED_MEGABYTES_PROP}
+     * it is written to the file store in the background while a new buffer is
+     * filled. This relies on gaps not overwriting data already in the file
+     * store, so it is only done when overwriteGaps is false.
+     */
     @Override
     protected void extractAndStoreTimeSeriesData(List<String> fileNames,
         String sourceDirectory) {
-        pmrfCache = new PmrfCache(CadenceType.valueOf(cadenceType));
-
         long startTime = System.currentTimeMillis();
 
         timeSeriesBuffer = new TimeSeriesBuffer(startCadence, endCadence,
             overwriteGaps);
 
-        int fileCount = 0;
+        List<List<String>> fileChunks = newArrayList();
+        List<String> fileChunk = null;
         for (String fitsFileName : fileNames) {
             if (!ignoredFilenames.contains(fitsFileName)) {
-                if (fileCount % 1000 == 0) {
+                if (fileChunk == null || fileChunk.size() == FILES_PER_CHUNK) {
+                    fileChunk = newArrayList();
+                    fileChunks.add(fileChunk);
+                }
+                fileChunk.add(fitsFileName);
+            }
+        }
+
+        ExecutorService readerPool = createReaderPool();
+        CompletionService<Integer> readerResults = new ExecutorCompletionService<Integer>(
+            readerPool);
+        int maxChunksInProgress = 2 * getReaderThreadCount();
+        long maxBufferedBytes = getMaxBufferedKiloBytes() * 1024L;
+        ExecutorService flusherThread = Executors.newSingleThreadExecutor(new DaemonThreadFactory(
+            "PixelFlusher"));
+        Future<?> flusherTaskResult = null;
+
+        try {
+            Iterator<List<String>> chunkIterator = fileChunks.iterator();
+            int chunksInProgress = 0;
+            int fileCount = 0;
+            int lastLoggedFileCount = 0;
+            while (chunkIterator.hasNext() || chunksInProgress > 0) {
+                while (chunkIterator.hasNext()
+                    && chunksInProgress < maxChunksInProgress) {
+                    readerResults.submit(new FileChunkReader(
+                        chunkIterator.next(), sourceDirectory,
+                        timeSeriesBuffer));
+                    chunksInProgress++;
+                }
+
+                fileCount += takeReaderResult(readerResults);
+                chunksInProgress--;
+
+                if (fileCount - lastLoggedFileCount >= 1000) {
                     log.info("Processed " + fileCount + " of "
                         + fileNames.size() + " files for "
                         + "(dataset/table) = (" + dataSetType + "/"
                         + targetTableType + ")");
+                    lastLoggedFileCount = fileCount;
                 }
 
-                CadenceFitsPair fitsFiles = new CadenceFitsPair(
-                    sourceDirectory, fitsFileName, dataSetType,
-                    targetTableType, pmrfCache, fitsMetadataCache);
-
-                for (int ccdModule : FcConstants.modulesList) {
-                    for (int ccdOutput : FcConstants.outputsList) {
-                        fitsFiles.setCurrentModuleOutput(ccdModule, ccdOutput);
-                        processCadenceForModuleOutput(fitsFiles, ccdModule,
-                            ccdOutput);
+                if (!overwriteGaps && chunkIterator.hasNext()
+                    && timeSeriesBuffer.getCurrentSizeBytes() > maxBufferedBytes) {
+                    // Let the readers of this buffer finish before handing it
+                    // to the flusher.
+                    while (chunksInProgress > 0) {
+                        fileCount += takeReaderResult(readerResults);
+                        chunksInProgress--;
                     }
-                }
 
-                try {
-                    fitsFiles.close();
-                } catch (IOException e) {
-                    throw new DispatchException("Unable to close.  ", e);
-                }
+                    checkFlusherTaskResult(flusherTaskResult);
+                    log.info("submitting TimeSeriesBuffer.flush() task to flusher thread");
+                    flusherTaskResult = flusherThread.submit(new FlusherTask(
+                        timeSeriesBuffer));
 
-                fileCount++;
+                    timeSeriesBuffer = new TimeSeriesBuffer(startCadence,
+                        endCadence, overwriteGaps);
+                }
             }
+
+            checkFlusherTaskResult(flusherTaskResult);
+        } finally {
+            readerPool.shutdownNow();
+            flusherThread.shutdown();
         }
 
         timeSeriesBuffer.flush();
@@ -111,4 +170,52 @@ public class ShortCadencePixelDispatcher extends PixelDispatcher {
             + ((System.currentTimeMillis() - startTime) / 1000F) + " secs.");
     }
 
+    /**
+     * Reads every module/output of a list of files into a shared
+     * {@link TimeSeriesBuffer}. Runs on the reader pool and returns the number
+     * of files read.
+     */
+    private class FileChunkReader implements Callable<Integer> {
+        private final List<String> fileNames;
+        private final String sourceDirectory;
+        private final TimeSeriesBuffer buffer;
+
+        private FileChunkReader(List<String> fileNames,
+            String sourceDirectory, TimeSeriesBuffer buffer) {
+            this.fileNames = fileNames;
+            this.sourceDirectory = sourceDirectory;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Integer call() throws Exception {
+            PmrfCache pmrfCache = getReaderPmrfCache();
+
+            for (String fitsFileName : fileNames) {
+                CadenceFitsPair fitsFiles = new CadenceFitsPair(
+                    sourceDirectory, fitsFileName, dataSetType,
+                    targetTableType, pmrfCache, fitsMetadataCache);
+
+                try {
+                    for (int ccdModule : FcConstants.modulesList) {
+                        for (int ccdOutput : FcConstants.outputsList) {
+                            fitsFiles.setCurrentModuleOutput(ccdModule,
+                                ccdOutput);
+                            processCadenceForModuleOutput(fitsFiles,
+                                ccdModule, ccdOutput, buffer);
+                        }
+                    }
+                } finally {
+                    try {
+                        fitsFiles.close();
+                    } catch (IOException e) {
+                        throw new DispatchException("Unable to close.  ", e);
+                    }
+                }
+            }
+
+            return fileNames.size();
+        }
+    }
+
 }
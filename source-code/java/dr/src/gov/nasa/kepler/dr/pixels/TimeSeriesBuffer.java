@@ -44,11 +44,16 @@ import gov.nasa.kepler.fs.api.FsId;
 import gov.nasa.kepler.fs.api.IntTimeSeries;
 import gov.nasa.kepler.mc.dr.PixelTimeSeriesOperations;
 import gov.nasa.kepler.mc.dr.PixelTimeSeriesWriter;
+import gov.nasa.kepler.mc.pmrf.PmrfTable;
 import gov.nasa.spiffy.common.metrics.IntervalMetric;
 import gov.nasa.spiffy.common.metrics.IntervalMetricKey;
 import gov.nasa.spiffy.common.pi.PipelineException;
 
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -56,6 +61,17 @@ import org.apache.commons.logging.LogFactory;
 /**
  * Contains a buffer of time series.
  * 
+ * Pixels can be added one value at a time with
+ * {@link #addValue(TimeSeriesEntry)} or one cadence at a time with
+ * {@link #addColumn(PmrfTable, int, int[])}. Columns are stored as they arrive
+ * from the FITS binary table and are only transposed into per pixel time
+ * series when the buffer is flushed, so the ingest path does no per pixel
+ * hashing or object allocation.
+ * 
+ * {@link #addColumn(PmrfTable, int, int[])} may be called from several
+ * threads at once. {@link #addValue(TimeSeriesEntry)} and {@link #flush()}
+ * must not run concurrently with any other method.
+ * 
  * @author Miles Cote
  * 
  */
@@ -63,6 +79,14 @@ class TimeSeriesBuffer {
 
     private static final Log log = LogFactory.getLog(TimeSeriesBuffer.class);
 
+    /**
+     * The number of cadences transposed together at flush time. Each pixel's
+     * time series is written sequentially for this many cadences before
+     * moving on to the next pixel. The columns of a tile are released once
+     * the tile has been transposed.
+     */
+    private static final int TRANSPOSE_TILE_CADENCES = 64;
+
     private int startCadence;
     private int endCadence;
 
@@ -71,6 +95,17 @@ class TimeSeriesBuffer {
 
     private Map<FsId, DrTimeSeries> fsIdToDrTimeSeries = newHashMap();
 
+    /**
+     * PmrfCache hands out the same table instance for a channel until the
+     * PMRF file changes, so identity is sufficient here.
+     */
+    private final Map<PmrfTable, ColumnBlock> pmrfTableToColumnBlock = new IdentityHashMap<PmrfTable, ColumnBlock>();
+    private final List<ColumnBlock> columnBlocks = new ArrayList<ColumnBlock>();
+    private ColumnBlock lastColumnBlock;
+
+    private Semaphore memoryBudget;
+    private int reservedKiloBytes;
+
     private boolean overwriteGaps = false;
 
     private final PixelTimeSeriesWriter timeSeriesWriter;
@@ -103,6 +138,77 @@ class TimeSeriesBuffer {
             timeSeriesEntry.getValue());
     }
 
+    /**
+     * Adds the raw pixel values of one cadence for all the rows of the given
+     * PMRF table.
+     * 
+     * @param pmrfTable maps each index in rawValues to an {@link FsId}.
+     * @param cadenceNumber the cadence of these values.
+     * @param rawValues one value per PMRF row, {@code MISSING_PIXEL_VALUE} for
+     * gaps. This array is copied.
+     */
+    void addColumn(PmrfTable pmrfTable, int cadenceNumber, int[] rawValues) {
+        int valueCount = 0;
+        for (int value : rawValues) {
+            if (value != MISSING_PIXEL_VALUE) {
+                valueCount++;
+            }
+        }
+        if (valueCount == 0) {
+            return;
+        }
+        checkCadenceNumber(cadenceNumber);
+
+        int[] column = rawValues.clone();
+
+        synchronized (this) {
+            ColumnBlock columnBlock = lastColumnBlock;
+            if (columnBlock == null || columnBlock.pmrfTable != pmrfTable) {
+                columnBlock = pmrfTableToColumnBlock.get(pmrfTable);
+                if (columnBlock == null) {
+                    columnBlock = new ColumnBlock(pmrfTable);
+                    pmrfTableToColumnBlock.put(pmrfTable, columnBlock);
+                    columnBlocks.add(columnBlock);
+
+                    timeSeriesCount += columnBlock.pixelCount;
+                }
+                lastColumnBlock = columnBlock;
+            }
+
+            columnBlock.addColumn(cadenceNumber, column);
+
+            byteCount += 4 * valueCount;
+        }
+    }
+
+    /**
+     * Blocks until the given number of kilobytes can be taken from
+     * memoryBudget. They are given back by {@link #releaseMemory()}, which
+     * {@link #flush()} calls.
+     */
+    void reserveMemory(Semaphore memoryBudget, int kiloBytes)
+        throws InterruptedException {
+        memoryBudget.acquire(kiloBytes);
+
+        synchronized (this) {
+            this.memoryBudget = memoryBudget;
+            reservedKiloBytes = kiloBytes;
+        }
+    }
+
+    /**
+     * Gives back the memory taken by {@link #reserveMemory(Semaphore, int)}.
+     * This must be called for a buffer that will not be flushed. Calling it
+     * more than once has no further effect.
+     */
+    synchronized void releaseMemory() {
+        if (memoryBudget != null) {
+            memoryBudget.release(reservedKiloBytes);
+            memoryBudget = null;
+            reservedKiloBytes = 0;
+        }
+    }
+
     void flush() {
         log.info("TimeSeriesBuffer.currentSizeKBytes = "
             + getCurrentSizeBytes() / 1024);
@@ -116,16 +222,40 @@ class TimeSeriesBuffer {
 
             bufferFlushKey = IntervalMetric.start();
 
-            IntTimeSeries[] itsArray = new IntTimeSeries[fsIdToDrTimeSeries.values()
-                .size()];
-            int i = 0;
-            for (DrTimeSeries drTimeSeries : fsIdToDrTimeSeries.values()) {
-                IntTimeSeries its = drTimeSeries.getIntTimeSeries();
+            IntTimeSeries[] itsArray = null;
+            if (fsIdToDrTimeSeries.isEmpty() && columnBlocks.size() == 1) {
+                DrTimeSeries[] drTimeSeriesArray = columnBlocks.get(0)
+                    .transpose();
+                itsArray = new IntTimeSeries[drTimeSeriesArray.length];
+                for (int i = 0; i < drTimeSeriesArray.length; i++) {
+                    itsArray[i] = drTimeSeriesArray[i].getIntTimeSeries();
+                }
+            } else {
+                // Drop each block as soon as it has been merged.
+                List<ColumnBlock> blocks = new ArrayList<ColumnBlock>(
+                    columnBlocks);
+                pmrfTableToColumnBlock.clear();
+                columnBlocks.clear();
+                lastColumnBlock = null;
+                for (int i = 0; i < blocks.size(); i++) {
+                    mergeColumnBlock(blocks.get(i));
+                    blocks.set(i, null);
+                }
+
+                itsArray = new IntTimeSeries[fsIdToDrTimeSeries.values()
+                    .size()];
+                int i = 0;
+                for (DrTimeSeries drTimeSeries : fsIdToDrTimeSeries.values()) {
+                    IntTimeSeries its = drTimeSeries.getIntTimeSeries();
 
-                itsArray[i] = its;
+                    itsArray[i] = its;
 
-                i++;
+                    i++;
+                }
             }
+            pmrfTableToColumnBlock.clear();
+            columnBlocks.clear();
+            lastColumnBlock = null;
 
             timeSeriesWriter.write(itsArray, overwriteGaps);
 
@@ -139,6 +269,38 @@ class TimeSeriesBuffer {
         } finally {
             IntervalMetric.stop("dr.dispatch.pixel.timeSeriesBuffer.flush",
                 bufferFlushKey);
+
+            releaseMemory();
+        }
+    }
+
+    /**
+     * Folds a column block into the per {@link FsId} map. This is only needed
+     * when the same pixel may have been added through more than one PMRF
+     * table or through {@link #addValue(TimeSeriesEntry)}.
+     */
+    private void mergeColumnBlock(ColumnBlock columnBlock) {
+        for (DrTimeSeries columnTimeSeries : columnBlock.transpose()) {
+            DrTimeSeries drTimeSeries = fsIdToDrTimeSeries.get(columnTimeSeries.fsId);
+            if (drTimeSeries == null) {
+                fsIdToDrTimeSeries.put(columnTimeSeries.fsId, columnTimeSeries);
+            } else {
+                drTimeSeries.merge(columnTimeSeries);
+            }
+        }
+    }
+
+    private void checkCadenceNumber(int cadenceNumber) {
+        if (cadenceNumber < startCadence) {
+            throw new PipelineException(
+                "cadenceNumber must not be less than startCadence.\n  cadenceNumber: "
+                    + cadenceNumber + "\n  startCadence: " + startCadence);
+        }
+
+        if (cadenceNumber > endCadence) {
+            throw new PipelineException(
+                "cadenceNumber must not be greater than endCadence.\n  cadenceNumber: "
+                    + cadenceNumber + "\n  endCadence: " + endCadence);
         }
     }
 
@@ -146,7 +308,7 @@ class TimeSeriesBuffer {
         return (endCadence - startCadence) + 1;
     }
 
-    public int getCurrentSizeBytes() {
+    public synchronized int getCurrentSizeBytes() {
         return byteCount;
     }
 
@@ -170,20 +332,15 @@ class TimeSeriesBuffer {
             }
         }
 
+        public DrTimeSeries(FsId fsId, int[] iseries, boolean[] gaps) {
+            this.fsId = fsId;
+            this.iseries = iseries;
+            this.gaps = gaps;
+        }
+
         public void addValue(int cadenceNumber, int value) {
             if (value != MISSING_PIXEL_VALUE) {
-                if (cadenceNumber < startCadence) {
-                    throw new PipelineException(
-                        "cadenceNumber must not be less than startCadence.\n  cadenceNumber: "
-                            + cadenceNumber + "\n  startCadence: "
-                            + startCadence);
-                }
-
-                if (cadenceNumber > endCadence) {
-                    throw new PipelineException(
-                        "cadenceNumber must not be greater than endCadence.\n  cadenceNumber: "
-                            + cadenceNumber + "\n  endCadence: " + endCadence);
-                }
+                checkCadenceNumber(cadenceNumber);
 
                 int i = cadenceNumber - startCadence;
                 iseries[i] = value;
@@ -193,10 +350,106 @@ class TimeSeriesBuffer {
             }
         }
 
+        public void merge(DrTimeSeries other) {
+            for (int i = 0; i < iseries.length; i++) {
+                if (!other.gaps[i]) {
+                    iseries[i] = other.iseries[i];
+                    gaps[i] = false;
+                }
+            }
+        }
+
         public IntTimeSeries getIntTimeSeries() {
             return new IntTimeSeries(fsId, iseries, startCadence, endCadence,
                 gaps, DispatcherWrapper.DATA_RECEIPT_ORIGIN_ID);
         }
     }
 
+    /**
+     * The cadence columns received for one PMRF table. Columns are indexed by
+     * cadence relative to startCadence; a null column is a cadence that was
+     * never received.
+     */
+    private class ColumnBlock {
+
+        private final PmrfTable pmrfTable;
+        private final int pixelCount;
+        private int[][] columns;
+
+        public ColumnBlock(PmrfTable pmrfTable) {
+            this.pmrfTable = pmrfTable;
+            this.pixelCount = pmrfTable.length();
+            this.columns = new int[getCadenceCount()][];
+        }
+
+        public void addColumn(int cadenceNumber, int[] column) {
+            if (column.length != pixelCount) {
+                throw new PipelineException(
+                    "The column length must match the pmrf length.\n  columnLength: "
+                        + column.length + "\n  pmrfLength: " + pixelCount);
+            }
+
+            int i = cadenceNumber - startCadence;
+            int[] existingColumn = columns[i];
+            if (existingColumn == null) {
+                columns[i] = column;
+            } else {
+                // Same cadence delivered twice, later values win.
+                for (int row = 0; row < pixelCount; row++) {
+                    if (column[row] != MISSING_PIXEL_VALUE) {
+                        existingColumn[row] = column[row];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Converts the cadence columns into one time series per pixel. The
+         * cadences are transposed a tile at a time and each tile's columns
+         * are released before the next tile is read, so the peak memory use
+         * is that of the time series plus one tile of columns.
+         */
+        public DrTimeSeries[] transpose() {
+            int cadenceCount = getCadenceCount();
+            int[][] series = new int[pixelCount][cadenceCount];
+            boolean[][] gaps = new boolean[pixelCount][cadenceCount];
+
+            for (int tileStart = 0; tileStart < cadenceCount; tileStart += TRANSPOSE_TILE_CADENCES) {
+                int tileEnd = Math.min(tileStart + TRANSPOSE_TILE_CADENCES,
+                    cadenceCount);
+
+                for (int row = 0; row < pixelCount; row++) {
+                    int[] rowSeries = series[row];
+                    boolean[] rowGaps = gaps[row];
+                    for (int c = tileStart; c < tileEnd; c++) {
+                        int[] column = columns[c];
+                        if (column == null) {
+                            rowGaps[c] = true;
+                            continue;
+                        }
+                        int value = column[row];
+                        if (value == MISSING_PIXEL_VALUE) {
+                            rowGaps[c] = true;
+                        } else {
+                            rowSeries[c] = value;
+                        }
+                    }
+                }
+
+                for (int c = tileStart; c < tileEnd; c++) {
+                    columns[c] = null;
+                }
+            }
+            columns = null;
+
+            DrTimeSeries[] drTimeSeriesArray = new DrTimeSeries[pixelCount];
+            for (int row = 0; row < pixelCount; row++) {
+                drTimeSeriesArray[row] = new DrTimeSeries(
+                    pmrfTable.getFsId(row), series[row], gaps[row]);
+            }
+
+            return drTimeSeriesArray;
+        }
+    }
+
 }
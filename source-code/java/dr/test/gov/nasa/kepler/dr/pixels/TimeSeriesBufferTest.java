@@ -52,12 +52,18 @@ import gov.nasa.kepler.fs.api.IntTimeSeries;
 import gov.nasa.kepler.fs.client.FileStoreClientFactory;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseServiceFactory;
 import gov.nasa.kepler.hibernate.dbservice.TestUtils;
+import gov.nasa.kepler.mc.pmrf.PmrfTable;
 import gov.nasa.spiffy.common.intervals.SimpleInterval;
 import gov.nasa.spiffy.common.intervals.TaggedInterval;
 import gov.nasa.spiffy.common.io.FileUtil;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.After;
 import org.junit.Before;
@@ -716,4 +722,138 @@ public class TimeSeriesBufferTest {
         fsClient.commitLocalFsTransaction();
     }
 
+    @Test
+    public void testColumns() throws Exception {
+        populateObjects();
+
+        try {
+            fsClient.beginLocalFsTransaction();
+
+            PmrfTable pmrfTable = new PmrfTable() {
+                @Override
+                public int length() {
+                    return 2;
+                }
+
+                @Override
+                public FsId getFsId(int rowIndex) {
+                    return rowIndex == 0 ? fsId1 : fsId2;
+                }
+            };
+
+            TimeSeriesBuffer timeSeriesBuffer = new TimeSeriesBuffer(0, 4,
+                false);
+
+            timeSeriesBuffer.addColumn(pmrfTable, 0, new int[] { 10, 20 });
+            timeSeriesBuffer.addColumn(pmrfTable, 1, new int[] {
+                MISSING_PIXEL_VALUE, 21 });
+            timeSeriesBuffer.addColumn(pmrfTable, 3, new int[] { 13, 23 });
+            timeSeriesBuffer.addValue(new TimeSeriesEntry(fsId1, 4, 14));
+            timeSeriesBuffer.flush();
+
+            fsClient.commitLocalFsTransaction();
+
+            fsClient.beginLocalFsTransaction();
+
+            FsId[] fsids = { fsId1, fsId2 };
+            IntTimeSeries[] intTimeSeries = fsClient.readTimeSeriesAsInt(fsids,
+                0, 4);
+
+            assertEquals(2, intTimeSeries.length);
+
+            LinkedList<SimpleInterval> expectedValidCadences = new LinkedList<SimpleInterval>();
+            expectedValidCadences.add(new SimpleInterval(0, 0));
+            expectedValidCadences.add(new SimpleInterval(3, 4));
+
+            assertTrue(Arrays.equals(new int[] { 10, 0, 0, 13, 14 },
+                intTimeSeries[0].iseries()));
+            assertEquals(expectedValidCadences,
+                intTimeSeries[0].validCadences());
+
+            expectedValidCadences = new LinkedList<SimpleInterval>();
+            expectedValidCadences.add(new SimpleInterval(0, 1));
+            expectedValidCadences.add(new SimpleInterval(3, 3));
+
+            assertTrue(Arrays.equals(new int[] { 20, 21, 0, 23, 0 },
+                intTimeSeries[1].iseries()));
+            assertEquals(expectedValidCadences,
+                intTimeSeries[1].validCadences());
+
+            fsClient.commitLocalFsTransaction();
+        } finally {
+            fsClient.rollbackLocalFsTransactionIfActive();
+        }
+    }
+
+    @Test
+    public void testConcurrentColumns() throws Exception {
+        populateObjects();
+
+        try {
+            fsClient.beginLocalFsTransaction();
+
+            final PmrfTable pmrfTable = new PmrfTable() {
+                @Override
+                public int length() {
+                    return 2;
+                }
+
+                @Override
+                public FsId getFsId(int rowIndex) {
+                    return rowIndex == 0 ? fsId1 : fsId2;
+                }
+            };
+
+            final TimeSeriesBuffer timeSeriesBuffer = new TimeSeriesBuffer(0,
+                99, false);
+
+            ExecutorService executor = Executors.newFixedThreadPool(4);
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (int i = 0; i < 4; i++) {
+                final int firstCadence = i;
+                results.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int cadence = firstCadence; cadence < 100; cadence += 4) {
+                            timeSeriesBuffer.addColumn(pmrfTable, cadence,
+                                new int[] { cadence, cadence + 1000 });
+                        }
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+            executor.shutdown();
+
+            assertEquals(100 * 2 * 4, timeSeriesBuffer.getCurrentSizeBytes());
+
+            timeSeriesBuffer.flush();
+
+            fsClient.commitLocalFsTransaction();
+
+            fsClient.beginLocalFsTransaction();
+
+            FsId[] fsids = { fsId1, fsId2 };
+            IntTimeSeries[] intTimeSeries = fsClient.readTimeSeriesAsInt(fsids,
+                0, 99);
+
+            int[] expectedIntSeries1 = new int[100];
+            int[] expectedIntSeries2 = new int[100];
+            for (int cadence = 0; cadence < 100; cadence++) {
+                expectedIntSeries1[cadence] = cadence;
+                expectedIntSeries2[cadence] = cadence + 1000;
+            }
+
+            assertTrue(Arrays.equals(expectedIntSeries1,
+                intTimeSeries[0].iseries()));
+            assertTrue(Arrays.equals(expectedIntSeries2,
+                intTimeSeries[1].iseries()));
+
+            fsClient.commitLocalFsTransaction();
+        } finally {
+            fsClient.rollbackLocalFsTransactionIfActive();
+        }
+    }
+
 }
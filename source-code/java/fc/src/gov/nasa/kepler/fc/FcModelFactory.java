@@ -192,6 +192,13 @@ public class FcModelFactory {
         return model;
     }
 
+    public static GeometryModel geometryModel(double[] mjds,
+        double[][] constants, double[][] uncertainty) {
+        GeometryModel model = new GeometryModel(mjds, constants, uncertainty);
+        model.setFcModelMetadata(retrieveFcModelMetadata(HistoryModelName.GEOMETRY));
+        return model;
+    }
+
     public static RollTimeModel rollTimeModel() {
         RollTimeModel model = new RollTimeModel();
         model.setFcModelMetadata(retrieveFcModelMetadata(HistoryModelName.ROLLTIME));
@@ -45,6 +45,7 @@ import gov.nasa.kepler.fc.TargetPixel;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseServiceFactory;
 import gov.nasa.kepler.hibernate.fc.FlatField;
+import gov.nasa.kepler.hibernate.fc.FcModelCache;
 import gov.nasa.kepler.hibernate.fc.LargeFlatField;
 import gov.nasa.kepler.hibernate.fc.SmallFlatFieldImage;
 import gov.nasa.kepler.hibernate.tad.TargetDefinition;
@@ -211,13 +212,13 @@ public class FlatFieldOperations {
 
         double[] mjds = retrieveSmallFlatFieldImageTimes();
 
-        SmallFlatFieldImage smallFlatImage = retrieveSmallFlatFieldImage(
+        FcModelCache.Image smallFlatImage = smallOps.retrieveSmallFlatFieldImageData(
             mjds[0], ccdModule, ccdOutput);
 
-        float smallFlatValue = smallFlatImage.getImageValue(pixelRow,
-            pixelColumn);
+        float smallFlatValue = smallFlatImage.getValue(pixelRow, pixelColumn);
 
-        LargeFlatField lff = retrieveLargeFlatField(mjd, ccdModule, ccdOutput);
+        LargeFlatField lff = largeOps.retrieveCachedLargeFlatField(mjd,
+            ccdModule, ccdOutput);
 
         double lfValue = lff.getFlat(pixelRow, pixelColumn);
         double flatFieldValue = smallFlatValue * lfValue;
@@ -237,19 +238,20 @@ public class FlatFieldOperations {
      */
     public float[][] retrieveFlatField(int ccdModule, int ccdOutput,
         double mjd, int[] rows, int[] cols) throws PipelineException {
-        LargeFlatField lff = retrieveLargeFlatField(mjd, ccdModule, ccdOutput);
-
-        SmallFlatFieldImage smallFlatImage = retrieveSmallFlatFieldImage(mjd,
+        LargeFlatField lff = largeOps.retrieveCachedLargeFlatField(mjd,
             ccdModule, ccdOutput);
 
+        FcModelCache.Image smallFlatImage = smallOps.retrieveSmallFlatFieldImageData(
+            mjd, ccdModule, ccdOutput);
+
         return calcFlatField(smallFlatImage, lff, rows, cols);
     }
 
     public float[][] retrieveUncertainties(int ccdModule, int ccdOutput,
         double mjd, int[] rows, int[] cols) throws PipelineException {
 
-        SmallFlatFieldImage smallFlatImage = retrieveSmallFlatFieldImage(mjd,
-            ccdModule, ccdOutput);
+        FcModelCache.Image smallFlatImage = smallOps.retrieveSmallFlatFieldImageData(
+            mjd, ccdModule, ccdOutput);
 
         return unpackUncertainties(smallFlatImage, rows, cols);
     }
@@ -265,19 +267,20 @@ public class FlatFieldOperations {
      */
     public float[][] retrieveFlatField(int ccdModule, int ccdOutput, double mjd) {
 
-        LargeFlatField lff = retrieveLargeFlatField(mjd, ccdModule, ccdOutput);
-
-        SmallFlatFieldImage smallFlatImage = retrieveSmallFlatFieldImage(mjd,
+        LargeFlatField lff = largeOps.retrieveCachedLargeFlatField(mjd,
             ccdModule, ccdOutput);
 
+        FcModelCache.Image smallFlatImage = smallOps.retrieveSmallFlatFieldImageData(
+            mjd, ccdModule, ccdOutput);
+
         return calcFlatField(smallFlatImage, lff);
     }
 
     public float[][] retrieveUncertainties(int ccdModule, int ccdOutput,
         double mjd) {
 
-        SmallFlatFieldImage smallFlatImage = retrieveSmallFlatFieldImage(mjd,
-            ccdModule, ccdOutput);
+        FcModelCache.Image smallFlatImage = smallOps.retrieveSmallFlatFieldImageData(
+            mjd, ccdModule, ccdOutput);
 
         return unpackUncertainties(smallFlatImage);
     }
@@ -298,7 +301,7 @@ public class FlatFieldOperations {
             ccdOutput);
 
         double mjdNext = retrieveSmallFlatFieldImageDateNext(mjd);
-        SmallFlatFieldImage smallFlatImage = retrieveSmallFlatFieldImage(
+        FcModelCache.Image smallFlatImage = smallOps.retrieveSmallFlatFieldImageData(
             mjdNext, ccdModule, ccdOutput);
 
         return calcFlatField(smallFlatImage, lff);
@@ -312,7 +315,7 @@ public class FlatFieldOperations {
      * @return
      * @throws PipelineException
      */
-    private float[][] calcFlatField(SmallFlatFieldImage small,
+    private float[][] calcFlatField(FcModelCache.Image small,
         LargeFlatField large) {
 
         float[][] values = new float[FcConstants.CCD_ROWS][FcConstants.CCD_COLUMNS];
@@ -320,7 +323,7 @@ public class FlatFieldOperations {
         for (int irow = 0; irow < FcConstants.CCD_ROWS; ++irow) {
             for (int icol = 0; icol < FcConstants.CCD_COLUMNS; ++icol) {
                 if (small != null && large != null) {
-                    float smallFlatValue = small.getImageValue(irow, icol);
+                    float smallFlatValue = small.getValue(irow, icol);
                     float lfValue = (float) large.getFlat(irow, icol);
 
                     values[irow][icol] = smallFlatValue * lfValue;
@@ -338,7 +341,7 @@ public class FlatFieldOperations {
      * @return
      * @throws PipelineException
      */
-    private float[][] unpackUncertainties(SmallFlatFieldImage small) {
+    private float[][] unpackUncertainties(FcModelCache.Image small) {
         float[][] values = new float[FcConstants.CCD_ROWS][FcConstants.CCD_COLUMNS];
 
         if (small == null) {
@@ -346,18 +349,18 @@ public class FlatFieldOperations {
         }
         for (int irow = 0; irow < FcConstants.CCD_ROWS; ++irow) {
             for (int icol = 0; icol < FcConstants.CCD_COLUMNS; ++icol) {
-                values[irow][icol] = small.getUncertaintyValue(irow, icol);
+                values[irow][icol] = small.getUncertainty(irow, icol);
             }
         }
         return values;
     }
 
-    private float[][] calcFlatField(SmallFlatFieldImage small,
+    private float[][] calcFlatField(FcModelCache.Image small,
         LargeFlatField large, int[] rows, int[] cols) {
         float[][] values = new float[FcConstants.CCD_ROWS][FcConstants.CCD_COLUMNS];
 
         for (int ii = 0; ii < rows.length; ++ii) {
-            float smallFlatValue = small.getImageValue(rows[ii], cols[ii]);
+            float smallFlatValue = small.getValue(rows[ii], cols[ii]);
             double lfValue = large.getFlat(rows[ii], cols[ii]);
 
             values[rows[ii]][cols[ii]] = smallFlatValue * (float) lfValue;
@@ -372,12 +375,12 @@ public class FlatFieldOperations {
      * @return
      * @throws PipelineException
      */
-    private float[][] unpackUncertainties(SmallFlatFieldImage small,
+    private float[][] unpackUncertainties(FcModelCache.Image small,
         int[] rows, int[] cols) {
         float[][] values = new float[FcConstants.CCD_ROWS][FcConstants.CCD_COLUMNS];
 
         for (int ii = 0; ii < rows.length; ++ii) {
-            values[rows[ii]][cols[ii]] = small.getUncertaintyValue(rows[ii],
+            values[rows[ii]][cols[ii]] = small.getUncertainty(rows[ii],
                 cols[ii]);
         }
         return values;
@@ -488,8 +491,8 @@ public class FlatFieldOperations {
         double[][] coeffs = new double[mjds.length][5];
         double[][] covars = new double[mjds.length][25];
         for (int ii = 0; ii < mjds.length; ++ii) {
-            LargeFlatField largeFlatField = retrieveLargeFlatField(mjds[ii],
-                module, output);
+            LargeFlatField largeFlatField = largeOps.retrieveCachedLargeFlatField(
+                mjds[ii], module, output);
             polynomialOrder[ii] = largeFlatField.getPolynomialOrder();
             type[ii] = largeFlatField.getType();
             xIndex[ii] = largeFlatField.getXIndex();
@@ -553,7 +556,7 @@ public class FlatFieldOperations {
         double[][] coeffs = new double[mostRecentMjd.length][5];
         double[][] covars = new double[mostRecentMjd.length][25];
         for (int ii = 0; ii < mostRecentMjd.length; ++ii) {
-            LargeFlatField largeFlatField = retrieveLargeFlatField(
+            LargeFlatField largeFlatField = largeOps.retrieveCachedLargeFlatField(
                 mostRecentMjd[ii], module, output);
             polynomialOrder[ii] = largeFlatField.getPolynomialOrder();
             type[ii] = largeFlatField.getType();
@@ -622,8 +625,8 @@ public class FlatFieldOperations {
         double[][] coeffs = new double[mjds.length][5];
         double[][] covars = new double[mjds.length][25];
         for (int ii = 0; ii < mjds.length; ++ii) {
-            LargeFlatField largeFlatField = retrieveLargeFlatField(mjds[ii],
-                module, output);
+            LargeFlatField largeFlatField = largeOps.retrieveCachedLargeFlatField(
+                mjds[ii], module, output);
             polynomialOrder[ii] = largeFlatField.getPolynomialOrder();
             type[ii] = largeFlatField.getType();
             xIndex[ii] = largeFlatField.getXIndex();
@@ -682,16 +685,15 @@ public class FlatFieldOperations {
         for (int idate = 0; idate < mjds.length; ++idate) {
             double mjd = mjds[idate];
 
-            SmallFlatFieldImage image = this.retrieveSmallFlatFieldImage(mjd,
-                module, output);
+            FcModelCache.Image image = smallOps.retrieveSmallFlatFieldImageData(
+                mjd, module, output);
 
             for (int ipix = 0; ipix < rows.length; ++ipix) {
                 int row = rows[ipix];
                 int col = cols[ipix];
 
-                flats[idate][0][ipix] = image.getImageValue(row, col);
-                uncertainties[idate][0][ipix] = image.getUncertaintyValue(row,
-                    col);
+                flats[idate][0][ipix] = image.getValue(row, col);
+                uncertainties[idate][0][ipix] = image.getUncertainty(row, col);
             }
         }
 
@@ -713,8 +715,8 @@ public class FlatFieldOperations {
         double[][] coeffs = new double[mjds.length][5];
         double[][] covars = new double[mjds.length][25];
         for (int ii = 0; ii < mjds.length; ++ii) {
-            LargeFlatField largeFlatField = retrieveLargeFlatField(mjds[ii],
-                module, output);
+            LargeFlatField largeFlatField = largeOps.retrieveCachedLargeFlatField(
+                mjds[ii], module, output);
             polynomialOrder[ii] = largeFlatField.getPolynomialOrder();
             type[ii] = largeFlatField.getType();
             xIndex[ii] = largeFlatField.getXIndex();
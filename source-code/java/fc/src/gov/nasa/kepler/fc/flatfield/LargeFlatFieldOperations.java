@@ -43,11 +43,13 @@ import gov.nasa.kepler.fc.FocalPlaneException;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseServiceFactory;
 import gov.nasa.kepler.hibernate.fc.FcCrud;
+import gov.nasa.kepler.hibernate.fc.FcModelCache;
 import gov.nasa.kepler.hibernate.fc.History;
 import gov.nasa.kepler.hibernate.fc.HistoryModelName;
 import gov.nasa.kepler.hibernate.fc.LargeFlatField;
 import gov.nasa.spiffy.common.pi.PipelineException;
 
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -143,6 +145,73 @@ public class LargeFlatFieldOperations {
         return flat;
     }
 
+    /**
+     * Same as {@link #retrieveLargeFlatField(double, int, int)}, but returns
+     * a transient copy that is shared with other callers in this process.
+     * Callers must not modify or persist the returned object.
+     * 
+     * @return the large flat field or null if there is none for the given mjd.
+     */
+    public LargeFlatField retrieveCachedLargeFlatField(double mjd, int module,
+        int output) {
+        double[] startTimes = retrieveLargeFlatFieldStartTimes(module, output);
+        if (startTimes.length == 0) {
+            return null;
+        }
+        // Same as FcCrud.retrieve(): the earliest flat when they all start
+        // after mjd.
+        double startTime = startTimes[Math.max(0,
+            FcModelCache.coveringModel(startTimes, mjd))];
+
+        FcModelCache.Key key = FcModelCache.Key.forModel(HISTORY_NAME,
+            "flat", getHistory(), module, output, startTime);
+        LargeFlatField copy = FcModelCache.getInstance()
+            .get(key);
+        if (copy == null) {
+            LargeFlatField flat = retrieveLargeFlatField(startTime, module,
+                output);
+            if (flat == null) {
+                return null;
+            }
+            double[] coeffs = flat.getPolynomialCoefficientsArray();
+            double[] covars = flat.getCovarianceCoefficientsArray();
+            copy = new LargeFlatField(flat.getCcdModule(),
+                flat.getCcdOutput(), flat.getStartTime(),
+                flat.getPolynomialOrder(), flat.getType(), flat.getXIndex(),
+                flat.getOffsetX(), flat.getScaleX(), flat.getOriginX(),
+                flat.getYIndex(), flat.getOffsetY(), flat.getScaleY(),
+                flat.getOriginY(), coeffs, covars);
+            FcModelCache.getInstance()
+                .put(key, copy,
+                    FcModelCache.sizeOf(coeffs) + FcModelCache.sizeOf(covars));
+        }
+        return copy;
+    }
+
+    /**
+     * @return the sorted start times of the large flats for the module/output.
+     */
+    private double[] retrieveLargeFlatFieldStartTimes(int module, int output) {
+        FcModelCache.Key key = new FcModelCache.Key(HISTORY_NAME,
+            "startTimes", getHistory(), module, output,
+            Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        double[] startTimes = FcModelCache.getInstance()
+            .get(key);
+        if (startTimes == null) {
+            List<LargeFlatField> flats = retrieveLargeFlatFields(module,
+                output);
+            startTimes = new double[flats.size()];
+            for (int i = 0; i < startTimes.length; i++) {
+                startTimes[i] = flats.get(i)
+                    .getStartTime();
+            }
+            Arrays.sort(startTimes);
+            FcModelCache.getInstance()
+                .put(key, startTimes, FcModelCache.sizeOf(startTimes));
+        }
+        return startTimes;
+    }
+
     public LargeFlatField retrieveLargeFlatFieldNext(double mjd, int module,
         int output) {
         LargeFlatField flat = fcCrud.retrieveNext(mjd, module, output, getHistory());
@@ -43,6 +43,7 @@ import gov.nasa.kepler.fc.FocalPlaneException;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseServiceFactory;
 import gov.nasa.kepler.hibernate.fc.FcCrud;
+import gov.nasa.kepler.hibernate.fc.FcModelCache;
 import gov.nasa.kepler.hibernate.fc.History;
 import gov.nasa.kepler.hibernate.fc.HistoryModelName;
 import gov.nasa.kepler.hibernate.fc.LargeFlatField;
@@ -223,8 +224,17 @@ public class SmallFlatFieldOperations {
      * @throws FocalPlaneException
      */
     public double[] retrieveSmallFlatFieldImageTimes(double startMjd, double endMjd, int ccdModule, int ccdOutput) {
-        double[] times = fcCrud.retrieveSmallFlatFieldImageTimes(startMjd, endMjd, ccdModule, ccdOutput, getHistory());
-        return times;
+        FcModelCache.Key key = new FcModelCache.Key(HISTORY_NAME, "times",
+            getHistory(), ccdModule, ccdOutput, startMjd, endMjd);
+        double[] times = FcModelCache.getInstance()
+            .get(key);
+        if (times == null) {
+            times = fcCrud.retrieveSmallFlatFieldImageTimes(startMjd, endMjd,
+                ccdModule, ccdOutput, getHistory());
+            FcModelCache.getInstance()
+                .put(key, times, FcModelCache.sizeOf(times));
+        }
+        return times.clone();
     }
 
     /**
@@ -236,8 +246,17 @@ public class SmallFlatFieldOperations {
      */
     public double[] retrieveSmallFlatFieldImageTimes()
         {
-        double[] times = fcCrud.retrieveSmallFlatFieldImageTimes(getHistory());
-        return times;
+        FcModelCache.Key key = new FcModelCache.Key(HISTORY_NAME,
+            "allTimes", getHistory(), 0, 0, Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY);
+        double[] times = FcModelCache.getInstance()
+            .get(key);
+        if (times == null) {
+            times = fcCrud.retrieveSmallFlatFieldImageTimes(getHistory());
+            FcModelCache.getInstance()
+                .put(key, times, FcModelCache.sizeOf(times));
+        }
+        return times.clone();
     }
     
     public double[] retrieveMostRecentSmallFlatFieldImageTime() {
@@ -257,6 +276,41 @@ public class SmallFlatFieldOperations {
         return smallFlatImage;
     }
 
+    /**
+     * Same as {@link #retrieveSmallFlatFieldImage(double, int, int)}, but the
+     * decoded image is shared with other callers in this process. The image
+     * used is the latest one taken on or before mjd.
+     * 
+     * @return the image or null if there is no image for the given mjd.
+     */
+    public FcModelCache.Image retrieveSmallFlatFieldImageData(double mjd,
+        int ccdModule, int ccdOutput) {
+        double[] imageTimes = retrieveSmallFlatFieldImageTimes(
+            -Double.MAX_VALUE, Double.MAX_VALUE, ccdModule, ccdOutput);
+        int imageIndex = FcModelCache.coveringModel(imageTimes, mjd);
+        if (imageIndex < 0) {
+            return null;
+        }
+        double imageMjd = imageTimes[imageIndex];
+
+        FcModelCache.Key key = FcModelCache.Key.forModel(HISTORY_NAME,
+            "image", getHistory(), ccdModule, ccdOutput, imageMjd);
+        FcModelCache.Image imageData = FcModelCache.getInstance()
+            .get(key);
+        if (imageData == null) {
+            SmallFlatFieldImage image = retrieveSmallFlatFieldImageExact(
+                imageMjd, ccdModule, ccdOutput);
+            if (image == null) {
+                return null;
+            }
+            imageData = FcModelCache.Image.valueOf(image.getData(),
+                image.getUncertainty());
+            FcModelCache.getInstance()
+                .put(key, imageData, imageData.sizeBytes());
+        }
+        return imageData;
+    }
+
     public SmallFlatFieldImage retrieveSmallFlatFieldImageExact(double mjd,
         int ccdModule, int ccdOutput) {
         SmallFlatFieldImage smallFlatImage = fcCrud.retrieveSmallFlatFieldImageExact(
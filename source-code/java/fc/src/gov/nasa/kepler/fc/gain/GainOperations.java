@@ -46,6 +46,7 @@ import gov.nasa.kepler.fc.GainModel;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseServiceFactory;
 import gov.nasa.kepler.hibernate.fc.FcCrud;
+import gov.nasa.kepler.hibernate.fc.FcModelCache;
 import gov.nasa.kepler.hibernate.fc.Gain;
 import gov.nasa.kepler.hibernate.fc.GainHistoryModel;
 import gov.nasa.kepler.hibernate.fc.History;
@@ -54,6 +55,7 @@ import gov.nasa.spiffy.common.pi.PipelineException;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
@@ -204,7 +206,14 @@ public class GainOperations {
      */
     public double retrieveGainValue(int ccdModule, int ccdOutput, double mjd)
         {
-        return retrieveGain(ccdModule, ccdOutput, mjd).getGain();
+        GainTable table = retrieveGainTable();
+        int channel = FcConstants.getChannelNumber(ccdModule, ccdOutput) - 1;
+        int index = FcModelCache.coveringModel(table.mjds[channel], mjd);
+        if (index < 0) {
+            throw new FocalPlaneException("No gain for module " + ccdModule
+                + " output " + ccdOutput + " on or before mjd " + mjd);
+        }
+        return table.gains[channel][index];
     }
 
     public Gain retrieveGain(int ccdModule, int ccdOutput, double mjd)
@@ -294,13 +303,15 @@ public class GainOperations {
      * @throws PipelineException 
      */
     public GainModel retrieveGainModel(double mjdStart, double mjdEnd) {
+        GainTable table = retrieveGainTable();
+
         // A list of the gains for each module/output for this time range:
         //
         List<Gain[]> gainsList = new ArrayList<Gain[]>();
         
         for (int module : FcConstants.modulesList) {
             for (int output : FcConstants.outputsList) {
-                List<Gain> gains = fcCrud.retrieveGainsBetween(module, output, mjdStart, mjdEnd, getHistory());
+                List<Gain> gains = table.gainsBetween(module, output, mjdStart, mjdEnd);
                 
                 if (gains.size() == 0) {
 					throw new FocalPlaneException(
@@ -325,6 +336,111 @@ public class GainOperations {
 
         return FcModelFactory.gainModel(uniqueSortedMjds, constants);
     }
+
+    /**
+     * All the gains of the current history, which is small, are cached
+     * together so the gain for any mjd or time range is found without
+     * resolving which gain covers it first.
+     */
+    private GainTable retrieveGainTable() {
+        FcModelCache.Key key = new FcModelCache.Key(HISTORY_NAME, "table",
+            getHistory(), 0, 0, Double.NEGATIVE_INFINITY,
+            Double.POSITIVE_INFINITY);
+        GainTable table = FcModelCache.getInstance()
+            .get(key);
+        if (table == null) {
+            List<GainHistoryModel> historyModels = new ArrayList<GainHistoryModel>(
+                fcCrud.retrieveGainHistoryModels(getHistory()));
+            Collections.sort(historyModels);
+            table = new GainTable(historyModels);
+            FcModelCache.getInstance()
+                .put(key, table, table.sizeBytes());
+        }
+        return table;
+    }
+
+    /**
+     * The gains of each channel sorted by mjd.
+     */
+    private static final class GainTable {
+        private final double[][] mjds;
+        private final double[][] gains;
+
+        private GainTable(List<GainHistoryModel> sortedHistoryModels) {
+            int nChannels = FcConstants.nModules * FcConstants.nOutputsPerModule;
+            List<List<Gain>> channelGains = new ArrayList<List<Gain>>(nChannels);
+            for (int i = 0; i < nChannels; i++) {
+                channelGains.add(new ArrayList<Gain>());
+            }
+            for (GainHistoryModel historyModel : sortedHistoryModels) {
+                Gain gain = historyModel.getGain();
+                if (Arrays.binarySearch(FcConstants.modulesList,
+                    gain.getCcdModule()) < 0
+                    || Arrays.binarySearch(FcConstants.outputsList,
+                        gain.getCcdOutput()) < 0) {
+                    continue;
+                }
+                channelGains.get(
+                    FcConstants.getChannelNumber(gain.getCcdModule(),
+                        gain.getCcdOutput()) - 1)
+                    .add(gain);
+            }
+
+            mjds = new double[nChannels][];
+            gains = new double[nChannels][];
+            for (int i = 0; i < nChannels; i++) {
+                List<Gain> channel = channelGains.get(i);
+                mjds[i] = new double[channel.size()];
+                gains[i] = new double[channel.size()];
+                for (int j = 0; j < channel.size(); j++) {
+                    mjds[i][j] = channel.get(j)
+                        .getMjd();
+                    gains[i][j] = channel.get(j)
+                        .getGain();
+                }
+            }
+        }
+
+        /**
+         * Same as FcCrud.retrieveGainsBetween(), the gains in the range plus
+         * the ones just before and after it.
+         */
+        private List<Gain> gainsBetween(int module, int output,
+            double mjdStart, double mjdEnd) {
+            int channel = FcConstants.getChannelNumber(module, output) - 1;
+            double[] channelMjds = mjds[channel];
+            List<Gain> between = new ArrayList<Gain>();
+            int prev = -1;
+            int next = -1;
+            for (int i = 0; i < channelMjds.length; i++) {
+                if (channelMjds[i] < mjdStart) {
+                    prev = i;
+                } else if (channelMjds[i] > mjdEnd) {
+                    if (next < 0) {
+                        next = i;
+                    }
+                } else {
+                    between.add(gain(module, output, channel, i));
+                }
+            }
+            if (prev >= 0) {
+                between.add(0, gain(module, output, channel, prev));
+            }
+            if (next >= 0) {
+                between.add(gain(module, output, channel, next));
+            }
+            return between;
+        }
+
+        private Gain gain(int module, int output, int channel, int index) {
+            return new Gain(module, output, gains[channel][index],
+                mjds[channel][index]);
+        }
+
+        private long sizeBytes() {
+            return FcModelCache.sizeOf(mjds) + FcModelCache.sizeOf(gains);
+        }
+    }
     
     public GainModel retrieveMostRecentGainModel() {
         double now = ModifiedJulianDate.dateToMjd(new Date());
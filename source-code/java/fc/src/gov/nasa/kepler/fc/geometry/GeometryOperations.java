@@ -44,6 +44,7 @@ import gov.nasa.kepler.fc.GeometryModel;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseServiceFactory;
 import gov.nasa.kepler.hibernate.fc.FcCrud;
+import gov.nasa.kepler.hibernate.fc.FcModelCache;
 import gov.nasa.kepler.hibernate.fc.Geometry;
 import gov.nasa.kepler.hibernate.fc.GeometryHistoryModel;
 import gov.nasa.kepler.hibernate.fc.History;
@@ -421,6 +422,16 @@ public class GeometryOperations {
      * @throws FocalPlaneException
      */
     public GeometryModel retrieveGeometryModel(double mjdStart, double mjdEnd) {
+        FcModelCache.Key key = new FcModelCache.Key(HISTORY_NAME, "model",
+            getHistory(), 0, 0, mjdStart, mjdEnd);
+        GeometryModel cachedModel = FcModelCache.getInstance()
+            .get(key);
+        if (cachedModel != null) {
+            return FcModelFactory.geometryModel(cachedModel.getMjds()
+                .clone(), FcModelCache.copyOf(cachedModel.getConstants()),
+                FcModelCache.copyOf(cachedModel.getUncertainty()));
+        }
+
         List<GeometryHistoryModel> historyModels = fcCrud.retrieveGeometryHistoryModels(getHistory());
         Collections.sort(historyModels);
         
@@ -454,7 +465,16 @@ public class GeometryOperations {
 			inRangeGeometrys.add(next);
 		}
 
-		return FcModelFactory.geometryModel(inRangeGeometrys);
+		GeometryModel model = FcModelFactory.geometryModel(inRangeGeometrys);
+		FcModelCache.getInstance()
+		    .put(key,
+		        new GeometryModel(model.getMjds()
+		            .clone(), FcModelCache.copyOf(model.getConstants()),
+		            FcModelCache.copyOf(model.getUncertainty())),
+		        FcModelCache.sizeOf(model.getMjds())
+		            + FcModelCache.sizeOf(model.getConstants())
+		            + FcModelCache.sizeOf(model.getUncertainty()));
+		return model;
     }
 
     // N.B.: Didn't add a retrieveMostRecentGeometryModel() that only returns the most
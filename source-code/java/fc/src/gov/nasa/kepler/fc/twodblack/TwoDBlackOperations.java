@@ -46,6 +46,7 @@ import gov.nasa.kepler.fc.TwoDBlackModel;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseServiceFactory;
 import gov.nasa.kepler.hibernate.fc.FcCrud;
+import gov.nasa.kepler.hibernate.fc.FcModelCache;
 import gov.nasa.kepler.hibernate.fc.History;
 import gov.nasa.kepler.hibernate.fc.HistoryModelName;
 import gov.nasa.kepler.hibernate.fc.TwoDBlackImage;
@@ -128,7 +129,8 @@ public class TwoDBlackOperations {
         for (int idate = 0; idate < mjds.length; ++idate) {
             double mjd = mjds[idate];
 
-            TwoDBlackImage image = retrieveTwoDBlackImage(mjd, module, output);
+            FcModelCache.Image image = retrieveTwoDBlackImageData(mjd, module,
+                output);
 
             for (int ipix = 0; ipix < rows.length; ++ipix) {
                 int row = rows[ipix];
@@ -137,8 +139,8 @@ public class TwoDBlackOperations {
                 // Skip null images.
                 //
                 if (image != null) {
-                    float value = image.getImageValue(row, col);
-                    float uncertainty = image.getUncertaintyValue(row, col);
+                    float value = image.getValue(row, col);
+                    float uncertainty = image.getUncertainty(row, col);
 
                     blacks[idate][0][ipix] = value;
                     uncertainties[idate][0][ipix] = uncertainty;
@@ -172,9 +174,17 @@ public class TwoDBlackOperations {
      */
     public double[] retrieveTwoDBlackImageTimes(int module, int output, double startMjd, double endMjd)
         {
-        double[] times = fcCrud.retrieveTwoDBlackImageTimes(startMjd, endMjd, module, output, 
-            getHistory());
-        return times;
+        FcModelCache.Key key = new FcModelCache.Key(HISTORY_NAME, "times",
+            getHistory(), module, output, startMjd, endMjd);
+        double[] times = FcModelCache.getInstance()
+            .get(key);
+        if (times == null) {
+            times = fcCrud.retrieveTwoDBlackImageTimes(startMjd, endMjd,
+                module, output, getHistory());
+            FcModelCache.getInstance()
+                .put(key, times, FcModelCache.sizeOf(times));
+        }
+        return times.clone();
     }
     
 
@@ -192,8 +202,8 @@ public class TwoDBlackOperations {
     public TwoDBlackModel retrieveTwoDBlackModel(double startTime,
         double endTime, int module, int output) {
 
-        double[] mjds = fcCrud.retrieveTwoDBlackImageTimes(startTime, endTime, module, output,
-            getHistory());
+        double[] mjds = retrieveTwoDBlackImageTimes(module, output, startTime,
+            endTime);
         float[][][] blacks = getFloats(mjds, module, output);
         float[][][] uncertainties = getUncertainties(mjds, module, output);
 
@@ -280,12 +290,12 @@ public class TwoDBlackOperations {
         float[][][] blacks = new float[mjds.length][FcConstants.CCD_ROWS][FcConstants.CCD_COLUMNS];
 
         for (int ii = 0; ii < mjds.length; ++ii) {
-            TwoDBlackImage image = retrieveTwoDBlackImage(mjds[ii], module,
-                output);
+            FcModelCache.Image image = retrieveTwoDBlackImageData(mjds[ii],
+                module, output);
 
             for (int irow = 0; irow < FcConstants.CCD_ROWS; ++irow) {
                 for (int icol = 0; icol < FcConstants.CCD_COLUMNS; ++icol) {
-                    float value = image.getImageValue(irow, icol);
+                    float value = image.getValue(irow, icol);
                     blacks[ii][irow][icol] = value;
                 }
             }
@@ -298,12 +308,12 @@ public class TwoDBlackOperations {
         float[][][] uncertainties = new float[mjds.length][FcConstants.CCD_ROWS][FcConstants.CCD_COLUMNS];
 
         for (int ii = 0; ii < mjds.length; ++ii) {
-            TwoDBlackImage image = retrieveTwoDBlackImage(mjds[ii], module,
-                output);
+            FcModelCache.Image image = retrieveTwoDBlackImageData(mjds[ii],
+                module, output);
 
             for (int irow = 0; irow < FcConstants.CCD_ROWS; ++irow) {
                 for (int icol = 0; icol < FcConstants.CCD_COLUMNS; ++icol) {
-                    float value = image.getUncertaintyValue(irow, icol);
+                    float value = image.getUncertainty(irow, icol);
                     uncertainties[ii][irow][icol] = value;
                 }
             }
@@ -318,6 +328,35 @@ public class TwoDBlackOperations {
         return image;
     }
 
+    /**
+     * Same as {@link #retrieveTwoDBlackImage(double, int, int)}, but the
+     * decoded image is shared with other callers in this process.
+     * 
+     * @param mjd the time of the image itself, as returned by
+     * {@link #retrieveTwoDBlackImageTimes(int, int, double, double)}.
+     * @return the image or null if there is no image with the given mjd.
+     */
+    public FcModelCache.Image retrieveTwoDBlackImageData(double mjd,
+        int ccdModule, int ccdOutput) {
+        // Images are looked up by their exact time so mjd identifies the model.
+        FcModelCache.Key key = FcModelCache.Key.forModel(HISTORY_NAME,
+            "image", getHistory(), ccdModule, ccdOutput, mjd);
+        FcModelCache.Image imageData = FcModelCache.getInstance()
+            .get(key);
+        if (imageData == null) {
+            TwoDBlackImage image = retrieveTwoDBlackImage(mjd, ccdModule,
+                ccdOutput);
+            if (image == null) {
+                return null;
+            }
+            imageData = FcModelCache.Image.valueOf(image.getData(),
+                image.getUncertainty());
+            FcModelCache.getInstance()
+                .put(key, imageData, imageData.sizeBytes());
+        }
+        return imageData;
+    }
+
     public TwoDBlackImage retrieveTwoDBlackImageExact(double mjd,
         int ccdModule, int ccdOutput) {
         TwoDBlackImage image = fcCrud.retrieveTwoDBlackImageExact(mjd,
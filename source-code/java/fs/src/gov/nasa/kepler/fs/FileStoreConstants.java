@@ -168,15 +168,59 @@ public interface FileStoreConstants {
     static final String FS_SERVER_PERMITS_PER_WRITE =
         FS_SERVER_PREFIX + "max-concurrent-read-write.write-cost";
     static final int FS_SERVER_PERMITS_PER_WRITE_DEFAULT = 2;
+    
+    /**
+     * When true the server schedules interactive reads, bulk reads and writes,
+     * and commits separately and limits bulk work to keep interactive
+     * reads responsive.  When false all requests wait in one queue.
+     */
+    static final String FS_SERVER_ADAPTIVE_THROTTLE = 
+        FS_SERVER_PREFIX + "max-concurrent-read-write.adaptive";
+    static final boolean FS_SERVER_ADAPTIVE_THROTTLE_DEFAULT = true;
+    
+    /**
+     * The longest time, in milliseconds, most interactive requests should
+     * take to complete, including the time spent waiting for permits.
+     */
+    static final String FS_SERVER_THROTTLE_TARGET_LATENCY_MS =
+        FS_SERVER_PREFIX + "max-concurrent-read-write.target-latency-ms";
+    static final int FS_SERVER_THROTTLE_TARGET_LATENCY_MS_DEFAULT = 500;
+    
+    /**
+     * Reads and writes of this many FsIds or fewer are considered
+     * interactive.
+     */
+    static final String FS_SERVER_THROTTLE_INTERACTIVE_IDS =
+        FS_SERVER_PREFIX + "max-concurrent-read-write.interactive-ids";
+    static final int FS_SERVER_THROTTLE_INTERACTIVE_IDS_DEFAULT = 32;
 
     /**
-     * The maximum number of worker threads.  The file store wont do anything
-     * with the client request when this number has been reached.
+     * The maximum number of worker threads.  Idle client connections do not
+     * use a worker thread.  Client requests are queued when all the worker
+     * threads are busy.
      */
     static final String FS_SERVER_MAX_CLIENTS = 
         FS_SERVER_PREFIX + "max-client-threads";
     static final int FS_SERVER_MAX_CLIENTS_DEFAULT = 32;
     
+    /**
+     * The maximum number of open client connections.  The file store will
+     * refuse new connections when this number has been reached.
+     */
+    static final String FS_SERVER_MAX_CONNECTIONS =
+        FS_SERVER_PREFIX + "max-connections";
+    static final int FS_SERVER_MAX_CONNECTIONS_DEFAULT = 1024;
+    
+    /**
+     * The maximum number of client requests waiting for a worker thread.  When
+     * this is full a client's request is held by the listener, which reads
+     * nothing more from that client until a worker takes the request.  The
+     * default value the server uses for this property is the value of
+     * FS_SERVER_MAX_CLIENTS.
+     */
+    static final String FS_SERVER_MAX_QUEUED_REQUESTS =
+        FS_SERVER_PREFIX + "max-queued-requests";
+    
     /**
      * This is the size of the queue the OS kernel will keep.  Doing an accept()
      * on the socket removes an incoming connection with this queue.  Since only
@@ -192,6 +236,14 @@ public interface FileStoreConstants {
         FS_SERVER_PREFIX + "btree-node-cache-size";
     static final int FS_SERVER_MAX_BTREE_NODE_CACHE_DEFAULT = 1024 * 8;
     
+    /**
+     * The size, in megabytes, of the off-heap page cache for serialized btree
+     * nodes.  Zero disables the page cache.
+     */
+    static final String FS_SERVER_BTREE_PAGE_CACHE_MB_PROPERTY =
+        FS_SERVER_PREFIX + "btree-page-cache-mb";
+    static final int FS_SERVER_BTREE_PAGE_CACHE_MB_DEFAULT = 128;
+    
     /**
      * Call the underlying operating system's fsync() after the btree journal is
      * written.
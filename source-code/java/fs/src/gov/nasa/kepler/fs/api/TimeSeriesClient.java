@@ -266,6 +266,28 @@ public interface TimeSeriesClient {
     @NeedClientEncoding
     @NeedServerDecoding
     List<TimeSeriesBatch> readTimeSeriesBatch(List<FsIdSet> fsIdSet, boolean existsError);
+
+    /**
+     * Like readTimeSeriesBatch(List, boolean), but each TimeSeries is passed
+     * to the handler as soon as it has been received rather than returning all
+     * of them at once.  This lets callers process and discard time series
+     * while the rest are still being read.  The FsIdSets are delivered in
+     * order, but the time series within an FsIdSet are delivered in the order
+     * the file store read them.  This method does not return until all the
+     * time series have been delivered.  If the handler throws an exception
+     * the remaining time series are discarded and the exception is rethrown.
+     * 
+     * @param fsIdSet  a non-null list of FsIdSets of length zero or more.
+     * @param existsError enables FileStoreIdNotFoundException else exists()
+     * will return false on all the time series passed to the handler.
+     * @param handler non-null
+     * @exception FileStoreException
+     */
+    @ImplicitParameter(name = "xid", type = PersistableXid.class)
+    @IgnoreClientGeneration
+    @IgnoreServerGeneration
+    void readTimeSeriesBatch(List<FsIdSet> fsIdSet, boolean existsError,
+        TimeSeriesBatchHandler handler);
     
     /**
      * This is equivalent to calling readTimeSeriesBatch with a single set of
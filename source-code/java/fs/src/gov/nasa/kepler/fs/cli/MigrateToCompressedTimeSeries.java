@@ -0,0 +1,122 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.fs.cli;
+
+import static gov.nasa.kepler.fs.FileStoreConstants.SERVER_LOCK_NAME;
+import static gov.nasa.kepler.fs.FileStoreConstants.TIME_SERIES_DIR_NAME;
+import gov.nasa.kepler.fs.api.FsId;
+import gov.nasa.kepler.fs.query.QueryEvaluator;
+import gov.nasa.kepler.fs.server.xfiles.FileTransactionManager;
+import gov.nasa.kepler.fs.storage.DirectoryHashFactory;
+import gov.nasa.kepler.fs.storage.RandomAccessAllocator;
+import gov.nasa.kepler.fs.storage.RandomAccessAllocatorFactory;
+import gov.nasa.kepler.fs.storage.UserConfigurableFsIdFileSystemLocator;
+import gov.nasa.spiffy.common.concurrent.ServerLock;
+
+import java.io.File;
+import java.util.SortedSet;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Rewrites the data of existing, uncompressed time series into compressed
+ * data lanes.  Time series which are already compressed are compacted into
+ * new lanes.  Container files which are no longer used are removed once all
+ * the time series have been copied.  The file store server must not be 
+ * running while this executes.
+ */
+public class MigrateToCompressedTimeSeries {
+
+    private final static Log log = LogFactory.getLog(MigrateToCompressedTimeSeries.class);
+    
+    /**
+     * 
+     * @param fsDataDir The root of the file store data directory.
+     * @param fsIdQuery Time series matching this query are compressed.
+     * @return The number of time series that where compressed.
+     */
+    public int migrate(File fsDataDir, String fsIdQuery) throws Exception {
+        ServerLock serverLock = new ServerLock(new File(fsDataDir, SERVER_LOCK_NAME));
+        serverLock.tryLock("compress time series migration");
+        
+        File fileSystemConfig = 
+            new File(fsDataDir, FileTransactionManager.FILE_SYSTEM_ROOT_CONF_FILE_NAME);
+        UserConfigurableFsIdFileSystemLocator fileSystemLocator =
+            new UserConfigurableFsIdFileSystemLocator(fileSystemConfig, fsDataDir.getCanonicalPath());
+        DirectoryHashFactory forTimeSeries = 
+            new DirectoryHashFactory(fileSystemLocator, new File(TIME_SERIES_DIR_NAME));
+        RandomAccessAllocatorFactory allocatorFactory = 
+            new RandomAccessAllocatorFactory(forTimeSeries, fileSystemLocator);
+        
+        try {
+            SortedSet<FsId> ids = 
+                allocatorFactory.find(new QueryEvaluator(fsIdQuery), false);
+            log.info("Found " + ids.size() + " time series matching \"" + fsIdQuery + "\".");
+            
+            double startTime = System.currentTimeMillis();
+            int nCompressed = 0;
+            long totalCompressedBytes = 0;
+            for (FsId id : ids) {
+                RandomAccessAllocator allocator = allocatorFactory.findAllocator(id);
+                long compressedBytes = allocator.compressData(id);
+                if (compressedBytes < 0) {
+                    continue;
+                }
+                nCompressed++;
+                totalCompressedBytes += compressedBytes;
+                if ((nCompressed % 1000) == 0) {
+                    log.info("Compressed " + nCompressed + " time series.");
+                }
+            }
+            
+            for (RandomAccessAllocator allocator : allocatorFactory.accessedAllocators()) {
+                allocator.commitPendingModifications();
+                allocator.gcFiles();
+            }
+            
+            double elapsedTimeS = (System.currentTimeMillis() - startTime) / 1000.0;
+            log.info("Compressed " + nCompressed + " time series into " +
+                totalCompressedBytes + " bytes in " + elapsedTimeS + " seconds.");
+            return nCompressed;
+        } finally {
+            allocatorFactory.clear();
+            serverLock.releaseLock();
+        }
+    }
+}
@@ -1585,6 +1585,94 @@ public class FstpClient extends AbstractFstpClient
         return rv;
     }
 
+    
+    /**
+     * This uses the same request as readTimeSeriesBatch(List, boolean).  The
+     * server already writes each time series as soon as it has been read so
+     * this just decodes them one at a time rather than collecting them.  Flow
+     * control is provided by the transport; the server blocks when the
+     * handler is slower than the server.
+     */
+    @Override
+    public void readTimeSeriesBatch(final List<FsIdSet> fsIdSetList,
+        final boolean existsError, final TimeSeriesBatchHandler handler) {
+
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        
+        new ImplicitTransactionLifecycle<Void>(this) {
+            @Override
+            protected Void doit() {
+                streamTimeSeriesBatch(fsIdSetList, existsError, handler);
+                return null;
+            }
+        }.execute();
+    }
+    
+    private void streamTimeSeriesBatch(List<FsIdSet> fsIdSetList,
+        boolean existsError, TimeSeriesBatchHandler handler) {
+        
+        streamInUse.set(true);
+        try {
+            transportClient().startMethod();
+            DataOutputStream dout = new DataOutputStream(transportClient().outputStream());
+            dout.writeUTF(READ_TS_BATCH.name());
+            BinaryPersistableOutputStream pout = new BinaryPersistableOutputStream(dout);
+            pout.save(xid());
+            encodeRequestReadTimeSeriesBatch(dout, pout, fsIdSetList, existsError);
+            dout.flush();
+            
+            DataInputStream din = new DataInputStream(transportClient().inputStream());
+            RuntimeException handlerException = null;
+            final int nBatches = din.readInt();
+            for (int batchi=0; batchi < nBatches; batchi++) {
+                final int startCadence = din.readInt();
+                final int endCadence = din.readInt();
+                final int nSeries = din.readInt();
+                if (handlerException == null) {
+                    try {
+                        handler.startBatch(batchi, startCadence, endCadence, nSeries);
+                    } catch (RuntimeException rte) {
+                        handlerException = rte;
+                    }
+                }
+                for (int seriesi=0; seriesi < nSeries; seriesi++) {
+                    TimeSeries ts = TimeSeries.transferFrom(din);
+                    if (countersEnabled) {
+                        timeSeriesRead.add(ts.id());
+                    }
+                    if (handlerException != null) {
+                        //Read the rest of the response so the connection
+                        //can be used again.
+                        continue;
+                    }
+                    try {
+                        handler.timeSeries(batchi, ts);
+                    } catch (RuntimeException rte) {
+                        handlerException = rte;
+                    }
+                }
+            }
+            if (handlerException != null) {
+                throw handlerException;
+            }
+        } catch (ServerSideException sse) {
+            if (sse.getCause() instanceof gov.nasa.kepler.fs.api.FileStoreException ) {
+                throw (gov.nasa.kepler.fs.api.FileStoreException)sse.getCause();
+            }
+            throw new RuntimeException("Unexpected exception.",sse.getCause());
+        } catch (IOException ioe) {
+            throw new FileStoreException("Transport layer exception.", ioe);
+        } catch (RuntimeException rte) {
+            throw rte;
+        } catch (Exception e) {
+            throw new RuntimeException("Transport layer exception.", e);
+        } finally {
+            streamInUse.set(false);
+        }
+    }
+
 
     @Override
     protected String protocolMethodNameReadMjdTimeSeriesBatch() {
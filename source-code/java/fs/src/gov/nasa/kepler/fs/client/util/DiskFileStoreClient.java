@@ -59,6 +59,7 @@ import gov.nasa.kepler.fs.api.MjdTimeSeriesBatch;
 import gov.nasa.kepler.fs.api.StreamedBlobResult;
 import gov.nasa.kepler.fs.api.TimeSeries;
 import gov.nasa.kepler.fs.api.TimeSeriesBatch;
+import gov.nasa.kepler.fs.api.TimeSeriesBatchHandler;
 import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
 import gov.nasa.kepler.hibernate.dbservice.LocalTransactionalResource;
 import gov.nasa.kepler.hibernate.dbservice.TransactionService;
@@ -1255,31 +1256,47 @@ public class DiskFileStoreClient implements FileStoreClient,
         return rv;
     }
     
-    @SuppressWarnings("unchecked")
+    @Override
+    public synchronized void readTimeSeriesBatch(List<FsIdSet> fsIdSet,
+        boolean existsError, TimeSeriesBatchHandler handler) {
+
+        for (int batchi=0; batchi < fsIdSet.size(); batchi++) {
+            FsIdSet idSet = fsIdSet.get(batchi);
+            handler.startBatch(batchi, idSet.startCadence(), idSet.endCadence(),
+                idSet.ids().size());
+            for (FsId id : idSet.ids()) {
+                handler.timeSeries(batchi, readTimeSeriesInSet(idSet, id, existsError));
+            }
+        }
+    }
+    
     private TimeSeriesBatch readTimeSeriesSet(FsIdSet fsIdSet, boolean existsError)
         {
         
         Map<FsId, TimeSeries> batchTimeSeries = new HashMap<FsId, TimeSeries>(fsIdSet.ids().size());
         for (FsId id: fsIdSet.ids()) {
-            TimeSeries timeSeries = null;
-            if (timeSeriesExists(id)) {
-                timeSeries = readTimeSeries(id);
-                this.timeSeriesRead.add(id);
-            } else if (existsError) {
-                throw new FileStoreIdNotFoundException(id);
-            } else {
-                int len = fsIdSet.endCadence() - fsIdSet.startCadence() + 1;
-                timeSeries = 
-                    new IntTimeSeries(id, new int[len], fsIdSet.startCadence(), 
-                        fsIdSet.endCadence(), Collections.EMPTY_LIST, 
-                        Collections.EMPTY_LIST, false);
-            }
-            batchTimeSeries.put(id, timeSeries);
+            batchTimeSeries.put(id, readTimeSeriesInSet(fsIdSet, id, existsError));
         }
         
         return new TimeSeriesBatch(fsIdSet.startCadence(), fsIdSet.endCadence(),
             batchTimeSeries);
     }
+    
+    @SuppressWarnings("unchecked")
+    private TimeSeries readTimeSeriesInSet(FsIdSet fsIdSet, FsId id, boolean existsError) {
+        if (timeSeriesExists(id)) {
+            TimeSeries timeSeries = readTimeSeries(id);
+            this.timeSeriesRead.add(id);
+            return timeSeries;
+        } else if (existsError) {
+            throw new FileStoreIdNotFoundException(id);
+        } else {
+            int len = fsIdSet.endCadence() - fsIdSet.startCadence() + 1;
+            return new IntTimeSeries(id, new int[len], fsIdSet.startCadence(), 
+                fsIdSet.endCadence(), Collections.EMPTY_LIST, 
+                Collections.EMPTY_LIST, false);
+        }
+    }
 
     @Override
     public synchronized List<MjdTimeSeriesBatch> readMjdTimeSeriesBatch(
@@ -1035,6 +1035,13 @@ public class RAMFileStoreDriver implements FileStoreClient,
         return null;
     }
 
+    @Override
+    public void readTimeSeriesBatch(List<FsIdSet> fsIdSet, boolean existsError,
+        TimeSeriesBatchHandler handler) {
+
+        throw new UnsupportedOperationException();
+    }
+
     @Override
     public List<MjdTimeSeriesBatch> readMjdTimeSeriesBatch(
         List<MjdFsIdSet> mjdFsIdSetList) {
@@ -0,0 +1,610 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.fs.server;
+
+import gov.nasa.spiffy.common.metrics.ValueMetric;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A throttle which keeps a separate wait queue for each ThrottleClass.
+ * Free permits are handed to the waiting class that is currently holding the
+ * fewest permits so a storm of bulk reads does not starve small interactive
+ * reads.  Within a class permits are handed out in FIFO order.
+ * 
+ * The number of permits bulk work may hold at once is adjusted to keep the
+ * tail of the latency of completed interactive requests below a target.
+ * Callers report completed requests with requestCompleted().  When
+ * interactive requests take too long the bulk limit is cut multiplicatively,
+ * when they are well under the target or when there are no interactive
+ * requests the bulk limit is increased by one permit at a time.  An increase
+ * is only followed by another increase if the bulk bytes moved per second
+ * went up, so bulk work is not given permits that do not buy it any more
+ * throughput.
+ */
+public class AdaptiveThrottle implements ThrottleInterface {
+
+    private static final Log log = LogFactory.getLog(AdaptiveThrottle.class);
+    
+    private static final String QUEUE_LEN_METRIC = "fs.server.throttle-queue-length";
+    private static final String WAIT_TIME_METRIC_PREFIX = "fs.server.throttle-wait-ms.";
+    private static final String LATENCY_METRIC_PREFIX = "fs.server.throttle-latency-ms.";
+    private static final String BYTES_METRIC_PREFIX = "fs.server.throttle-bytes.";
+    
+    private static final int MINIMUM_GREEDINESS_CONST = 2;
+    
+    /** The number of interactive latencies used to estimate the tail. */
+    static final int LATENCY_WINDOW = 64;
+    
+    /** The bulk limit is reevaluated after this many interactive requests
+     * complete.
+     */
+    static final int ADAPT_INTERVAL = 16;
+    
+    private static final double TAIL_QUANTILE = 0.95;
+    
+    /** The fraction by which bulk throughput must increase after the bulk
+     * limit was increased for the limit to be increased again.
+     */
+    static final double MIN_THROUGHPUT_GAIN = 0.05;
+    
+    /** Minimum time between bulk limit increases when there is no
+     * interactive work.
+     */
+    private static final long IDLE_INCREASE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<ThrottleClass, Deque<Waiter>> waitQueues = 
+        new EnumMap<ThrottleClass, Deque<Waiter>>(ThrottleClass.class);
+    private final int[] permitsInUse = new int[ThrottleClass.values().length];
+    private final int readCost;
+    private final int writeCost;
+    private final int initialPermits;
+    private final int minimumGreediness;
+    private final long targetLatencyNanos;
+    
+    //These are protected by lock.
+    private int totalPermits;
+    private int availablePermits;
+    private int bulkPermitLimit;
+    private final long[] interactiveLatencyNanos = new long[LATENCY_WINDOW];
+    private long nInteractiveCompleted = 0;
+    private long tailLatencyNanos = 0;
+    /** Bulk bytes completed since the last adaptation. */
+    private long bulkBytes = 0;
+    private long lastAdaptNanos = System.nanoTime();
+    private double bulkBytesPerSecond = 0;
+    /** The bulk throughput before the last adaptation if it increased the
+     * bulk limit else -1.
+     */
+    private double bulkBytesPerSecondBeforeIncrease = -1;
+    /** The time of the last interactive request or bulk limit increase. */
+    private long lastAdjustNanos = System.nanoTime();
+    
+    /**
+     * 
+     * @param nPermits The number of permits initially available.
+     * @param readCost The number of permits used by acquireReadPermit().
+     * @param writeCost The number of permits used by acquireWritePermit().
+     * @param targetLatencyMillis The longest time, in milliseconds, most
+     * interactive requests should take to complete.
+     */
+    public AdaptiveThrottle(int nPermits, int readCost, int writeCost, long targetLatencyMillis) {
+        if (nPermits <=  0) {
+            throw new IllegalArgumentException("nPermits must be greater than zero");
+        }
+        
+        if (readCost < 1) {
+            throw new IllegalArgumentException("readCost must be greater than zero.");
+        }
+        
+        if (writeCost < 1) {
+            throw new IllegalArgumentException("writeCost must be greater than zero.");
+        }
+        
+        if (writeCost > nPermits) {
+            throw new IllegalArgumentException("writeCost must not be greater than nPermits.");
+        }
+        
+        if (readCost > nPermits) {
+            throw new IllegalArgumentException("readCost must not be greater than nPermits.");
+        }
+        
+        if (targetLatencyMillis <= 0) {
+            throw new IllegalArgumentException("targetLatencyMillis must be greater than zero.");
+        }
+        
+        for (ThrottleClass throttleClass : ThrottleClass.values()) {
+            waitQueues.put(throttleClass, new ArrayDeque<Waiter>());
+        }
+        
+        this.readCost = readCost;
+        this.writeCost = writeCost;
+        this.initialPermits = nPermits;
+        this.totalPermits = nPermits;
+        this.availablePermits = nPermits;
+        this.bulkPermitLimit = nPermits;
+        this.minimumGreediness = Math.min(nPermits, MINIMUM_GREEDINESS_CONST);
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+    }
+    
+    @Override
+    public void acquireWritePermit() throws InterruptedException {
+        acquire(ThrottleClass.BULK, writeCost, false);
+    }
+
+    @Override
+    public void releaseWritePermit() {
+        release(ThrottleClass.BULK, writeCost);
+    }
+
+    @Override
+    public void acquireWritePermit(ThrottleClass throttleClass) throws InterruptedException {
+        acquire(throttleClass, writeCost, false);
+    }
+
+    @Override
+    public void releaseWritePermit(ThrottleClass throttleClass) {
+        release(throttleClass, writeCost);
+    }
+
+    @Override
+    public void acquireReadPermit() throws InterruptedException {
+        acquire(ThrottleClass.INTERACTIVE, readCost, false);
+    }
+
+    @Override
+    public void releaseReadPermit() throws InterruptedException {
+        release(ThrottleClass.INTERACTIVE, readCost);
+    }
+
+    @Override
+    public void acquireReadPermit(ThrottleClass throttleClass) throws InterruptedException {
+        acquire(throttleClass, readCost, false);
+    }
+
+    @Override
+    public void releaseReadPermit(ThrottleClass throttleClass) {
+        release(throttleClass, readCost);
+    }
+
+    @Override
+    public AcquiredPermits greedyAcquirePermits() throws InterruptedException {
+        return greedyAcquirePermits(ThrottleClass.BULK);
+    }
+
+    @Override
+    public AcquiredPermits greedyAcquirePermits(ThrottleClass throttleClass)
+        throws InterruptedException {
+        
+        int nPermits = acquire(throttleClass, minimumGreediness, true);
+        return new AcquiredPermitsImpl(throttleClass, nPermits);
+    }
+
+    @Override
+    public int waitQueueLength() {
+        lock.lock();
+        try {
+            int queueLength = 0;
+            for (Deque<Waiter> waitQueue : waitQueues.values()) {
+                queueLength += waitQueue.size();
+            }
+            return queueLength;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    @Override
+    public int waitQueueLength(ThrottleClass throttleClass) {
+        lock.lock();
+        try {
+            return waitQueues.get(throttleClass).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return The number of permits currently held by the specified class of
+     * work.
+     */
+    public int permitsInUse(ThrottleClass throttleClass) {
+        lock.lock();
+        try {
+            return permitsInUse[throttleClass.ordinal()];
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return The most permits bulk work may currently hold.
+     */
+    public int bulkPermitLimit() {
+        lock.lock();
+        try {
+            return bulkPermitLimit;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return The estimated tail of the latency of completed interactive
+     * requests in milliseconds.
+     */
+    public double interactiveTailLatencyMillis() {
+        lock.lock();
+        try {
+            return tailLatencyNanos / 1e6;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return The bulk bytes completed per second as of the last time the
+     * bulk limit was reevaluated.
+     */
+    public double bulkBytesPerSecond() {
+        lock.lock();
+        try {
+            return bulkBytesPerSecond;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int initialPermits() {
+        return initialPermits;
+    }
+
+    @Override
+    public int currentState() {
+        lock.lock();
+        try {
+            return availablePermits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int totalPermits() {
+        lock.lock();
+        try {
+            return totalPermits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int readCost() {
+        return readCost;
+    }
+
+    @Override
+    public int writeCost() {
+        return writeCost;
+    }
+
+    @Override
+    public void addPermits(int additionalPermits) {
+        if (additionalPermits < 0) {
+            throw new IllegalArgumentException("Can not subtract permits.");
+        }
+        
+        lock.lock();
+        try {
+            if (bulkPermitLimit == totalPermits) {
+                bulkPermitLimit += additionalPermits;
+            }
+            totalPermits += additionalPermits;
+            availablePermits += additionalPermits;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * @return The number of permits acquired.
+     */
+    private int acquire(ThrottleClass throttleClass, int nPermits, boolean greedy) 
+        throws InterruptedException {
+        
+        Waiter waiter = new Waiter(nPermits, greedy);
+        Deque<Waiter> waitQueue = waitQueues.get(throttleClass);
+        lock.lock();
+        try {
+            waitQueue.addLast(waiter);
+            dispatch();
+            while (waiter.grantedPermits == 0) {
+                try {
+                    waiter.granted.await();
+                } catch (InterruptedException ie) {
+                    if (waiter.grantedPermits == 0) {
+                        waitQueue.remove(waiter);
+                        dispatch();
+                        throw ie;
+                    }
+                    //Got the permits anyway.
+                    Thread.currentThread().interrupt();
+                }
+            }
+            
+            recordWait(throttleClass, System.nanoTime() - waiter.startNanos);
+            ValueMetric.addValue(QUEUE_LEN_METRIC, waitQueueLength());
+            return waiter.grantedPermits;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private void release(ThrottleClass throttleClass, int nPermits) {
+        lock.lock();
+        try {
+            int inUse = permitsInUse[throttleClass.ordinal()] - nPermits;
+            if (inUse < 0) {
+                assert false : "Released too many permits.";
+                log.warn("Released too many " + throttleClass + " permits.");
+                nPermits += inUse;
+                inUse = 0;
+            }
+            permitsInUse[throttleClass.ordinal()] = inUse;
+            availablePermits += nPermits;
+            
+            if (throttleClass == ThrottleClass.BULK) {
+                increaseBulkLimitWhenIdle();
+            }
+            dispatch();
+            ValueMetric.addValue(QUEUE_LEN_METRIC, waitQueueLength());
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Hands out available permits.  This must be called while holding lock.
+     */
+    private void dispatch() {
+        final int bulkIndex = ThrottleClass.BULK.ordinal();
+        while (availablePermits > 0) {
+            ThrottleClass next = null;
+            for (ThrottleClass throttleClass : ThrottleClass.values()) {
+                Waiter head = waitQueues.get(throttleClass).peekFirst();
+                if (head == null) {
+                    continue;
+                }
+                if (throttleClass == ThrottleClass.BULK && permitsInUse[bulkIndex] > 0 && 
+                    permitsInUse[bulkIndex] + head.minPermits > bulkPermitLimit) {
+                    continue;
+                }
+                if (next == null || 
+                    permitsInUse[throttleClass.ordinal()] < permitsInUse[next.ordinal()]) {
+                    next = throttleClass;
+                }
+            }
+            
+            if (next == null) {
+                return;
+            }
+            
+            Waiter head = waitQueues.get(next).peekFirst();
+            if (head.minPermits > availablePermits) {
+                //Wait for more permits rather than let smaller requests cut in line.
+                return;
+            }
+            
+            int grant = head.minPermits;
+            if (head.greedy) {
+                //Leave some permits.
+                int wanted = availablePermits / 2;
+                if (next == ThrottleClass.BULK) {
+                    wanted = Math.min(wanted, bulkPermitLimit - permitsInUse[bulkIndex]);
+                }
+                grant = Math.max(head.minPermits, wanted);
+            }
+            
+            waitQueues.get(next).pollFirst();
+            availablePermits -= grant;
+            permitsInUse[next.ordinal()] += grant;
+            head.grantedPermits = grant;
+            head.granted.signal();
+        }
+    }
+    
+    @Override
+    public void requestCompleted(ThrottleClass throttleClass, long latencyNanos, long nBytes) {
+        String className = throttleClass.name().toLowerCase();
+        ValueMetric.addValue(LATENCY_METRIC_PREFIX + className,
+            TimeUnit.NANOSECONDS.toMillis(latencyNanos));
+        ValueMetric.addValue(BYTES_METRIC_PREFIX + className, nBytes);
+        
+        lock.lock();
+        try {
+            switch (throttleClass) {
+                case BULK:
+                    bulkBytes += nBytes;
+                    break;
+                case INTERACTIVE:
+                    recordInteractiveLatency(latencyNanos);
+                    break;
+                default:
+                    break;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * This must be called while holding lock.
+     */
+    private void recordWait(ThrottleClass throttleClass, long waitNanos) {
+        ValueMetric.addValue(WAIT_TIME_METRIC_PREFIX + throttleClass.name().toLowerCase(),
+            TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    }
+    
+    /**
+     * This must be called while holding lock.
+     */
+    private void recordInteractiveLatency(long latencyNanos) {
+        interactiveLatencyNanos[(int) (nInteractiveCompleted % LATENCY_WINDOW)] = latencyNanos;
+        nInteractiveCompleted++;
+        lastAdjustNanos = System.nanoTime();
+        if (nInteractiveCompleted % ADAPT_INTERVAL != 0) {
+            return;
+        }
+        
+        int nSamples = (int) Math.min(nInteractiveCompleted, LATENCY_WINDOW);
+        long[] sorted = Arrays.copyOf(interactiveLatencyNanos, nSamples);
+        Arrays.sort(sorted);
+        tailLatencyNanos = sorted[Math.min(nSamples - 1, (int) (nSamples * TAIL_QUANTILE))];
+        
+        long now = System.nanoTime();
+        long elapsedNanos = Math.max(1L, now - lastAdaptNanos);
+        bulkBytesPerSecond = bulkBytes * 1e9 / elapsedNanos;
+        bulkBytes = 0;
+        lastAdaptNanos = now;
+        
+        int oldLimit = bulkPermitLimit;
+        if (tailLatencyNanos > targetLatencyNanos) {
+            bulkPermitLimit = Math.max(minimumGreediness, (bulkPermitLimit * 3) / 4);
+            bulkBytesPerSecondBeforeIncrease = -1;
+        } else if (tailLatencyNanos < targetLatencyNanos / 2 && 
+            bulkPermitLimit < totalPermits) {
+            
+            if (bulkBytesPerSecondBeforeIncrease < 0 || bulkBytesPerSecond == 0 ||
+                bulkBytesPerSecond > bulkBytesPerSecondBeforeIncrease * (1 + MIN_THROUGHPUT_GAIN)) {
+                bulkBytesPerSecondBeforeIncrease = bulkBytesPerSecond;
+                bulkPermitLimit++;
+            } else {
+                //The last increase did not move bulk data any faster.  Hold
+                //the limit this time and try again next time.
+                bulkBytesPerSecondBeforeIncrease = -1;
+            }
+        } else {
+            bulkBytesPerSecondBeforeIncrease = -1;
+        }
+        if (oldLimit != bulkPermitLimit && log.isDebugEnabled()) {
+            log.debug("Interactive tail latency " + (tailLatencyNanos / 1e6) +
+                "ms, bulk throughput " + bulkBytesPerSecond + 
+                " bytes/s, bulk permit limit changed from " + oldLimit + " to " +
+                bulkPermitLimit + ".");
+        }
+    }
+    
+    /**
+     * When no one is waiting on interactive requests let bulk requests
+     * have more permits.  This must be called while holding lock.
+     */
+    private void increaseBulkLimitWhenIdle() {
+        if (bulkPermitLimit >= totalPermits) {
+            return;
+        }
+        if (permitsInUse[ThrottleClass.INTERACTIVE.ordinal()] != 0 ||
+            !waitQueues.get(ThrottleClass.INTERACTIVE).isEmpty()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (now - lastAdjustNanos < IDLE_INCREASE_NANOS) {
+            return;
+        }
+        lastAdjustNanos = now;
+        bulkPermitLimit++;
+    }
+    
+    /**
+     * A thread waiting for permits.
+     */
+    private final class Waiter {
+        private final int minPermits;
+        private final boolean greedy;
+        private final Condition granted = lock.newCondition();
+        private final long startNanos = System.nanoTime();
+        /** This is protected by lock. */
+        private int grantedPermits = 0;
+        
+        Waiter(int minPermits, boolean greedy) {
+            this.minPermits = minPermits;
+            this.greedy = greedy;
+        }
+    }
+    
+    private final class AcquiredPermitsImpl implements AcquiredPermits {
+
+        private boolean released = false;
+        private final int nPermits;
+        private final ThrottleClass throttleClass;
+        
+        private AcquiredPermitsImpl(ThrottleClass throttleClass, int permits) {
+            this.throttleClass = throttleClass;
+            this.nPermits = permits;
+        }
+
+        @Override
+        public int nPermits() {
+            return nPermits;
+        }
+
+        @Override
+        public synchronized void releasePermits() {
+            if (released) {
+                log.warn("Attempting to rerelease permits.");
+                return;
+            }
+            
+            release(throttleClass, nPermits);
+            released = true;
+        }
+    }
+}
@@ -49,6 +49,7 @@ import gov.nasa.kepler.fs.server.jmx.TransactionMonitoringInfo;
 import gov.nasa.kepler.fs.transport.TransportServer;
 import gov.nasa.spiffy.common.collect.ListChunkIterator;
 import gov.nasa.spiffy.common.intervals.Interval;
+import gov.nasa.spiffy.common.metrics.HistogramMetric;
 import gov.nasa.spiffy.common.metrics.IntervalMetric;
 import gov.nasa.spiffy.common.metrics.IntervalMetricKey;
 import gov.nasa.spiffy.common.persistable.BinaryPersistableInputStream;
@@ -60,6 +61,7 @@ import java.net.InetAddress;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.transaction.xa.XAResource;
@@ -119,6 +121,12 @@ class FstpHandler extends AbstractFstpServer {
      * When true client has asked to close this connection.
      */
     private boolean closed = false;
+    
+    /**
+     * Reads and writes of no more than this many FsIds are throttled as
+     * interactive requests.
+     */
+    private final int maxInteractiveReadIds;
 
     /**
      * 
@@ -138,7 +146,21 @@ class FstpHandler extends AbstractFstpServer {
         this.serverId = serverId;
         this.throttle = throttle;
         this.clientAddr = clientAddr;
+        this.maxInteractiveReadIds = 
+            config.getInt(FS_SERVER_THROTTLE_INTERACTIVE_IDS, 
+                FS_SERVER_THROTTLE_INTERACTIVE_IDS_DEFAULT);
+    }
+    
+    private ThrottleClass throttleClass(int nIds) {
+        return (nIds <= maxInteractiveReadIds) ? 
+            ThrottleClass.INTERACTIVE : ThrottleClass.BULK;
+    }
 
+    /**
+     * @return The number of bytes of data in the time series.
+     */
+    private static long dataBytes(FloatMjdTimeSeries mts) {
+        return mts.mjd().length * 8L + mts.values().length * 4L;
     }
 
     InetAddress clientAddr() {
@@ -173,7 +195,10 @@ class FstpHandler extends AbstractFstpServer {
 
         ReadableBlob blob = null;
         IntervalMetricKey metricKey = null;
-        throttle.acquireReadPermit();
+        long startNanos = System.nanoTime();
+        //Blobs can be large; counting them as interactive would inflate the
+        //interactive latency used to limit bulk work.
+        throttle.acquireReadPermit(ThrottleClass.BULK);
         try {
             metricKey = IntervalMetric.start();
             blob = fileStore.readBlob(id, xid);
@@ -189,9 +214,11 @@ class FstpHandler extends AbstractFstpServer {
         } catch (IOException x) {
             log.error("Failed to read blob " + id, x);
         } finally {
-            throttle.releaseReadPermit();
+            throttle.releaseReadPermit(ThrottleClass.BULK);
+            throttle.requestCompleted(ThrottleClass.BULK, 
+                System.nanoTime() - startNanos, (blob == null) ? 0 : blob.length);
             if (metricKey != null) {
-                IntervalMetric.stop(FS_METRICS_PREFIX + ".server.read-blob", metricKey);
+                HistogramMetric.stop(FS_METRICS_PREFIX + ".server.read-blob", metricKey);
             }
             if (blob != null) {
                 blob.close();
@@ -236,7 +263,10 @@ class FstpHandler extends AbstractFstpServer {
 
         WritableBlob writeChan = null;
         IntervalMetricKey metricKey = null;
-        throttle.acquireWritePermit();
+        long bytesWritten = 0;
+        final ThrottleClass throttleClass = ThrottleClass.BULK;
+        long startNanos = System.nanoTime();
+        throttle.acquireWritePermit(throttleClass);
         try {
             metricKey = IntervalMetric.start();
             writeChan = fileStore.writeBlob(id, xid, originator);
@@ -250,15 +280,18 @@ class FstpHandler extends AbstractFstpServer {
                 transportServer.receiveFile(writeChan.fileChannel, fileStart,
                     expectBytes);
                 fileStart += expectBytes;
+                bytesWritten += expectBytes;
             }
 
             // SendOK.
             transportServer.outputStream().write(0);
             transportServer.outputStream().flush();
         } finally {
-            throttle.releaseWritePermit();
+            throttle.releaseWritePermit(throttleClass);
+            throttle.requestCompleted(throttleClass, 
+                System.nanoTime() - startNanos, bytesWritten);
             if (metricKey != null) {
-                IntervalMetric.stop(FS_METRICS_PREFIX + ".server.write-blob", metricKey);
+                HistogramMetric.stop(FS_METRICS_PREFIX + ".server.write-blob", metricKey);
             }
             if (writeChan != null) {
                 writeChan.close();
@@ -294,6 +327,7 @@ class FstpHandler extends AbstractFstpServer {
 
         checkXid(xid);
 
+        final AtomicLong bytesWritten = new AtomicLong();
         Iterator<TimeSeriesCarrier> inputIt = new Iterator<TimeSeriesCarrier>() {
             int counter = 0;
 
@@ -305,7 +339,9 @@ class FstpHandler extends AbstractFstpServer {
             public TimeSeriesCarrier next() {
                 try {
                     counter++;
-                    return TimeSeriesCarrier.transferFrom(dis);
+                    TimeSeriesCarrier carrier = TimeSeriesCarrier.transferFrom(dis);
+                    bytesWritten.addAndGet(carrier.data().length);
+                    return carrier;
                 } catch (IOException e) {
                     throw new IllegalStateException(e);
                 }
@@ -317,7 +353,9 @@ class FstpHandler extends AbstractFstpServer {
         };
 
         IntervalMetricKey metricKey = null;
-        final AcquiredPermits permits = throttle.greedyAcquirePermits();
+        final ThrottleClass throttleClass = throttleClass(nSeries);
+        long startNanos = System.nanoTime();
+        final AcquiredPermits permits = throttle.greedyAcquirePermits(throttleClass);
         try {
             metricKey = IntervalMetric.start();
 
@@ -330,6 +368,8 @@ class FstpHandler extends AbstractFstpServer {
 
         } finally {
             permits.releasePermits();
+            throttle.requestCompleted(throttleClass, 
+                System.nanoTime() - startNanos, bytesWritten.get());
             if (metricKey != null) {
                 IntervalMetric.stop(FS_METRICS_PREFIX + ".server.write-ts", metricKey);
             }
@@ -954,6 +994,7 @@ class FstpHandler extends AbstractFstpServer {
         checkShutDown();
         checkXid(xid);
 
+        final AtomicLong bytesRead = new AtomicLong();
         CompleteReadCallback<TimeSeriesCarrier> readCallback = 
             new CompleteReadCallback<TimeSeriesCarrier>() {
             
@@ -969,6 +1010,7 @@ class FstpHandler extends AbstractFstpServer {
                 }
                 try {
                     readResult.transferTo(dout);
+                    bytesRead.addAndGet(readResult.data().length);
                 } catch (Exception ex) {
                     error.compareAndSet(null, ex);
                     throw ex;
@@ -981,6 +1023,8 @@ class FstpHandler extends AbstractFstpServer {
             id.intern();
         }
         IntervalMetricKey metricKey = null;
+        final ThrottleClass throttleClass = throttleClass(ids.length);
+        long startNanos = System.nanoTime();
         try {
             if (log.isDebugEnabled()) {
                 log.debug("doRead " + Arrays.deepToString(ids) + " "
@@ -996,7 +1040,7 @@ class FstpHandler extends AbstractFstpServer {
                 new ListChunkIterator<FsId>(Arrays.asList(ids).iterator(), READ_WINDOW_SIZE);
             int requestOrder = 0;
             for (List<FsId> chunk : it) {
-                final AcquiredPermits permits = throttle.greedyAcquirePermits();
+                final AcquiredPermits permits = throttle.greedyAcquirePermits(throttleClass);
                 try {
                     fileStore.readTimeSeries(expectedDataType, useDefaults, 
                         chunk, defaultStartCadence, defaultEndCadence, xid, 
@@ -1008,8 +1052,10 @@ class FstpHandler extends AbstractFstpServer {
             }
 
         } finally {
+            throttle.requestCompleted(throttleClass, 
+                System.nanoTime() - startNanos, bytesRead.get());
             if (metricKey != null) {
-                IntervalMetric.stop(FS_METRICS_PREFIX + ".server.read-ts", metricKey);
+                HistogramMetric.stop(FS_METRICS_PREFIX + ".server.read-ts", metricKey);
             }
             dout.flush();
         }
@@ -1097,12 +1143,14 @@ class FstpHandler extends AbstractFstpServer {
         checkShutDown();
         checkXid(xid);
 
+        final AtomicLong bytesRead = new AtomicLong();
         CompleteReadCallback<FloatMjdTimeSeries> readCallback = 
             new CompleteReadCallback<FloatMjdTimeSeries>() {
             @Override
             public synchronized void sendBackToClient(FloatMjdTimeSeries readResult)
             throws Exception {
                 readResult.writeTo(dout);
+                bytesRead.addAndGet(dataBytes(readResult));
             }
         };
 
@@ -1111,6 +1159,8 @@ class FstpHandler extends AbstractFstpServer {
         }
 
         IntervalMetricKey metricKey = null;
+        final ThrottleClass throttleClass = throttleClass(fsIds.length);
+        long startNanos = System.nanoTime();
 
         try {
             metricKey = IntervalMetric.start();
@@ -1120,7 +1170,7 @@ class FstpHandler extends AbstractFstpServer {
                 new ListChunkIterator<FsId>(Arrays.asList(fsIds).iterator(), READ_WINDOW_SIZE);
             int requestOrder = 0;
             for (List<FsId> chunk : it) {
-                final AcquiredPermits permits = throttle.greedyAcquirePermits();
+                final AcquiredPermits permits = throttle.greedyAcquirePermits(throttleClass);
                 try {
                     fileStore.readMjdTimeSeries(chunk, startMjd, endMjd, xid, 
                         replaceStartEnd, readCallback, requestOrder, permits);
@@ -1130,8 +1180,10 @@ class FstpHandler extends AbstractFstpServer {
                 }
             }
         } finally {
+            throttle.requestCompleted(throttleClass, 
+                System.nanoTime() - startNanos, bytesRead.get());
             if (metricKey != null) {
-                IntervalMetric.stop(FS_METRICS_PREFIX + ".server.read-mts", metricKey);
+                HistogramMetric.stop(FS_METRICS_PREFIX + ".server.read-mts", metricKey);
             }
             dout.flush();
         }
@@ -1351,6 +1403,7 @@ class FstpHandler extends AbstractFstpServer {
 
         final int nSeries = din.readInt();
 
+        final AtomicLong bytesWritten = new AtomicLong();
         Iterator<FloatMjdTimeSeries> inputIt = new Iterator<FloatMjdTimeSeries>() {
             int counter=0;
             @Override
@@ -1363,6 +1416,7 @@ class FstpHandler extends AbstractFstpServer {
                     FloatMjdTimeSeries mts = new FloatMjdTimeSeries();
                     bpin.load(mts);
                     counter++;
+                    bytesWritten.addAndGet(dataBytes(mts));
                     return mts;
                 } catch (Exception ioe) {
                     throw new IllegalStateException(ioe);
@@ -1375,13 +1429,15 @@ class FstpHandler extends AbstractFstpServer {
         };
 
         IntervalMetricKey metricKey = null;
+        final ThrottleClass throttleClass = throttleClass(nSeries);
+        long startNanos = System.nanoTime();
         try {
             metricKey = IntervalMetric.start();
 
             ListChunkIterator<FloatMjdTimeSeries> chunkIt =
                 new ListChunkIterator<FloatMjdTimeSeries>(inputIt, BATCH_SIZE);
             for (List<FloatMjdTimeSeries> series : chunkIt) {
-                final AcquiredPermits permits = throttle.greedyAcquirePermits();
+                final AcquiredPermits permits = throttle.greedyAcquirePermits(throttleClass);
                 try {
                     fileStore.writeMjdTimeSeries(series, overwrite, xid, permits);
                 } finally {
@@ -1390,6 +1446,8 @@ class FstpHandler extends AbstractFstpServer {
             }
 
         } finally {
+            throttle.requestCompleted(throttleClass, 
+                System.nanoTime() - startNanos, bytesWritten.get());
             if (metricKey != null) {
                 IntervalMetric.stop(FS_METRICS_PREFIX + ".server.write-mts", metricKey);
             }
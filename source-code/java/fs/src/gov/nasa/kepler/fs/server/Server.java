@@ -127,6 +127,8 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
     private final CountDownLatch shutdownReceived = new CountDownLatch(1);
 
     private final ThreadPoolExecutor clientWorkers;
+    
+    private final int maxConnections;
 
     private final ThreadGroup serverThreadGroup =
         new ServerThreadGroup();
@@ -158,6 +160,7 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
         this.localonly = localonly;
         
         this.clientWorkers = setupClientThreadPool();
+        this.maxConnections = getConfiguredMaxConnections();
             
         setupThrottle();
         serverId = new ServerIdGenerator();
@@ -181,14 +184,33 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
         log.info("Write cost/max writers " + writeCost + "/" + maxWriters +  
             " read cost/max readers " + readCost + "/" + maxReaders + ".");
         
-        return new Throttle(concurrentReadersWriters, readCost, writeCost);
+        if (!config.getBoolean(FS_SERVER_ADAPTIVE_THROTTLE, 
+            FS_SERVER_ADAPTIVE_THROTTLE_DEFAULT)) {
+            return new Throttle(concurrentReadersWriters, readCost, writeCost);
+        }
+        
+        int targetLatencyMs = config.getInt(FS_SERVER_THROTTLE_TARGET_LATENCY_MS,
+            FS_SERVER_THROTTLE_TARGET_LATENCY_MS_DEFAULT);
+        log.info("Using adaptive throttle with interactive target latency of " + 
+            targetLatencyMs + "ms.");
+        return new AdaptiveThrottle(concurrentReadersWriters, readCost, 
+            writeCost, targetLatencyMs);
     }
 
 
+    /**
+     * Client requests are only queued once the first message of a method
+     * has been received.  The queue is bounded; when it is full the listener
+     * thread holds on to the request and stops reading from that client until
+     * a worker can take it.  The listener never runs a request itself.
+     */
     private static ThreadPoolExecutor setupClientThreadPool() {
         int maxClients = getConfiguredMaxClients();
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        int maxQueuedRequests = 
+            Math.max(1, config.getInt(FS_SERVER_MAX_QUEUED_REQUESTS, maxClients));
         BlockingQueue<Runnable> clientQueue = 
-            new ArrayBlockingQueue<Runnable>(maxClients, true);
+            new LinkedBlockingQueue<Runnable>(maxQueuedRequests);
 
         ThreadFactory threadFactory = new DaemonThreadFactory();
 
@@ -196,7 +218,6 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
         RejectedExecutionHandler rejectPolicy =
             new ThreadPoolExecutor.AbortPolicy();
 
-
         ThreadPoolExecutor threadPool =  
             new ThreadPoolExecutor(maxClients, maxClients, THREAD_KEEPALIVE_SEC, 
                 TimeUnit.SECONDS, clientQueue, threadFactory, rejectPolicy);
@@ -210,6 +231,11 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
         return config.getInt(FS_SERVER_MAX_CLIENTS, FS_SERVER_MAX_CLIENTS_DEFAULT);
     }
     
+    private static int getConfiguredMaxConnections() {
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        return config.getInt(FS_SERVER_MAX_CONNECTIONS, FS_SERVER_MAX_CONNECTIONS_DEFAULT);
+    }
+    
     /**
      * Note that the OS may have decided the the backlog is too large and truncate
      * it to SOMAXCONN which is usually 128 for Linux.
@@ -501,6 +527,28 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
 
     }
 
+    /**
+     * Closes the client connection and forgets about it.
+     */
+    private void closeClient(SocketChannel clientChannel) {
+        fstpHandlers.remove(clientChannel);
+        TransportServer transportServer = transportServers.remove(clientChannel);
+        try {
+            if (transportServer != null) {
+                transportServer.close();
+            }
+        } catch (Exception e) {
+            //ignore.
+        } finally {
+            FileUtil.close(clientChannel);
+        }
+    }
+    
+    /**
+     * Services a single method invocation.  This is only run after the start
+     * of the method has been received so a worker thread is not waiting on
+     * idle clients.
+     */
     private class ClientTask implements Runnable {
         private final SocketChannel clientChannel;
         private final Selector selector;
@@ -520,9 +568,6 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
                 if (fstpHandlers.containsKey(clientChannel)) {
                    fstpHandler = fstpHandlers.get(clientChannel);
                 } else {
-                    TransportServer transportServer = 
-                            TransportFactory.newTransportServer(clientChannel, true);
-                    transportServers.put(clientChannel, transportServer);
                     //TODO:  this probably increases the client response time.
                     Configuration configuration = ConfigurationServiceFactory.getInstance();
                     
@@ -537,6 +582,10 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
                 Thread.currentThread().setName("ST-"+clientName);
                 
                 TransportServer transportServer = transportServers.get(clientChannel);
+                if (transportServer == null) {
+                    throw new IllegalStateException("Missing transport for client \"" +
+                        clientAddress + "\".");
+                }
                 
                 boolean anotherMethod = false;
                 try {
@@ -553,11 +602,7 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
                     if (log.isDebugEnabled()) {
                         log.debug("Client \"" + clientAddress + "\" disconnected.");
                     }
-                    try {
-                        transportServer.close();
-                    } catch (Exception e) {
-                        //ignore.
-                    }
+                    closeClient(clientChannel);
                 } else if (clientChannel.isOpen()) {
                     //client is still live.
                     reregisterQueue.add(clientChannel);
@@ -565,19 +610,22 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
                     if (log.isDebugEnabled()) {
                         log.debug("Queue client for reregistration with selector.");
                     }
+                } else {
+                    closeClient(clientChannel);
                 }
             } catch (Exception e) {
                 if (!isShuttingDown.get()) {
                     log.error("Received exception at file store server top level.", e);
                 }
+                closeClient(clientChannel);
             } catch (Throwable t) {
                 if (!isShuttingDown.get()) {
                     log.fatal("Received throwable error (not exception)" +
                             " at file store server top level.  Shutting down.", t);
-                    fstpHandler.shutdown();
+                    if (fstpHandler != null) {
+                        fstpHandler.shutdown();
+                    }
                 }
-            } finally {
-                fstpHandlers.remove(fstpHandler);
             }
         }
     }
@@ -591,6 +639,14 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
          */
         private final Selector selector;
 
+        /**
+         * Requests which have been read but which did not fit in the worker
+         * queue.  Nothing more is read from these clients until their request
+         * has been handed to a worker, so this holds at most one request per
+         * connection.  Only used by the listener thread.
+         */
+        private final Queue<ClientTask> parkedClients = new LinkedList<ClientTask>();
+
         ServerListener(ServerSocketChannel serverChannel) throws IOException {
             this.serverChannel = serverChannel;
             this.selector = Selector.open();
@@ -608,6 +664,8 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
                             break;
                         }
                         
+                        executeParkedClients();
+                        
                         if (selector.select(10 /* wait ms */) != 0) {
 
                             Iterator<SelectionKey> it =
@@ -667,6 +725,10 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
                 }//while
             } finally {
                 clientWorkers.shutdownNow();
+                for (ClientTask parked : parkedClients) {
+                    closeClient(parked.clientChannel);
+                }
+                parkedClients.clear();
                 log.info("File store server listener thread exiting.");
             }
         }
@@ -679,37 +741,135 @@ public class Server extends AbstractPipelineProcess implements ShutdownListener
             if (readySelectionKey.isAcceptable()) {
                 log.debug("Found selection key ready for accept.");
                 SocketChannel clientChannel = serverChannel.accept();
+                if (clientChannel == null) {
+                    return;
+                }
                 clientChannel.socket().setReceiveBufferSize(1024*512);
                 clientChannel.socket().setSendBufferSize(1024*512);
                 clientChannel.socket().setTcpNoDelay(true);
                 clientChannel.socket().setKeepAlive(true);
-                clientChannel.configureBlocking(false);
                 clientChannel.socket().setSoTimeout(SOCKET_TIMEOUT);
-                clientChannel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                if (transportServers.size() >= maxConnections) {
+                    rejectClient(clientChannel);
+                    return;
+                }
+                TransportServer transportServer = 
+                    TransportFactory.newTransportServer(clientChannel, true);
+                transportServers.put(clientChannel, transportServer);
+                clientChannel.configureBlocking(false);
+                SelectionKey clientKey = 
+                    clientChannel.register(selector, SelectionKey.OP_READ);
+                readMethod(clientChannel, clientKey);
             } else if (readySelectionKey.isReadable() || readySelectionKey.isWritable()) {
-                //Cancel selection since we are now going to put the
-                //socket channel in blocking mode.
-                readySelectionKey.cancel();
                 log.debug("Found selection key that is readable or writable.");
                 SocketChannel clientChannel = 
                     (SocketChannel) readySelectionKey.channel();
-                clientChannel.configureBlocking(true);
-                ClientTask clientTask = new ClientTask(clientChannel, selector);
-                try {
-                    clientWorkers.execute(clientTask);
-                } catch (RejectedExecutionException full) {
-                    log.error("Too many requests to fulfill client : " +
-                            clientChannel.socket().getInetAddress(), full);
-                    TransportServer transportServer = null;
-                    try {
-                        transportServer = TransportFactory.newTransportServer(clientChannel, false);
-                        transportServer.initConnection();
-                    } catch (IOException e) {
-                        log.warn("Failed to send exception to client.");
-                    } finally {
-                        FileUtil.close(clientChannel);
-                    }
+                readMethod(clientChannel, readySelectionKey);
+            }
+        }
+        
+        /**
+         * Reads what is available from the client.  When the start of the
+         * next method has been received the client is handed off to a
+         * worker thread.
+         */
+        private void readMethod(SocketChannel clientChannel, 
+            SelectionKey selectionKey) throws IOException {
+            
+            TransportServer transportServer = transportServers.get(clientChannel);
+            if (transportServer == null) {
+                selectionKey.cancel();
+                closeClient(clientChannel);
+                return;
+            }
+            
+            int interestOps = 0;
+            try {
+                interestOps = transportServer.readMethodNonBlocking();
+            } catch (IOException ioe) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Client \"" + 
+                        clientChannel.socket().getInetAddress() + "\" disconnected.", ioe);
                 }
+                selectionKey.cancel();
+                closeClient(clientChannel);
+                return;
+            }
+            
+            if (interestOps != 0) {
+                selectionKey.interestOps(interestOps);
+                return;
+            }
+            
+            //Cancel selection since we are now going to put the
+            //socket channel in blocking mode.
+            selectionKey.cancel();
+            clientChannel.configureBlocking(true);
+            ClientTask clientTask = new ClientTask(clientChannel, selector);
+            if (!parkedClients.isEmpty()) {
+                //Keep requests in the order they arrived.
+                parkedClients.add(clientTask);
+                return;
+            }
+            if (!execute(clientTask)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Worker queue is full, holding request from client \"" +
+                        clientTask.clientAddress() + "\".");
+                }
+                parkedClients.add(clientTask);
+            }
+        }
+        
+        /**
+         * Hands held requests to the workers, in order, until the worker
+         * queue is full again.
+         */
+        private void executeParkedClients() {
+            while (!parkedClients.isEmpty()) {
+                if (!execute(parkedClients.peek())) {
+                    return;
+                }
+                parkedClients.remove();
+            }
+        }
+        
+        /**
+         * @return false if the worker queue is full.  If the workers have been
+         * shutdown the client is closed and this returns true.
+         */
+        private boolean execute(ClientTask clientTask) {
+            try {
+                clientWorkers.execute(clientTask);
+                return true;
+            } catch (RejectedExecutionException rejected) {
+                if (!clientWorkers.isShutdown()) {
+                    return false;
+                }
+                if (!isShuttingDown.get()) {
+                    log.error("Failed to service client : " +
+                            clientTask.clientAddress(), rejected);
+                }
+                closeClient(clientTask.clientChannel);
+                return true;
+            }
+        }
+        
+        /**
+         * Tells the client that the server has too many connections.
+         */
+        private void rejectClient(SocketChannel clientChannel) {
+            log.error("Too many connections to accept client : " +
+                    clientChannel.socket().getInetAddress());
+            try {
+                clientChannel.configureBlocking(true);
+                TransportServer transportServer = 
+                    TransportFactory.newTransportServer(clientChannel, false);
+                transportServer.initConnection();
+            } catch (IOException e) {
+                //Expected since the connection is closed after the client
+                //has been told it was not admitted.
+            } finally {
+                FileUtil.close(clientChannel);
             }
         }
     }
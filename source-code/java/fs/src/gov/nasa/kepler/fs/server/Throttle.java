@@ -110,6 +110,19 @@ public class Throttle implements ThrottleInterface {
         ValueMetric.addValue(QUEUE_LEN_METRIC, semaphore.getQueueLength());
     }
     
+    /**
+     * This throttle does not distinguish between classes of work.
+     */
+    @Override
+    public void acquireWritePermit(ThrottleClass throttleClass) throws InterruptedException {
+        acquireWritePermit();
+    }
+    
+    @Override
+    public void releaseWritePermit(ThrottleClass throttleClass) {
+        releaseWritePermit();
+    }
+    
 
     public void acquireReadPermit() throws InterruptedException {
         semaphore.acquire(readCost.get());
@@ -122,6 +135,17 @@ public class Throttle implements ThrottleInterface {
         ValueMetric.addValue(QUEUE_LEN_METRIC, semaphore.getQueueLength());
     }
     
+    @Override
+    public void acquireReadPermit(ThrottleClass throttleClass) throws InterruptedException {
+        acquireReadPermit();
+    }
+    
+    @Override
+    public void releaseReadPermit(ThrottleClass throttleClass) {
+        semaphore.release(readCost.get());
+        ValueMetric.addValue(QUEUE_LEN_METRIC, semaphore.getQueueLength());
+    }
+    
 
     public AcquiredPermits greedyAcquirePermits() throws InterruptedException {
         int nPermits = semaphore.drainPermits();
@@ -140,12 +164,38 @@ public class Throttle implements ThrottleInterface {
         return new AcquiredPermitsImpl(permitsWanted);
     }
     
+    /**
+     * This throttle does not distinguish between classes of work.
+     */
+    @Override
+    public AcquiredPermits greedyAcquirePermits(ThrottleClass throttleClass) 
+        throws InterruptedException {
+        
+        return greedyAcquirePermits();
+    }
     
 
+    /**
+     * This throttle does not adapt so this does nothing.
+     */
+    @Override
+    public void requestCompleted(ThrottleClass throttleClass, long latencyNanos, long nBytes) {
+        //This does nothing.
+    }
+
     public int waitQueueLength() {
         return semaphore.getQueueLength();
     }
     
+    /**
+     * This throttle does not distinguish between classes of work so this
+     * is the same as waitQueueLength().
+     */
+    @Override
+    public int waitQueueLength(ThrottleClass throttleClass) {
+        return waitQueueLength();
+    }
+    
 
     public int initialPermits() {
         return initialPermits;
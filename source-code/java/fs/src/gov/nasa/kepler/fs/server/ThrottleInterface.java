@@ -61,6 +61,24 @@ public interface ThrottleInterface {
      */
     public void releaseWritePermit();
 
+    /**
+     * Like acquireWritePermit(), but the permits are accounted for as the
+     * specified class of work.  Clients calling this must call
+     * releaseWritePermit(ThrottleClass) with the same class.
+     * 
+     * @param throttleClass non-null
+     * @throws InterruptedException
+     */
+    public void acquireWritePermit(ThrottleClass throttleClass) throws InterruptedException;
+
+    /**
+     * Releases permits back into the pool after a call to
+     * acquireWritePermit(ThrottleClass).
+     * 
+     * @param throttleClass The class passed to acquireWritePermit().
+     */
+    public void releaseWritePermit(ThrottleClass throttleClass);
+
     /**
      * Clients calling this must call releaseReadPermit() to release permits
      * back into the pool.  This method may block indefinitely if no permits
@@ -77,6 +95,24 @@ public interface ThrottleInterface {
      */
     public void releaseReadPermit() throws InterruptedException;
 
+    /**
+     * Like acquireReadPermit(), but the permits are accounted for as the
+     * specified class of work.  Clients calling this must call
+     * releaseReadPermit(ThrottleClass) with the same class.
+     * 
+     * @param throttleClass non-null
+     * @throws InterruptedException
+     */
+    public void acquireReadPermit(ThrottleClass throttleClass) throws InterruptedException;
+
+    /**
+     * Releases permits back into the pool after a call to
+     * acquireReadPermit(ThrottleClass).
+     * 
+     * @param throttleClass The class passed to acquireReadPermit().
+     */
+    public void releaseReadPermit(ThrottleClass throttleClass);
+
     /** 
      * Acquire as many permits as possible leaving some permits available for others.
      * There are some floors on this so if only a few permits are remaining then they 
@@ -86,6 +122,29 @@ public interface ThrottleInterface {
      * @throws InterruptedException 
      */
     public AcquiredPermits greedyAcquirePermits() throws InterruptedException;
+    
+    /**
+     * Like greedyAcquirePermits(), but the permits are accounted for as the
+     * specified class of work.
+     * 
+     * @param throttleClass non-null
+     * @return More than zero permits.
+     * @throws InterruptedException
+     */
+    public AcquiredPermits greedyAcquirePermits(ThrottleClass throttleClass)
+        throws InterruptedException;
+
+    /**
+     * Tells the throttle that a request which acquired permits has
+     * completed.  A throttle may use this to adapt to how long requests
+     * actually take and how much data they move.
+     * 
+     * @param throttleClass The class the request's permits were acquired as.
+     * @param latencyNanos The time from when the request started waiting for
+     * permits until it completed.
+     * @param nBytes The number of bytes of file store data read or written.
+     */
+    public void requestCompleted(ThrottleClass throttleClass, long latencyNanos, long nBytes);
 
     /**
      * The number of threads waiting to acquire permits.  This number is 
@@ -93,6 +152,14 @@ public interface ThrottleInterface {
      * @return A non-negative integer.
      */
     public int waitQueueLength();
+    
+    /**
+     * The number of threads waiting to acquire permits for the specified
+     * class of work.  This number is unreliable.
+     * @param throttleClass non-null
+     * @return A non-negative integer.
+     */
+    public int waitQueueLength(ThrottleClass throttleClass);
 
     /**
      * The number of permits available when the ThrottleInterface was initialized.
@@ -96,6 +96,10 @@ public final class TransactionalBackend implements BackendInterface {
     private final int fsIdLockTimeOutSeconds;
     private final FileTransactionManager.Factory ftmFactory;
     
+    /** Coalesces concurrent reads of the same container file. */
+    private final ElevatorScheduler timeSeriesElevator = new ElevatorScheduler();
+    private final ElevatorScheduler mjdTimeSeriesElevator = new ElevatorScheduler();
+    
 
     /**
      * Constructs a FileStore with the specified configuration settings.
@@ -642,33 +646,48 @@ public final class TransactionalBackend implements BackendInterface {
             if (error.get() != null) {
                 return null;
             }
-            FsIdOrder currentFsIdOrder = null;
             try {
-                for (FsIdOrder idLocation : ids) {
-                    currentFsIdOrder = idLocation;
-                    readTimeSeries(idLocation.id());
-                }
+                timeSeriesElevator.read(ids, new ElevatorScheduler.LocationReader() {
+                    @Override
+                    public void read(FsIdOrder idOrder, 
+                        ElevatorScheduler.DiskTurn diskTurn) throws Exception {
+                        
+                        if (error.get() != null) {
+                            return;
+                        }
+                        try {
+                            readTimeSeries(idOrder.id(), diskTurn);
+                        } catch (InterruptedException ie) {
+                            throw ie;
+                        } catch (Throwable t) {
+                            if (t instanceof OutOfMemoryError) {
+                                throw new IllegalStateException(t);
+                            }
+                            if (t instanceof FileStoreException) {
+                                throw (FileStoreException) t;
+                            }
+                            throw new IOException("While processing \"" +
+                                idOrder + "\".", t);
+                        }
+                    }
+                });
                 return null;
             } catch (Throwable t) {
-                if (t instanceof OutOfMemoryError) {
-                    throw new IllegalStateException(t);
-                }
-                if (currentFsIdOrder != null && !(t instanceof FileStoreException)) {
-                    IOException ioe = new IOException("While processing \"" +
-                        currentFsIdOrder + "\".", t);
-                    error.compareAndSet(null, ioe);
-                    throw ioe;
-                } else {
-                    error.compareAndSet(null, t);
-                    if (t instanceof Exception) {
-                        throw (Exception) t;
-                    }
-                    throw new IllegalStateException(t);
+                error.compareAndSet(null, t);
+                if (t instanceof Exception) {
+                    throw (Exception) t;
                 }
+                throw new IllegalStateException(t);
             }
         }
         
-        private void readTimeSeries(FsId id) throws Exception {
+        /**
+         * Locking and sending to the client are done outside of diskTurn so
+         * that they do not hold up the reads of other requests.
+         */
+        private void readTimeSeries(FsId id, ElevatorScheduler.DiskTurn diskTurn) 
+            throws Exception {
+            
             if (!fileTransactionManager.randomAccessExists(xid, id)) {
                 if (existsError) {
                     throw new FileStoreIdNotFoundException(id);
@@ -740,13 +759,18 @@ public final class TransactionalBackend implements BackendInterface {
 
                 byte[] buf = new byte[(int) cadenceSizeInBytes];
 
-                for (Pair<List<SimpleInterval>, List<TaggedInterval>> chunk : intervalIt) {
-                    SimpleInterval first = chunk.left.get(0);
-                    SimpleInterval last = chunk.left.get(chunk.left.size() - 1);
-
-                    int bufStart = (int) (first.start() - startCadenceInBytes);
-                    int intervalSize = (int) (last.end() - first.start() + 1);
-                    xf.read(buf, bufStart, intervalSize, first.start(), xid);
+                diskTurn.begin();
+                try {
+                    for (Pair<List<SimpleInterval>, List<TaggedInterval>> chunk : intervalIt) {
+                        SimpleInterval first = chunk.left.get(0);
+                        SimpleInterval last = chunk.left.get(chunk.left.size() - 1);
+    
+                        int bufStart = (int) (first.start() - startCadenceInBytes);
+                        int intervalSize = (int) (last.end() - first.start() + 1);
+                        xf.read(buf, bufStart, intervalSize, first.start(), xid);
+                    }
+                } finally {
+                    diskTurn.end();
                 }
 
                 TimeSeriesCarrier timeSeriesCarrier = 
@@ -762,7 +786,7 @@ public final class TransactionalBackend implements BackendInterface {
         }
     }
     
-    private static class ReadMjdTimeSeriesCallable implements Callable<FloatMjdTimeSeries> {
+    private class ReadMjdTimeSeriesCallable implements Callable<FloatMjdTimeSeries> {
 
         private final CompleteReadCallback<FloatMjdTimeSeries> readCallback;
         private final List<FsIdOrder> ids;
@@ -793,13 +817,17 @@ public final class TransactionalBackend implements BackendInterface {
         public FloatMjdTimeSeries call() throws Exception {
 
             try {
-                for (FsIdOrder idLocation : ids) {
-                    if (error.get() != null) {
-                        return null; // ok
+                mjdTimeSeriesElevator.read(ids, new ElevatorScheduler.LocationReader() {
+                    @Override
+                    public void read(FsIdOrder idOrder, 
+                        ElevatorScheduler.DiskTurn diskTurn) throws Exception {
+                        
+                        if (error.get() != null) {
+                            return; // ok
+                        }
+                        readMjdTimeSeries(idOrder.id(), diskTurn);
                     }
-                    
-                    readMjdTimeSeries(idLocation.id(), idLocation.originalOrder());
-                }
+                });
                 return null; //ok
             } catch (Throwable t) {
                 error.compareAndSet(null, t);
@@ -810,7 +838,12 @@ public final class TransactionalBackend implements BackendInterface {
             }
         }   
         
-        private void readMjdTimeSeries(FsId id, int order)  throws Exception {
+        /**
+         * The read lock is taken before diskTurn begins so that waiting on
+         * another transaction does not hold up the reads of other requests.
+         */
+        private void readMjdTimeSeries(FsId id, ElevatorScheduler.DiskTurn diskTurn)
+            throws Exception {
             
             TransactionalMjdTimeSeriesFile xfile = 
                 fileTransactionManager.openMjdFile(xid, id, false);
@@ -819,8 +852,21 @@ public final class TransactionalBackend implements BackendInterface {
             if (xfile == null) {
                 returnSeries = FloatMjdTimeSeries.emptySeries(id, startMjd, endMjd, false);
             } else {
-                returnSeries = xfile.read(startMjd, endMjd, xid);
-                fileTransactionManager.doneWithFile(xid, xfile);
+                try {
+                    xfile.acquireReadLock(xid, fsIdLockTimeOutSeconds);
+                    try {
+                        diskTurn.begin();
+                        try {
+                            returnSeries = xfile.read(startMjd, endMjd, xid);
+                        } finally {
+                            diskTurn.end();
+                        }
+                    } finally {
+                        xfile.releaseReadLock(xid);
+                    }
+                } finally {
+                    fileTransactionManager.doneWithFile(xid, xfile);
+                }
             }
             
             double[] mjd = returnSeries.mjd();
@@ -69,6 +69,11 @@ public class UnboundedThrottle implements ThrottleInterface {
         //This does nothing.
     }
 
+    @Override
+    public void acquireReadPermit(ThrottleClass throttleClass) throws InterruptedException {
+        //This does nothing.
+    }
+
 
     @Override
     public void acquireWritePermit() throws InterruptedException {
@@ -76,6 +81,12 @@ public class UnboundedThrottle implements ThrottleInterface {
     }
 
 
+    @Override
+    public void acquireWritePermit(ThrottleClass throttleClass) throws InterruptedException {
+        //This does nothing.
+    }
+
+
     @Override
     public void addPermits(int additionalPermits) {
         //This does nothing.
@@ -104,6 +115,13 @@ public class UnboundedThrottle implements ThrottleInterface {
     }
 
 
+    @Override
+    public AcquiredPermits greedyAcquirePermits(ThrottleClass throttleClass)
+        throws InterruptedException {
+        return greedyAcquirePermits();
+    }
+
+
     @Override
     public int initialPermits() {
         return Integer.MAX_VALUE;
@@ -121,11 +139,26 @@ public class UnboundedThrottle implements ThrottleInterface {
         //This does nothing.
     }
 
+    @Override
+    public void releaseReadPermit(ThrottleClass throttleClass) {
+        //This does nothing.
+    }
+
     @Override
     public void releaseWritePermit() {
         //This does nothing.
     }
 
+    @Override
+    public void releaseWritePermit(ThrottleClass throttleClass) {
+        //This does nothing.
+    }
+
+    @Override
+    public void requestCompleted(ThrottleClass throttleClass, long latencyNanos, long nBytes) {
+        //This does nothing.
+    }
+
     @Override
     public int totalPermits() {
         return Integer.MAX_VALUE;
@@ -136,6 +169,11 @@ public class UnboundedThrottle implements ThrottleInterface {
     public int waitQueueLength() {
         return 0;
     }
+    
+    @Override
+    public int waitQueueLength(ThrottleClass throttleClass) {
+        return 0;
+    }
 
     @Override
     public int writeCost() {
@@ -47,6 +47,8 @@ import gov.nasa.spiffy.common.collect.Cache;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
@@ -86,6 +88,12 @@ public abstract class AbstractDiskNodeIO<K,V, T extends TreeNode<K,V>>
     private final Cache<CacheNodeKey, T> nodeCache;
     
     private final TreeNodeFactory<K, V, T> nodeFactory;
+    
+    /**
+     * When this is not null serialized nodes are cached in these pages and
+     * node writes are held there until {@link #writeBackPages()}.
+     */
+    private final OffHeapNodeCache pageCache;
 
     protected final DebugReentrantReadWriteLock rwLock = 
         new DebugReentrantReadWriteLock();
@@ -94,10 +102,27 @@ public abstract class AbstractDiskNodeIO<K,V, T extends TreeNode<K,V>>
         Cache<CacheNodeKey, T> nodeCache,
         TreeNodeFactory<K,V,T> nodeFactory) {
 
+        this(kvio, nodeSize, nodeCache, nodeFactory, null);
+    }
+    
+    /**
+     * @param pageCache this may be null.  If not null its page size must be
+     * the same as nodeSize.
+     */
+    protected AbstractDiskNodeIO(KeyValueIO<K, V> kvio, int nodeSize,
+        Cache<CacheNodeKey, T> nodeCache,
+        TreeNodeFactory<K,V,T> nodeFactory,
+        OffHeapNodeCache pageCache) {
+
+        if (pageCache != null && pageCache.pageSize() != nodeSize) {
+            throw new IllegalArgumentException("Page size " + 
+                pageCache.pageSize() + " does not match node size " + nodeSize + ".");
+        }
         this.kvio = kvio;
         this.nodeSize = nodeSize;
         this.nodeCache = nodeCache;
         this.nodeFactory = nodeFactory;
+        this.pageCache = pageCache;
         searchFromHere = nodeSize * 2L;
     }
 
@@ -164,12 +189,7 @@ public abstract class AbstractDiskNodeIO<K,V, T extends TreeNode<K,V>>
                 if (writeOK) {
                     incrementCacheMiss();
                     
-                    storage().seek(nodesFileAddress);
-                    BufferedInputStream bin =
-                        new BufferedInputStream(new NonContiguousInputStream(storage(), true), nodeSize);
-                    DataInputStream din = new DataInputStream(bin);
-        
-                    rv = nodeFactory.read(nodesFileAddress, din, this);
+                    rv = readNodeFromStorage(nodesFileAddress, nodeKey);
                     nodeCache.put(nodeKey, rv);
                     return rv;
                 } 
@@ -191,6 +211,46 @@ public abstract class AbstractDiskNodeIO<K,V, T extends TreeNode<K,V>>
         }
     }
 
+    private T readNodeFromStorage(long nodesFileAddress, CacheNodeKey nodeKey) 
+        throws IOException {
+        
+        if (pageCache == null) {
+            storage().seek(nodesFileAddress);
+            BufferedInputStream bin =
+                new BufferedInputStream(new NonContiguousInputStream(storage(), true), nodeSize);
+            DataInputStream din = new DataInputStream(bin);
+            return nodeFactory.read(nodesFileAddress, din, this);
+        }
+        
+        byte[] nodeBytes = new byte[nodeSize];
+        if (pageCache.read(nodeKey, nodeBytes) < 0) {
+            storage().seek(nodesFileAddress);
+            int nRead = 0;
+            while (nRead < nodeSize) {
+                int n = storage().read(nodeBytes, nRead, nodeSize - nRead);
+                if (n < 0) {
+                    break;
+                }
+                nRead += n;
+            }
+            pageCache.write(nodeKey, nodeBytes, nRead, false);
+        }
+        DataInputStream din = 
+            new DataInputStream(new ByteArrayInputStream(nodeBytes));
+        return nodeFactory.read(nodesFileAddress, din, this);
+    }
+    
+    /**
+     * Writes the nodes held in the page cache to storage.  This must be
+     * called after the IOOps have been executed and before the journal is
+     * removed.
+     */
+    protected void writeBackPages() throws IOException {
+        if (pageCache != null) {
+            pageCache.writeBack(treeId(), storage());
+        }
+    }
+
     /**
      */
     @Override
@@ -489,19 +549,29 @@ public abstract class AbstractDiskNodeIO<K,V, T extends TreeNode<K,V>>
         
         @Override
         public void doOp() throws IOException {
-            storage().seek(node.address());
-            DataOutputStream dout = 
-                new DataOutputStream(new BufferedOutputStream(new NonContiguousOutputStream(storage(), true), nodeSize));
-            node.write(dout, kvio);
-            dout.flush();
-            dout.close();
             CacheNodeKey nodeKey = new CacheNodeKey(treeId(), node.address());
+            if (pageCache == null || !writeToPageCache(nodeKey)) {
+                storage().seek(node.address());
+                DataOutputStream dout = 
+                    new DataOutputStream(new BufferedOutputStream(new NonContiguousOutputStream(storage(), true), nodeSize));
+                node.write(dout, kvio);
+                dout.flush();
+                dout.close();
+            }
             nodeCache.put(nodeKey, node);
             if (allocate) {
                 allocatedBitSet().set(fileAddressToNodeAddress(node.address()), true);
             }
         }
         
+        private boolean writeToPageCache(CacheNodeKey nodeKey) throws IOException {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream(nodeSize);
+            DataOutputStream dout = new DataOutputStream(bout);
+            node.write(dout, kvio);
+            dout.flush();
+            return pageCache.write(nodeKey, bout.toByteArray(), bout.size(), true);
+        }
+        
         @Override
         public void writeToJournal(DataOutput journalWriter) throws IOException {
             journalWriter.writeInt(type().ordinal());
@@ -532,6 +602,9 @@ public abstract class AbstractDiskNodeIO<K,V, T extends TreeNode<K,V>>
             allocatedBitSet().truncateEndIfEmpty();
             CacheNodeKey nodeKey = new CacheNodeKey(treeId(), deleteAddress);
             nodeCache.remove(nodeKey);
+            if (pageCache != null) {
+                pageCache.remove(nodeKey);
+            }
             //This may actually increase the file size to align with node capacity boundary
             long expectedFileSize = nodeAddressToFileAddress(allocatedBitSet().capacityInBytes()*8);
             if (expectedFileSize != storage().length()) {
@@ -563,6 +636,14 @@ public abstract class AbstractDiskNodeIO<K,V, T extends TreeNode<K,V>>
             this.btreeId = btreeId;
             this.nodeAddress = nodeAddress;
         }
+        
+        Object btreeId() {
+            return btreeId;
+        }
+        
+        long nodeAddress() {
+            return nodeAddress;
+        }
 
         @Override
         public int hashCode() {
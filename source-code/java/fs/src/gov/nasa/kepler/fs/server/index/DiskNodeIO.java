@@ -144,7 +144,22 @@ public class DiskNodeIO<K,V, T extends TreeNode<K,V>> extends AbstractDiskNodeIO
         BtreeFileVersion btreeFileVersion)
     throws IOException {
 
-        super(kvio, nodeSize, cache, nodeFactory);
+        this(kvio, btreeFile, nodeSize, cache, nodeFactory, btreeFileVersion, null);
+    }
+    
+    /**
+     * 
+     * @param pageCache Serialized nodes are cached here in addition to the
+     * node cache, this may be null.
+     * @throws IOException
+     */
+    public DiskNodeIO(KeyValueIO<K,V> kvio, File btreeFile, 
+        int nodeSize,  
+        Cache<CacheNodeKey, T> cache, TreeNodeFactory<K,V,T> nodeFactory,
+        BtreeFileVersion btreeFileVersion, OffHeapNodeCache pageCache)
+    throws IOException {
+
+        super(kvio, nodeSize, cache, nodeFactory, pageCache);
 
         this.btreeFile = btreeFile;
         this.stats = new DiskNodeStats(btreeFile.getAbsolutePath());
@@ -228,6 +243,7 @@ public class DiskNodeIO<K,V, T extends TreeNode<K,V>> extends AbstractDiskNodeIO
         DataInputStream din = new DataInputStream(bin);
         executeOpFromJournal(din);
         din.close();
+        writeBackPages();
         if (!f.delete()) {
             log.warn("Failed to delete journal for B-tree \"" + f + "\".");
         }
@@ -280,6 +296,7 @@ public class DiskNodeIO<K,V, T extends TreeNode<K,V>> extends AbstractDiskNodeIO
             for (IOOp ioop : ioOps().values()) {
                 ioop.doOp();
             }
+            writeBackPages();
             clearDirtyState();
             if (!journalFile().delete()) {
                 log.warn("Failed to delete b-tree journal file \"" + 
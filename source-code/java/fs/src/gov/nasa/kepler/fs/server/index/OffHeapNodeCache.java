@@ -0,0 +1,429 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.fs.server.index;
+
+import gov.nasa.kepler.fs.server.index.AbstractDiskNodeIO.CacheNodeKey;
+import gov.nasa.kepler.fs.server.raf.RandomAccessIo;
+import gov.nasa.spiffy.common.jmx.AbstractCompositeData;
+import gov.nasa.spiffy.common.jmx.CompositeTypeDescription;
+import gov.nasa.spiffy.common.jmx.ItemDescription;
+import gov.nasa.spiffy.common.jmx.TableIndex;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.OpenDataException;
+
+/**
+ * A page cache for the serialized form of B-tree nodes.  The pages are kept
+ * in direct byte buffers so a large cache does not add to the work of the
+ * garbage collector.  Pages are replaced using the clock algorithm.  A page is
+ * pinned while its contents are being copied in or out, so the copies happen
+ * outside of the lock which protects the page table.  Dirty pages are not
+ * evicted; they are written to their B-tree file by
+ * {@link #writeBack(Object, RandomAccessIo)} when the B-tree commits.
+ * 
+ * This class is MT-safe.
+ */
+public final class OffHeapNodeCache {
+
+    /**
+     * This is used to track the page cache performance.
+     */
+    public static final ConcurrentLinkedQueue<OffHeapNodeCache> nodeCaches =
+        new ConcurrentLinkedQueue<OffHeapNodeCache>();
+    
+    private static final int MAX_SLAB_SIZE = 1024 * 1024 * 64;
+    
+    private final String name;
+    private final int pageSize;
+    private final int nPages;
+    private final int pagesPerSlab;
+    private final ByteBuffer[] slabs;
+    
+    /** These are all protected by the lock on this object. */
+    private final Map<CacheNodeKey, Integer> pageTable;
+    private final CacheNodeKey[] pageKeys;
+    private final int[] pageLengths;
+    private final int[] pinCounts;
+    private final boolean[] referenced;
+    private final boolean[] dirty;
+    private int clockHand = 0;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long writeBacks;
+    
+    /**
+     * @param name used to identify this cache in the monitoring
+     * @param pageSize the size of a B-tree node in bytes
+     * @param maxSizeBytes the total size of the pages
+     */
+    public OffHeapNodeCache(String name, int pageSize, long maxSizeBytes) {
+        if (pageSize <= 0 || pageSize > MAX_SLAB_SIZE) {
+            throw new IllegalArgumentException("Bad page size " + pageSize + ".");
+        }
+        long requestedPages = maxSizeBytes / pageSize;
+        if (requestedPages < 1 || requestedPages > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bad cache size " + maxSizeBytes + ".");
+        }
+        
+        this.name = name;
+        this.pageSize = pageSize;
+        this.nPages = (int) requestedPages;
+        this.pagesPerSlab = Math.min(nPages, MAX_SLAB_SIZE / pageSize);
+        int nSlabs = (nPages + pagesPerSlab - 1) / pagesPerSlab;
+        slabs = new ByteBuffer[nSlabs];
+        for (int i = 0; i < nSlabs; i++) {
+            int slabPages = Math.min(pagesPerSlab, nPages - i * pagesPerSlab);
+            slabs[i] = ByteBuffer.allocateDirect(slabPages * pageSize);
+        }
+        
+        pageTable = new HashMap<CacheNodeKey, Integer>(nPages * 2);
+        pageKeys = new CacheNodeKey[nPages];
+        pageLengths = new int[nPages];
+        pinCounts = new int[nPages];
+        referenced = new boolean[nPages];
+        dirty = new boolean[nPages];
+        
+        nodeCaches.add(this);
+    }
+    
+    public int pageSize() {
+        return pageSize;
+    }
+    
+    /**
+     * Copies the serialized node into dest.
+     * 
+     * @param dest this must be at least pageSize() bytes.  Bytes past the
+     * end of the serialized node are zeroed.
+     * @return the length of the serialized node or -1 if the node is not
+     * cached.
+     */
+    public int read(CacheNodeKey key, byte[] dest) {
+        int pageIndex;
+        synchronized (this) {
+            Integer cachedPage = pageTable.get(key);
+            if (cachedPage == null) {
+                misses++;
+                return -1;
+            }
+            hits++;
+            pageIndex = cachedPage;
+            pinCounts[pageIndex]++;
+            referenced[pageIndex] = true;
+        }
+        
+        try {
+            int length = pageLengths[pageIndex];
+            page(pageIndex).get(dest, 0, length);
+            Arrays.fill(dest, length, pageSize, (byte) 0);
+            return length;
+        } finally {
+            unpin(pageIndex);
+        }
+    }
+    
+    /**
+     * Copies the serialized node into the cache.
+     * 
+     * @param dirty when true the page will not be evicted until it has been
+     * written back by {@link #writeBack(Object, RandomAccessIo)}.
+     * @return true if the node was cached.  This will be false when the node
+     * is larger than a page or when all the pages are pinned or dirty.
+     */
+    public boolean write(CacheNodeKey key, byte[] src, int length, boolean dirty) {
+        if (length > pageSize) {
+            remove(key);
+            return false;
+        }
+        
+        int pageIndex;
+        synchronized (this) {
+            Integer cachedPage = pageTable.get(key);
+            if (cachedPage == null) {
+                pageIndex = victim();
+                if (pageIndex < 0) {
+                    return false;
+                }
+                pageKeys[pageIndex] = key;
+                pageTable.put(key, pageIndex);
+            } else {
+                pageIndex = cachedPage;
+            }
+            pinCounts[pageIndex]++;
+            referenced[pageIndex] = true;
+            pageLengths[pageIndex] = length;
+            this.dirty[pageIndex] |= dirty;
+        }
+        
+        try {
+            page(pageIndex).put(src, 0, length);
+        } finally {
+            unpin(pageIndex);
+        }
+        return true;
+    }
+    
+    /**
+     * Discards the cached node even if it is dirty.
+     */
+    public synchronized void remove(CacheNodeKey key) {
+        Integer cachedPage = pageTable.remove(key);
+        if (cachedPage == null) {
+            return;
+        }
+        pageKeys[cachedPage] = null;
+        dirty[cachedPage] = false;
+        referenced[cachedPage] = false;
+    }
+    
+    /**
+     * Writes the dirty pages of the specified B-tree to storage in address
+     * order.
+     * 
+     * @param btreeId the tree id used in the CacheNodeKeys.
+     * @param storage where the pages are written, the address in the
+     * CacheNodeKey is the file address of the node.
+     * @throws IOException
+     */
+    public void writeBack(Object btreeId, RandomAccessIo storage) throws IOException {
+        SortedMap<Long, Integer> dirtyPages = new TreeMap<Long, Integer>();
+        synchronized (this) {
+            for (int i = 0; i < nPages; i++) {
+                if (dirty[i] && pageKeys[i].btreeId().equals(btreeId)) {
+                    dirtyPages.put(pageKeys[i].nodeAddress(), i);
+                    pinCounts[i]++;
+                }
+            }
+        }
+        
+        byte[] buf = new byte[pageSize];
+        for (Map.Entry<Long, Integer> dirtyPage : dirtyPages.entrySet()) {
+            int pageIndex = dirtyPage.getValue();
+            try {
+                int length = pageLengths[pageIndex];
+                page(pageIndex).get(buf, 0, length);
+                storage.seek(dirtyPage.getKey());
+                storage.write(buf, 0, length);
+                synchronized (this) {
+                    dirty[pageIndex] = false;
+                    writeBacks++;
+                }
+            } finally {
+                unpin(pageIndex);
+            }
+        }
+    }
+    
+    public synchronized Stats stats() {
+        int usedPages = pageTable.size();
+        int pinnedPages = 0;
+        int dirtyPages = 0;
+        for (int i = 0; i < nPages; i++) {
+            if (pinCounts[i] > 0) {
+                pinnedPages++;
+            }
+            if (dirty[i]) {
+                dirtyPages++;
+            }
+        }
+        try {
+            return new Stats(name, (long) nPages * pageSize, nPages, usedPages,
+                pinnedPages, dirtyPages, hits, misses, evictions, writeBacks);
+        } catch (OpenDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    public synchronized void resetCounters() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+        writeBacks = 0;
+    }
+    
+    /**
+     * Finds a page that can be reused.  The caller must hold the lock on this
+     * object.
+     * 
+     * @return -1 if every page is pinned or dirty.
+     */
+    private int victim() {
+        for (int i = 0; i < nPages * 2; i++) {
+            int pageIndex = clockHand;
+            clockHand = (clockHand + 1) % nPages;
+            if (pageKeys[pageIndex] == null) {
+                if (pinCounts[pageIndex] == 0) {
+                    return pageIndex;
+                }
+                continue;
+            }
+            if (pinCounts[pageIndex] > 0 || dirty[pageIndex]) {
+                continue;
+            }
+            if (referenced[pageIndex]) {
+                referenced[pageIndex] = false;
+                continue;
+            }
+            pageTable.remove(pageKeys[pageIndex]);
+            pageKeys[pageIndex] = null;
+            evictions++;
+            return pageIndex;
+        }
+        return -1;
+    }
+    
+    private synchronized void unpin(int pageIndex) {
+        pinCounts[pageIndex]--;
+    }
+    
+    /**
+     * @return A buffer whose position and limit cover the page. Buffers
+     * returned by this method are not shared between threads.
+     */
+    private ByteBuffer page(int pageIndex) {
+        ByteBuffer page = slabs[pageIndex / pagesPerSlab].duplicate();
+        int start = (pageIndex % pagesPerSlab) * pageSize;
+        page.limit(start + pageSize);
+        page.position(start);
+        return page;
+    }
+    
+    @CompositeTypeDescription("B-Tree off-heap node page cache statistics.")
+    public final static class Stats extends AbstractCompositeData 
+        implements CompositeData, Serializable {
+
+        private static final long serialVersionUID = 2591474066431367140L;
+        private final String cacheName;
+        private final long sizeBytes;
+        private final int pages;
+        private final int usedPages;
+        private final int pinnedPages;
+        private final int dirtyPages;
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long writeBacks;
+        
+        private Stats(String cacheName, long sizeBytes, int pages,
+            int usedPages, int pinnedPages, int dirtyPages, long hits,
+            long misses, long evictions, long writeBacks)
+            throws OpenDataException {
+            
+            this.cacheName = cacheName;
+            this.sizeBytes = sizeBytes;
+            this.pages = pages;
+            this.usedPages = usedPages;
+            this.pinnedPages = pinnedPages;
+            this.dirtyPages = dirtyPages;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.writeBacks = writeBacks;
+        }
+        
+        @TableIndex(0)
+        @ItemDescription("The name of the page cache.")
+        public String getCacheName() {
+            return cacheName;
+        }
+        
+        @ItemDescription("The off-heap memory used by the pages.")
+        public long getSizeBytes() {
+            return sizeBytes;
+        }
+        
+        @ItemDescription("The number of pages.")
+        public int getPages() {
+            return pages;
+        }
+        
+        @ItemDescription("The number of pages holding a node.")
+        public int getUsedPages() {
+            return usedPages;
+        }
+        
+        @ItemDescription("The number of pages currently being copied.")
+        public int getPinnedPages() {
+            return pinnedPages;
+        }
+        
+        @ItemDescription("The number of pages waiting to be written back to their B-Tree file.")
+        public int getDirtyPages() {
+            return dirtyPages;
+        }
+        
+        @ItemDescription("The number of page cache hits since the start or the last reset time.")
+        public long getHits() {
+            return hits;
+        }
+        
+        @ItemDescription("The number of page cache misses since the start or the last reset time.")
+        public long getMisses() {
+            return misses;
+        }
+        
+        @ItemDescription("The number of pages evicted since the start or the last reset time.")
+        public long getEvictions() {
+            return evictions;
+        }
+        
+        @ItemDescription("The number of dirty pages written back since the start or the last reset time.")
+        public long getWriteBacks() {
+            return writeBacks;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder bldr = new StringBuilder();
+            bldr.append(cacheName).append(" pages: ").append(usedPages)
+                .append('/').append(pages)
+                .append(" dirty: ").append(dirtyPages)
+                .append(" hits: ").append(hits)
+                .append(" misses: ").append(misses)
+                .append(" evictions: ").append(evictions);
+            return bldr.toString();
+        }
+    }
+}
@@ -39,6 +39,7 @@ package gov.nasa.kepler.fs.server.jmx;
 
 import gov.nasa.kepler.fs.server.index.DiskNodeIO;
 import gov.nasa.kepler.fs.server.index.DiskNodeStats;
+import gov.nasa.kepler.fs.server.index.OffHeapNodeCache;
 import gov.nasa.spiffy.common.jmx.AnnotationMBean;
 import gov.nasa.spiffy.common.jmx.AttributeDescription;
 import gov.nasa.spiffy.common.jmx.AutoTabularType;
@@ -81,12 +82,24 @@ public class BTreeMonitoring extends AnnotationMBean
         return cachePerformance;
     }
         
+    @AttributeDescription("How each off-heap B-Tree node page cache performs.")
+    public PageCachePerformance getPageCachePerformance() throws OpenDataException {
+        PageCachePerformance pageCachePerformance = new PageCachePerformance();
+        for (OffHeapNodeCache pageCache : OffHeapNodeCache.nodeCaches) {
+            pageCachePerformance.put(pageCache.stats());
+        }
+        return pageCachePerformance;
+    }
+        
     @SuppressWarnings("unchecked")
     @OperationDescription("Reset all counters.")
     public void resetAllCacheCounters() {
         for (DiskNodeIO dio : DiskNodeIO.diskNodeIOs) {
             dio.stats().reset();
         }
+        for (OffHeapNodeCache pageCache : OffHeapNodeCache.nodeCaches) {
+            pageCache.resetCounters();
+        }
     }
     
     @TabularTypeDescription(desc="A table of all btree's node i/o cache performance.",
@@ -100,6 +113,17 @@ public class BTreeMonitoring extends AnnotationMBean
         }
     }
     
+    @TabularTypeDescription(desc="A table of the off-heap B-Tree node page caches.",
+        rowClass=OffHeapNodeCache.Stats.class)
+    public static class PageCachePerformance extends TabularDataSupport {
+
+        private static final long serialVersionUID = -2270939458512203398L;
+
+        public PageCachePerformance() throws OpenDataException {
+            super(AutoTabularType.newAutoTabularType(PageCachePerformance.class).tabularType());
+        }
+    }
+    
     public void runMetricsPoller() {
         BTreePerformancePoller poller = 
             new BTreePerformancePoller(60,280, this);
@@ -159,6 +183,14 @@ public class BTreeMonitoring extends AnnotationMBean
             
             String metricPrefix = FS_METRICS_PREFIX + ".server.b-tree";
             ValueMetric.addValue(metricPrefix + ".hit-pct", (long) hitPercent);
+            
+            for (OffHeapNodeCache pageCache : OffHeapNodeCache.nodeCaches) {
+                OffHeapNodeCache.Stats pageStats = pageCache.stats();
+                ValueMetric.addValue(metricPrefix + ".page-cache.used-pages",
+                    pageStats.getUsedPages());
+                ValueMetric.addValue(metricPrefix + ".page-cache.evictions",
+                    pageStats.getEvictions());
+            }
         }
     }
 
@@ -37,6 +37,8 @@
 
 package gov.nasa.kepler.fs.server.jmx;
 
+import gov.nasa.kepler.fs.server.AdaptiveThrottle;
+import gov.nasa.kepler.fs.server.ThrottleClass;
 import gov.nasa.kepler.fs.server.ThrottleInterface;
 import gov.nasa.spiffy.common.jmx.AnnotationMBean;
 import gov.nasa.spiffy.common.jmx.AttributeDescription;
@@ -67,6 +69,48 @@ public class ThrottleMonitoring extends AnnotationMBean
         return throttle.waitQueueLength();
     }
     
+    @AttributeDescription("Number of interactive reads waiting for permits.")
+    public int getInteractiveQueueLength() {
+        return throttle.waitQueueLength(ThrottleClass.INTERACTIVE);
+    }
+    
+    @AttributeDescription("Number of bulk reads and writes waiting for permits.")
+    public int getBulkQueueLength() {
+        return throttle.waitQueueLength(ThrottleClass.BULK);
+    }
+    
+    @AttributeDescription("Number of commits waiting for permits.")
+    public int getCommitQueueLength() {
+        return throttle.waitQueueLength(ThrottleClass.COMMIT);
+    }
+    
+    @AttributeDescription("Maximum permits bulk requests may hold while " +
+        "interactive requests are active, or -1 if the throttle is not adaptive.")
+    public int getBulkPermitLimit() {
+        if (!(throttle instanceof AdaptiveThrottle)) {
+            return -1;
+        }
+        return ((AdaptiveThrottle) throttle).bulkPermitLimit();
+    }
+    
+    @AttributeDescription("Recent 95th percentile interactive request latency in " +
+        "milliseconds, or -1 if the throttle is not adaptive.")
+    public double getInteractiveTailLatencyMs() {
+        if (!(throttle instanceof AdaptiveThrottle)) {
+            return -1;
+        }
+        return ((AdaptiveThrottle) throttle).interactiveTailLatencyMillis();
+    }
+    
+    @AttributeDescription("Recent bulk bytes read and written per second, " +
+        "or -1 if the throttle is not adaptive.")
+    public double getBulkBytesPerSecond() {
+        if (!(throttle instanceof AdaptiveThrottle)) {
+            return -1;
+        }
+        return ((AdaptiveThrottle) throttle).bulkBytesPerSecond();
+    }
+    
     @AttributeDescription("Number of permits required for write.")
     public int getWriteCost() {
         return throttle.writeCost();
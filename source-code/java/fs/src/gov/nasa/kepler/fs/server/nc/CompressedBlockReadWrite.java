@@ -0,0 +1,823 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.fs.server.nc;
+
+import gov.nasa.kepler.fs.server.raf.RandomAccessIo;
+import gov.nasa.kepler.fs.storage.FloatingPointArrayCompressor;
+import gov.nasa.kepler.io.DataInputStream;
+import gov.nasa.kepler.io.DataOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+
+/**
+ * Provides a linear, uncompressed view of time series data that is stored
+ * compressed in a NonContiguousReadWrite.  The uncompressed address space
+ * is split into fixed size blocks and each block is compressed independently
+ * with the FloatingPointArrayCompressor so that random access reads only need
+ * to decompress the blocks they touch.  Blocks that are all zeros are not
+ * stored.
+ * 
+ * Blocks and block directories referred to by the current header are never
+ * overwritten.  A modified block is written to space that the current
+ * directory does not use, reusing space left by old copies when it can, else
+ * appending it to the end of the address space.  When this is closed a new
+ * copy of the block directory is written the same way and then the header is
+ * switched to it.  There are two header slots; the new header goes into the
+ * slot not holding the current header with the next generation number and a
+ * checksum.  When opened, the valid slot with the highest generation is used,
+ * so a crash at any point, including part way through writing a header,
+ * leaves one consistent version of the time series.
+ * 
+ * Space used by old copies of blocks and directories is found when the
+ * first block is written after opening, by looking for the gaps between the
+ * extents the current directory uses, and is reused from then on.  Space
+ * freed while this is open is only reused once the header no longer refers
+ * to it.
+ * 
+ * File format:
+ *   two header slots, each
+ *     version (1 byte)
+ *     generation (8 bytes)
+ *     end of the highest address ever written (8 bytes)
+ *     uncompressed length (8 bytes)
+ *     block directory address (8 bytes)
+ *     number of block directory entries (4 bytes)
+ *     CRC32 of the preceding fields (4 bytes)
+ *   followed by, in no particular order,
+ *   block directories
+ *     block address (8 bytes), 0 if the block is all zeros
+ *     compressed block length (4 bytes)
+ *   compressed blocks
+ *     codec (1 byte)
+ *     compressed data
+ *     
+ * This class is not MT-safe.
+ */
+public class CompressedBlockReadWrite implements RandomAccessIo {
+
+    static final byte FORMAT_VERSION = (byte) 2;
+    
+    /** The number of uncompressed bytes in a block. */
+    public static final int BLOCK_SIZE = 1024 * 16;
+    
+    private static final int INITIAL_DIRECTORY_CAPACITY = 32;
+    
+    static final int HEADER_SLOT_SIZE = 1 + 8 + 8 + 8 + 8 + 4 + 4;
+    
+    /** Both header slots. */
+    private static final int HEADER_SIZE = HEADER_SLOT_SIZE * 2;
+    
+    private static final int DIRECTORY_ENTRY_SIZE = 8 + 4;
+    
+    /** Block is stored as is. */
+    private static final byte RAW_CODEC = 0;
+    /** Block is delta compressed as 32-bit words, good for int and float. */
+    private static final byte WORD32_CODEC = 1;
+    /** Block is delta compressed as 64-bit words, good for double. */
+    private static final byte WORD64_CODEC = 2;
+    
+    private static final FloatingPointArrayCompressor compressor = 
+        new FloatingPointArrayCompressor();
+    
+    private final NonContiguousReadWrite store;
+    
+    /** The end of the used address space.  Space after this is free. */
+    private long nextFree;
+    /** The end of the highest address ever written. */
+    private long highWater;
+    private long length;
+    private long generation;
+    private long directoryAddress;
+    private int nDirectoryEntries;
+    private long[] blockAddress;
+    private int[] blockLength;
+    private boolean isHeaderDirty = false;
+    
+    /**
+     * Space which is not used by the current header, address to length.  This
+     * is null until the first allocation.
+     */
+    private TreeMap<Long, Long> freeSpace;
+    /** Space written since the header was last written, address to length. */
+    private final Map<Long, Integer> uncommitted = new HashMap<Long, Integer>();
+    /** Space the current header still refers to, but which is no longer needed. */
+    private final List<long[]> freeAfterHeader = new ArrayList<long[]>();
+    
+    /** The uncompressed position of the next read or write. */
+    private long pos = 0;
+    
+    private final byte[] block = new byte[BLOCK_SIZE];
+    /** The index of the block currently in block[], -1 for none. */
+    private int currentBlock = -1;
+    private boolean isBlockDirty = false;
+    
+    private final byte[] oneByte = new byte[1];
+    
+    /**
+     * 
+     * @param store  This must be a store which does not track length.  If
+     * nothing has been written into the store then this initializes a new,
+     * empty address space.
+     * @throws IOException
+     */
+    public CompressedBlockReadWrite(NonContiguousReadWrite store) throws IOException {
+        this.store = store;
+        
+        byte[] header = new byte[HEADER_SIZE];
+        store.seek(0);
+        //The store throws EOFException on bulk reads past the end of the file.
+        int headerLength = 0;
+        for (int b = store.read(); b >= 0; b = store.read()) {
+            header[headerLength++] = (byte) b;
+            if (headerLength == header.length) {
+                break;
+            }
+        }
+        
+        int currentSlot = -1;
+        for (int slot=0; slot < 2; slot++) {
+            int slotStart = slot * HEADER_SLOT_SIZE;
+            if (headerLength < slotStart + HEADER_SLOT_SIZE || !isValidSlot(header, slotStart)) {
+                continue;
+            }
+            if (currentSlot == -1 || 
+                slotGeneration(header, slotStart) > slotGeneration(header, currentSlot * HEADER_SLOT_SIZE)) {
+                currentSlot = slot;
+            }
+        }
+        
+        if (currentSlot == -1) {
+            //The first header is written into the second slot so if the
+            //first slot has never been written then nothing was committed.
+            if (headerLength > 0 && header[0] != 0) {
+                if (header[0] != FORMAT_VERSION) {
+                    throw new IOException("Invalid compressed format got \"" + header[0]
+                        + "\" expected \"" + FORMAT_VERSION + "\".");
+                }
+                throw new IOException("Both compressed headers are corrupt.");
+            }
+            nextFree = HEADER_SIZE;
+            highWater = HEADER_SIZE;
+            length = 0;
+            generation = 0;
+            directoryAddress = 0;
+            nDirectoryEntries = 0;
+            blockAddress = new long[INITIAL_DIRECTORY_CAPACITY];
+            blockLength = new int[INITIAL_DIRECTORY_CAPACITY];
+            return;
+        }
+        
+        DataInputStream din = new DataInputStream(
+            new ByteArrayInputStream(header, currentSlot * HEADER_SLOT_SIZE + 1, HEADER_SLOT_SIZE - 1));
+        generation = din.readLong();
+        highWater = din.readLong();
+        nextFree = highWater;
+        length = din.readLong();
+        directoryAddress = din.readLong();
+        int capacity = din.readInt();
+        nDirectoryEntries = capacity;
+        
+        blockAddress = new long[Math.max(capacity, INITIAL_DIRECTORY_CAPACITY)];
+        blockLength = new int[blockAddress.length];
+        if (capacity == 0) {
+            return;
+        }
+        
+        byte[] directory = new byte[capacity * DIRECTORY_ENTRY_SIZE];
+        store.seek(directoryAddress);
+        store.readFully(directory);
+        din = new DataInputStream(new ByteArrayInputStream(directory));
+        for (int i=0; i < capacity; i++) {
+            blockAddress[i] = din.readLong();
+            blockLength[i] = din.readInt();
+        }
+    }
+    
+    private static boolean isValidSlot(byte[] header, int slotStart) {
+        if (header[slotStart] != FORMAT_VERSION) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header, slotStart, HEADER_SLOT_SIZE - 4);
+        int storedCrc = ((header[slotStart + HEADER_SLOT_SIZE - 4] & 0xff) << 24) |
+            ((header[slotStart + HEADER_SLOT_SIZE - 3] & 0xff) << 16) |
+            ((header[slotStart + HEADER_SLOT_SIZE - 2] & 0xff) << 8) |
+            (header[slotStart + HEADER_SLOT_SIZE - 1] & 0xff);
+        return storedCrc == (int) crc.getValue();
+    }
+    
+    private static long slotGeneration(byte[] header, int slotStart) {
+        long generation = 0;
+        for (int i=1; i <= 8; i++) {
+            generation = (generation << 8) | (header[slotStart + i] & 0xff);
+        }
+        return generation;
+    }
+    
+    /**
+     * Finds the space not used by the current header.
+     */
+    private void findFreeSpace() {
+        TreeMap<Long, Long> used = new TreeMap<Long, Long>();
+        if (nDirectoryEntries > 0) {
+            used.put(directoryAddress, (long) nDirectoryEntries * DIRECTORY_ENTRY_SIZE);
+        }
+        for (int i=0; i < blockAddress.length; i++) {
+            if (blockAddress[i] != 0) {
+                used.put(blockAddress[i], (long) blockLength[i]);
+            }
+        }
+        for (Map.Entry<Long, Integer> written : uncommitted.entrySet()) {
+            used.put(written.getKey(), (long) written.getValue());
+        }
+        for (long[] extent : freeAfterHeader) {
+            used.put(extent[0], extent[1]);
+        }
+        
+        freeSpace = new TreeMap<Long, Long>();
+        long end = HEADER_SIZE;
+        for (Map.Entry<Long, Long> extent : used.entrySet()) {
+            if (extent.getKey() > end) {
+                freeSpace.put(end, extent.getKey() - end);
+            }
+            end = Math.max(end, extent.getKey() + extent.getValue());
+        }
+        nextFree = end;
+    }
+    
+    /**
+     * @return The address of size bytes which are not used by the current
+     * header.
+     */
+    private long allocate(int size) {
+        if (freeSpace == null) {
+            findFreeSpace();
+        }
+        Long address = null;
+        for (Map.Entry<Long, Long> extent : freeSpace.entrySet()) {
+            if (extent.getValue() >= size) {
+                address = extent.getKey();
+                break;
+            }
+        }
+        if (address == null) {
+            address = nextFree;
+            nextFree += size;
+            highWater = Math.max(highWater, nextFree);
+        } else {
+            long extentLength = freeSpace.remove(address);
+            if (extentLength > size) {
+                freeSpace.put(address + size, extentLength - size);
+            }
+        }
+        uncommitted.put(address, size);
+        return address;
+    }
+    
+    /**
+     * Marks space as no longer needed.  Space written since the header was
+     * last written is reused immediately, else it is reused once the next
+     * header has been written.
+     */
+    private void release(long address, long size) {
+        if (address == 0 || size == 0) {
+            return;
+        }
+        if (uncommitted.remove(address) != null) {
+            free(address, size);
+        } else {
+            freeAfterHeader.add(new long[] { address, size});
+        }
+    }
+    
+    private void free(long address, long size) {
+        if (freeSpace == null) {
+            //findFreeSpace() will find this.
+            return;
+        }
+        Map.Entry<Long, Long> before = freeSpace.floorEntry(address);
+        if (before != null && before.getKey() + before.getValue() == address) {
+            freeSpace.remove(before.getKey());
+            address = before.getKey();
+            size += before.getValue();
+        }
+        Long afterLength = freeSpace.remove(address + size);
+        if (afterLength != null) {
+            size += afterLength;
+        }
+        if (address + size == nextFree) {
+            nextFree = address;
+        } else {
+            freeSpace.put(address, size);
+        }
+    }
+    
+    /**
+     * Moves the block containing the specified uncompressed address into
+     * memory.
+     */
+    private void loadBlock(long addr) throws IOException {
+        long blockIndex = addr / BLOCK_SIZE;
+        if (blockIndex > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Address " + addr + " is too large.");
+        }
+        if (blockIndex == currentBlock) {
+            return;
+        }
+        
+        flushBlock();
+        currentBlock = (int) blockIndex;
+        if (currentBlock >= blockAddress.length || blockAddress[currentBlock] == 0) {
+            Arrays.fill(block, (byte) 0);
+            return;
+        }
+        
+        byte[] compressed = new byte[blockLength[currentBlock]];
+        store.seek(blockAddress[currentBlock]);
+        store.readFully(compressed);
+        byte codec = compressed[0];
+        DataInputStream din = 
+            new DataInputStream(new ByteArrayInputStream(compressed, 1, compressed.length - 1));
+        switch (codec) {
+            case RAW_CODEC:
+                din.readFully(block);
+                break;
+            case WORD32_CODEC:
+                compressor.decompressWords(din, block, 0, BLOCK_SIZE, 4);
+                break;
+            case WORD64_CODEC:
+                compressor.decompressWords(din, block, 0, BLOCK_SIZE, 8);
+                break;
+            default:
+                throw new IOException("Unknown block codec " + codec + ".");
+        }
+    }
+    
+    /**
+     * Compresses and appends the current block if it has been modified.
+     */
+    private void flushBlock() throws IOException {
+        if (!isBlockDirty) {
+            return;
+        }
+        isBlockDirty = false;
+        isHeaderDirty = true;
+        
+        ensureDirectoryCapacity(currentBlock + 1);
+        release(blockAddress[currentBlock], blockLength[currentBlock]);
+        if (isZero(block)) {
+            blockAddress[currentBlock] = 0;
+            blockLength[currentBlock] = 0;
+            return;
+        }
+        
+        ByteArrayOutputStream bout32 = new ByteArrayOutputStream(BLOCK_SIZE / 2);
+        bout32.write(WORD32_CODEC);
+        compressor.compressWords(block, 0, BLOCK_SIZE, 4, new DataOutputStream(bout32));
+        ByteArrayOutputStream bout64 = new ByteArrayOutputStream(BLOCK_SIZE / 2);
+        bout64.write(WORD64_CODEC);
+        compressor.compressWords(block, 0, BLOCK_SIZE, 8, new DataOutputStream(bout64));
+        
+        byte[] compressed = 
+            (bout32.size() <= bout64.size()) ? bout32.toByteArray() : bout64.toByteArray();
+        if (compressed.length > BLOCK_SIZE) {
+            compressed = new byte[BLOCK_SIZE + 1];
+            compressed[0] = RAW_CODEC;
+            System.arraycopy(block, 0, compressed, 1, BLOCK_SIZE);
+        }
+        
+        long address = allocate(compressed.length);
+        store.seek(address);
+        store.write(compressed, 0, compressed.length);
+        blockAddress[currentBlock] = address;
+        blockLength[currentBlock] = compressed.length;
+    }
+    
+    private static boolean isZero(byte[] buf) {
+        for (int i=0; i < buf.length; i++) {
+            if (buf[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void ensureDirectoryCapacity(int nBlocks) {
+        if (nBlocks <= blockAddress.length) {
+            return;
+        }
+        int newCapacity = Math.max(nBlocks, blockAddress.length * 2);
+        blockAddress = Arrays.copyOf(blockAddress, newCapacity);
+        blockLength = Arrays.copyOf(blockLength, newCapacity);
+    }
+    
+    /**
+     * Writes the block directory into unused space and then points the
+     * header slot not in use at it.  Nothing the current header refers to is
+     * overwritten.
+     */
+    private void writeHeader() throws IOException {
+        int nBlocks = (int) ((length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        long newDirectoryAddress = 0;
+        if (nBlocks > 0) {
+            ByteArrayOutputStream bout = 
+                new ByteArrayOutputStream(nBlocks * DIRECTORY_ENTRY_SIZE);
+            DataOutputStream dout = new DataOutputStream(bout);
+            for (int i=0; i < nBlocks; i++) {
+                dout.writeLong(blockAddress[i]);
+                dout.writeInt(blockLength[i]);
+            }
+            dout.flush();
+            newDirectoryAddress = allocate(bout.size());
+            store.seek(newDirectoryAddress);
+            store.write(bout.toByteArray(), 0, bout.size());
+        }
+        release(directoryAddress, (long) nDirectoryEntries * DIRECTORY_ENTRY_SIZE);
+        
+        long newGeneration = generation + 1;
+        ByteArrayOutputStream bout = new ByteArrayOutputStream(HEADER_SLOT_SIZE);
+        DataOutputStream dout = new DataOutputStream(bout);
+        dout.writeByte(FORMAT_VERSION);
+        dout.writeLong(newGeneration);
+        dout.writeLong(highWater);
+        dout.writeLong(length);
+        dout.writeLong(newDirectoryAddress);
+        dout.writeInt(nBlocks);
+        dout.flush();
+        CRC32 crc = new CRC32();
+        crc.update(bout.toByteArray(), 0, bout.size());
+        dout.writeInt((int) crc.getValue());
+        dout.flush();
+        store.seek((newGeneration % 2) * HEADER_SLOT_SIZE);
+        store.write(bout.toByteArray(), 0, bout.size());
+        
+        generation = newGeneration;
+        directoryAddress = newDirectoryAddress;
+        nDirectoryEntries = nBlocks;
+        isHeaderDirty = false;
+        uncommitted.clear();
+        for (long[] extent : freeAfterHeader) {
+            free(extent[0], extent[1]);
+        }
+        freeAfterHeader.clear();
+    }
+    
+    /**
+     * Writes any pending changes and closes the underlying store.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            if (isHeaderDirty) {
+                writeHeader();
+            }
+        } finally {
+            store.close();
+        }
+    }
+    
+    /**
+     * @return The number of bytes of the underlying store which have been
+     * written, including space which is no longer used.
+     */
+    public long compressedLength() {
+        return highWater;
+    }
+    
+    @Override
+    public void seek(long pos) throws IOException {
+        if (pos < 0) {
+            throw new IllegalArgumentException("pos must be non-negative.");
+        }
+        this.pos = pos;
+    }
+    
+    @Override
+    public long length() throws IOException {
+        return length;
+    }
+    
+    /**
+     * Data beyond the new length is discarded.
+     */
+    @Override
+    public void setLength(long newLength) throws IOException {
+        if (newLength < 0) {
+            throw new IllegalArgumentException("newLength must be non-negative.");
+        }
+        if (newLength < length) {
+            int lastBlock = (int) ((newLength + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            if (currentBlock >= lastBlock) {
+                currentBlock = -1;
+                isBlockDirty = false;
+            }
+            for (int i=lastBlock; i < blockAddress.length; i++) {
+                release(blockAddress[i], blockLength[i]);
+                blockAddress[i] = 0;
+                blockLength[i] = 0;
+            }
+            if (newLength % BLOCK_SIZE != 0) {
+                loadBlock(newLength);
+                Arrays.fill(block, (int) (newLength % BLOCK_SIZE), BLOCK_SIZE, (byte) 0);
+                isBlockDirty = true;
+            }
+        }
+        length = newLength;
+        isHeaderDirty = true;
+    }
+    
+    @Override
+    public int read() throws IOException {
+        if (read(oneByte, 0, 1) < 0) {
+            return -1;
+        }
+        return oneByte[0] & 0xff;
+    }
+    
+    @Override
+    public int read(byte[] buf, int off, int len) throws IOException {
+        if (len < 0) {
+            throw new IllegalArgumentException("len must be non-negative, got " + len);
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= length) {
+            return -1;
+        }
+        
+        len = (int) Math.min(len, length - pos);
+        int nread = 0;
+        while (nread < len) {
+            loadBlock(pos);
+            int blockOffset = (int) (pos % BLOCK_SIZE);
+            int copyLength = Math.min(len - nread, BLOCK_SIZE - blockOffset);
+            System.arraycopy(block, blockOffset, buf, off + nread, copyLength);
+            nread += copyLength;
+            pos += copyLength;
+        }
+        return nread;
+    }
+    
+    @Override
+    public void write(int b) throws IOException {
+        oneByte[0] = (byte) b;
+        write(oneByte, 0, 1);
+    }
+    
+    @Override
+    public void write(byte[] data, int off, int len) throws IOException {
+        if (len < 0) {
+            throw new IllegalArgumentException("len must be non-negative, got " + len);
+        }
+        
+        int nwritten = 0;
+        while (nwritten < len) {
+            loadBlock(pos);
+            int blockOffset = (int) (pos % BLOCK_SIZE);
+            int copyLength = Math.min(len - nwritten, BLOCK_SIZE - blockOffset);
+            System.arraycopy(data, off + nwritten, block, blockOffset, copyLength);
+            isBlockDirty = true;
+            nwritten += copyLength;
+            pos += copyLength;
+        }
+        
+        if (pos > length) {
+            length = pos;
+            isHeaderDirty = true;
+        }
+    }
+    
+    @Override
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        if (pos + len > length) {
+            throw new EOFException("Attempt to read past end of length " + length);
+        }
+        read(b, off, len);
+    }
+    
+    private int readOrThrow() throws IOException {
+        int v = read();
+        if (v < 0) {
+            throw new EOFException();
+        }
+        return v;
+    }
+
+    @Override
+    public int skipBytes(int n) throws IOException {
+        int skip = (int) Math.max(0, Math.min(n, length - pos));
+        pos += skip;
+        return skip;
+    }
+
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readOrThrow() != 0;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        return (byte) readOrThrow();
+    }
+
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readOrThrow();
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        return (short) readUnsignedShort();
+    }
+
+    @Override
+    public int readUnsignedShort() throws IOException {
+        int a = readOrThrow();
+        int b = readOrThrow();
+        return (a << 8) | b;
+    }
+
+    @Override
+    public char readChar() throws IOException {
+        return (char) readUnsignedShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        return (readUnsignedShort() << 16) | readUnsignedShort();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        return ((long) readInt() << 32) | (readInt() & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public float readFloat() throws IOException {
+        return Float.intBitsToFloat(readInt());
+    }
+
+    @Override
+    public double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    /**
+     * Reads bytes up to the next line terminator as RandomAccessFile does.
+     * 
+     * @return null if already at the end of the data.
+     */
+    @Override
+    public String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c = read();
+        if (c < 0) {
+            return null;
+        }
+        while (c >= 0 && c != '\n') {
+            if (c == '\r') {
+                long crPos = pos;
+                if (read() != '\n') {
+                    pos = crPos;
+                }
+                break;
+            }
+            line.append((char) c);
+            c = read();
+        }
+        return line.toString();
+    }
+
+    @Override
+    public String readUTF() throws IOException {
+        return java.io.DataInputStream.readUTF(this);
+    }
+
+    @Override
+    public void writeBoolean(boolean v) throws IOException {
+        write(v ? 1 : 0);
+    }
+
+    @Override
+    public void writeByte(int v) throws IOException {
+        write(v);
+    }
+
+    @Override
+    public void writeShort(int v) throws IOException {
+        write(v >>> 8);
+        write(v);
+    }
+
+    @Override
+    public void writeChar(int v) throws IOException {
+        writeShort(v);
+    }
+
+    @Override
+    public void writeInt(int v) throws IOException {
+        writeShort(v >>> 16);
+        writeShort(v);
+    }
+
+    @Override
+    public void writeLong(long v) throws IOException {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+
+    @Override
+    public void writeFloat(float v) throws IOException {
+        writeInt(Float.floatToIntBits(v));
+    }
+
+    @Override
+    public void writeDouble(double v) throws IOException {
+        writeLong(Double.doubleToLongBits(v));
+    }
+
+    /**
+     * Writes the low byte of each character.
+     */
+    @Override
+    public void writeBytes(String s) throws IOException {
+        byte[] bytes = new byte[s.length()];
+        for (int i=0; i < bytes.length; i++) {
+            bytes[i] = (byte) s.charAt(i);
+        }
+        write(bytes);
+    }
+
+    @Override
+    public void writeChars(String s) throws IOException {
+        byte[] bytes = new byte[s.length() * 2];
+        for (int i=0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            bytes[i * 2] = (byte) (c >>> 8);
+            bytes[i * 2 + 1] = (byte) c;
+        }
+        write(bytes);
+    }
+
+    @Override
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        java.io.DataOutputStream dout = new java.io.DataOutputStream(bout);
+        dout.writeUTF(s);
+        dout.flush();
+        write(bout.toByteArray());
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.fs.server.scheduler;
+
+import gov.nasa.spiffy.common.metrics.CounterMetric;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Orders the disk reads of concurrent requests with a per container file
+ * elevator.  Each container file has at most one thread reading from it at a
+ * time.  Threads waiting to read are let in by increasing offset, wrapping
+ * around to the start of the file when the elevator reaches the end (C-SCAN),
+ * no matter which request they belong to.  When many clients read the same
+ * containers this turns their random reads into a few sequential sweeps.
+ * 
+ * The elevator only decides when a thread may read.  Every read, lock
+ * acquisition and write to the client happens on the thread that submitted
+ * the request, so a slow client or a lock held by another transaction only
+ * stalls its own request, read locks are released on the thread that took
+ * them and throttle permits are charged to the request that uses them.
+ * 
+ * A container file is identified by FsIdLocation.containerFile() and
+ * FsIdLocation.fileLocation() since the file location alone is only unique
+ * within a single directory hash.
+ */
+public class ElevatorScheduler {
+
+    /** Counts the disk reads that were let in between the reads of another request. */
+    private static final String INTERLEAVED_READ_METRIC = "fs.server.elevator.interleaved-reads";
+    
+    /**
+     * Reads a single FsId on the thread that called ElevatorScheduler.read().
+     */
+    public interface LocationReader {
+        /**
+         * Implementors should acquire any locks and do any client I/O outside
+         * of diskTurn.begin() and diskTurn.end(); the container is not
+         * available to other threads between those calls.
+         * 
+         * @param diskTurn Call begin() immediately before reading from the
+         * container file and end() immediately after.  This may be ignored if
+         * the FsId does not need to be read from disk.
+         */
+        void read(FsIdOrder idOrder, DiskTurn diskTurn) throws Exception;
+    }
+    
+    /**
+     * The right to read from a container file.
+     */
+    public interface DiskTurn {
+        /**
+         * Blocks until the elevator reaches this read.
+         */
+        void begin() throws InterruptedException;
+        
+        /**
+         * Lets the elevator move on to the next read.  This may be called
+         * even if begin() was not called or did not return.
+         */
+        void end();
+    }
+    
+    private static final DiskTurn NO_WAIT = new DiskTurn() {
+        @Override
+        public void begin() {
+            //This does not wait.
+        }
+        @Override
+        public void end() {
+            //Nothing was started.
+        }
+    };
+    
+    /** Elevators in use.  Idle elevators are removed.  This is the lock for itself. */
+    private final Map<ContainerKey, Elevator> elevators = new HashMap<ContainerKey, Elevator>();
+    
+    /**
+     * Reads all the FsIds in a chunk on the calling thread returning once
+     * they all have been read.
+     * 
+     * @param chunk FsIds in the same container file.  This is the kind of
+     * chunk generated by Scheduler.accessOrder().  FsIds in chunks which do
+     * not exist or which do not have locations are read in the order they are
+     * listed without waiting on the elevator.
+     * @param reader This is called once for each FsId in the chunk.
+     * @throws Exception The first exception thrown by the reader.  After the
+     * first exception the remaining FsIds in the chunk are not read.
+     * @throws InterruptedException If the calling thread is interrupted while
+     * waiting on the elevator.
+     */
+    public void read(List<FsIdOrder> chunk, LocationReader reader) throws Exception {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        
+        FsIdOrder first = chunk.get(0);
+        if (!(first instanceof FsIdLocation) || !((FsIdLocation) first).exists()) {
+            for (FsIdOrder idOrder : chunk) {
+                reader.read(idOrder, NO_WAIT);
+            }
+            return;
+        }
+        
+        List<FsIdLocation> locations = new ArrayList<FsIdLocation>(chunk.size());
+        for (FsIdOrder idOrder : chunk) {
+            locations.add((FsIdLocation) idOrder);
+        }
+        Collections.sort(locations, offsetComparator);
+        
+        ContainerKey container = new ContainerKey((FsIdLocation) first);
+        Elevator elevator = acquireElevator(container);
+        try {
+            Object request = new Object();
+            for (FsIdLocation location : locations) {
+                Elevator.Turn turn = elevator.new Turn(request, location.offsetInFile());
+                try {
+                    reader.read(location, turn);
+                } finally {
+                    turn.end();
+                }
+            }
+        } finally {
+            releaseElevator(container, elevator);
+        }
+    }
+    
+    /**
+     * @return The number of container files with pending reads.
+     */
+    public int activeContainers() {
+        synchronized (elevators) {
+            return elevators.size();
+        }
+    }
+    
+    private Elevator acquireElevator(ContainerKey container) {
+        synchronized (elevators) {
+            Elevator elevator = elevators.get(container);
+            if (elevator == null) {
+                elevator = new Elevator();
+                elevators.put(container, elevator);
+            }
+            elevator.nUsers++;
+            return elevator;
+        }
+    }
+    
+    private void releaseElevator(ContainerKey container, Elevator elevator) {
+        synchronized (elevators) {
+            if (--elevator.nUsers == 0) {
+                elevators.remove(container);
+            }
+        }
+    }
+    
+    private static final Comparator<FsIdLocation> offsetComparator = 
+        new Comparator<FsIdLocation>() {
+            @Override
+            public int compare(FsIdLocation o1, FsIdLocation o2) {
+                long diff = o1.offsetInFile() - o2.offsetInFile();
+                if (diff < 0) {
+                    return -1;
+                } else if (diff > 0) {
+                    return 1;
+                }
+                return 0;
+            }
+        };
+    
+    /**
+     * Identifies a container file.
+     */
+    private static final class ContainerKey {
+        private final File containerFile;
+        private final int fileLocation;
+        
+        ContainerKey(FsIdLocation location) {
+            this.containerFile = location.containerFile();
+            this.fileLocation = location.fileLocation();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result
+                + ((containerFile == null) ? 0 : containerFile.hashCode());
+            result = prime * result + fileLocation;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (obj == null)
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            ContainerKey other = (ContainerKey) obj;
+            if (containerFile == null) {
+                if (other.containerFile != null)
+                    return false;
+            } else if (!containerFile.equals(other.containerFile))
+                return false;
+            if (fileLocation != other.fileLocation)
+                return false;
+            return true;
+        }
+    }
+    
+    private static final Comparator<Elevator.Turn> turnComparator = 
+        new Comparator<Elevator.Turn>() {
+            @Override
+            public int compare(Elevator.Turn o1, Elevator.Turn o2) {
+                long diff = o1.offsetInFile - o2.offsetInFile;
+                if (diff == 0) {
+                    diff = o1.sequence - o2.sequence;
+                }
+                if (diff < 0) {
+                    return -1;
+                } else if (diff > 0) {
+                    return 1;
+                }
+                return 0;
+            }
+        };
+    
+    private static final class Elevator {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition stateChanged = lock.newCondition();
+        
+        /** These are protected by lock. */
+        private final TreeSet<Turn> waiting = new TreeSet<Turn>(turnComparator);
+        private Turn active = null;
+        private Object lastRequest = null;
+        private long headOffset = 0;
+        private long nextSequence = 0;
+        
+        /** This is protected by ElevatorScheduler.elevators. */
+        private int nUsers = 0;
+        
+        /**
+         * Lets in the next waiting thread.  This must be called while holding
+         * lock and when there is no active turn.
+         */
+        private void advance() {
+            if (waiting.isEmpty()) {
+                return;
+            }
+            Turn key = new Turn(null, headOffset, Long.MIN_VALUE);
+            Turn next = waiting.ceiling(key);
+            if (next == null) {
+                next = waiting.first();
+            }
+            waiting.remove(next);
+            active = next;
+            headOffset = next.offsetInFile;
+            if (lastRequest != null && lastRequest != next.request) {
+                CounterMetric.increment(INTERLEAVED_READ_METRIC);
+            }
+            lastRequest = next.request;
+            stateChanged.signalAll();
+        }
+        
+        private final class Turn implements DiskTurn {
+            private final Object request;
+            private final long offsetInFile;
+            /** These are protected by lock. */
+            private long sequence;
+            private boolean started = false;
+            
+            Turn(Object request, long offsetInFile) {
+                this(request, offsetInFile, 0);
+            }
+            
+            private Turn(Object request, long offsetInFile, long sequence) {
+                this.request = request;
+                this.offsetInFile = offsetInFile;
+                this.sequence = sequence;
+            }
+            
+            @Override
+            public void begin() throws InterruptedException {
+                lock.lock();
+                try {
+                    if (started) {
+                        throw new IllegalStateException("Turn already started.");
+                    }
+                    started = true;
+                    sequence = nextSequence++;
+                    waiting.add(this);
+                    if (active == null) {
+                        advance();
+                    }
+                    while (active != this) {
+                        try {
+                            stateChanged.await();
+                        } catch (InterruptedException ie) {
+                            giveUp();
+                            throw ie;
+                        }
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            
+            @Override
+            public void end() {
+                lock.lock();
+                try {
+                    giveUp();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            
+            /**
+             * This must be called while holding lock.
+             */
+            private void giveUp() {
+                if (active == this) {
+                    active = null;
+                    advance();
+                } else {
+                    waiting.remove(this);
+                }
+            }
+        }
+    }
+}
@@ -39,13 +39,18 @@ package gov.nasa.kepler.fs.server.scheduler;
 
 import gov.nasa.kepler.fs.api.FsId;
 
+import java.io.File;
+
 /**
- * The start of an FsIds location by file and offset.
+ * The start of an FsIds location by file and offset.  The file location is
+ * only unique within a single allocator's directory hash so the container
+ * file, when known, identifies the file across allocators.
  * @author Sean McCauliff
  *
  */
 public final class  FsIdLocation  implements FsIdOrder {
 
+    private final File containerFile;
     private final int fileLocation;
     private final long offset;
     private final FsId id;
@@ -54,6 +59,15 @@ public final class  FsIdLocation  implements FsIdOrder {
     
     
     public FsIdLocation(int fileLocation, long offset, FsId id, int originalOrder) {
+        this(null, fileLocation, offset, id, originalOrder);
+    }
+    
+    /**
+     * @param containerFile The file which contains the data for this FsId.
+     * This may be null if it is not known.
+     */
+    public FsIdLocation(File containerFile, int fileLocation, long offset, FsId id, int originalOrder) {
+        this.containerFile = containerFile;
         this.fileLocation = fileLocation;
         this.offset = offset;
         this.id = id;
@@ -63,6 +77,7 @@ public final class  FsIdLocation  implements FsIdOrder {
     
     /** non-existent id. */
     public FsIdLocation(FsId id, int originalOrder) {
+        this.containerFile = null;
         this.fileLocation = -1;
         this.offset = -1;
         this.id = id;
@@ -70,6 +85,11 @@ public final class  FsIdLocation  implements FsIdOrder {
         this.originalOrder = originalOrder;
     }
 
+    /** Undefined if exists() == false.  This may be null. */
+    public File containerFile() {
+        return containerFile;
+    }
+    
     /** Undefined if exists() == true. */
     public int fileLocation() {
         return fileLocation;
@@ -85,6 +105,20 @@ public final class  FsIdLocation  implements FsIdOrder {
         return id;
     }
 
+    /**
+     * @return true if this and the other location are in the same container
+     * file.
+     */
+    boolean sameContainer(FsIdLocation other) {
+        if (fileLocation != other.fileLocation) {
+            return false;
+        }
+        if (containerFile == null) {
+            return other.containerFile == null;
+        }
+        return containerFile.equals(other.containerFile);
+    }
+
     public boolean exists() {
         return exists;
     }
@@ -98,6 +132,8 @@ public final class  FsIdLocation  implements FsIdOrder {
         StringBuilder builder = new StringBuilder();
         builder.append("FsIdLocation [exists=")
             .append(exists)
+            .append(", containerFile=")
+            .append(containerFile)
             .append(", fileLocation=")
             .append(fileLocation)
             .append(", id=")
@@ -39,6 +39,7 @@ package gov.nasa.kepler.fs.server.scheduler;
 
 import gov.nasa.kepler.fs.api.FileStoreException;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
 import java.util.Comparator;
@@ -61,6 +62,21 @@ public class Scheduler {
     private final static Comparator<FsIdLocation> comparator = new Comparator<FsIdLocation>() {
         @Override
         public int compare(FsIdLocation loc1, FsIdLocation loc2) {
+            File file1 = loc1.containerFile();
+            File file2 = loc2.containerFile();
+            if (file1 != file2) {
+                if (file1 == null) {
+                    return -1;
+                }
+                if (file2 == null) {
+                    return 1;
+                }
+                int fileDiff = file1.compareTo(file2);
+                if (fileDiff != 0) {
+                    return fileDiff;
+                }
+            }
+            
             int diff = loc1.fileLocation() -  loc2.fileLocation();
             if (diff != 0) {
                 return diff;
@@ -120,14 +136,14 @@ public class Scheduler {
         Collections.sort(locations, comparator);
         
         List<List<FsIdOrder>> schedule = new ArrayList<List<FsIdOrder>>();
-        int lastFileLocation = locations.get(0).fileLocation() - 1;
+        FsIdLocation lastLocation = null;
         List<FsIdOrder> currentBatch = null;
         for (FsIdLocation sortedLocation : locations) {
-            if (lastFileLocation != sortedLocation.fileLocation()) {
+            if (lastLocation == null || !lastLocation.sameContainer(sortedLocation)) {
                 currentBatch = new ArrayList<FsIdOrder>();
                 schedule.add(currentBatch);
-                lastFileLocation = sortedLocation.fileLocation();
             }
+            lastLocation = sortedLocation;
             currentBatch.add(sortedLocation);
         }
         
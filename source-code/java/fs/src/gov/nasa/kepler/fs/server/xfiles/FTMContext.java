@@ -44,6 +44,7 @@ import gov.nasa.kepler.fs.client.util.PersistableXid;
 import gov.nasa.kepler.fs.perf.StackTraceDumper;
 import gov.nasa.kepler.fs.server.AcquiredPermits;
 import gov.nasa.kepler.fs.server.ErrorInjector;
+import gov.nasa.kepler.fs.server.ThrottleClass;
 import gov.nasa.kepler.fs.server.ThrottleInterface;
 import gov.nasa.kepler.fs.server.jmx.TransactionMonitoringInfo;
 import gov.nasa.kepler.fs.server.journal.JournalEntry;
@@ -440,7 +441,7 @@ class FTMContext {
         try {
             checkDead();
             waitForUserShutdown();
-            permitsHeldForCommit = throttle.greedyAcquirePermits();
+            permitsHeldForCommit = throttle.greedyAcquirePermits(ThrottleClass.COMMIT);
             acquireTransactionLocks();
             int nConsumerThreads = permitsHeldForCommit.nPermits();
             
@@ -493,7 +494,7 @@ class FTMContext {
                 ok = true;
             } else {
                 if (permitsHeldForCommit == null) {
-                    permitsHeldForCommit = throttle.greedyAcquirePermits();
+                    permitsHeldForCommit = throttle.greedyAcquirePermits(ThrottleClass.COMMIT);
                 }
                 state.set("Rollback started.");
                 int nConsumerThreads = permitsHeldForCommit.nPermits();
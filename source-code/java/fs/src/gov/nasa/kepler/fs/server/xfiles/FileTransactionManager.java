@@ -56,6 +56,7 @@ import gov.nasa.kepler.fs.server.xfiles.FTMContext.ErrorState;
 import gov.nasa.kepler.fs.storage.*;
 import gov.nasa.spiffy.common.collect.Pair;
 import gov.nasa.spiffy.common.concurrent.ConcurrentLruCache;
+import gov.nasa.spiffy.common.concurrent.ConcurrentWeightedCache;
 import gov.nasa.spiffy.common.concurrent.ServerLock;
 import gov.nasa.spiffy.common.io.FileUtil;
 import gov.nasa.spiffy.common.pi.PipelineException;
@@ -217,7 +218,7 @@ public class FileTransactionManager implements FileTransactionManagerInterface {
             dataDir.mkdirs();
         }
 
-        FsIdFileSystemLocator fsIdPathLocator = 
+        UserConfigurableFsIdFileSystemLocator fsIdPathLocator = 
             new UserConfigurableFsIdFileSystemLocator(new File(dataDir, FILE_SYSTEM_ROOT_CONF_FILE_NAME), dataDir.getCanonicalPath());
         
         initDataDirs(fsIdPathLocator);
@@ -228,7 +229,8 @@ public class FileTransactionManager implements FileTransactionManagerInterface {
         
         timeSeriesDirHashFactory = new DirectoryHashFactory(fsIdPathLocator,
             new File(TIME_SERIES_DIR_NAME), maxFilesPerStore, maxFilesPerDir);
-        randAllocatorFactory = new RandomAccessAllocatorFactory(timeSeriesDirHashFactory);
+        randAllocatorFactory = 
+            new RandomAccessAllocatorFactory(timeSeriesDirHashFactory, fsIdPathLocator);
 
         mjdTimeSeriesDirHashFactory = 
             new DirectoryHashFactory(fsIdPathLocator, new File(MJD_TIME_SERIES_DIR_NAME),
@@ -928,6 +930,7 @@ public class FileTransactionManager implements FileTransactionManagerInterface {
         mjdAllocatorFactory.clear();
         
         ConcurrentLruCache.clearAllCaches();
+        ConcurrentWeightedCache.clearAllCaches();
     }
 
     @Override
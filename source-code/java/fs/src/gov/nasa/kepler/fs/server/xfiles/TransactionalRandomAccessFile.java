@@ -51,6 +51,7 @@ import gov.nasa.kepler.fs.server.journal.RandomAccessJournalReader;
 import gov.nasa.kepler.fs.server.nc.NonContiguousInputStream;
 import gov.nasa.kepler.fs.server.nc.NonContiguousOutputStream;
 import gov.nasa.kepler.fs.server.nc.NonContiguousReadWrite;
+import gov.nasa.kepler.fs.server.raf.RandomAccessIo;
 import gov.nasa.kepler.fs.storage.RandomAccessStorage;
 
 import gov.nasa.kepler.io.DataInputStream;
@@ -556,7 +557,7 @@ public class TransactionalRandomAccessFile extends TransactionalFile {
         xaction.acquireLock();
         xaction.checkDeleted();
         
-        NonContiguousReadWrite dataIo = storage.dataRw();
+        RandomAccessIo dataIo = storage.dataRw();
         final long end = start + size - 1;  //inclusive
         
         RandomAccessJournalReader journalReader = null;
@@ -1224,7 +1225,7 @@ public class TransactionalRandomAccessFile extends TransactionalFile {
          */
         @Override
         public void mergeRecovery(JournalEntry journalEntry) throws IOException, InterruptedException {
-            NonContiguousReadWrite io = null;
+            RandomAccessIo io = null;
             try {
                 if (journalEntry.destStart() == OP_LOCATION) {
                     //do nothing.
@@ -1283,7 +1284,7 @@ public class TransactionalRandomAccessFile extends TransactionalFile {
         private NonTransactionalReader(RandomAccessStorage ras) throws IOException {
             
             NonContiguousReadWrite metaRead  = null;
-            NonContiguousReadWrite dataRead = null;
+            RandomAccessIo dataRead = null;
             boolean ok = false;
             try {
                 metaRead = ras.metaDataRw();
@@ -43,7 +43,7 @@ import static gov.nasa.kepler.fs.FileStoreConstants.FS_SERVER_MAX_TRAF_OPS_CACHE
 import static gov.nasa.kepler.fs.FileStoreConstants.FS_SERVER_MAX_TRAF_OPS_CACHE_DEFAULT;
 import gov.nasa.kepler.fs.api.FsId;
 import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
-import gov.nasa.spiffy.common.concurrent.ConcurrentLruCache;
+import gov.nasa.spiffy.common.concurrent.ConcurrentWeightedCache;
 import gov.nasa.spiffy.common.intervals.IntervalSet;
 import gov.nasa.spiffy.common.intervals.SimpleInterval;
 import gov.nasa.spiffy.common.intervals.TaggedInterval;
@@ -144,14 +144,14 @@ public final class TransactionalRandomAccessFileMetadataCache {
     private final AtomicLong metaDataCacheMiss = new AtomicLong();
       
     /**
-     * This uses the ConcurrentLruCache rather than SoftReferences because
+     * This uses the ConcurrentWeightedCache rather than SoftReferences because
      * when the number of SoftReferences is very, very large like above 10M GC
      * slows down so much that it might take a half hour just to generate all
      * the SoftReferences needed to cache all the operations.
      */
-    private final ConcurrentLruCache<OperationKey, Operation> globalOperationCache;
+    private final ConcurrentWeightedCache<OperationKey, Operation> globalOperationCache;
       
-    private final ConcurrentLruCache<FsId, Metadata> globalMetadataCache;
+    private final ConcurrentWeightedCache<FsId, Metadata> globalMetadataCache;
     
     private final int META_CACHE_SIZE;
     private final int OPS_CACHE_SIZE;
@@ -168,9 +168,9 @@ public final class TransactionalRandomAccessFileMetadataCache {
         
         log.info("Setting operation cache size to " + OPS_CACHE_SIZE);
         
-        globalMetadataCache = new ConcurrentLruCache<FsId, Metadata>(OPS_CACHE_SIZE);
+        globalMetadataCache = new ConcurrentWeightedCache<FsId, Metadata>(META_CACHE_SIZE);
         
-        globalOperationCache = new ConcurrentLruCache<OperationKey, Operation>(META_CACHE_SIZE);
+        globalOperationCache = new ConcurrentWeightedCache<OperationKey, Operation>(OPS_CACHE_SIZE);
     }
     
     public Metadata metadata(FsId id) {
@@ -91,6 +91,9 @@ public abstract class AbstractStorageAllocator implements StorageAllocatorInterf
     private final static int MAX_CACHE;
     
     private final static boolean syncBtreeJournal;
+    
+    /** This is null when the page cache has been disabled. */
+    private final static OffHeapNodeCache pageCache;
 
 
     static {
@@ -100,6 +103,15 @@ public abstract class AbstractStorageAllocator implements StorageAllocatorInterf
 
         syncBtreeJournal = config.getBoolean(FS_SERVER_SYNC_BTREE_JOURNAL,
             FS_SERVER_SYNC_BTREE_JOURNAL_DEFAULT);
+        
+        int pageCacheMb = config.getInt(FS_SERVER_BTREE_PAGE_CACHE_MB_PROPERTY,
+            FS_SERVER_BTREE_PAGE_CACHE_MB_DEFAULT);
+        if (pageCacheMb > 0) {
+            pageCache = new OffHeapNodeCache("FsId index", BTREE_NODE_SIZE,
+                pageCacheMb * 1024L * 1024L);
+        } else {
+            pageCache = null;
+        }
     }
     
     private final static ConcurrentLruCache<CacheNodeKey, BLinkNode<FsId, FsIdInfo>> cache =
@@ -135,7 +147,7 @@ public abstract class AbstractStorageAllocator implements StorageAllocatorInterf
             BLinkNode.nodeFactory(nodeLockFactory, FsId.comparator);
         btreeDiskIo = new DiskNodeIO<FsId, FsIdInfo,BLinkNode<FsId,FsIdInfo>>(getKeyValueIo(), indexFile,
             BTREE_NODE_SIZE, cache, nodeFactory,
-            BtreeFileVersion.VERSION_1);
+            BtreeFileVersion.VERSION_1, pageCache);
         
         fsIdToFileName = 
             new BLinkTree<FsId, FsIdInfo>(btreeDiskIo, btreeLeafM, 
@@ -213,6 +225,14 @@ public abstract class AbstractStorageAllocator implements StorageAllocatorInterf
         } finally {
             fsIdToFileName.unLock();
         }
+        modificationsCommitted();
+    }
+
+    /**
+     * Called after the pending index modifications have been written to disk.
+     * Subclasses may release storage the index no longer refers to here.
+     */
+    protected void modificationsCommitted() throws IOException, InterruptedException {
     }
 
     /* (non-Javadoc)
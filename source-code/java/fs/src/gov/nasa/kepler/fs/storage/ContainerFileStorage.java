@@ -39,6 +39,7 @@ package gov.nasa.kepler.fs.storage;
 
 import gov.nasa.kepler.fs.api.FsId;
 import gov.nasa.kepler.fs.server.nc.NonContiguousReadWrite;
+import gov.nasa.kepler.fs.server.raf.RandomAccessIo;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.Collections;
@@ -76,8 +77,14 @@ class ContainerFileStorage implements RandomAccessStorage {
      * @see gov.nasa.kepler.fs.storage.RandomAccessStorage#dataRw()
      */
     @Override
-    public NonContiguousReadWrite dataRw() throws IOException {
-
+    public RandomAccessIo dataRw() throws IOException {
+        return dataLaneRw();
+    }
+    
+    /**
+     * @return The data lane as it is actually stored.
+     */
+    protected NonContiguousReadWrite dataLaneRw() throws IOException {
         RandomAccessFile dataRaf = new RandomAccessFile(dataSpace.file(), "rw");
         boolean trackLength = allocator.doesStorageTrackLength();
         NonContiguousReadWrite dataRw = 
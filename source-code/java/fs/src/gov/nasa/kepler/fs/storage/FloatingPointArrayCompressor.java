@@ -39,150 +39,170 @@ package gov.nasa.kepler.fs.storage;
 
 import static gov.nasa.spiffy.common.io.LongEncoder.*;
 
-import gov.nasa.kepler.fs.api.*;
-import gov.nasa.kepler.fs.client.FileStoreClientFactory;
-import gov.nasa.kepler.io.DataOutputStream;
-
-import java.io.*;
-import java.util.*;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
 /**
- * This is just some fun compression stuff that is not currently used in the file
- * store code.  It separates the mantissa from the floating point value and
- * subtracts this from the previous value.  The exponent and the mantissa
- * difference are written out using a variable byte length encoding.  This is
- * likely faster than GZIP or BZIP2, but not giving as good compression  ratio
- * as either of those algorithms.  Combined with GZIP or BZIP2 this yields better
- * compression ratio than either one of them can obtain alone.
+ * Lossless compression for arrays of primitive cadence data.  Each element
+ * is converted to its raw bit pattern and the difference from the bit
+ * pattern of the previous element is written out using the variable byte
+ * length encoding in LongEncoder.  Neighboring samples of a flux or pixel
+ * time series tend to share sign, exponent and the high order mantissa bits
+ * so the differences are small and typically need one or two bytes rather
+ * than four or eight.  The differences are computed modulo 2^32 (or 2^64)
+ * so any bit pattern, including NaNs and gap fill values, survives a round
+ * trip.  This is likely faster than GZIP or BZIP2, but not giving as good a
+ * compression ratio as either of those algorithms.
+ * 
+ * The word methods operate on big-endian byte arrays as they are stored in
+ * the data portion of a time series file.  These are used to compress
+ * blocks of time series data on disk, see CompressedBlockReadWrite.
+ * 
+ * This class is MT-safe.
  * 
  * @author Sean McCauliff   
  *
  */
 public final class FloatingPointArrayCompressor {
 
-    private static final int SINGLE_MANTISSA_MASK = 0x001FFFFF;
-    private static final int SINGLE_N_MANTISSA_BITS = 23;
-    private static final long DOUBLE_MANTISSA_MASK = 0x000FFFFFFFFFFFFFL;
-    private static final int DOUBLE_N_MANTISSA_BITS = 52;
-    
     public void compress(float[] f, DataOutput dout) throws IOException {
         longToBytes(f.length, dout);
-        if (f.length == 0) {
-            return;
-        }
-        
-        dout.writeFloat(f[0]);
-        if (f.length == 1) {
-            return;
-        }
-        
-        final int firstFloatAsInt = Float.floatToRawIntBits(f[0]);
-        int prevSignAndExponent = firstFloatAsInt >>> SINGLE_N_MANTISSA_BITS;
-        int prevMantissa = reverseSignAndExponent(firstFloatAsInt);
-        for (int i=1; i < f.length; i++) {
+        int prev = 0;
+        for (int i=0; i < f.length; i++) {
             int floatAsInt = Float.floatToRawIntBits(f[i]);
-            int signAndExponent = reverseSignAndExponent(floatAsInt);
-            int mantissa = floatAsInt & SINGLE_MANTISSA_MASK;
-            longToBytes(mantissa - prevMantissa, dout);
-            longToBytes(signAndExponent - prevSignAndExponent, dout);
-            prevSignAndExponent = signAndExponent;
-            prevMantissa = mantissa;
+            longToBytes(floatAsInt - prev, dout);
+            prev = floatAsInt;
         }
+    }
     
+    public float[] decompressFloats(DataInput din) throws IOException {
+        float[] f = new float[arrayLength(din)];
+        int prev = 0;
+        for (int i=0; i < f.length; i++) {
+            prev += (int) bytesToLong(din);
+            f[i] = Float.intBitsToFloat(prev);
+        }
+        return f;
     }
     
     public void compress(double[] d, DataOutput dout) throws IOException {
         longToBytes(d.length, dout);
-        if (d.length == 0) {
-            return;
-        }
-        
-        dout.writeDouble(d[0]);
-        if (d.length == 1) {
-            return;
-        }
-        
-        long firstDoubleAsLong = Double.doubleToRawLongBits(d[0]);
-        long prevSignAndExponent = reverseSignAndExponent(firstDoubleAsLong);
-        long prevMantissa = firstDoubleAsLong >>> DOUBLE_MANTISSA_MASK;
-        for (int i=1; i < d.length; i++) {
+        long prev = 0;
+        for (int i=0; i < d.length; i++) {
             long doubleAsLong = Double.doubleToRawLongBits(d[i]);
-            long signAndExponent = reverseSignAndExponent(doubleAsLong);
-            long mantissa = doubleAsLong & DOUBLE_MANTISSA_MASK;
-            longToBytes(mantissa - prevMantissa, dout);
-            longToBytes(signAndExponent - prevSignAndExponent, dout);
-            prevSignAndExponent = signAndExponent;
-            prevMantissa = mantissa;
+            longToBytes(doubleAsLong - prev, dout);
+            prev = doubleAsLong;
         }
     }
     
-    private static int signAndExponentBits(int floatAsInt) {
-        return floatAsInt >>> SINGLE_N_MANTISSA_BITS;
+    public double[] decompressDoubles(DataInput din) throws IOException {
+        double[] d = new double[arrayLength(din)];
+        long prev = 0;
+        for (int i=0; i < d.length; i++) {
+            prev += bytesToLong(din);
+            d[i] = Double.longBitsToDouble(prev);
+        }
+        return d;
     }
     
-    private static long signAndExponentBits(long doubleAsLong) {
-        return doubleAsLong >>> DOUBLE_N_MANTISSA_BITS;
+    public void compress(int[] a, DataOutput dout) throws IOException {
+        longToBytes(a.length, dout);
+        int prev = 0;
+        for (int i=0; i < a.length; i++) {
+            longToBytes(a[i] - prev, dout);
+            prev = a[i];
+        }
     }
     
-    /**
-     * Reverse the sign and exponent bits.
-     * @param doubleAsLong
-     * @return
-     */
-    private static long reverseSignAndExponent(long doubleAsLong) {
-        return doubleAsLong >>> 63 | ((signAndExponentBits(doubleAsLong) & ~0x400) << 1);
+    public int[] decompressInts(DataInput din) throws IOException {
+        int[] a = new int[arrayLength(din)];
+        int prev = 0;
+        for (int i=0; i < a.length; i++) {
+            prev += (int) bytesToLong(din);
+            a[i] = prev;
+        }
+        return a;
     }
     
     /**
-     * Put the sign as the lower order bit.
-     * @param floatAsInt
-     * @return
+     * Compresses len bytes of buf as a sequence of big-endian words.
+     * 
+     * @param wordSize This must be 4 or 8.
+     * @param len This must be a multiple of wordSize.
      */
-    private static int reverseSignAndExponent(int floatAsInt) {
-        return floatAsInt >>> 31 | ((signAndExponentBits(floatAsInt) & ~0x100) << 1);
-    }
-    
-    
-    public static void main(String[] argv) throws Exception {
-        FileStoreClient fsClient = FileStoreClientFactory.getInstance();
-        
-        int startCadence = Integer.parseInt(argv[0]);
-        int endCadence = Integer.parseInt(argv[1]);
+    public void compressWords(byte[] buf, int off, int len, int wordSize,
+        DataOutput dout) throws IOException {
         
-        Set<FsId> fsIds = new HashSet<FsId>();
-        
-        for (int i=2; i < argv.length; i++) {
-           fsIds.add(new FsId(argv[i]));
+        checkWordSize(wordSize, len);
+        long prev = 0;
+        final int end = off + len;
+        for (int i=off; i < end; i += wordSize) {
+            if (wordSize == 4) {
+                int word = readInt(buf, i);
+                longToBytes(word - (int) prev, dout);
+                prev = word;
+            } else {
+                long word = ((long) readInt(buf, i) << 32) |
+                    (readInt(buf, i + 4) & 0xFFFFFFFFL);
+                longToBytes(word - prev, dout);
+                prev = word;
+            }
         }
+    }
+    
+    /**
+     * The inverse of compressWords().
+     * 
+     * @param len The number of uncompressed bytes to decode into buf.
+     */
+    public void decompressWords(DataInput din, byte[] buf, int off, int len,
+        int wordSize) throws IOException {
         
-        FsIdSet fsIdSet = new FsIdSet(startCadence, endCadence, fsIds);
-        List<TimeSeriesBatch> tsBatch = fsClient.readTimeSeriesBatch(Collections.singletonList(fsIdSet), true);
-        Collection<TimeSeries> timeSeriesCollection = tsBatch.get(0).timeSeries().values();
-   
-        
-        FloatingPointArrayCompressor compressor = new FloatingPointArrayCompressor();
-        
-        DataOutputStream udout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream("ufcompress")));
-        
-        DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(new FileOutputStream("fcompress")));
-        for (TimeSeries ts : timeSeriesCollection ) {
-            udout.writeInt(ts.cadenceLength());
-            if (ts instanceof DoubleTimeSeries) {
-                double[] d = ((DoubleTimeSeries)ts).dseries();
-                for (int i=0; i < d.length; i++) {
-                    udout.writeDouble(d[i]);
-                }
-                compressor.compress(d, dout);
+        checkWordSize(wordSize, len);
+        long prev = 0;
+        final int end = off + len;
+        for (int i=off; i < end; i += wordSize) {
+            if (wordSize == 4) {
+                int word = (int) prev + (int) bytesToLong(din);
+                writeInt(buf, i, word);
+                prev = word;
             } else {
-                float[] f = ((FloatTimeSeries)ts).fseries();
-                for (int i=0; i < f.length; i++) {
-                    udout.writeFloat(f[i]);
-                }
-                compressor.compress(f, dout);
+                long word = prev + bytesToLong(din);
+                writeInt(buf, i, (int) (word >>> 32));
+                writeInt(buf, i + 4, (int) word);
+                prev = word;
             }
         }
-        udout.close();
-        dout.close();
-        
+    }
+    
+    private static void checkWordSize(int wordSize, int len) {
+        if (wordSize != 4 && wordSize != 8) {
+            throw new IllegalArgumentException("Bad word size " + wordSize + ".");
+        }
+        if (len % wordSize != 0) {
+            throw new IllegalArgumentException("Length " + len + 
+                " is not a multiple of the word size " + wordSize + ".");
+        }
+    }
+    
+    private static int arrayLength(DataInput din) throws IOException {
+        long length = bytesToLong(din);
+        if (length < 0 || length > Integer.MAX_VALUE) {
+            throw new IOException("Bad compressed array length " + length + ".");
+        }
+        return (int) length;
+    }
+    
+    private static int readInt(byte[] buf, int i) {
+        return ((buf[i] & 0xff) << 24) | ((buf[i+1] & 0xff) << 16) |
+            ((buf[i+2] & 0xff) << 8) | (buf[i+3] & 0xff);
+    }
+    
+    private static void writeInt(byte[] buf, int i, int v) {
+        buf[i] = (byte) (v >>> 24);
+        buf[i+1] = (byte) (v >>> 16);
+        buf[i+2] = (byte) (v >>> 8);
+        buf[i+3] = (byte) v;
     }
 }
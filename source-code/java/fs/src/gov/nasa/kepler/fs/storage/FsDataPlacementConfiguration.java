@@ -50,6 +50,8 @@ public class FsDataPlacementConfiguration {
     
     private List<FileSystem> fileSystems = new LinkedList<FileSystem>();
     
+    private List<String> compressedFsIdPaths = new LinkedList<String>();
+    
     private int stuffIDontWantToExport;
 
     @XmlAttribute(required=true)
@@ -70,6 +72,18 @@ public class FsDataPlacementConfiguration {
         this.fileSystems = fileSystems;
     }
 
+    /**
+     * Time series allocated under these FsId paths have their data compressed.
+     */
+    @XmlElement(name="compressedFsIdPath")
+    public List<String> getCompressedFsIdPaths() {
+        return compressedFsIdPaths;
+    }
+
+    public void setCompressedFsIdPaths(List<String> compressedFsIdPaths) {
+        this.compressedFsIdPaths = compressedFsIdPaths;
+    }
+
     @XmlTransient
 	public int getStuffIDontWantToExport() {
 		return stuffIDontWantToExport;
@@ -44,7 +44,7 @@ import java.util.concurrent.LinkedBlockingQueue;
 import gov.nasa.kepler.fs.server.index.PersistentSequence;
 
 /**
- * Gets a fresh lane number and file number pair.
+ * Gets a fresh lane number and file number pair or one which has been freed.
  * 
  * @author Sean McCauliff
  *
@@ -54,6 +54,7 @@ class LaneAllocator {
     private final PersistentSequence nextName;
     private final byte maxLanes;
     private final LinkedBlockingQueue<FileData> fileQueue = new LinkedBlockingQueue<FileData>();
+    private final LinkedBlockingQueue<Allocation> freeLanes = new LinkedBlockingQueue<Allocation>();
     
     LaneAllocator(PersistentSequence seq, byte maxLanes) throws IOException {
         
@@ -69,6 +70,11 @@ class LaneAllocator {
     }
     
     public Allocation allocateLane() throws IOException, InterruptedException {
+        Allocation free = freeLanes.poll();
+        if (free != null) {
+            return free;
+        }
+        
         FileData fileData = fileQueue.take();
         if (fileData.nextLaneNo == maxLanes) {
             fileData = new FileData(nextName.next());
@@ -78,6 +84,15 @@ class LaneAllocator {
         fileQueue.add(fileData);
         return allocation;
     }
+    
+    /**
+     * Makes a lane available to allocateLane() again.  The caller must have
+     * cleared the lane and nothing may refer to it.  Like the rest of the
+     * state of this class this is not persistent.
+     */
+    public void freeLane(Allocation lane) {
+        freeLanes.add(lane);
+    }
         
     
    static final class FileData {
@@ -68,7 +68,7 @@ public final class MjdTimeSeriesStorageAllocator extends RandomAccessAllocator {
     @Override
     protected RandomAccessStorage createStorage(FsId id,
         LaneAddressSpace dataSpace, 
-        LaneAddressSpace metaSpace, boolean isNew) {
+        LaneAddressSpace metaSpace, boolean isNew, boolean isCompressed) {
         
         RandomAccessStorage storage = 
             new MjdContainerFileStorage(id, dataSpace, 
@@ -41,14 +41,22 @@ package gov.nasa.kepler.fs.storage;
 import gov.nasa.kepler.fs.api.FileStoreException;
 import gov.nasa.kepler.fs.api.FsId;
 import gov.nasa.kepler.fs.server.index.KeyValueIO;
+import gov.nasa.kepler.fs.server.nc.CompressedBlockReadWrite;
+import gov.nasa.kepler.fs.server.nc.NonContiguousReadWrite;
+import gov.nasa.kepler.fs.server.raf.RandomAccessIo;
 import gov.nasa.kepler.fs.server.scheduler.FsIdLocation;
 import gov.nasa.kepler.fs.server.scheduler.FsIdOrder;
 import gov.nasa.kepler.fs.storage.LaneAllocator.Allocation;
+import gov.nasa.spiffy.common.io.FileUtil;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -73,12 +81,27 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
     public static final int HEADER_SIZE = 0;
     private final LaneAllocator dataLaneAllocator;
     private final LaneAllocator  metaLaneAllocator;
+    private final TimeSeriesEncodingPolicy encodingPolicy;
+    /**
+     * Data lanes replaced by compressData() which can be freed once the index
+     * which no longer refers to them has been written to disk.
+     */
+    private final LinkedBlockingQueue<ReplacedLane> replacedDataLanes = 
+        new LinkedBlockingQueue<ReplacedLane>();
     
     public RandomAccessAllocator(DirectoryHash dirHash)
         throws IOException, IllegalArgumentException {
         
+        this(dirHash, TimeSeriesEncodingPolicy.UNCOMPRESSED);
+    }
+    
+    public RandomAccessAllocator(DirectoryHash dirHash, 
+        TimeSeriesEncodingPolicy encodingPolicy)
+        throws IOException, IllegalArgumentException {
+        
         super(dirHash);
         
+        this.encodingPolicy = encodingPolicy;
         dataLaneAllocator = new LaneAllocator(super.sequence, IDS_PER_CONTAINER);
         metaLaneAllocator = new LaneAllocator(super.sequence, IDS_PER_CONTAINER);
     }
@@ -126,7 +149,8 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
             Allocation dataAllocation = dataLaneAllocator.allocateLane();
             Allocation metaAllocation = metaLaneAllocator.allocateLane();
             info = new RandomAccessFsIdInfo(dataAllocation.fileNumber, dataAllocation.laneNo,
-                metaAllocation.fileNumber, metaAllocation.laneNo, true /* is new */);
+                metaAllocation.fileNumber, metaAllocation.laneNo, true /* is new */,
+                encodingPolicy.compressData(id));
             info = (RandomAccessFsIdInfo) fsIdToFileName.insertIfAbsent(id, info);
             btreeChange();
         }
@@ -141,25 +165,153 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
             new LaneAddressSpace(info.metaLane, HEADER_SIZE, IDS_PER_CONTAINER,
                 metaDir, info.metaFileId);
         
-        RandomAccessStorage storage = createStorage(id, dataSpace, metaSpace, info.isNew());
+        RandomAccessStorage storage = 
+            createStorage(id, dataSpace, metaSpace, info.isNew(), info.isCompressed);
         return storage;
 
     }
 
 
 
-    protected RandomAccessStorage createStorage(FsId id, LaneAddressSpace dataSpace, LaneAddressSpace metaSpace, boolean isNew) {
+    protected RandomAccessStorage createStorage(FsId id, LaneAddressSpace dataSpace, 
+        LaneAddressSpace metaSpace, boolean isNew, boolean isCompressed) {
+        
+        if (isCompressed) {
+            return new CompressedContainerFileStorage(id, dataSpace, metaSpace, this);
+        }
         RandomAccessStorage storage = 
             new ContainerFileStorage(id, dataSpace,  metaSpace, this);
         return storage;
     }
+    
+    /**
+     * Copies the data of a time series into a newly allocated, compressed
+     * data lane and updates the index to point to the new lane.  Time series
+     * which are already compressed are compacted; only the blocks in use are
+     * copied.  The old lane is cleared and reused once the updated index has
+     * been committed; once no FsId uses any lane in a container file gcFiles()
+     * will remove it.  This must not be used while the file store server is
+     * running.
+     * 
+     * @param id
+     * @return The number of bytes used by the compressed data or -1 if the
+     * storage for this allocator tracks its own length and so can not be
+     * compressed.
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public long compressData(FsId id) throws IOException, InterruptedException {
+        RandomAccessFsIdInfo info = (RandomAccessFsIdInfo) fsIdToFileName.find(id);
+        if (info == null) {
+            throw new IllegalArgumentException("Can't find id \"" + id + "\".");
+        }
+        if (doesStorageTrackLength()) {
+            return -1;
+        }
+        
+        Allocation dataAllocation = dataLaneAllocator.allocateLane();
+        File srcDir = dirHash.directoryForId(Integer.toString(info.dataFileId));
+        File destDir = dirHash.directoryForId(Integer.toString(dataAllocation.fileNumber));
+        LaneAddressSpace srcSpace = 
+            new LaneAddressSpace(info.dataLane, HEADER_SIZE, IDS_PER_CONTAINER,
+                srcDir, info.dataFileId);
+        LaneAddressSpace destSpace = 
+            new LaneAddressSpace(dataAllocation.laneNo, HEADER_SIZE, IDS_PER_CONTAINER,
+                destDir, dataAllocation.fileNumber);
+        
+        RandomAccessIo src = null;
+        CompressedBlockReadWrite dest = null;
+        long compressedLength = 0;
+        long srcLength = 0;
+        try {
+            src = new NonContiguousReadWrite(new RandomAccessFile(srcSpace.file(), "r"), srcSpace);
+            if (info.isCompressed) {
+                src = new CompressedBlockReadWrite((NonContiguousReadWrite) src);
+            }
+            dest = new CompressedBlockReadWrite(
+                new NonContiguousReadWrite(new RandomAccessFile(destSpace.file(), "rw"), destSpace));
+            byte[] buf = new byte[CompressedBlockReadWrite.BLOCK_SIZE];
+            for (int nread = src.read(buf, 0, buf.length); 
+                 nread > 0; 
+                 nread = src.read(buf, 0, buf.length)) {
+                
+                dest.write(buf, 0, nread);
+                srcLength += nread;
+            }
+            if (info.isCompressed) {
+                //This is the number of bytes to clear from the old lane.
+                srcLength = ((CompressedBlockReadWrite) src).compressedLength();
+            }
+            dest.close();
+            compressedLength = dest.compressedLength();
+            dest = null;
+        } finally {
+            FileUtil.close(src);
+            FileUtil.close(dest);
+        }
+        
+        RandomAccessFsIdInfo compressedInfo = 
+            new RandomAccessFsIdInfo(dataAllocation.fileNumber, dataAllocation.laneNo,
+                info.metaFileId, info.metaLane, info.isNew(), true);
+        fsIdToFileName.insert(id, compressedInfo);
+        replacedDataLanes.add(new ReplacedLane(
+            new Allocation(info.dataFileId, info.dataLane), srcSpace, srcLength));
+        btreeChange();
+        return compressedLength;
+    }
+    
+    /**
+     * Zeros the data lanes replaced by compressData() so they read as if they
+     * had never been written and returns them to the lane allocator.
+     */
+    @Override
+    protected void modificationsCommitted() throws IOException, InterruptedException {
+        List<ReplacedLane> replaced = new ArrayList<ReplacedLane>();
+        replacedDataLanes.drainTo(replaced);
+        if (replaced.isEmpty()) {
+            return;
+        }
+        
+        byte[] zeros = new byte[CompressedBlockReadWrite.BLOCK_SIZE];
+        for (ReplacedLane lane : replaced) {
+            NonContiguousReadWrite rw = null;
+            try {
+                rw = new NonContiguousReadWrite(
+                    new RandomAccessFile(lane.space.file(), "rw"), lane.space);
+                for (long nleft = lane.length; nleft > 0; nleft -= zeros.length) {
+                    rw.write(zeros, 0, (int) Math.min(nleft, zeros.length));
+                }
+                rw.close();
+                rw = null;
+            } finally {
+                FileUtil.close(rw);
+            }
+            dataLaneAllocator.freeLane(lane.allocation);
+        }
+    }
 
     @Override
     protected KeyValueIO<FsId, FsIdInfo> getKeyValueIo() {
         return new RandomAccessKeyValueIo();
     }
 
+    private static final class ReplacedLane {
+        final Allocation allocation;
+        final LaneAddressSpace space;
+        final long length;
+        
+        ReplacedLane(Allocation allocation, LaneAddressSpace space, long length) {
+            this.allocation = allocation;
+            this.space = space;
+            this.length = length;
+        }
+    }
+
     public static final class RandomAccessKeyValueIo extends IndexEncoder {
+        
+        /** This used to be written as a boolean so it must be bit zero. */
+        private static final int NEW_FLAG = 0x01;
+        private static final int COMPRESSED_FLAG = 0x02;
 
         @Override
         public FsIdInfo readValue(DataInput din) throws IOException {
@@ -167,8 +319,9 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
             byte dataLane = din.readByte();
             int metaId = din.readInt();
             byte metaLane = din.readByte();
-            boolean isNew = din.readBoolean();
-            return new RandomAccessFsIdInfo(dataId, dataLane, metaId, metaLane, isNew);
+            byte flags = din.readByte();
+            return new RandomAccessFsIdInfo(dataId, dataLane, metaId, metaLane, 
+                (flags & NEW_FLAG) != 0, (flags & COMPRESSED_FLAG) != 0);
         }
 
         @Override
@@ -185,7 +338,14 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
             dout.writeByte(info.dataLane);
             dout.writeInt(info.metaFileId);
             dout.writeByte(info.metaLane);
-            dout.writeBoolean(info.isNew());
+            int flags = 0;
+            if (info.isNew()) {
+                flags |= NEW_FLAG;
+            }
+            if (info.isCompressed) {
+                flags |= COMPRESSED_FLAG;
+            }
+            dout.writeByte(flags);
         }
         
     }
@@ -232,7 +392,8 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
             return new FsIdLocation(idOrder.id(), idOrder.originalOrder());
         }
         FsIdLocation loc = 
-            new FsIdLocation(info.dataFileId, info.dataLane, 
+            new FsIdLocation(dirHash.idToFile(Integer.toString(info.dataFileId)),
+                info.dataFileId, info.dataLane, 
                 idOrder.id(), idOrder.originalOrder());
         return loc;
     }
@@ -242,13 +403,17 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
         public final byte dataLane;
         public final int metaFileId;
         public final byte metaLane;
+        /** When true the data lane contains compressed blocks. */
+        public final boolean isCompressed;
         
-        private RandomAccessFsIdInfo(int dataFileId, byte dataLane, int metaFileId, byte metaLane, boolean newState) {
+        private RandomAccessFsIdInfo(int dataFileId, byte dataLane, 
+            int metaFileId, byte metaLane, boolean newState, boolean isCompressed) {
             super(newState);
             this.dataFileId = dataFileId;
             this.dataLane = dataLane;
             this.metaFileId = metaFileId;
             this.metaLane = metaLane;
+            this.isCompressed = isCompressed;
         }
         
         @Override
@@ -258,7 +423,8 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
 
         @Override
         public FsIdInfo setNew(boolean newState) {
-            return new RandomAccessFsIdInfo(dataFileId, dataLane, metaFileId, metaLane, newState);
+            return new RandomAccessFsIdInfo(dataFileId, dataLane, metaFileId, 
+                metaLane, newState, isCompressed);
         }
 
         @Override
@@ -269,6 +435,7 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
             result = prime * result + dataLane;
             result = prime * result + metaFileId;
             result = prime * result + metaLane;
+            result = prime * result + (isCompressed ? 1231 : 1237);
             return result;
         }
 
@@ -289,6 +456,8 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
                 return false;
             if (metaLane != other.metaLane)
                 return false;
+            if (isCompressed != other.isCompressed)
+                return false;
             return true;
         }
 
@@ -303,6 +472,8 @@ public class RandomAccessAllocator  extends AbstractStorageAllocator {
                 .append(metaFileId)
                 .append(", metaLane=")
                 .append(metaLane)
+                .append(", isCompressed=")
+                .append(isCompressed)
                 .append(", isNew()=")
                 .append(isNew())
                 .append("]");
@@ -53,6 +53,7 @@ import java.util.*;
 public class RandomAccessAllocatorFactory implements StorageAllocatorFactory<RandomAccessAllocator> {
 
     private final DirectoryHashFactory dirHashFactory;
+    private final TimeSeriesEncodingPolicy encodingPolicy;
     /**
      * Maps the path part of the FsId to a TimeSeriesDirectoryHash.
      */
@@ -61,7 +62,17 @@ public class RandomAccessAllocatorFactory implements StorageAllocatorFactory<Ran
     
 
     public RandomAccessAllocatorFactory(DirectoryHashFactory dirHashFactory) {
+        this(dirHashFactory, TimeSeriesEncodingPolicy.UNCOMPRESSED);
+    }
+    
+    /**
+     * @param encodingPolicy Decides if newly allocated time series are 
+     * compressed.
+     */
+    public RandomAccessAllocatorFactory(DirectoryHashFactory dirHashFactory,
+        TimeSeriesEncodingPolicy encodingPolicy) {
         this.dirHashFactory = dirHashFactory;
+        this.encodingPolicy = encodingPolicy;
     }
     
 
@@ -91,7 +102,7 @@ public class RandomAccessAllocatorFactory implements StorageAllocatorFactory<Ran
             return null;
         }
         
-        allocator = new RandomAccessAllocator(dirHash);
+        allocator = new RandomAccessAllocator(dirHash, encodingPolicy);
         cache.put(pathPart, allocator);
         return allocator;
     }
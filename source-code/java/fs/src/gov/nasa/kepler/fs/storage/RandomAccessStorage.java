@@ -39,6 +39,7 @@ package gov.nasa.kepler.fs.storage;
 
 import gov.nasa.kepler.fs.api.FsId;
 import gov.nasa.kepler.fs.server.nc.NonContiguousReadWrite;
+import gov.nasa.kepler.fs.server.raf.RandomAccessIo;
 
 import java.io.IOException;
 
@@ -56,7 +57,12 @@ public interface RandomAccessStorage {
      */
     NonContiguousReadWrite metaDataRw() throws IOException;
     
-    NonContiguousReadWrite dataRw() throws IOException;
+    /**
+     * Where to write data.  This may be a compressed representation of the
+     * data, but it always presents the uncompressed address space.
+     * @return
+     */
+    RandomAccessIo dataRw() throws IOException;
     
     /**
      * @return true if this space was just allocated.
@@ -59,12 +59,14 @@ import org.apache.commons.logging.LogFactory;
 import com.google.common.collect.ImmutableSet;
 
 /**
- * Reads a configuration file in order to determine the location of FsId paths.
+ * Reads a configuration file in order to determine the location of FsId paths
+ * and which FsId paths have their time series data compressed.
  * 
  * @author Sean McCauliff
  *
  */
-public final class UserConfigurableFsIdFileSystemLocator implements FsIdFileSystemLocator {
+public final class UserConfigurableFsIdFileSystemLocator 
+    implements FsIdFileSystemLocator, TimeSeriesEncodingPolicy {
 
     static final String FS_ROOTS_XSD = "/fsidpathmap.xsd";
     
@@ -77,6 +79,7 @@ public final class UserConfigurableFsIdFileSystemLocator implements FsIdFileSyst
     
     private final Set<File> roots;
     
+    private final Set<String> compressedPaths;
     
     
     public UserConfigurableFsIdFileSystemLocator(File configFile, String fsDataDir) throws Exception {
@@ -110,6 +113,7 @@ public final class UserConfigurableFsIdFileSystemLocator implements FsIdFileSyst
         checkDirectory(defaultRoot);
         log.info("Default data root is located at \"" + defaultRoot + "\".");
         roots = load(dataPlacement, fsDataDir, fsIdPathToRoot, defaultRoot);
+        compressedPaths = loadCompressedPaths(dataPlacement);
         //load complete.
     }
     
@@ -144,6 +148,40 @@ public final class UserConfigurableFsIdFileSystemLocator implements FsIdFileSyst
         return roots;
     }
     
+    /**
+     * @return true if the FsId's path or any of its parent paths have been
+     * configured to be compressed.
+     */
+    @Override
+    public boolean compressData(FsId id) {
+        if (compressedPaths.isEmpty()) {
+            return false;
+        }
+        
+        String subPath = id.path();
+        while (true) {
+            if (compressedPaths.contains(subPath)) {
+                return true;
+            }
+            //FsId.path() puts a "/" at the end of the path
+            int lastSlashIndex = subPath.lastIndexOf("/", subPath.length() - 2);
+            if (lastSlashIndex <= 0) {
+                return false;
+            }
+            subPath = subPath.substring(0, lastSlashIndex + 1);
+        }
+    }
+    
+    private static Set<String> loadCompressedPaths(FsDataPlacementConfiguration dataPlacement) {
+        Set<String> paths = new HashSet<String>();
+        for (String fsIdPath : dataPlacement.getCompressedFsIdPaths()) {
+            FsId testId = new FsId(fsIdPath, "_");
+            paths.add(testId.path());
+            log.info("Time series data under \"" + testId.path() + "\" will be compressed.");
+        }
+        return ImmutableSet.copyOf(paths);
+    }
+    
     /**
      * This is static so we can call it from the constructor and not need to
      * worry about which variables are uninitialized.
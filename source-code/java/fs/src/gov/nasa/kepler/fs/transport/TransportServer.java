@@ -91,4 +91,19 @@ public interface TransportServer {
      * @throws IOException
      */
     public void doneWithMethod() throws IOException;
+    
+    /**
+     * Reads as much of the next method invocation from the client as is
+     * available without blocking.  The underlying channel must be in
+     * non-blocking mode when this is called.  Once this returns zero the
+     * channel should be put back into blocking mode before the method is
+     * serviced.
+     * 
+     * @return zero when the start of the next method has been received and
+     * it can be serviced without waiting on the client, else the
+     * SelectionKey operations this needs to wait on before it can make
+     * further progress.
+     * @throws IOException
+     */
+    public int readMethodNonBlocking() throws IOException;
 }
\ No newline at end of file
@@ -171,5 +171,14 @@ class TransportServerV1 extends TransportV1 implements TransportServer {
     public void doneWithMethod() throws IOException {
         
     }
+    
+    /**
+     * Version one of the protocol does not support reading ahead so this
+     * always returns zero.
+     */
+    @Override
+    public int readMethodNonBlocking() throws IOException {
+        return 0;
+    }
 
 }
@@ -46,6 +46,8 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 import org.apache.commons.configuration.Configuration;
@@ -67,9 +69,18 @@ class TransportServerV2 extends TransportV2 implements TransportServer {
     private ByteOrder clientByteOrder;
     private final boolean admit;
     
+    /** True when the admit and protocol version exchange have completed. */
+    private boolean connectionInitialized = false;
+    /** Connection setup state.  These are null when not in use. */
+    private ByteBuffer admitBuffer;
+    private ByteBuffer clientVersionBuffer;
+    private ByteBuffer serverVersionBuffer;
+    /** True when part of a message has been read by readMethodNonBlocking().*/
+    private boolean readingAhead = false;
+    
     /**
      * 
-     * @param serverChannel
+     * @param serverChannel This may be in blocking or non-blocking mode.
      * @param admit When admit is false this will tell signal the client that
      * the server is busy.
      * @throws IOException
@@ -79,7 +90,6 @@ class TransportServerV2 extends TransportV2 implements TransportServer {
             throw new IllegalArgumentException("Socket not connected.");
         }
         
-        serverChannel.configureBlocking(true);
         this.serverChannel = serverChannel;
         this.admit = admit;
         this.methodOrder++;
@@ -94,12 +104,13 @@ class TransportServerV2 extends TransportV2 implements TransportServer {
         if (!serverChannel.isConnected()) {
             throw new EOFException("Socket closed.");
         }
+        if (!serverChannel.isBlocking()) {
+            serverChannel.configureBlocking(true);
+        }
 
-        if (clientByteOrder == null) {
-            doAdmit();
-            doProtocolVersionCheck();
-            receiveMessageBuffer = allocateBuffer(receiveMessageBuffer);
-            sendMessageBuffer = allocateBuffer(sendMessageBuffer);
+        while (!connectionInitialized) {
+            //In blocking mode each call makes progress.
+            setupConnection();
         }
 
         if (inputStream == null) {
@@ -110,30 +121,140 @@ class TransportServerV2 extends TransportV2 implements TransportServer {
             outputStream = new TOutV2(this);
         }
     }
-
-    private void doAdmit() throws IOException {
-        ByteBuffer admitBuffer = ByteBuffer.allocate(1);
-        admitBuffer.put(admit ? ADMIT_YES :ADMIT_NO);
-        admitBuffer.position(0);
-        serverChannel.write(admitBuffer);
-        if (!admit) {
-            serverChannel.close();
+    
+    /**
+     * Reads the header and payload of the first message of the next method
+     * into the receive buffer.  The message is then parsed by 
+     * receiveMessage() as if it had just been read from the socket.
+     */
+    @Override
+    public int readMethodNonBlocking() throws IOException {
+        if (serverChannel.isBlocking()) {
+            throw new IllegalStateException("Channel must be non-blocking.");
+        }
+        
+        if (!connectionInitialized) {
+            int interestOps = setupConnection();
+            if (interestOps != 0) {
+                return interestOps;
+            }
+        }
+        
+        if (protocolVersionInUse != ProtocolVersion.PROTOCOL_V2) {
+            return 0;
+        }
+        
+        final int headerSize = protocolVersionInUse.dataMessageHeaderSize();
+        if (!readingAhead) {
+            if (receiveMessageBuffer.hasRemaining()) {
+                //Unread data from the last method.
+                return 0;
+            }
+            receiveMessageBuffer.position(0);
+            receiveMessageBuffer.limit(1);
+            readingAhead = true;
+        }
+        
+        while (true) {
+            int nread = serverChannel.read(receiveMessageBuffer);
+            readAheadLimit = receiveMessageBuffer.position();
+            if (nread == -1) {
+                throw new EOFException("Client disconnected.");
+            }
+            if (receiveMessageBuffer.hasRemaining()) {
+                return SelectionKey.OP_READ;
+            }
+            
+            int messageEnd = receiveMessageBuffer.limit();
+            if (messageEnd == 1) {
+                if (receiveMessageBuffer.get(0) != TransportConstants.NO_EXCEPTION) {
+                    //Let receiveMessage() sort this out.
+                    break;
+                }
+                receiveMessageBuffer.limit(headerSize);
+            } else if (messageEnd == headerSize) {
+                int payloadBytes = receiveMessageBuffer.getInt(1);
+                if (payloadBytes <= 0 || 
+                    payloadBytes > protocolVersionInUse.maxPayloadSize()) {
+                    break;
+                }
+                receiveMessageBuffer.limit(headerSize + payloadBytes);
+            } else {
+                break;
+            }
         }
+        readingAhead = false;
+        return 0;
     }
-    
-    private void doProtocolVersionCheck() throws IOException {
-        Configuration config = ConfigurationServiceFactory.getInstance();
-        if (!config.getBoolean(FS_PROTOCOL_VERSION_CHECK_PROP, 
-                FS_PROTOCOL_VERSION_CHECK_DEFAULT)) {
-            log.info("Skipping protocol version check.");
-            protocolVersionInUse = CURRENT_PROTOCOL_VERSION;
-            return;
+
+    /**
+     * Sends the admit byte and exchanges protocol versions with the client.
+     * This works in blocking or non-blocking mode.
+     * 
+     * @return zero when the connection setup is complete else the
+     * SelectionKey operations this needs to wait on in order to make
+     * further progress.
+     * @throws IOException
+     */
+    private int setupConnection() throws IOException {
+        if (admitBuffer == null) {
+            admitBuffer = ByteBuffer.allocate(1);
+            admitBuffer.put(admit ? ADMIT_YES :ADMIT_NO);
+            admitBuffer.position(0);
+        }
+        if (admitBuffer.hasRemaining()) {
+            serverChannel.write(admitBuffer);
+            if (admitBuffer.hasRemaining()) {
+                return SelectionKey.OP_WRITE;
+            }
+            if (!admit) {
+                serverChannel.close();
+                throw new ClosedChannelException();
+            }
+        }
+        
+        if (clientVersionBuffer == null) {
+            Configuration config = ConfigurationServiceFactory.getInstance();
+            if (!config.getBoolean(FS_PROTOCOL_VERSION_CHECK_PROP, 
+                    FS_PROTOCOL_VERSION_CHECK_DEFAULT)) {
+                log.info("Skipping protocol version check.");
+                protocolVersionInUse = CURRENT_PROTOCOL_VERSION;
+                completeConnectionSetup();
+                return 0;
+            }
+            clientVersionBuffer = ByteBuffer.allocate(versionBuffer().capacity());
         }
         
-        ByteBuffer versionBuf = versionBuffer();
-        if (serverChannel.read(versionBuf) == -1) {
-            throw new IOException("Client disconnected.");
+        if (clientVersionBuffer.hasRemaining()) {
+            if (serverChannel.read(clientVersionBuffer) == -1) {
+                throw new IOException("Client disconnected.");
+            }
+            if (clientVersionBuffer.hasRemaining()) {
+                return SelectionKey.OP_READ;
+            }
+            doProtocolVersionCheck(clientVersionBuffer);
+            serverVersionBuffer = versionBuffer();
         }
+        
+        serverChannel.write(serverVersionBuffer);
+        if (serverVersionBuffer.hasRemaining()) {
+            return SelectionKey.OP_WRITE;
+        }
+        
+        completeConnectionSetup();
+        return 0;
+    }
+    
+    private void completeConnectionSetup() {
+        receiveMessageBuffer = allocateBuffer(receiveMessageBuffer);
+        sendMessageBuffer = allocateBuffer(sendMessageBuffer);
+        admitBuffer = null;
+        clientVersionBuffer = null;
+        serverVersionBuffer = null;
+        connectionInitialized = true;
+    }
+    
+    private void doProtocolVersionCheck(ByteBuffer versionBuf) throws IOException {
         versionBuf.position(0);
         byte clientByteOrderByte = versionBuf.get();
         clientByteOrder = clientByteOrderByte == BIG_ENDIAN_BYTE ?
@@ -154,8 +275,6 @@ class TransportServerV2 extends TransportV2 implements TransportServer {
                 CURRENT_PROTOCOL_VERSION + ")");
         }
         
-        versionBuf = versionBuffer();
-        serverChannel.write(versionBuf);
         protocolVersionInUse = 
             ProtocolVersion.ordinalToEnum(Math.min(clientProtocolVersion.ordinal(), CURRENT_PROTOCOL_VERSION.ordinal()));
     }
@@ -174,6 +293,9 @@ class TransportServerV2 extends TransportV2 implements TransportServer {
         serverChannel.socket().close();
         serverChannel.close();
         clientByteOrder = null;
+        connectionInitialized = false;
+        readingAhead = false;
+        readAheadLimit = 0;
     }
     
     /**
@@ -122,6 +122,13 @@ abstract class TransportV2 {
     /** This is the negotiated protocol version in use for this session. */
     protected ProtocolVersion protocolVersionInUse = CURRENT_PROTOCOL_VERSION;
     private final ByteBufferAsChannel receieveBufferChannel = new ByteBufferAsChannel();
+    /**
+     * The number of bytes at the start of receiveMessageBuffer which have
+     * already been read from the socket for the next message.  This is
+     * non-zero when some or all of a message was read without blocking before
+     * a thread started to process it.
+     */
+    protected int readAheadLimit = 0;
     
     
     /**
@@ -388,6 +395,11 @@ abstract class TransportV2 {
                 }
             }
             
+            if (!getpayload && readAheadLimit > 0) {
+                throw new IllegalStateException("Payload was read ahead, " +
+                    "but the payload is not being received as a message.");
+            }
+            
             if (getpayload) {
                 receiveMessageBuffer.limit(payloadBytes + protocolVersionInUse.dataMessageHeaderSize());
                 receive(socketChannel);
@@ -401,6 +413,16 @@ abstract class TransportV2 {
     }
     
     private void receive(SocketChannel socketChannel) throws IOException {
+        if (readAheadLimit > 0) {
+            //Skip over the bytes that have already been read.
+            int readAheadEnd = Math.min(readAheadLimit, receiveMessageBuffer.limit());
+            if (receiveMessageBuffer.position() < readAheadEnd) {
+                receiveMessageBuffer.position(readAheadEnd);
+            }
+            if (receiveMessageBuffer.limit() >= readAheadLimit) {
+                readAheadLimit = 0;
+            }
+        }
         while (receiveMessageBuffer.hasRemaining()) {
             if (socketChannel.read(receiveMessageBuffer) == -1) {
                 try {
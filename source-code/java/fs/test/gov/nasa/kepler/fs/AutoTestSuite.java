@@ -66,10 +66,12 @@ import gov.nasa.kepler.fs.perf.StackTraceDumperTest;
 import gov.nasa.kepler.fs.query.QueryEvalulatorTest;
 import gov.nasa.kepler.fs.server.LongEncoderTest;
 import gov.nasa.kepler.fs.server.ThrottleTest;
+import gov.nasa.kepler.fs.server.AdaptiveThrottleTest;
 import gov.nasa.kepler.fs.server.TimeSeriesBackendPackageTest;
 import gov.nasa.kepler.fs.server.TimeSeriesIntervalIteratorTest;
 import gov.nasa.kepler.fs.server.TimeSeriesMergeIntervalIteratorTest;
 import gov.nasa.kepler.fs.server.TypedRangeMergeTest;
+import gov.nasa.kepler.fs.server.index.OffHeapNodeCacheTest;
 import gov.nasa.kepler.fs.server.index.PersistentBitSetTest;
 import gov.nasa.kepler.fs.server.index.PersistentSequenceTest;
 import gov.nasa.kepler.fs.server.index.blinktree.BlinkNodeTest;
@@ -81,9 +83,11 @@ import gov.nasa.kepler.fs.server.index.btree.DiskNodeIOTest;
 import gov.nasa.kepler.fs.server.index.btree.NodeTest;
 import gov.nasa.kepler.fs.server.jmx.TransactionMonitoringTest;
 import gov.nasa.kepler.fs.server.journal.JournalTest;
+import gov.nasa.kepler.fs.server.nc.CompressedBlockReadWriteTest;
 import gov.nasa.kepler.fs.server.nc.MetaSpaceTest;
 import gov.nasa.kepler.fs.server.nc.NonContiguousReadWriteTest;
 import gov.nasa.kepler.fs.server.scheduler.SchedulerTest;
+import gov.nasa.kepler.fs.server.scheduler.ElevatorSchedulerTest;
 import gov.nasa.kepler.fs.server.xfiles.DirectoryHashFactoryTest;
 import gov.nasa.kepler.fs.server.xfiles.FileTransactionManagerTest;
 import gov.nasa.kepler.fs.server.xfiles.OfflineExtractorTest;
@@ -99,6 +103,7 @@ import gov.nasa.kepler.fs.server.xfiles.TransactionalStreamFileTest;
 import gov.nasa.kepler.fs.server.xfiles.XFilesCheckerTest;
 import gov.nasa.kepler.fs.storage.ContainerFileTest;
 import gov.nasa.kepler.fs.storage.DirectoryHashTest;
+import gov.nasa.kepler.fs.storage.FloatingPointArrayCompressorTest;
 import gov.nasa.kepler.fs.storage.FsIdPathLocatorTest;
 import gov.nasa.kepler.fs.storage.RandomAccessAllocatorTest;
 import gov.nasa.kepler.fs.transport.TransportTest;
@@ -127,6 +132,7 @@ public class AutoTestSuite {
         suite.addTest(new JUnit4TestAdapter(DumpMyFieldsTest.class));
         suite.addTest(new JUnit4TestAdapter(StackTraceDumperTest.class));
         suite.addTest(new JUnit4TestAdapter(ThrottleTest.class));
+        suite.addTest(new JUnit4TestAdapter(AdaptiveThrottleTest.class));
         suite.addTest(new JUnit4TestAdapter(OperationTest.class));
         suite.addTest(new JUnit4TestAdapter(DataInputOutputStreamTest.class));
         suite.addTest(new JUnit4TestAdapter(TimeSeriesMergeIntervalIteratorTest.class));
@@ -147,6 +153,7 @@ public class AutoTestSuite {
         suite.addTest(new JUnit4TestAdapter(
             TransactionalRandomAccessFileTest.class));
         suite.addTest(new JUnit4TestAdapter(DirectoryHashTest.class));
+        suite.addTest(new JUnit4TestAdapter(FloatingPointArrayCompressorTest.class));
         suite.addTest(new JUnit4TestAdapter(RamTimeSeriesTest.class));
         suite.addTest(new JUnit4TestAdapter(LocalTimeSeriesTest.class));
         suite.addTest(new JUnit4TestAdapter(TypedRangeMergeTest.class));
@@ -155,6 +162,7 @@ public class AutoTestSuite {
         suite.addTest(new JUnit4TestAdapter(MetaSpaceTest.class));
 
         suite.addTest(new JUnit4TestAdapter(NonContiguousReadWriteTest.class));
+        suite.addTest(new JUnit4TestAdapter(CompressedBlockReadWriteTest.class));
         suite.addTest(new JUnit4TestAdapter(TimeSeriesBackendPackageTest.class));
         suite.addTest(new JUnit4TestAdapter(BlobCorrectnessTest.class));
 
@@ -180,6 +188,7 @@ public class AutoTestSuite {
         suite.addTest(new JUnit4TestAdapter(RandomAccessAllocatorTest.class));
         suite.addTest(new JUnit4TestAdapter(ContainerFileTest.class));
         suite.addTest(new JUnit4TestAdapter(PersistentBitSetTest.class));
+        suite.addTest(new JUnit4TestAdapter(OffHeapNodeCacheTest.class));
 
         suite.addTest(new JUnit4TestAdapter(PersistableXidThreadLocalTest.class));
         suite.addTest(new JUnit4TestAdapter(XFilesCheckerTest.class));
@@ -206,6 +215,7 @@ public class AutoTestSuite {
         suite.addTest(new JUnit4TestAdapter(QueryEvalulatorTest.class));
    
         suite.addTest(new JUnit4TestAdapter(SchedulerTest.class));
+        suite.addTest(new JUnit4TestAdapter(ElevatorSchedulerTest.class));
 
         suite.addTest(new JUnit4TestAdapter(NodeLockFactoryTest.class));
         
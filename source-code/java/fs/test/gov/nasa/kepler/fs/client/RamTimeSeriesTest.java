@@ -289,6 +289,12 @@ public class RamTimeSeriesTest extends TimeSeriesCorrectnessTest {
         //This does nothing.
     }
     
+    @Ignore
+    @Override
+    public void readStreamingMultiBatchTest() throws Exception {
+        //This does nothing.
+    }
+    
     @Ignore
     @Override
     public void explicitDelete() throws Exception {
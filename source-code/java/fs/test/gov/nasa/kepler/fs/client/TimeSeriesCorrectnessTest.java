@@ -344,6 +344,65 @@ public class TimeSeriesCorrectnessTest {
         }
     }
     
+    @Test
+    public void readStreamingMultiBatchTest() throws Exception {
+        final int nSets = 4;
+        final int idsPerSet = 16;
+        final int nData = 1024;
+        final Map<FsId, TimeSeries> writeSeries = new HashMap<FsId, TimeSeries>();
+        
+        final List<FsIdSet> fsIdSetList = new ArrayList<FsIdSet>();
+        for (int i=0; i < nSets; i++) {
+            final int startCadence = i;
+            final int endCadence = i + nData -1;
+            Set<FsId> ids = new HashSet<FsId>();
+            for (int j=0; j < idsPerSet; j++) {
+                int[] data = new int[nData];
+                final int fillValue = i * idsPerSet + j + 1;
+                Arrays.fill(data, fillValue);
+                FsId id = new FsId("/stream/" + i + "/series/" + j);
+                IntTimeSeries its = 
+                    new IntTimeSeries(id, data, startCadence, 
+                        endCadence, new boolean[data.length], fillValue);
+                writeSeries.put(id, its);
+                ids.add(id);
+            }
+            fsIdSetList.add(new FsIdSet(startCadence, endCadence, ids));
+        }
+        
+        fsClient.beginLocalFsTransaction();
+        fsClient.writeTimeSeries(writeSeries.values().toArray(new TimeSeries[0]));
+        fsClient.commitLocalFsTransaction();
+        
+        final List<Integer> batchOrder = new ArrayList<Integer>();
+        final int[] seriesPerBatch = new int[nSets];
+        fsClient.readTimeSeriesBatch(fsIdSetList, true, new TimeSeriesBatchHandler() {
+            
+            @Override
+            public void startBatch(int batchIndex, int startCadence,
+                int endCadence, int nSeries) {
+                FsIdSet idSet = fsIdSetList.get(batchIndex);
+                assertEquals(idSet.startCadence(), startCadence);
+                assertEquals(idSet.endCadence(), endCadence);
+                assertEquals(idSet.ids().size(), nSeries);
+                batchOrder.add(batchIndex);
+            }
+            
+            @Override
+            public void timeSeries(int batchIndex, TimeSeries timeSeries) {
+                assertEquals(batchOrder.get(batchOrder.size() - 1).intValue(), batchIndex);
+                assertTrue(fsIdSetList.get(batchIndex).ids().contains(timeSeries.id()));
+                assertEquals(writeSeries.get(timeSeries.id()), timeSeries);
+                seriesPerBatch[batchIndex]++;
+            }
+        });
+        
+        assertEquals(Arrays.asList(0, 1, 2, 3), batchOrder);
+        for (int i=0; i < nSets; i++) {
+            assertEquals(idsPerSet, seriesPerBatch[i]);
+        }
+    }
+    
     @Test
     public void testReadTimeSeriesAsInt()  {
         TimeSeries ts = 
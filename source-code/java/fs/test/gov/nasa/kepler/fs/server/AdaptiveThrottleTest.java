@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+
+package gov.nasa.kepler.fs.server;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class AdaptiveThrottleTest {
+
+    @Test
+    public void greedyThrottleTest() throws Exception {
+        ThrottleInterface t = new AdaptiveThrottle(1, 1, 1, 100);
+        AcquiredPermits permits = t.greedyAcquirePermits();
+        assertEquals(1, permits.nPermits());
+        assertEquals(0, t.currentState());
+        permits.releasePermits();
+        assertEquals(1, t.currentState());
+        
+        t = new AdaptiveThrottle(13, 1, 2, 100);
+        permits = t.greedyAcquirePermits(ThrottleClass.COMMIT);
+        assertEquals(6, permits.nPermits());
+        assertEquals(7, t.currentState());
+        permits.releasePermits();
+        permits.releasePermits();
+        assertEquals(13, t.currentState());
+    }
+    
+    /**
+     * When permits are released an interactive read should get them before
+     * a bulk write that has been waiting longer.
+     */
+    @Test
+    public void interactiveBeforeBulkTest() throws Exception {
+        final AdaptiveThrottle throttle = new AdaptiveThrottle(4, 1, 2, 100);
+        throttle.acquireWritePermit();
+        throttle.acquireWritePermit();
+        assertEquals(0, throttle.currentState());
+        
+        final AtomicBoolean writeDone = new AtomicBoolean(false);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    throttle.acquireWritePermit();
+                    writeDone.set(true);
+                } catch (InterruptedException e) {
+                    //test will fail
+                }
+            }
+        });
+        writer.start();
+        waitForQueue(throttle, ThrottleClass.BULK);
+        
+        final AtomicBoolean readDone = new AtomicBoolean(false);
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    throttle.acquireReadPermit();
+                    readDone.set(true);
+                } catch (InterruptedException e) {
+                    //test will fail
+                }
+            }
+        });
+        reader.start();
+        waitForQueue(throttle, ThrottleClass.INTERACTIVE);
+        
+        throttle.releaseWritePermit();
+        reader.join(1000);
+        assertTrue(readDone.get());
+        assertFalse(writeDone.get());
+        assertEquals(1, throttle.permitsInUse(ThrottleClass.INTERACTIVE));
+        
+        throttle.releaseReadPermit();
+        writer.join(1000);
+        assertTrue(writeDone.get());
+        assertEquals(4, throttle.permitsInUse(ThrottleClass.BULK));
+        assertEquals(0, throttle.waitQueueLength());
+    }
+    
+    @Test
+    public void adaptBulkLimitTest() throws Exception {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(16, 1, 2, 100);
+        assertEquals(16, throttle.bulkPermitLimit());
+        
+        long slow = TimeUnit.MILLISECONDS.toNanos(500);
+        completeRequests(throttle, ThrottleClass.INTERACTIVE, 
+            AdaptiveThrottle.ADAPT_INTERVAL, slow, 0);
+        assertEquals(12, throttle.bulkPermitLimit());
+        assertEquals(500.0, throttle.interactiveTailLatencyMillis(), 0.001);
+        
+        //Bulk requests do not change the limit.
+        completeRequests(throttle, ThrottleClass.BULK, 
+            AdaptiveThrottle.ADAPT_INTERVAL, slow, 0);
+        assertEquals(12, throttle.bulkPermitLimit());
+        
+        //Once the slow requests have left the window the limit grows again.
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+        completeRequests(throttle, ThrottleClass.INTERACTIVE, 
+            AdaptiveThrottle.LATENCY_WINDOW, fast, 0);
+        assertEquals(1.0, throttle.interactiveTailLatencyMillis(), 0.001);
+        int limitAfterWindow = throttle.bulkPermitLimit();
+        assertTrue(limitAfterWindow < 12);
+        completeRequests(throttle, ThrottleClass.INTERACTIVE, 
+            AdaptiveThrottle.ADAPT_INTERVAL, fast, 0);
+        assertEquals(limitAfterWindow + 1, throttle.bulkPermitLimit());
+    }
+    
+    /**
+     * The bulk limit is not increased twice in a row when the first increase
+     * did not increase bulk throughput.
+     */
+    @Test
+    public void bulkThroughputLimitsIncreaseTest() throws Exception {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(16, 1, 2, 100);
+        long slow = TimeUnit.MILLISECONDS.toNanos(500);
+        long fast = TimeUnit.MILLISECONDS.toNanos(1);
+        completeRequests(throttle, ThrottleClass.INTERACTIVE, 
+            AdaptiveThrottle.LATENCY_WINDOW, slow, 0);
+        //Leave one slow interval in the window.
+        completeRequests(throttle, ThrottleClass.INTERACTIVE, 
+            AdaptiveThrottle.LATENCY_WINDOW - AdaptiveThrottle.ADAPT_INTERVAL, fast, 0);
+        int limit = throttle.bulkPermitLimit();
+        assertTrue(limit < 16);
+        
+        //After a cut the limit is increased.
+        throttle.requestCompleted(ThrottleClass.BULK, fast, 1024L * 1024 * 1024);
+        completeRequests(throttle, ThrottleClass.INTERACTIVE, 
+            AdaptiveThrottle.ADAPT_INTERVAL, fast, 0);
+        assertEquals(limit + 1, throttle.bulkPermitLimit());
+        assertTrue(throttle.bulkBytesPerSecond() > 0);
+        
+        //Bulk throughput went down so the limit is held.
+        throttle.requestCompleted(ThrottleClass.BULK, fast, 1);
+        completeRequests(throttle, ThrottleClass.INTERACTIVE, 
+            AdaptiveThrottle.ADAPT_INTERVAL, fast, 0);
+        assertEquals(limit + 1, throttle.bulkPermitLimit());
+        
+        //Then the limit is probed again.
+        throttle.requestCompleted(ThrottleClass.BULK, fast, 1);
+        completeRequests(throttle, ThrottleClass.INTERACTIVE, 
+            AdaptiveThrottle.ADAPT_INTERVAL, fast, 0);
+        assertEquals(limit + 2, throttle.bulkPermitLimit());
+    }
+    
+    @Test
+    public void interactiveWriteTest() throws Exception {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(4, 1, 2, 100);
+        throttle.acquireWritePermit(ThrottleClass.INTERACTIVE);
+        assertEquals(2, throttle.permitsInUse(ThrottleClass.INTERACTIVE));
+        assertEquals(0, throttle.permitsInUse(ThrottleClass.BULK));
+        throttle.releaseWritePermit(ThrottleClass.INTERACTIVE);
+        assertEquals(0, throttle.permitsInUse(ThrottleClass.INTERACTIVE));
+        assertEquals(4, throttle.currentState());
+    }
+    
+    @Test
+    public void bulkReadTest() throws Exception {
+        AdaptiveThrottle throttle = new AdaptiveThrottle(4, 1, 2, 100);
+        throttle.acquireReadPermit(ThrottleClass.BULK);
+        assertEquals(1, throttle.permitsInUse(ThrottleClass.BULK));
+        assertEquals(0, throttle.permitsInUse(ThrottleClass.INTERACTIVE));
+        throttle.releaseReadPermit(ThrottleClass.BULK);
+        assertEquals(0, throttle.permitsInUse(ThrottleClass.BULK));
+        assertEquals(4, throttle.currentState());
+    }
+    
+    private static void completeRequests(AdaptiveThrottle throttle, 
+        ThrottleClass throttleClass, int nRequests, long latencyNanos, long nBytes) {
+        
+        for (int i=0; i < nRequests; i++) {
+            throttle.requestCompleted(throttleClass, latencyNanos, nBytes);
+        }
+    }
+    
+    private static void waitForQueue(ThrottleInterface throttle, 
+        ThrottleClass throttleClass) throws InterruptedException {
+        
+        for (int i=0; i < 100 && throttle.waitQueueLength(throttleClass) == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, throttle.waitQueueLength(throttleClass));
+    }
+}
@@ -61,7 +61,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 /**
- * Overload the server with too many client threads.
+ * Overload the server with too many client connections.
  * @author Sean McCauliff
  *
  */
@@ -88,7 +88,7 @@ public class OverloadTest {
         final FileStoreClient fsClient = FileStoreClientFactory.getInstance();
         fsClient.ping();
         Configuration conf = ConfigurationServiceFactory.getInstance();
-        int nthreads = conf.getInt(FS_SERVER_MAX_CLIENTS, FS_SERVER_MAX_CLIENTS_DEFAULT);
+        int nthreads = conf.getInt(FS_SERVER_MAX_CONNECTIONS, FS_SERVER_MAX_CONNECTIONS_DEFAULT);
         nthreads += 2;
         final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
         
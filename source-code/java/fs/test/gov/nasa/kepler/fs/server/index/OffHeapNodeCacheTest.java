@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.fs.server.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.nasa.kepler.fs.server.index.AbstractDiskNodeIO.CacheNodeKey;
+import gov.nasa.kepler.fs.server.raf.RandomAccessFileProxy;
+import gov.nasa.kepler.fs.server.raf.RandomAccessIo;
+import gov.nasa.spiffy.common.io.FileUtil;
+import gov.nasa.spiffy.common.io.Filenames;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapNodeCacheTest {
+
+    private final File testRoot = 
+        new File(Filenames.BUILD_TEST, "OffHeapNodeCacheTest.test");
+    private final int pageSize = 1024;
+    
+    @Before
+    public void setUp() throws Exception {
+        if (!testRoot.mkdirs()) {
+            throw new IOException("Can not make directory \"" + testRoot + "\".");
+        }
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        FileUtil.removeAll(testRoot);
+    }
+    
+    @Test
+    public void readWrite() throws Exception {
+        OffHeapNodeCache pageCache = new OffHeapNodeCache("test", pageSize, pageSize * 4);
+        CacheNodeKey key = new CacheNodeKey("tree", pageSize);
+        byte[] dest = new byte[pageSize];
+        assertEquals(-1, pageCache.read(key, dest));
+        
+        byte[] node = nodeBytes(7, 100);
+        assertTrue(pageCache.write(key, node, node.length, false));
+        Arrays.fill(dest, (byte) 1);
+        assertEquals(node.length, pageCache.read(key, dest));
+        assertTrue(Arrays.equals(node, Arrays.copyOf(dest, node.length)));
+        assertEquals(0, dest[node.length]);
+        
+        assertFalse(pageCache.write(key, new byte[pageSize + 1], pageSize + 1, false));
+        assertEquals(-1, pageCache.read(key, dest));
+        
+        OffHeapNodeCache.Stats stats = pageCache.stats();
+        assertEquals(1, stats.getHits());
+        assertEquals(2, stats.getMisses());
+        assertEquals(0, stats.getUsedPages());
+    }
+    
+    @Test
+    public void evictCleanPagesOnly() throws Exception {
+        OffHeapNodeCache pageCache = new OffHeapNodeCache("test", pageSize, pageSize * 2);
+        byte[] node = nodeBytes(1, pageSize);
+        CacheNodeKey dirtyKey = new CacheNodeKey("tree", pageSize);
+        assertTrue(pageCache.write(dirtyKey, node, node.length, true));
+        for (int i=2; i < 10; i++) {
+            CacheNodeKey key = new CacheNodeKey("tree", pageSize * i);
+            assertTrue(pageCache.write(key, node, node.length, false));
+        }
+        
+        byte[] dest = new byte[pageSize];
+        assertEquals(pageSize, pageCache.read(dirtyKey, dest));
+        assertEquals(-1, pageCache.read(new CacheNodeKey("tree", pageSize * 2), dest));
+        assertEquals(pageSize, pageCache.read(new CacheNodeKey("tree", pageSize * 9), dest));
+        assertEquals(7, pageCache.stats().getEvictions());
+        assertEquals(1, pageCache.stats().getDirtyPages());
+        
+        //The only clean page is replaced by this dirty page.
+        assertTrue(pageCache.write(new CacheNodeKey("tree", pageSize * 10), node, node.length, true));
+        assertFalse(pageCache.write(new CacheNodeKey("tree", pageSize * 11), node, node.length, false));
+    }
+    
+    @Test
+    public void writeBack() throws Exception {
+        OffHeapNodeCache pageCache = new OffHeapNodeCache("test", pageSize, pageSize * 8);
+        byte[] first = nodeBytes(3, pageSize);
+        byte[] second = nodeBytes(5, pageSize / 2);
+        pageCache.write(new CacheNodeKey("tree", pageSize * 2), second, second.length, true);
+        pageCache.write(new CacheNodeKey("tree", pageSize), first, first.length, true);
+        pageCache.write(new CacheNodeKey("other tree", pageSize), second, second.length, true);
+        
+        File file = new File(testRoot, "pages");
+        RandomAccessIo storage = new RandomAccessFileProxy(new RandomAccessFile(file, "rw"));
+        try {
+            pageCache.writeBack("tree", storage);
+            assertEquals(pageSize * 2 + second.length, storage.length());
+            byte[] readBack = new byte[pageSize];
+            storage.seek(pageSize);
+            storage.readFully(readBack);
+            assertTrue(Arrays.equals(first, readBack));
+            storage.seek(pageSize * 2);
+            storage.readFully(readBack, 0, second.length);
+            assertTrue(Arrays.equals(second, Arrays.copyOf(readBack, second.length)));
+        } finally {
+            storage.close();
+        }
+        
+        OffHeapNodeCache.Stats stats = pageCache.stats();
+        assertEquals(2, stats.getWriteBacks());
+        assertEquals(1, stats.getDirtyPages());
+        assertEquals(0, stats.getPinnedPages());
+    }
+    
+    private static byte[] nodeBytes(int seed, int length) {
+        byte[] bytes = new byte[length];
+        for (int i=0; i < length; i++) {
+            bytes[i] = (byte) (seed * i + 1);
+        }
+        return bytes;
+    }
+}
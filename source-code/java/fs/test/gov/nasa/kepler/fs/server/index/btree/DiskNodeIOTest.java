@@ -42,7 +42,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import gov.nasa.kepler.fs.server.index.DiskNodeIO;
 import gov.nasa.kepler.fs.server.index.KeyValueIO;
+import gov.nasa.kepler.fs.server.index.OffHeapNodeCache;
 import gov.nasa.kepler.fs.server.index.AbstractDiskNodeIO.CacheNodeKey;
+import gov.nasa.kepler.fs.server.index.DiskNodeIO.BtreeFileVersion;
 import gov.nasa.spiffy.common.concurrent.ConcurrentLruCache;
 import gov.nasa.spiffy.common.io.FileUtil;
 import gov.nasa.spiffy.common.io.Filenames;
@@ -123,6 +125,37 @@ public class DiskNodeIOTest {
     }
 
     
+    @Test
+    public void pageCachedDiskNodeIO() throws Exception {
+        File btreeFile = new File(testRoot, "btree");
+        OffHeapNodeCache pageCache = 
+            new OffHeapNodeCache("DiskNodeIOTest", nodeSize, nodeSize * 4);
+        
+        DiskNodeIO<String, Integer,BtreeNode<String,Integer>> dio = 
+            new DiskNodeIO<String, Integer,BtreeNode<String,Integer>>(kvio,
+                btreeFile, nodeSize, cache, nodeFactory,
+                BtreeFileVersion.VERSION_0, pageCache);
+        long newNodeAddress = dio.allocateAddress();
+        BtreeNode<String, Integer> node = new BtreeNode<String, Integer>(newNodeAddress, dio);
+        fillNode(node);
+        dio.writeNode(node);
+        dio.flushPendingModifications();
+        assertEquals(0, pageCache.stats().getDirtyPages());
+        
+        //An empty node cache forces the node to be read from the page cache.
+        cache = new ConcurrentLruCache<CacheNodeKey, BtreeNode<String,Integer>>(1);
+        dio = new DiskNodeIO<String, Integer,BtreeNode<String,Integer>>(kvio,
+            btreeFile, nodeSize, cache, nodeFactory,
+            BtreeFileVersion.VERSION_0, pageCache);
+        assertEquals(node, dio.readNode(newNodeAddress));
+        assertEquals(1, pageCache.stats().getHits());
+        
+        //The pages were written back to the file.
+        cache = new ConcurrentLruCache<CacheNodeKey, BtreeNode<String,Integer>>(1);
+        dio = new DiskNodeIO<String, Integer,BtreeNode<String,Integer>>(kvio, btreeFile, nodeSize, cache, nodeFactory);
+        assertEquals(node, dio.readNode(newNodeAddress));
+    }
+    
     @Test
     public void deleteAllocated() throws Exception {
         File btreeFile = new File(testRoot, "btree");
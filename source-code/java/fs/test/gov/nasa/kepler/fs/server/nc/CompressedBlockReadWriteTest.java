@@ -0,0 +1,326 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.fs.server.nc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import gov.nasa.spiffy.common.io.FileUtil;
+import gov.nasa.spiffy.common.io.Filenames;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompressedBlockReadWriteTest {
+
+    private final ReservedAddressSpace reserved = new MetaSpace(2, false);
+    private File testDir;
+    private File testFile;
+    
+    @Before
+    public void setUp() throws Exception {
+        testDir = new File(Filenames.BUILD_TEST, "CompressedBlockReadWriteTest.test");
+        testDir.mkdirs();
+        testFile = new File(testDir, "testfile");
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        FileUtil.removeAll(testDir);
+    }
+    
+    private CompressedBlockReadWrite open() throws Exception {
+        return new CompressedBlockReadWrite(
+            new NonContiguousReadWrite(new RandomAccessFile(testFile, "rw"), reserved));
+    }
+    
+    private static byte[] fluxLikeData(int nFloats) throws Exception {
+        byte[] data = new byte[nFloats * 4];
+        Random rand = new Random(5524L);
+        float value = 100000.0f;
+        for (int i=0; i < nFloats; i++) {
+            value += rand.nextFloat() - 0.5f;
+            int bits = Float.floatToIntBits(value);
+            data[i*4] = (byte) (bits >>> 24);
+            data[i*4+1] = (byte) (bits >>> 16);
+            data[i*4+2] = (byte) (bits >>> 8);
+            data[i*4+3] = (byte) bits;
+        }
+        return data;
+    }
+    
+    @Test
+    public void writeAndReadAcrossBlocks() throws Exception {
+        byte[] data = fluxLikeData(CompressedBlockReadWrite.BLOCK_SIZE);
+        CompressedBlockReadWrite rw = open();
+        rw.write(data, 0, data.length);
+        rw.close();
+        
+        rw = open();
+        assertEquals(data.length, rw.length());
+        assertTrue("compressed size " + rw.compressedLength(),
+            rw.compressedLength() < data.length);
+        byte[] readData = new byte[data.length];
+        rw.readFully(readData);
+        assertTrue(Arrays.equals(data, readData));
+        
+        //Read something that straddles a block boundary.
+        int start = CompressedBlockReadWrite.BLOCK_SIZE - 6;
+        byte[] part = new byte[20];
+        rw.seek(start);
+        rw.readFully(part);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(data, start, start + part.length), part));
+        rw.seek(data.length);
+        assertEquals(-1, rw.read(part, 0, part.length));
+        rw.close();
+    }
+    
+    @Test
+    public void overwriteInMiddle() throws Exception {
+        byte[] data = fluxLikeData(CompressedBlockReadWrite.BLOCK_SIZE);
+        CompressedBlockReadWrite rw = open();
+        rw.write(data, 0, data.length);
+        rw.close();
+        
+        byte[] update = fluxLikeData(1024);
+        rw = open();
+        rw.seek(4 * 5000);
+        rw.write(update, 0, update.length);
+        rw.close();
+        System.arraycopy(update, 0, data, 4 * 5000, update.length);
+        
+        rw = open();
+        byte[] readData = new byte[data.length];
+        rw.readFully(readData);
+        rw.close();
+        assertTrue(Arrays.equals(data, readData));
+    }
+    
+    @Test
+    public void sparseWritesReadAsZeros() throws Exception {
+        CompressedBlockReadWrite rw = open();
+        rw.seek(CompressedBlockReadWrite.BLOCK_SIZE * 100L + 3);
+        rw.writeInt(0xCAFEBABE);
+        rw.close();
+        
+        rw = open();
+        assertEquals(CompressedBlockReadWrite.BLOCK_SIZE * 100L + 7, rw.length());
+        rw.seek(CompressedBlockReadWrite.BLOCK_SIZE * 50L);
+        assertEquals(0L, rw.readLong());
+        rw.seek(CompressedBlockReadWrite.BLOCK_SIZE * 100L + 3);
+        assertEquals(0xCAFEBABE, rw.readInt());
+        rw.close();
+    }
+    
+    @Test
+    public void closeOnlyOverwritesOneHeaderSlot() throws Exception {
+        byte[] data = fluxLikeData(CompressedBlockReadWrite.BLOCK_SIZE);
+        CompressedBlockReadWrite rw = open();
+        rw.write(data, 0, data.length);
+        rw.close();
+        byte[] before = FileUtils.readFileToByteArray(testFile);
+        
+        rw = open();
+        rw.seek(4 * 5000);
+        rw.writeInt(7);
+        rw.close();
+        byte[] after = FileUtils.readFileToByteArray(testFile);
+        
+        assertTrue(after.length > before.length);
+        int nChanged = 0;
+        for (int i=0; i < before.length; i++) {
+            if (before[i] != after[i]) {
+                nChanged++;
+            }
+        }
+        assertTrue("changed " + nChanged, 
+            nChanged <= CompressedBlockReadWrite.HEADER_SLOT_SIZE);
+        
+        rw = open();
+        rw.seek(4 * 5000);
+        assertEquals(7, rw.readInt());
+        rw.close();
+    }
+    
+    @Test
+    public void rewritesReuseSpace() throws Exception {
+        byte[] data = fluxLikeData(CompressedBlockReadWrite.BLOCK_SIZE);
+        CompressedBlockReadWrite rw = open();
+        rw.write(data, 0, data.length);
+        rw.close();
+        rw = open();
+        long firstLength = rw.compressedLength();
+        rw.close();
+        
+        for (int i=0; i < 20; i++) {
+            data[i] = (byte) (data[i] + 1);
+            data[data.length - 1 - i] = (byte) (data[data.length - 1 - i] + 1);
+            rw = open();
+            rw.write(data, 0, data.length);
+            rw.close();
+        }
+        
+        rw = open();
+        assertTrue("compressed length " + rw.compressedLength() + " first length "
+            + firstLength, rw.compressedLength() < firstLength * 3);
+        byte[] readData = new byte[data.length];
+        rw.readFully(readData);
+        rw.close();
+        assertTrue(Arrays.equals(data, readData));
+    }
+    
+    @Test
+    public void shrinkingFreesBlocks() throws Exception {
+        byte[] data = fluxLikeData(CompressedBlockReadWrite.BLOCK_SIZE);
+        CompressedBlockReadWrite rw = open();
+        rw.write(data, 0, data.length);
+        rw.close();
+        rw = open();
+        long firstLength = rw.compressedLength();
+        rw.setLength(CompressedBlockReadWrite.BLOCK_SIZE);
+        rw.close();
+        
+        rw = open();
+        rw.seek(0);
+        rw.write(data, 0, data.length);
+        rw.close();
+        
+        rw = open();
+        assertTrue("compressed length " + rw.compressedLength() + " first length "
+            + firstLength, rw.compressedLength() < firstLength * 2);
+        byte[] readData = new byte[data.length];
+        rw.readFully(readData);
+        rw.close();
+        assertTrue(Arrays.equals(data, readData));
+    }
+    
+    /**
+     * A crash part way through writing a header leaves the previous version.
+     */
+    @Test
+    public void tornHeaderUsesPreviousVersion() throws Exception {
+        CompressedBlockReadWrite rw = open();
+        rw.writeInt(1);
+        rw.close();
+        rw = open();
+        rw.seek(0);
+        rw.writeInt(2);
+        rw.close();
+        
+        //The second header went into the first slot.
+        corruptHeaderSlot(0);
+        rw = open();
+        assertEquals(4L, rw.length());
+        assertEquals(1, rw.readInt());
+        
+        //The next header goes into the slot that was corrupted.
+        rw.seek(0);
+        rw.writeInt(3);
+        rw.close();
+        rw = open();
+        assertEquals(3, rw.readInt());
+        rw.close();
+    }
+    
+    @Test
+    public void corruptHeaders() throws Exception {
+        CompressedBlockReadWrite rw = open();
+        rw.writeInt(1);
+        rw.close();
+        rw = open();
+        rw.writeInt(2);
+        rw.close();
+        
+        corruptHeaderSlot(0);
+        corruptHeaderSlot(1);
+        try {
+            open();
+            fail("Should have thrown exception.");
+        } catch (IOException expected) {
+            //ok
+        }
+    }
+    
+    private void corruptHeaderSlot(int slot) throws Exception {
+        NonContiguousReadWrite store = 
+            new NonContiguousReadWrite(new RandomAccessFile(testFile, "rw"), reserved);
+        store.seek(slot * CompressedBlockReadWrite.HEADER_SLOT_SIZE + 9);
+        store.writeLong(-1L);
+        store.close();
+    }
+    
+    @Test
+    public void writeAndReadText() throws Exception {
+        CompressedBlockReadWrite rw = open();
+        rw.writeBytes("first\nsecond\r\nthird\rlast");
+        long charStart = rw.length();
+        rw.writeChars("\u00e9t\u00e9");
+        rw.close();
+        
+        rw = open();
+        assertEquals(charStart + 6, rw.length());
+        assertEquals("first", rw.readLine());
+        assertEquals("second", rw.readLine());
+        assertEquals("third", rw.readLine());
+        rw.seek(charStart);
+        assertEquals('\u00e9', rw.readChar());
+        assertEquals('t', rw.readChar());
+        assertEquals('\u00e9', rw.readChar());
+        assertEquals(null, rw.readLine());
+        rw.seek(charStart - 4);
+        assertEquals("last\u0000\u00e9\u0000t\u0000\u00e9", rw.readLine());
+        rw.close();
+    }
+    
+    @Test
+    public void emptyStore() throws Exception {
+        CompressedBlockReadWrite rw = open();
+        assertEquals(0L, rw.length());
+        assertEquals(-1, rw.read());
+        rw.close();
+        assertEquals(0L, testFile.length());
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+
+package gov.nasa.kepler.fs.server.scheduler;
+
+import static org.junit.Assert.*;
+import gov.nasa.kepler.fs.api.FsId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class ElevatorSchedulerTest {
+
+    @Test
+    public void singleRequest() throws Exception {
+        ElevatorScheduler elevator = new ElevatorScheduler();
+        List<FsIdOrder> chunk = chunk(7, 0, new long[] { 30, 10, 20});
+        RecordingReader reader = new RecordingReader();
+        elevator.read(chunk, reader);
+        assertEquals(Arrays.asList(10L, 20L, 30L), reader.offsets);
+        assertEquals(0, elevator.activeContainers());
+    }
+    
+    @Test
+    public void missingIdsAreReadInOrder() throws Exception {
+        ElevatorScheduler elevator = new ElevatorScheduler();
+        List<FsIdOrder> chunk = new ArrayList<FsIdOrder>();
+        chunk.add(new FsIdLocation(new FsId("/elevator/b"), 0));
+        chunk.add(new FsIdLocation(new FsId("/elevator/a"), 1));
+        RecordingReader reader = new RecordingReader();
+        elevator.read(chunk, reader);
+        assertEquals(Arrays.asList(-1L, -1L), reader.offsets);
+    }
+    
+    /**
+     * Threads waiting on the same container are let in C-SCAN order and each
+     * thread does its own read.
+     */
+    @Test
+    public void waitingRequestsAreLetInByOffset() throws Exception {
+        final ElevatorScheduler elevator = new ElevatorScheduler();
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Long> readOrder = Collections.synchronizedList(new ArrayList<Long>());
+        final Map<Long, Thread> readingThreads = 
+            Collections.synchronizedMap(new HashMap<Long, Thread>());
+        
+        ElevatorScheduler.LocationReader holder = new ElevatorScheduler.LocationReader() {
+            @Override
+            public void read(FsIdOrder idOrder, ElevatorScheduler.DiskTurn diskTurn) 
+                throws Exception {
+                
+                diskTurn.begin();
+                try {
+                    readOrder.add(((FsIdLocation) idOrder).offsetInFile());
+                    holding.countDown();
+                    assertTrue(release.await(10, TimeUnit.SECONDS));
+                } finally {
+                    diskTurn.end();
+                }
+            }
+        };
+        final ElevatorScheduler.LocationReader waiter = new ElevatorScheduler.LocationReader() {
+            @Override
+            public void read(FsIdOrder idOrder, ElevatorScheduler.DiskTurn diskTurn) 
+                throws Exception {
+                
+                diskTurn.begin();
+                try {
+                    long offset = ((FsIdLocation) idOrder).offsetInFile();
+                    readingThreads.put(offset, Thread.currentThread());
+                    readOrder.add(offset);
+                } finally {
+                    diskTurn.end();
+                }
+            }
+        };
+        
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        List<Thread> waiters = new ArrayList<Thread>();
+        int order = 100;
+        for (final long offset : new long[] { 10, 60, 30 }) {
+            final int startOrder = order++;
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        holding.await();
+                        elevator.read(chunk(3, startOrder, new long[] { offset }), waiter);
+                    } catch (Throwable t) {
+                        error.set(t);
+                    }
+                }
+            });
+            t.start();
+            waiters.add(t);
+        }
+        
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    holding.await();
+                    //Give the other requests time to queue up.
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    //test will fail.
+                }
+                release.countDown();
+            }
+        });
+        releaser.start();
+        
+        elevator.read(chunk(3, 0, new long[] { 50 }), holder);
+        for (Thread t : waiters) {
+            t.join(10000);
+        }
+        assertNull(error.get());
+        
+        assertEquals(Arrays.asList(50L, 60L, 10L, 30L), readOrder);
+        assertSame(waiters.get(0), readingThreads.get(10L));
+        assertSame(waiters.get(1), readingThreads.get(60L));
+        assertSame(waiters.get(2), readingThreads.get(30L));
+        assertEquals(0, elevator.activeContainers());
+    }
+    
+    /**
+     * Work done after the turn has ended, like writing to a slow client,
+     * does not hold up other requests.
+     */
+    @Test
+    public void slowClientDoesNotBlockElevator() throws Exception {
+        final ElevatorScheduler elevator = new ElevatorScheduler();
+        final CountDownLatch firstRead = new CountDownLatch(1);
+        final CountDownLatch secondDone = new CountDownLatch(1);
+        
+        ElevatorScheduler.LocationReader slowClient = new ElevatorScheduler.LocationReader() {
+            @Override
+            public void read(FsIdOrder idOrder, ElevatorScheduler.DiskTurn diskTurn) 
+                throws Exception {
+                
+                diskTurn.begin();
+                diskTurn.end();
+                firstRead.countDown();
+                assertTrue(secondDone.await(10, TimeUnit.SECONDS));
+            }
+        };
+        
+        final AtomicReference<Throwable> secondError = new AtomicReference<Throwable>();
+        final RecordingReader secondReader = new RecordingReader();
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    firstRead.await();
+                    elevator.read(chunk(3, 100, new long[] { 5, 25 }), secondReader);
+                } catch (Throwable t) {
+                    secondError.set(t);
+                } finally {
+                    secondDone.countDown();
+                }
+            }
+        });
+        second.start();
+        
+        elevator.read(chunk(3, 0, new long[] { 0, 20 }), slowClient);
+        second.join(10000);
+        assertNull(secondError.get());
+        assertEquals(Arrays.asList(5L, 25L), secondReader.offsets);
+        assertEquals(0, elevator.activeContainers());
+    }
+    
+    @Test
+    public void interruptWhileWaiting() throws Exception {
+        final ElevatorScheduler elevator = new ElevatorScheduler();
+        final CountDownLatch holding = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        
+        final AtomicReference<Throwable> holderError = new AtomicReference<Throwable>();
+        Thread holder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    elevator.read(chunk(3, 0, new long[] { 0 }), 
+                        new ElevatorScheduler.LocationReader() {
+                        @Override
+                        public void read(FsIdOrder idOrder, 
+                            ElevatorScheduler.DiskTurn diskTurn) throws Exception {
+                            
+                            diskTurn.begin();
+                            try {
+                                holding.countDown();
+                                assertTrue(release.await(10, TimeUnit.SECONDS));
+                            } finally {
+                                diskTurn.end();
+                            }
+                        }
+                    });
+                } catch (Throwable t) {
+                    holderError.set(t);
+                }
+            }
+        });
+        holder.start();
+        assertTrue(holding.await(10, TimeUnit.SECONDS));
+        
+        final AtomicReference<Throwable> waiterError = new AtomicReference<Throwable>();
+        final RecordingReader waiterReader = new RecordingReader();
+        Thread waiter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    elevator.read(chunk(3, 100, new long[] { 5, 25 }), waiterReader);
+                } catch (Throwable t) {
+                    waiterError.set(t);
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(200);
+        waiter.interrupt();
+        waiter.join(10000);
+        assertFalse(waiter.isAlive());
+        assertTrue(waiterError.get() instanceof InterruptedException);
+        assertTrue(waiterReader.offsets.isEmpty());
+        
+        release.countDown();
+        holder.join(10000);
+        assertNull(holderError.get());
+        assertEquals(0, elevator.activeContainers());
+        
+        //The elevator is still usable.
+        RecordingReader reader = new RecordingReader();
+        elevator.read(chunk(3, 200, new long[] { 7 }), reader);
+        assertEquals(Arrays.asList(7L), reader.offsets);
+    }
+    
+    /**
+     * Containers in different directory hashes may have the same file
+     * location.  They get their own elevators.
+     */
+    @Test
+    public void sameFileLocationDifferentContainers() throws Exception {
+        final ElevatorScheduler elevator = new ElevatorScheduler();
+        final CountDownLatch firstReadStarted = new CountDownLatch(1);
+        final CountDownLatch secondDone = new CountDownLatch(1);
+        
+        ElevatorScheduler.LocationReader firstReader = new ElevatorScheduler.LocationReader() {
+            @Override
+            public void read(FsIdOrder idOrder, ElevatorScheduler.DiskTurn diskTurn) 
+                throws Exception {
+                
+                diskTurn.begin();
+                try {
+                    firstReadStarted.countDown();
+                    assertTrue(secondDone.await(10, TimeUnit.SECONDS));
+                } finally {
+                    diskTurn.end();
+                }
+            }
+        };
+        final RecordingReader secondReader = new RecordingReader();
+        
+        final AtomicReference<Throwable> secondError = new AtomicReference<Throwable>();
+        final AtomicReference<Integer> activeContainers = new AtomicReference<Integer>();
+        Thread second = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    firstReadStarted.await();
+                    elevator.read(chunk(new File("/hashB/7.data"), 7, 100, 
+                        new long[] { 5, 25 }), secondReader);
+                    activeContainers.set(elevator.activeContainers());
+                } catch (Throwable t) {
+                    secondError.set(t);
+                } finally {
+                    secondDone.countDown();
+                }
+            }
+        });
+        second.start();
+        
+        elevator.read(chunk(new File("/hashA/7.data"), 7, 0, new long[] { 0, 20 }), firstReader);
+        second.join(10000);
+        assertNull(secondError.get());
+        
+        //The second request did not wait on the first request's container.
+        assertEquals(Arrays.asList(5L, 25L), secondReader.offsets);
+        assertEquals((Integer) 1, activeContainers.get());
+        assertEquals(0, elevator.activeContainers());
+    }
+    
+    @Test
+    public void readErrorStopsRequest() throws Exception {
+        ElevatorScheduler elevator = new ElevatorScheduler();
+        final List<Long> offsets = new ArrayList<Long>();
+        try {
+            elevator.read(chunk(1, 0, new long[] { 1, 2, 3}), 
+                new ElevatorScheduler.LocationReader() {
+                    @Override
+                    public void read(FsIdOrder idOrder, 
+                        ElevatorScheduler.DiskTurn diskTurn) throws Exception {
+                        
+                        diskTurn.begin();
+                        long offset = ((FsIdLocation) idOrder).offsetInFile();
+                        offsets.add(offset);
+                        if (offset == 2) {
+                            throw new IOException("Expected.");
+                        }
+                        diskTurn.end();
+                    }
+                });
+            fail("Should have thrown exception.");
+        } catch (IOException expected) {
+            assertEquals("Expected.", expected.getMessage());
+        }
+        assertEquals(Arrays.asList(1L, 2L), offsets);
+        assertEquals(0, elevator.activeContainers());
+        
+        //The failed read's turn was ended.
+        RecordingReader reader = new RecordingReader();
+        elevator.read(chunk(1, 10, new long[] { 4 }), reader);
+        assertEquals(Arrays.asList(4L), reader.offsets);
+    }
+    
+    private static List<FsIdOrder> chunk(int fileLocation, int startOrder, long[] offsets) {
+        return chunk(null, fileLocation, startOrder, offsets);
+    }
+    
+    private static List<FsIdOrder> chunk(File containerFile, int fileLocation, 
+        int startOrder, long[] offsets) {
+        
+        List<FsIdOrder> chunk = new ArrayList<FsIdOrder>();
+        int order = startOrder;
+        for (long offset : offsets) {
+            FsId id = new FsId("/elevator/" + fileLocation + "-" + offset);
+            chunk.add(new FsIdLocation(containerFile, fileLocation, offset, id, order++));
+        }
+        return chunk;
+    }
+    
+    private static final class RecordingReader implements ElevatorScheduler.LocationReader {
+        private final List<Long> offsets = Collections.synchronizedList(new ArrayList<Long>());
+        
+        @Override
+        public void read(FsIdOrder idOrder, ElevatorScheduler.DiskTurn diskTurn) 
+            throws Exception {
+            
+            diskTurn.begin();
+            try {
+                offsets.add(((FsIdLocation) idOrder).offsetInFile());
+            } finally {
+                diskTurn.end();
+            }
+        }
+    }
+}
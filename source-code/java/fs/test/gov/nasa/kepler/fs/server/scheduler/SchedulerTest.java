@@ -41,6 +41,7 @@ import static org.junit.Assert.*;
 import gov.nasa.kepler.fs.api.FileStoreException;
 import gov.nasa.kepler.fs.api.FsId;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 
@@ -93,6 +94,45 @@ public class SchedulerTest {
         }
     }
     
+    /**
+     * File locations are only unique within a directory hash so files from
+     * different directory hashes with the same file location must not end up
+     * in the same chunk.
+     */
+    @Test
+    public void sameFileLocationDifferentContainers() throws Exception {
+        final RandomGenerator schedulerOffsetGenerator = mockery.mock(RandomGenerator.class);
+        mockery.checking(new Expectations() {{
+            atLeast(1).of(schedulerOffsetGenerator).nextInt(2);
+            will(returnValue(0));
+        }});
+        
+        File fileA = new File("/hashA/0/7.data");
+        File fileB = new File("/hashB/0/7.data");
+        List<FsIdLocation> locations = new ArrayList<FsIdLocation>();
+        List<FsIdOrder> ids = new ArrayList<FsIdOrder>();
+        int order = 0;
+        for (int fileOffset=0; fileOffset < 4; fileOffset++) {
+            FsId idA = new FsId("/blah/a" + fileOffset);
+            locations.add(new FsIdLocation(fileA, 7, fileOffset, idA, order));
+            ids.add(new DefaultFsIdOrder(idA, order++));
+            FsId idB = new FsId("/blah/b" + fileOffset);
+            locations.add(new FsIdLocation(fileB, 7, fileOffset, idB, order));
+            ids.add(new DefaultFsIdOrder(idB, order++));
+        }
+        
+        Scheduler scheduler = new Scheduler(new ReturnFactory(locations), schedulerOffsetGenerator);
+        List<List<FsIdOrder>> chunks = scheduler.accessOrder(ids, 0);
+        assertEquals(2, chunks.size());
+        for (List<FsIdOrder> chunk : chunks) {
+            assertEquals(4, chunk.size());
+            File chunkFile = ((FsIdLocation) chunk.get(0)).containerFile();
+            for (FsIdOrder idOrder : chunk) {
+                assertEquals(chunkFile, ((FsIdLocation) idOrder).containerFile());
+            }
+        }
+    }
+    
     private static final class ReturnFactory implements FsIdLocationFactory {
 
         private final List<FsIdLocation> rv;
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.fs.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import gov.nasa.kepler.io.DataInputStream;
+import gov.nasa.kepler.io.DataOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class FloatingPointArrayCompressorTest {
+
+    private final FloatingPointArrayCompressor compressor = 
+        new FloatingPointArrayCompressor();
+    
+    @Test
+    public void floatRoundTrip() throws Exception {
+        float[] f = new float[] { 1.0f, -1.0f, Float.NaN, 0.0f, -0.0f,
+            Float.NEGATIVE_INFINITY, 12345.678f, 12345.679f, Float.MIN_VALUE,
+            Float.MAX_VALUE };
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(bout);
+        compressor.compress(f, dout);
+        dout.flush();
+        
+        float[] decoded = compressor.decompressFloats(
+            new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+        assertEquals(f.length, decoded.length);
+        for (int i=0; i < f.length; i++) {
+            assertEquals(Float.floatToRawIntBits(f[i]), Float.floatToRawIntBits(decoded[i]));
+        }
+    }
+    
+    @Test
+    public void doubleRoundTrip() throws Exception {
+        double[] d = new double[] { Math.PI, -Math.E, Double.NaN, 0.0, 
+            Double.MAX_VALUE, Double.MIN_VALUE, 55000.5, 55000.52 };
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(bout);
+        compressor.compress(d, dout);
+        dout.flush();
+        
+        double[] decoded = compressor.decompressDoubles(
+            new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+        assertEquals(d.length, decoded.length);
+        for (int i=0; i < d.length; i++) {
+            assertEquals(Double.doubleToRawLongBits(d[i]), Double.doubleToRawLongBits(decoded[i]));
+        }
+    }
+    
+    @Test
+    public void intRoundTrip() throws Exception {
+        int[] a = new int[] { Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, 
+            1000000, 1000001, 999999 };
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream dout = new DataOutputStream(bout);
+        compressor.compress(a, dout);
+        dout.flush();
+        
+        int[] decoded = compressor.decompressInts(
+            new DataInputStream(new ByteArrayInputStream(bout.toByteArray())));
+        assertTrue(Arrays.equals(a, decoded));
+    }
+    
+    @Test
+    public void wordsRoundTrip() throws Exception {
+        byte[] words = new byte[1024];
+        for (int i=0; i < words.length; i++) {
+            words[i] = (byte) (i * 31 + (i >> 3));
+        }
+        
+        for (int wordSize : new int[] { 4, 8}) {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            DataOutputStream dout = new DataOutputStream(bout);
+            compressor.compressWords(words, 0, words.length, wordSize, dout);
+            dout.flush();
+            
+            byte[] decoded = new byte[words.length];
+            compressor.decompressWords(
+                new DataInputStream(new ByteArrayInputStream(bout.toByteArray())),
+                decoded, 0, decoded.length, wordSize);
+            assertTrue(Arrays.equals(words, decoded));
+        }
+    }
+}
@@ -179,6 +179,71 @@ public class TransportTest {
         assertEquals(methodName, methodNameRef.get());
     }
     
+    @Test
+    public void readMethodNonBlocking() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<String> methodNameRef = new AtomicReference<String>();
+        final AtomicLong argRef = new AtomicLong();
+        final AtomicInteger nSelects = new AtomicInteger();
+        
+        server.testCode = new TestCode() {
+
+            public void serverSide(SocketChannel s) throws Exception {
+                try {
+                    TransportServerV2 fsTransportServer = new TransportServerV2(s, true);
+                    s.configureBlocking(false);
+                    Selector selector = Selector.open();
+                    try {
+                        SelectionKey key = s.register(selector, 0);
+                        int interestOps = fsTransportServer.readMethodNonBlocking();
+                        while (interestOps != 0) {
+                            key.interestOps(interestOps);
+                            selector.select();
+                            selector.selectedKeys().clear();
+                            nSelects.incrementAndGet();
+                            interestOps = fsTransportServer.readMethodNonBlocking();
+                        }
+                        key.cancel();
+                    } finally {
+                        selector.close();
+                    }
+                    
+                    DataInputStream din = 
+                        new DataInputStream(fsTransportServer.inputStream());
+                    methodNameRef.set(din.readUTF());
+                    argRef.set(din.readLong());
+                    fsTransportServer.doneWithMethod();
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        
+        Thread t = new Thread(server, "readMethodNonBlocking");
+        t.setDaemon(true);
+        t.start();
+
+        server.waitForServerStart();
+        
+        TransportClientV2 transportClient = null;
+        try {
+            transportClient = new TransportClientV2(this.localAddress);
+            transportClient.startMethod();
+            OutputStream out = transportClient.outputStream();
+            DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+            dout.writeUTF("method-name");
+            dout.writeLong(Long.MIN_VALUE);
+            dout.flush();
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            transportClient.close();
+        }
+        
+        assertEquals("method-name", methodNameRef.get());
+        assertEquals(Long.MIN_VALUE, argRef.get());
+        assertTrue(nSelects.get() > 0);
+    }
+    
     @Test
     public void singleByte() throws Exception {
         final int MAX_BYTES = 4;
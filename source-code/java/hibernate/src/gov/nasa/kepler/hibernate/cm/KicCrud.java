@@ -85,9 +85,6 @@ public class KicCrud extends AbstractCrud implements CelestialObjectCrud,
     public static final int INVALID_CCD_OUTPUT = -1;
     public static final int INVALID_SEASON = -1;
 
-    private static final double DEGREES_PER_ARCSEC = 1.0 / 3600.0;
-    private static final double HOURS_PER_DEGREE = 1.0 / 15.0;
-    
     private boolean kicCacheEnabled = true;
 
     /**
@@ -241,6 +238,54 @@ public class KicCrud extends AbstractCrud implements CelestialObjectCrud,
         return kics;
     }
 
+    /**
+     * Retrieves a {@link KicSpatialIndex} of the positions of the {@link Kic}s
+     * in the given sky group. Only the Kepler ID, RA and declination are
+     * loaded, so this is much smaller than {@link #retrieveKics(int)}.
+     * 
+     * @param skyGroupId the id of the {@link SkyGroup}
+     * @return a non-{@code null} {@link KicSpatialIndex}
+     * @throws HibernateException if there were problems retrieving the
+     * positions
+     */
+    public KicSpatialIndex retrieveKicSpatialIndex(int skyGroupId) {
+        KicSpatialIndex index = null;
+        if (kicCacheEnabled) {
+            index = KicSpatialIndexCache.getIndex(skyGroupId);
+        } else {
+            index = retrieveKicSpatialIndexInternal(skyGroupId);
+        }
+
+        return index;
+    }
+
+    KicSpatialIndex retrieveKicSpatialIndexInternal(int skyGroupId) {
+        Query query = createQuery("select keplerId, ra, dec from Kic where skyGroupId = :skyGroupId");
+        query.setParameter("skyGroupId", skyGroupId);
+
+        log.info("Submitting query: " + query);
+        long start = System.currentTimeMillis();
+        List<Object[]> rows = list(query);
+
+        int[] keplerIds = new int[rows.size()];
+        double[] ras = new double[rows.size()];
+        double[] decs = new double[rows.size()];
+        int i = 0;
+        for (Object[] row : rows) {
+            keplerIds[i] = (Integer) row[0];
+            ras[i] = (Double) row[1];
+            decs[i] = (Double) row[2];
+            i++;
+        }
+        rows = null;
+
+        KicSpatialIndex index = new KicSpatialIndex(skyGroupId, keplerIds, ras, decs);
+        log.info("Query and index of " + index.size() + " positions took "
+            + (System.currentTimeMillis() - start) + " ms");
+
+        return index;
+    }
+
     /**
      * Returns the minimum and maximum of the Kepler IDs in the KIC. This is
      * useful for subdividing the contents of the KIC as the unit of work
@@ -438,44 +483,13 @@ public class KicCrud extends AbstractCrud implements CelestialObjectCrud,
                 boundedBoxWidth, ra, dec));
         }
 
-        double hourOffset = boundedBoxWidth / 2 * HOURS_PER_DEGREE
-            * DEGREES_PER_ARCSEC;
-        // Adjusted to account for convergence of RA between the
-        // equator and pole.
-        hourOffset /= Math.cos(dec * Math.PI / 180);
-        double degreeOffset = boundedBoxWidth / 2 * DEGREES_PER_ARCSEC;
-
-        double minRa = ra - hourOffset;
-        double maxRa = ra + hourOffset;
-        double minDec = dec - degreeOffset;
-        double maxDec = dec + degreeOffset;
-        
-        List<Kic> kics = null;
-        if (kicCacheEnabled) {
-            kics = KicCache.getKics(skyGroupId);
-        } else {
-            kics = retrieveKicsInternal(skyGroupId);
-        }
+        KicSpatialIndex index = retrieveKicSpatialIndex(skyGroupId);
 
         long start = System.currentTimeMillis();
         
-        List<Integer> keplerIds = new ArrayList<Integer>();
-        for (Kic kic : kics) {
-            if (kic.getKeplerId() != keplerId &&
-                kic.getRa() >= minRa && kic.getRa() <= maxRa &&
-                kic.getDec() >= minDec && kic.getDec() <= maxDec) {
-                keplerIds.add(kic.getKeplerId());
-            }
-        }
-        
-        Collections.sort(keplerIds);
+        List<Integer> keplerIds = index.nearbyKeplerIds(keplerId, ra, dec,
+            boundedBoxWidth);
         
-        if (log.isDebugEnabled()) {
-            log.debug(String.format(
-                "Bounded box described by: minRa=%e; maxRa=%e; minDec=%e; maxDec=%e",
-                minRa, maxRa, minDec, maxDec));
-        }
-
         log.info("Determining nearby keplerIds took " + (System.currentTimeMillis() - start) + " ms");
 
         if (log.isDebugEnabled()) {
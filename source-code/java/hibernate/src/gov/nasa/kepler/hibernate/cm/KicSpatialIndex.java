@@ -0,0 +1,307 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.cm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact, immutable spatial index of the {@link Kic} positions in a single
+ * sky group.
+ * 
+ * Only the Kepler ID, RA and declination of each object are kept, in
+ * primitive arrays sorted into the cells of a uniform RA/Dec grid, so a
+ * bounded box query only examines the objects in the cells the box overlaps
+ * rather than every object in the sky group.
+ * 
+ * RA is in hours and declination is in degrees, as in {@link Kic}.
+ */
+public final class KicSpatialIndex {
+
+    /** Average number of objects per grid cell. */
+    static final int OBJECTS_PER_CELL = 8;
+
+    private static final double DEGREES_PER_ARCSEC = 1.0 / 3600.0;
+    private static final double HOURS_PER_DEGREE = 1.0 / 15.0;
+    private static final double RADIANS_PER_DEGREE = Math.PI / 180.0;
+
+    private final int skyGroupId;
+
+    // column-ordered object data, sorted by grid cell
+    private final int[] keplerIds;
+    private final double[] ras;
+    private final double[] decs;
+
+    private final double minRa;
+    private final double minDec;
+    private final double cellRaWidth;
+    private final double cellDecHeight;
+    private final int raCellCount;
+    private final int decCellCount;
+
+    /** cellStart[cell] is the index of the first object in that cell */
+    private final int[] cellStart;
+
+    /**
+     * Builds the index. Objects with a NaN position are not indexed.
+     * 
+     * @param skyGroupId the sky group of the objects
+     * @param keplerIds the Kepler IDs of the objects
+     * @param ras the RA of each object in hours
+     * @param decs the declination of each object in degrees
+     */
+    public KicSpatialIndex(int skyGroupId, int[] keplerIds, double[] ras,
+        double[] decs) {
+
+        if (keplerIds.length != ras.length || keplerIds.length != decs.length) {
+            throw new IllegalArgumentException("keplerIds.length ("
+                + keplerIds.length + "), ras.length (" + ras.length
+                + ") and decs.length (" + decs.length + ") must be equal");
+        }
+        this.skyGroupId = skyGroupId;
+
+        int count = 0;
+        double minRa = Double.MAX_VALUE;
+        double maxRa = -Double.MAX_VALUE;
+        double minDec = Double.MAX_VALUE;
+        double maxDec = -Double.MAX_VALUE;
+        for (int i = 0; i < keplerIds.length; i++) {
+            if (Double.isNaN(ras[i]) || Double.isNaN(decs[i])) {
+                continue;
+            }
+            minRa = Math.min(minRa, ras[i]);
+            maxRa = Math.max(maxRa, ras[i]);
+            minDec = Math.min(minDec, decs[i]);
+            maxDec = Math.max(maxDec, decs[i]);
+            count++;
+        }
+        if (count == 0) {
+            minRa = maxRa = minDec = maxDec = 0;
+        }
+
+        int cellsPerSide = Math.max(1,
+            (int) Math.ceil(Math.sqrt((double) count / OBJECTS_PER_CELL)));
+        this.minRa = minRa;
+        this.minDec = minDec;
+        raCellCount = cellsPerSide;
+        decCellCount = cellsPerSide;
+        cellRaWidth = cellSize(minRa, maxRa, raCellCount);
+        cellDecHeight = cellSize(minDec, maxDec, decCellCount);
+
+        // counting sort of the objects by cell
+        int[] cells = new int[keplerIds.length];
+        cellStart = new int[raCellCount * decCellCount + 1];
+        for (int i = 0; i < keplerIds.length; i++) {
+            if (Double.isNaN(ras[i]) || Double.isNaN(decs[i])) {
+                cells[i] = -1;
+                continue;
+            }
+            cells[i] = cell(raCell(ras[i]), decCell(decs[i]));
+            cellStart[cells[i] + 1]++;
+        }
+        for (int cell = 0; cell < cellStart.length - 1; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+
+        this.keplerIds = new int[count];
+        this.ras = new double[count];
+        this.decs = new double[count];
+        int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+        for (int i = 0; i < keplerIds.length; i++) {
+            if (cells[i] < 0) {
+                continue;
+            }
+            int index = next[cells[i]]++;
+            this.keplerIds[index] = keplerIds[i];
+            this.ras[index] = ras[i];
+            this.decs[index] = decs[i];
+        }
+    }
+
+    private static double cellSize(double min, double max, int cellCount) {
+        double size = (max - min) / cellCount;
+        // avoid a zero size when all of the objects share a coordinate
+        return size > 0 ? size : 1.0;
+    }
+
+    public int getSkyGroupId() {
+        return skyGroupId;
+    }
+
+    /**
+     * @return the number of indexed objects
+     */
+    public int size() {
+        return keplerIds.length;
+    }
+
+    /**
+     * Returns the Kepler IDs of the objects inside the bounded box centered
+     * at the given position, excluding keplerId itself. This gives the same
+     * result as {@link KicCrud#retrieveNearbyKeplerIds}.
+     * 
+     * @param keplerId the Kepler ID of the object at the center of the box
+     * @param ra the RA of the center in hours
+     * @param dec the declination of the center in degrees
+     * @param boundedBoxWidth the width of the box in arcseconds
+     * @return a non-{@code null} list of Kepler IDs in ascending order
+     */
+    public List<Integer> nearbyKeplerIds(int keplerId, double ra, double dec,
+        float boundedBoxWidth) {
+
+        if (Double.isNaN(ra) || Double.isNaN(dec)) {
+            return new ArrayList<Integer>();
+        }
+
+        double hourOffset = boundedBoxWidth / 2 * HOURS_PER_DEGREE
+            * DEGREES_PER_ARCSEC;
+        // Adjusted to account for convergence of RA between the
+        // equator and pole.
+        hourOffset /= Math.cos(dec * Math.PI / 180);
+        double degreeOffset = boundedBoxWidth / 2 * DEGREES_PER_ARCSEC;
+
+        return keplerIdsInBox(keplerId, ra - hourOffset, ra + hourOffset, dec
+            - degreeOffset, dec + degreeOffset);
+    }
+
+    /**
+     * Returns the Kepler IDs of the objects whose angular separation from the
+     * given position is at most radius, excluding keplerId itself.
+     * 
+     * @param keplerId the Kepler ID of the object at the center
+     * @param ra the RA of the center in hours
+     * @param dec the declination of the center in degrees
+     * @param radius the radius in arcseconds
+     * @return a non-{@code null} list of Kepler IDs in ascending order
+     */
+    public List<Integer> keplerIdsWithinRadius(int keplerId, double ra,
+        double dec, double radius) {
+
+        if (Double.isNaN(ra) || Double.isNaN(dec)) {
+            return new ArrayList<Integer>();
+        }
+
+        double degreeOffset = radius * DEGREES_PER_ARCSEC;
+        double hourOffset = degreeOffset * HOURS_PER_DEGREE
+            / Math.max(Math.cos(dec * RADIANS_PER_DEGREE), 1e-9);
+
+        List<Integer> keplerIdsWithinRadius = new ArrayList<Integer>();
+
+        double maxSeparation = degreeOffset * RADIANS_PER_DEGREE;
+        int raFrom = raCell(ra - hourOffset);
+        int raTo = raCell(ra + hourOffset);
+        int decFrom = decCell(dec - degreeOffset);
+        int decTo = decCell(dec + degreeOffset);
+        for (int decIndex = decFrom; decIndex <= decTo; decIndex++) {
+            for (int raIndex = raFrom; raIndex <= raTo; raIndex++) {
+                int cell = cell(raIndex, decIndex);
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    if (keplerIds[i] != keplerId
+                        && separation(ra, dec, ras[i], decs[i]) <= maxSeparation) {
+                        keplerIdsWithinRadius.add(keplerIds[i]);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(keplerIdsWithinRadius);
+        return keplerIdsWithinRadius;
+    }
+
+    private List<Integer> keplerIdsInBox(int keplerId, double minRa,
+        double maxRa, double minDec, double maxDec) {
+
+        List<Integer> keplerIds = new ArrayList<Integer>();
+
+        int raFrom = raCell(minRa);
+        int raTo = raCell(maxRa);
+        int decFrom = decCell(minDec);
+        int decTo = decCell(maxDec);
+        for (int decIndex = decFrom; decIndex <= decTo; decIndex++) {
+            for (int raIndex = raFrom; raIndex <= raTo; raIndex++) {
+                int cell = cell(raIndex, decIndex);
+                for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                    if (this.keplerIds[i] != keplerId && ras[i] >= minRa
+                        && ras[i] <= maxRa && decs[i] >= minDec
+                        && decs[i] <= maxDec) {
+                        keplerIds.add(this.keplerIds[i]);
+                    }
+                }
+            }
+        }
+
+        Collections.sort(keplerIds);
+        return keplerIds;
+    }
+
+    /**
+     * Angular separation in radians (haversine formula).
+     */
+    private static double separation(double ra1, double dec1, double ra2,
+        double dec2) {
+        double raRadians1 = ra1 / HOURS_PER_DEGREE * RADIANS_PER_DEGREE;
+        double raRadians2 = ra2 / HOURS_PER_DEGREE * RADIANS_PER_DEGREE;
+        double decRadians1 = dec1 * RADIANS_PER_DEGREE;
+        double decRadians2 = dec2 * RADIANS_PER_DEGREE;
+
+        double sinHalfDec = Math.sin((decRadians2 - decRadians1) / 2);
+        double sinHalfRa = Math.sin((raRadians2 - raRadians1) / 2);
+        double h = sinHalfDec * sinHalfDec + Math.cos(decRadians1)
+            * Math.cos(decRadians2) * sinHalfRa * sinHalfRa;
+        return 2 * Math.asin(Math.min(1.0, Math.sqrt(h)));
+    }
+
+    private int raCell(double ra) {
+        return clamp((int) Math.floor((ra - minRa) / cellRaWidth), raCellCount);
+    }
+
+    private int decCell(double dec) {
+        return clamp((int) Math.floor((dec - minDec) / cellDecHeight),
+            decCellCount);
+    }
+
+    private static int clamp(int index, int count) {
+        return index < 0 ? 0 : index >= count ? count - 1 : index;
+    }
+
+    private int cell(int raIndex, int decIndex) {
+        return decIndex * raCellCount + raIndex;
+    }
+}
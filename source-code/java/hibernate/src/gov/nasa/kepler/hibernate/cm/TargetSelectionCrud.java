@@ -307,6 +307,81 @@ public class TargetSelectionCrud extends AbstractCrud implements
         return targets;
     }
 
+    /**
+     * Retrieves the Kepler ID of the {@link PlannedTarget} which is
+     * {@code offset} targets past the first one on the given target lists with
+     * a Kepler ID of at least {@code minKeplerId}, in Kepler ID order. Pass the
+     * result as the {@code maxKeplerId} of
+     * {@link #retrievePlannedTargets(Collection, int, Integer)} to retrieve
+     * fewer than {@code offset} targets with whole Kepler IDs.
+     * 
+     * @param targetLists the target lists to search
+     * @param minKeplerId the smallest Kepler ID to consider
+     * @param offset the number of targets to skip
+     * @return the Kepler ID, or {@code null} if there are no more than
+     * {@code offset} targets from {@code minKeplerId} on
+     * @throws HibernateException if there were problems retrieving the Kepler
+     * ID
+     */
+    public Integer retrievePlannedTargetKeplerId(
+        Collection<TargetList> targetLists, int minKeplerId, int offset) {
+        if (targetLists.isEmpty()) {
+            return null;
+        }
+
+        Query query = getSession().createQuery(
+            "select keplerId from PlannedTarget "
+                + "where targetList in (:targetLists) "
+                + "and keplerId >= :minKeplerId order by keplerId");
+        query.setParameterList("targetLists", targetLists);
+        query.setParameter("minKeplerId", minKeplerId);
+        query.setFirstResult(offset);
+        query.setMaxResults(1);
+        Integer keplerId = uniqueResult(query);
+
+        return keplerId;
+    }
+
+    /**
+     * Retrieves the {@link PlannedTarget}s on the given target lists with
+     * Kepler IDs in a range, ordered by Kepler ID. Use
+     * {@link #retrievePlannedTargetKeplerId(Collection, int, int)} to choose
+     * the end of the range when walking through target lists that are too
+     * large to retrieve at once. The range is given by Kepler ID rather than a
+     * maximum number of results because the labels are fetched with a
+     * subselect that repeats this query without its row limit.
+     * 
+     * @param targetLists the target lists to search
+     * @param minKeplerId the smallest Kepler ID to retrieve
+     * @param maxKeplerId the Kepler ID after the largest to retrieve, or
+     * {@code null} to retrieve all of the Kepler IDs from {@code minKeplerId}
+     * on
+     * @return a non-{@code null} list of {@link PlannedTarget}s sorted by
+     * Kepler ID
+     * @throws HibernateException if there were problems retrieving the
+     * {@link PlannedTarget} objects
+     */
+    public List<PlannedTarget> retrievePlannedTargets(
+        Collection<TargetList> targetLists, int minKeplerId, Integer maxKeplerId) {
+        if (targetLists.isEmpty()) {
+            return newArrayList();
+        }
+
+        Query query = getSession().createQuery(
+            "from PlannedTarget where targetList in (:targetLists) "
+                + "and keplerId >= :minKeplerId "
+                + (maxKeplerId != null ? "and keplerId < :maxKeplerId " : "")
+                + "order by keplerId, id");
+        query.setParameterList("targetLists", targetLists);
+        query.setParameter("minKeplerId", minKeplerId);
+        if (maxKeplerId != null) {
+            query.setParameter("maxKeplerId", maxKeplerId);
+        }
+        List<PlannedTarget> targets = list(query);
+
+        return targets;
+    }
+
     public List<PlannedTarget> retrievePlannedTargets(TargetList targetList,
         int skyGroupId) {
         Query query = getSession().createQuery(
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.dbservice;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Session;
+import org.hibernate.engine.SessionFactoryImplementor;
+
+/**
+ * Saves large collections of new entities.
+ * 
+ * The inserts are sent to the database in JDBC batches of
+ * {@code hibernate.jdbc.batch_size} statements (see
+ * {@link KeplerHibernateConfiguration}), ordered by entity so that the
+ * inserts of one table are not interleaved with those of the tables they
+ * cascade to.  Identifiers come from the entities' sequence generators,
+ * which already hand out blocks of ids, so they are not a round trip per
+ * row either.
+ * 
+ * {@link #insert(Collection, String)} leaves the new entities in the
+ * session.  {@link #insertAndEvict(Collection, String)} flushes every
+ * {@value #FLUSH_INTERVAL_DEFAULT} entities (see
+ * {@link #FLUSH_INTERVAL_PROPERTY_NAME}) and evicts the flushed entities,
+ * which keeps the session, and the cost of dirty checking it, from growing
+ * with the size of the collection.  Only use it for entities that the caller
+ * is done with and whose eviction does not cascade to objects the caller
+ * still needs, such as a {@code TargetTable} referenced with
+ * {@code CascadeType.EVICT}.
+ */
+public class BulkInserter {
+    private static final Log log = LogFactory.getLog(BulkInserter.class);
+
+    public static final String FLUSH_INTERVAL_PROPERTY_NAME = "database.bulkInsert.flushInterval";
+    public static final int FLUSH_INTERVAL_DEFAULT = 1000;
+
+    private static final int PROGRESS_INTERVAL = 10000;
+
+    private static volatile boolean batchingWarningLogged = false;
+
+    private final DatabaseService databaseService;
+    private final int flushInterval;
+
+    public BulkInserter(DatabaseService databaseService) {
+        this(databaseService, flushIntervalFromConfig());
+    }
+
+    public BulkInserter(DatabaseService databaseService, int flushInterval) {
+        if (flushInterval < 1) {
+            throw new IllegalArgumentException("flushInterval must be positive, not " + flushInterval);
+        }
+        this.databaseService = databaseService;
+        this.flushInterval = flushInterval;
+    }
+
+    /**
+     * Saves the entities in the current session.
+     * 
+     * @param entityName used in log messages.
+     */
+    public void insert(Collection<?> entities, String entityName) {
+        Session session = databaseService.getSession();
+        checkBatching(session);
+
+        int count = 0;
+        for (Object entity : entities) {
+            logProgress(count, entityName);
+            session.save(entity);
+            count++;
+        }
+
+        log.info("Completed creating " + count + " " + entityName + ".");
+    }
+
+    /**
+     * Saves the entities, flushing and evicting them from the session in
+     * chunks.  The entities are detached when this method returns.
+     * 
+     * @param entityName used in log messages.
+     */
+    public void insertAndEvict(Collection<?> entities, String entityName) {
+        Session session = databaseService.getSession();
+        checkBatching(session);
+
+        List<Object> unflushed = new ArrayList<Object>(Math.min(flushInterval, entities.size()));
+        int count = 0;
+        for (Object entity : entities) {
+            logProgress(count, entityName);
+            session.save(entity);
+            unflushed.add(entity);
+            count++;
+
+            if (unflushed.size() == flushInterval) {
+                flushAndEvict(session, unflushed);
+            }
+        }
+        flushAndEvict(session, unflushed);
+
+        log.info("Completed creating " + count + " " + entityName + ".");
+    }
+
+    private static void flushAndEvict(Session session, List<Object> entities) {
+        if (entities.isEmpty()) {
+            return;
+        }
+        session.flush();
+        for (Object entity : entities) {
+            session.evict(entity);
+        }
+        entities.clear();
+    }
+
+    private static void logProgress(int count, String entityName) {
+        if (count > 0 && count % PROGRESS_INTERVAL == 0) {
+            log.info("Created " + count + " " + entityName + "...");
+        }
+    }
+
+    private static void checkBatching(Session session) {
+        if (batchingWarningLogged
+            || !(session.getSessionFactory() instanceof SessionFactoryImplementor)) {
+            return;
+        }
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) session.getSessionFactory();
+        if (sessionFactory.getSettings()
+            .getJdbcBatchSize() <= 1) {
+            batchingWarningLogged = true;
+            log.warn("JDBC batching is disabled (" + KeplerHibernateConfiguration.HIBERNATE_JDBC_BATCH_SIZE_PROP
+                + "), bulk inserts will be sent to the database one row at a time");
+        }
+    }
+
+    private static int flushIntervalFromConfig() {
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        return config.getInt(FLUSH_INTERVAL_PROPERTY_NAME, FLUSH_INTERVAL_DEFAULT);
+    }
+}
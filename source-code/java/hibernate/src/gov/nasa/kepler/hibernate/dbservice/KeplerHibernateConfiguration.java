@@ -71,6 +71,14 @@ public class KeplerHibernateConfiguration {
     public static final String HIBERNATE_CONNECTION_URL_PROP = "hibernate.connection.url";
     public static final String HIBERNATE_CONNECTION_USERNAME_PROP = "hibernate.connection.username";
     public static final String HIBERNATE_CONNECTION_PASSWORD_PROP = "hibernate.connection.password";
+    public static final String HIBERNATE_JDBC_BATCH_SIZE_PROP = "hibernate.jdbc.batch_size";
+    public static final String HIBERNATE_ORDER_INSERTS_PROP = "hibernate.order_inserts";
+
+    /**
+     * Used when {@link #HIBERNATE_JDBC_BATCH_SIZE_PROP} is not configured.
+     * Set the property to 0 to send each statement on its own.
+     */
+    public static final int HIBERNATE_JDBC_BATCH_SIZE_DEFAULT = 50;
 
     private static final String KEPLER_SOC_HIBERNATE_PACKAGE_NAME_OVERRIDE_PROP = "kepler.hibernate.config.package";
 
@@ -145,8 +153,21 @@ public class KeplerHibernateConfiguration {
             }
         }
 
+        /*
+         * Batch inserts unless told otherwise, see BulkInserter. Ordering the
+         * inserts by entity keeps cascaded saves from breaking up the batches.
+         */
+        if (hibernateConfig.getProperty(HIBERNATE_JDBC_BATCH_SIZE_PROP) == null) {
+            hibernateConfig.setProperty(HIBERNATE_JDBC_BATCH_SIZE_PROP,
+                Integer.toString(HIBERNATE_JDBC_BATCH_SIZE_DEFAULT));
+        }
+        if (hibernateConfig.getProperty(HIBERNATE_ORDER_INSERTS_PROP) == null) {
+            hibernateConfig.setProperty(HIBERNATE_ORDER_INSERTS_PROP, "true");
+        }
+
         log.info("Database URL: " + hibernateConfig.getProperty(HIBERNATE_CONNECTION_URL_PROP));
         log.info("Database User: " + hibernateConfig.getProperty(HIBERNATE_CONNECTION_USERNAME_PROP));
+        log.info("JDBC batch size: " + hibernateConfig.getProperty(HIBERNATE_JDBC_BATCH_SIZE_PROP));
         
         AnnotatedPojoList annotatedPojoList = new AnnotatedPojoList();
 
@@ -58,12 +58,15 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import javax.transaction.Synchronization;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.Criteria;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.SQLQuery;
+import org.hibernate.Transaction;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
@@ -76,6 +79,9 @@ import org.hibernate.criterion.Restrictions;
 public class LogCrud extends AbstractCrud implements PixelLogCrud, PixelLogRetriever {
     private static final Log log = LogFactory.getLog(LogCrud.class);
 
+    /** The transaction which will notify {@link PixelLogIndexCache}. */
+    private Transaction modifiedTransaction;
+
     /**
      * Creates a new {@link LogCrud} object.
      */
@@ -381,6 +387,7 @@ public class LogCrud extends AbstractCrud implements PixelLogCrud, PixelLogRetri
      * Persist a new PixelLog instance
      */
     public void createPixelLog(PixelLog pixelLog) {
+        pixelLogsModified();
         getSession().save(getPixelLogInstance(pixelLog));
     }
 
@@ -877,9 +884,45 @@ public class LogCrud extends AbstractCrud implements PixelLogCrud, PixelLogRetri
         query.setParameter("dataSetType", dataSetType);
         query.setParameter("cadenceType", cadenceType);
         query.setParameter("cadenceNumber", cadenceNumber);
+        pixelLogsModified();
         query.executeUpdate();
     }
 
+    /**
+     * Keeps {@link PixelLogIndexCache} from serving or caching pixel logs until
+     * the current transaction has completed.
+     */
+    private void pixelLogsModified() {
+        Transaction transaction = getSession().getTransaction();
+        if (transaction == null || !transaction.isActive()) {
+            PixelLogIndexCache.writeStarted();
+            PixelLogIndexCache.writeCompleted();
+            return;
+        }
+        if (transaction == modifiedTransaction) {
+            return;
+        }
+
+        PixelLogIndexCache.writeStarted();
+        modifiedTransaction = transaction;
+        transaction.registerSynchronization(new Synchronization() {
+            private boolean completed;
+
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (!completed) {
+                    completed = true;
+                    modifiedTransaction = null;
+                    PixelLogIndexCache.writeCompleted();
+                }
+            }
+        });
+    }
+
     /**
      * Get the first and last start cadences from the pixel log.
      * 
@@ -0,0 +1,474 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.dr;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable, column oriented copy of the cadence times and per cadence
+ * flags from a set of {@link PixelLog}s of a single cadence type. Rows are
+ * sorted by cadence number. Cadence lookups are constant time when the
+ * cadences are mostly contiguous; mjd lookups are a binary search over the mid
+ * times.
+ * 
+ * Instances hold no Hibernate entities so they can be shared between
+ * sessions and pipeline tasks (see {@link PixelLogIndexCache}) and can be
+ * written to and read from a file with {@link #writeTo(DataOutput)} and
+ * {@link #readFrom(DataInput)}.
+ */
+public final class PixelLogIndex implements Serializable {
+
+    private static final long serialVersionUID = 6911934226102532745L;
+
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * When there are more than this many cadences for every row then cadence
+     * lookups use a binary search rather than a dense lookup table.
+     */
+    private static final int MAX_SPARSENESS = 4;
+
+    private static final byte REQUANT_ENABLED = 1 << 0;
+    private static final byte SEFI_ACC = 1 << 1;
+    private static final byte SEFI_CAD = 1 << 2;
+    private static final byte LDE_OOS = 1 << 3;
+    private static final byte FINE_PNT = 1 << 4;
+    private static final byte MMNTM_DMP = 1 << 5;
+    private static final byte LDE_PAR_ER = 1 << 6;
+    private static final byte SCRC_ERR = (byte) (1 << 7);
+
+    private final int cadenceType;
+    private final int[] cadenceNumbers;
+    private final double[] startMjds;
+    private final double[] midMjds;
+    private final double[] endMjds;
+    private final byte[] flags;
+
+    /**
+     * rowByCadence[c - cadenceNumbers[0]] is the row of cadence c or -1. This
+     * is null when the cadences are too sparse.
+     */
+    private final int[] rowByCadence;
+
+    public static PixelLogIndex empty(int cadenceType) {
+        return new PixelLogIndex(cadenceType, new int[0], new double[0],
+            new double[0], new double[0], new byte[0]);
+    }
+
+    /**
+     * @param pixelLogs These may be in any order. Pixel logs for the same
+     * cadence must have the same times.
+     * @throws IllegalStateException if time goes backwards in the pixel logs.
+     */
+    public static PixelLogIndex build(int cadenceType, List<PixelLog> pixelLogs) {
+        List<PixelLog> sortedLogs = new ArrayList<PixelLog>(pixelLogs);
+        Collections.sort(sortedLogs, new Comparator<PixelLog>() {
+            @Override
+            public int compare(PixelLog o1, PixelLog o2) {
+                int c1 = o1.getCadenceNumber();
+                int c2 = o2.getCadenceNumber();
+                return c1 < c2 ? -1 : (c1 == c2 ? 0 : 1);
+            }
+        });
+
+        int nRows = 0;
+        for (int i = 0; i < sortedLogs.size(); i++) {
+            if (i == 0
+                || sortedLogs.get(i)
+                    .getCadenceNumber() != sortedLogs.get(i - 1)
+                    .getCadenceNumber()) {
+                nRows++;
+            }
+        }
+
+        int[] cadenceNumbers = new int[nRows];
+        double[] startMjds = new double[nRows];
+        double[] midMjds = new double[nRows];
+        double[] endMjds = new double[nRows];
+        byte[] flags = new byte[nRows];
+        int row = -1;
+        for (PixelLog log : sortedLogs) {
+            if (row >= 0 && cadenceNumbers[row] == log.getCadenceNumber()) {
+                if (midMjds[row] != log.getMjdMidTime()) {
+                    throw new IllegalStateException("Mjd should be "
+                        + midMjds[row] + " but found " + log.getMjdEndTime());
+                }
+                // The last pixel log for a cadence wins.
+            } else {
+                row++;
+            }
+            cadenceNumbers[row] = log.getCadenceNumber();
+            startMjds[row] = log.getMjdStartTime();
+            midMjds[row] = log.getMjdMidTime();
+            endMjds[row] = log.getMjdEndTime();
+            flags[row] = flags(log);
+        }
+
+        return new PixelLogIndex(cadenceType, cadenceNumbers, startMjds,
+            midMjds, endMjds, flags);
+    }
+
+    private static byte flags(PixelLog log) {
+        byte flags = 0;
+        if (log.isDataRequantizedForDownlink()) {
+            flags |= REQUANT_ENABLED;
+        }
+        if (log.isSefiAcc()) {
+            flags |= SEFI_ACC;
+        }
+        if (log.isSefiCad()) {
+            flags |= SEFI_CAD;
+        }
+        if (log.isLdeOos()) {
+            flags |= LDE_OOS;
+        }
+        if (log.isFinePnt()) {
+            flags |= FINE_PNT;
+        }
+        if (log.isMmntmDmp()) {
+            flags |= MMNTM_DMP;
+        }
+        if (log.isLdeParEr()) {
+            flags |= LDE_PAR_ER;
+        }
+        if (log.isScrcErr()) {
+            flags |= SCRC_ERR;
+        }
+        return flags;
+    }
+
+    public static PixelLogIndex readFrom(DataInput din) throws IOException {
+        int version = din.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported pixel log index version "
+                + version + ".");
+        }
+        int cadenceType = din.readInt();
+        int nRows = din.readInt();
+        int[] cadenceNumbers = new int[nRows];
+        double[] startMjds = new double[nRows];
+        double[] midMjds = new double[nRows];
+        double[] endMjds = new double[nRows];
+        byte[] flags = new byte[nRows];
+        for (int i = 0; i < nRows; i++) {
+            cadenceNumbers[i] = din.readInt();
+        }
+        for (int i = 0; i < nRows; i++) {
+            startMjds[i] = din.readDouble();
+        }
+        for (int i = 0; i < nRows; i++) {
+            midMjds[i] = din.readDouble();
+        }
+        for (int i = 0; i < nRows; i++) {
+            endMjds[i] = din.readDouble();
+        }
+        din.readFully(flags);
+
+        return new PixelLogIndex(cadenceType, cadenceNumbers, startMjds,
+            midMjds, endMjds, flags);
+    }
+
+    private PixelLogIndex(int cadenceType, int[] cadenceNumbers,
+        double[] startMjds, double[] midMjds, double[] endMjds, byte[] flags) {
+        this.cadenceType = cadenceType;
+        this.cadenceNumbers = cadenceNumbers;
+        this.startMjds = startMjds;
+        this.midMjds = midMjds;
+        this.endMjds = endMjds;
+        this.flags = flags;
+
+        validateCadenceTimes();
+
+        if (cadenceNumbers.length == 0) {
+            rowByCadence = null;
+        } else {
+            long span = (long) cadenceNumbers[cadenceNumbers.length - 1]
+                - cadenceNumbers[0] + 1;
+            if (span > (long) MAX_SPARSENESS * cadenceNumbers.length) {
+                rowByCadence = null;
+            } else {
+                rowByCadence = new int[(int) span];
+                for (int i = 0; i < rowByCadence.length; i++) {
+                    rowByCadence[i] = -1;
+                }
+                for (int row = 0; row < cadenceNumbers.length; row++) {
+                    rowByCadence[cadenceNumbers[row] - cadenceNumbers[0]] = row;
+                }
+            }
+        }
+    }
+
+    private void validateCadenceTimes() {
+        for (int row = 1; row < cadenceNumbers.length; row++) {
+            if (midMjds[row - 1] >= midMjds[row]
+                || startMjds[row - 1] >= startMjds[row]
+                || endMjds[row - 1] >= endMjds[row]) {
+
+                String m = "Time goes backwards or does not change in pixel logs.\n";
+                m += "current/prev cadence " + cadenceNumbers[row] + " "
+                    + cadenceNumbers[row - 1] + "\n";
+                m += "current/prev mjd start time " + startMjds[row] + " "
+                    + startMjds[row - 1] + "\n ";
+                m += "current/prev mjd mid time  " + midMjds[row] + " "
+                    + midMjds[row - 1] + "\n";
+                m += "current/prev mjd end time " + endMjds[row] + " "
+                    + endMjds[row - 1] + "\n";
+
+                throw new IllegalStateException(m);
+            }
+        }
+    }
+
+    /**
+     * @return A new index with the rows from this index and other. Where both
+     * have the same cadence the row from other is used.
+     * @throws IllegalStateException if the combined rows have time going
+     * backwards.
+     */
+    public PixelLogIndex merge(PixelLogIndex other) {
+        if (other.cadenceType != cadenceType) {
+            throw new IllegalArgumentException("Can't merge cadence type "
+                + other.cadenceType + " with cadence type " + cadenceType + ".");
+        }
+        if (other.size() == 0) {
+            return this;
+        }
+        if (size() == 0) {
+            return other;
+        }
+
+        int nRows = 0;
+        for (int i = 0, j = 0; i < size() || j < other.size();) {
+            if (j == other.size()
+                || (i < size() && cadenceNumbers[i] < other.cadenceNumbers[j])) {
+                i++;
+            } else {
+                if (i < size() && cadenceNumbers[i] == other.cadenceNumbers[j]) {
+                    i++;
+                }
+                j++;
+            }
+            nRows++;
+        }
+
+        int[] mergedCadences = new int[nRows];
+        double[] mergedStartMjds = new double[nRows];
+        double[] mergedMidMjds = new double[nRows];
+        double[] mergedEndMjds = new double[nRows];
+        byte[] mergedFlags = new byte[nRows];
+        for (int i = 0, j = 0, row = 0; row < nRows; row++) {
+            PixelLogIndex src;
+            int srcRow;
+            if (j == other.size()
+                || (i < size() && cadenceNumbers[i] < other.cadenceNumbers[j])) {
+                src = this;
+                srcRow = i++;
+            } else {
+                if (i < size() && cadenceNumbers[i] == other.cadenceNumbers[j]) {
+                    i++;
+                }
+                src = other;
+                srcRow = j++;
+            }
+            mergedCadences[row] = src.cadenceNumbers[srcRow];
+            mergedStartMjds[row] = src.startMjds[srcRow];
+            mergedMidMjds[row] = src.midMjds[srcRow];
+            mergedEndMjds[row] = src.endMjds[srcRow];
+            mergedFlags[row] = src.flags[srcRow];
+        }
+
+        return new PixelLogIndex(cadenceType, mergedCadences, mergedStartMjds,
+            mergedMidMjds, mergedEndMjds, mergedFlags);
+    }
+
+    public void writeTo(DataOutput dout) throws IOException {
+        dout.writeInt(FORMAT_VERSION);
+        dout.writeInt(cadenceType);
+        dout.writeInt(size());
+        for (int cadence : cadenceNumbers) {
+            dout.writeInt(cadence);
+        }
+        for (double mjd : startMjds) {
+            dout.writeDouble(mjd);
+        }
+        for (double mjd : midMjds) {
+            dout.writeDouble(mjd);
+        }
+        for (double mjd : endMjds) {
+            dout.writeDouble(mjd);
+        }
+        dout.write(flags);
+    }
+
+    public int cadenceType() {
+        return cadenceType;
+    }
+
+    /**
+     * @return the number of cadences in this index.
+     */
+    public int size() {
+        return cadenceNumbers.length;
+    }
+
+    /**
+     * @return The row of the specified cadence or -1 if the cadence is not
+     * present.
+     */
+    public int rowOf(int cadence) {
+        if (cadenceNumbers.length == 0) {
+            return -1;
+        }
+        if (rowByCadence == null) {
+            int row = Arrays.binarySearch(cadenceNumbers, cadence);
+            return row < 0 ? -1 : row;
+        }
+        long offset = (long) cadence - cadenceNumbers[0];
+        if (offset < 0 || offset >= rowByCadence.length) {
+            return -1;
+        }
+        return rowByCadence[(int) offset];
+    }
+
+    /**
+     * @return The row of the cadence with exactly the specified mid mjd or -1
+     * if there is no such cadence.
+     */
+    public int rowOfMidMjd(double mjd) {
+        int row = Arrays.binarySearch(midMjds, mjd);
+        return row < 0 ? -1 : row;
+    }
+
+    public boolean hasCadence(int cadence) {
+        return rowOf(cadence) != -1;
+    }
+
+    /**
+     * @return the mjd of the mid point of the cadence.
+     * @throws NoSuchElementException if the cadence is not present.
+     */
+    public double cadenceToMjd(int cadence) {
+        int row = rowOf(cadence);
+        if (row == -1) {
+            throw new NoSuchElementException("Cadence " + cadence
+                + " does not exist.");
+        }
+        return midMjds[row];
+    }
+
+    /**
+     * @param mjd The MJD of the mid point of the cadence.
+     * @throws NoSuchElementException if there is no such cadence.
+     */
+    public int mjdToCadence(double mjd) {
+        int row = rowOfMidMjd(mjd);
+        if (row == -1) {
+            throw new NoSuchElementException("Mjd mid point " + mjd
+                + " does not exist.");
+        }
+        return cadenceNumbers[row];
+    }
+
+    public int cadenceNumber(int row) {
+        return cadenceNumbers[row];
+    }
+
+    public double startMjd(int row) {
+        return startMjds[row];
+    }
+
+    public double midMjd(int row) {
+        return midMjds[row];
+    }
+
+    public double endMjd(int row) {
+        return endMjds[row];
+    }
+
+    public boolean isRequantEnabled(int row) {
+        return (flags[row] & REQUANT_ENABLED) != 0;
+    }
+
+    public boolean isSefiAcc(int row) {
+        return (flags[row] & SEFI_ACC) != 0;
+    }
+
+    public boolean isSefiCad(int row) {
+        return (flags[row] & SEFI_CAD) != 0;
+    }
+
+    public boolean isLdeOos(int row) {
+        return (flags[row] & LDE_OOS) != 0;
+    }
+
+    public boolean isFinePnt(int row) {
+        return (flags[row] & FINE_PNT) != 0;
+    }
+
+    public boolean isMmntmDmp(int row) {
+        return (flags[row] & MMNTM_DMP) != 0;
+    }
+
+    public boolean isLdeParEr(int row) {
+        return (flags[row] & LDE_PAR_ER) != 0;
+    }
+
+    public boolean isScrcErr(int row) {
+        return (flags[row] & SCRC_ERR) != 0;
+    }
+
+    /**
+     * @return the approximate number of bytes used by this index.
+     */
+    public long sizeBytes() {
+        long size = 29L * cadenceNumbers.length;
+        if (rowByCadence != null) {
+            size += 4L * rowByCadence.length;
+        }
+        return size;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.dr;
+
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
+import gov.nasa.kepler.hibernate.dr.PixelLog.DataSetType;
+import gov.nasa.spiffy.common.concurrent.ConcurrentWeightedCache;
+import gov.nasa.spiffy.common.metrics.CounterMetric;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Process-wide cache of {@link PixelLogIndex}es so that pipeline tasks running
+ * in the same worker which ask for the same cadence range do not each
+ * retrieve and hydrate all the {@link PixelLog}s for that range. Entries are
+ * keyed by the pixel log table, cadence type, data set type and cadence range
+ * of the query. The cache is bounded by the total number of cadences and
+ * entries expire after {@link #MAX_AGE_SECONDS_PROP} seconds. Pixel logs
+ * written by another process are not seen until then, so the cache is off
+ * unless that property is set to a positive value.
+ * 
+ * When {@link LogCrud} creates or deletes a pixel log in this process it calls
+ * {@link #writeStarted()} and, once its transaction has committed or rolled
+ * back, {@link #writeCompleted()}. Nothing is read from or added to the cache
+ * while such a write is outstanding, and an index read from the database
+ * before a write completed is never cached. Ranges without any pixel logs are
+ * never cached.
+ */
+public final class PixelLogIndexCache {
+
+    private static final Log log = LogFactory.getLog(PixelLogIndexCache.class);
+
+    public static final String MAX_CADENCES_PROP = "dr.pixelLogIndexCache.maxCadences";
+    public static final int DEFAULT_MAX_CADENCES = 2 * 1024 * 1024;
+
+    public static final String MAX_AGE_SECONDS_PROP = "dr.pixelLogIndexCache.maxAgeSeconds";
+    public static final int DEFAULT_MAX_AGE_SECONDS = 0;
+
+    private static final String METRIC_PREFIX = "dr.pixelLogIndexCache.";
+
+    private static PixelLogIndexCache instance;
+
+    /** Pixel log writes in this process which have not yet completed. */
+    private static final AtomicInteger pendingWrites = new AtomicInteger();
+
+    /** Incremented each time a pixel log write completes. */
+    private static final AtomicLong generation = new AtomicLong();
+
+    private final ConcurrentWeightedCache<Key, Entry> entries;
+    private final long maxAgeMillis;
+
+    public static synchronized PixelLogIndexCache getInstance() {
+        if (instance == null) {
+            Configuration config = ConfigurationServiceFactory.getInstance();
+            int maxCadences = config.getInt(MAX_CADENCES_PROP,
+                DEFAULT_MAX_CADENCES);
+            int maxAgeSeconds = config.getInt(MAX_AGE_SECONDS_PROP,
+                DEFAULT_MAX_AGE_SECONDS);
+            if (maxCadences > 0 && maxAgeSeconds > 0) {
+                log.info("Pixel log index cache limited to " + maxCadences
+                    + " cadences for " + maxAgeSeconds + "s.");
+            } else {
+                log.info("Pixel log index cache disabled.");
+            }
+            instance = new PixelLogIndexCache(maxCadences,
+                maxAgeSeconds * 1000L);
+        }
+        return instance;
+    }
+
+    /**
+     * Called before a pixel log is created or deleted. Each call must be
+     * followed by exactly one call to {@link #writeCompleted()}.
+     */
+    static void writeStarted() {
+        pendingWrites.incrementAndGet();
+    }
+
+    /**
+     * Called after the transaction which created or deleted pixel logs has
+     * committed or rolled back. Indexes read before this point are dropped.
+     */
+    static void writeCompleted() {
+        generation.incrementAndGet();
+        synchronized (PixelLogIndexCache.class) {
+            if (instance != null) {
+                instance.clear();
+            }
+        }
+        pendingWrites.decrementAndGet();
+    }
+
+    /**
+     * Only a plain {@link LogCrud} is known to read the PixelLog table
+     * through retrievePixelLog() so other implementations, like
+     * {@link RclcPixelLogCrud} and mock objects, should not use this cache.
+     */
+    public static boolean isCacheable(PixelLogCrud pixelLogCrud) {
+        return pixelLogCrud != null && pixelLogCrud.getClass() == LogCrud.class;
+    }
+
+    /**
+     * @param maxCadences when zero nothing is ever cached.
+     * @param maxAgeMillis when not positive nothing is ever cached.
+     */
+    PixelLogIndexCache(long maxCadences, long maxAgeMillis) {
+        if (maxCadences < 0) {
+            throw new IllegalArgumentException("maxCadences " + maxCadences
+                + " must be non-negative.");
+        }
+        this.maxAgeMillis = maxAgeMillis;
+        if (maxCadences == 0 || maxAgeMillis <= 0) {
+            entries = null;
+        } else {
+            entries = new ConcurrentWeightedCache<Key, Entry>(maxCadences,
+                new ConcurrentWeightedCache.Weigher<Key, Entry>() {
+                    @Override
+                    public int weightOf(Key key, Entry value) {
+                        return value.index.size();
+                    }
+                });
+        }
+    }
+
+    /**
+     * Returns the index of the pixel logs which
+     * {@link LogCrud#retrievePixelLog(int, DataSetType, int, int)} would return
+     * for the same arguments.
+     */
+    public PixelLogIndex retrievePixelLogIndex(LogCrud logCrud,
+        int cadenceType, DataSetType dataSetType, int startCadence,
+        int endCadence) {
+
+        Key key = new Key(logCrud.getPixelLogClassName(), cadenceType,
+            dataSetType, startCadence, endCadence);
+        boolean useCache = entries != null && pendingWrites.get() == 0;
+        long startGeneration = generation.get();
+        if (useCache) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.generation == startGeneration
+                    && System.currentTimeMillis() - entry.createdMillis <= maxAgeMillis) {
+                    CounterMetric.increment(METRIC_PREFIX + "hit");
+                    return entry.index;
+                }
+                entries.remove(key);
+            }
+        }
+        CounterMetric.increment(METRIC_PREFIX + "miss");
+
+        List<PixelLog> pixelLogs = logCrud.retrievePixelLog(cadenceType,
+            dataSetType, startCadence, endCadence);
+        PixelLogIndex index = PixelLogIndex.build(cadenceType, pixelLogs);
+        if (useCache && index.size() != 0 && pendingWrites.get() == 0
+            && generation.get() == startGeneration) {
+            entries.put(key, new Entry(index, startGeneration,
+                System.currentTimeMillis()));
+        }
+        return index;
+    }
+
+    public void clear() {
+        if (entries != null) {
+            entries.clear();
+        }
+    }
+
+    private static final class Entry {
+        private final PixelLogIndex index;
+        private final long generation;
+        private final long createdMillis;
+
+        private Entry(PixelLogIndex index, long generation, long createdMillis) {
+            this.index = index;
+            this.generation = generation;
+            this.createdMillis = createdMillis;
+        }
+    }
+
+    private static final class Key {
+        private final String pixelLogClassName;
+        private final int cadenceType;
+        private final DataSetType dataSetType;
+        private final int startCadence;
+        private final int endCadence;
+
+        private Key(String pixelLogClassName, int cadenceType,
+            DataSetType dataSetType, int startCadence, int endCadence) {
+            this.pixelLogClassName = pixelLogClassName;
+            this.cadenceType = cadenceType;
+            this.dataSetType = dataSetType;
+            this.startCadence = startCadence;
+            this.endCadence = endCadence;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + cadenceType;
+            result = prime * result
+                + (dataSetType == null ? 0 : dataSetType.hashCode());
+            result = prime * result + endCadence;
+            result = prime * result + pixelLogClassName.hashCode();
+            result = prime * result + startCadence;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return cadenceType == other.cadenceType
+                && dataSetType == other.dataSetType
+                && startCadence == other.startCadence
+                && endCadence == other.endCadence
+                && pixelLogClassName.equals(other.pixelLogClassName);
+        }
+    }
+}
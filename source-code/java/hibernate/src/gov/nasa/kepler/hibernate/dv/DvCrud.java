@@ -39,6 +39,7 @@ package gov.nasa.kepler.hibernate.dv;
 
 import gnu.trove.TIntArrayList;
 import gov.nasa.kepler.hibernate.AbstractCrud;
+import gov.nasa.kepler.hibernate.dbservice.BulkInserter;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.pi.PipelineInstance;
 import gov.nasa.kepler.hibernate.pi.PipelineTask;
@@ -105,7 +106,8 @@ public class DvCrud extends AbstractCrud {
     }
 
     /**
-     * Stores the given collection of {@link DvPlanetResults}.
+     * Stores the given collection of {@link DvPlanetResults}. The objects are
+     * evicted from the session once they have been written.
      * 
      * @param planetResultsCollection the {@link DvPlanetResults} objects to
      * create
@@ -116,9 +118,8 @@ public class DvCrud extends AbstractCrud {
     public void createPlanetResultsCollection(
         Collection<DvPlanetResults> planetResultsCollection) {
 
-        for (DvPlanetResults planetResults : planetResultsCollection) {
-            create(planetResults);
-        }
+        new BulkInserter(getDatabaseService()).insertAndEvict(
+            planetResultsCollection, "DvPlanetResults");
     }
 
     /**
@@ -133,7 +134,8 @@ public class DvCrud extends AbstractCrud {
     }
 
     /**
-     * Stores the given collection of {@link DvLimbDarkeningModel}.
+     * Stores the given collection of {@link DvLimbDarkeningModel}. The objects
+     * are evicted from the session once they have been written.
      * 
      * @param limbDarkeningModelCollection the {@link DvLimbDarkeningModel}
      * objects to create
@@ -144,9 +146,8 @@ public class DvCrud extends AbstractCrud {
     public void createLimbDarkeningModelsCollection(
         List<DvLimbDarkeningModel> limbDarkeningModelCollection) {
 
-        for (DvLimbDarkeningModel limbDarkeningModel : limbDarkeningModelCollection) {
-            create(limbDarkeningModel);
-        }
+        new BulkInserter(getDatabaseService()).insertAndEvict(
+            limbDarkeningModelCollection, "DvLimbDarkeningModels");
     }
 
     /**
@@ -160,7 +161,8 @@ public class DvCrud extends AbstractCrud {
     }
 
     /**
-     * Stores the given collection of {@link DvTargetResults}.
+     * Stores the given collection of {@link DvTargetResults}. The objects are
+     * evicted from the session once they have been written.
      * 
      * @param targetResultsCollection the {@link DvTargetResults} objects to
      * create
@@ -171,9 +173,8 @@ public class DvCrud extends AbstractCrud {
     public void createTargetResultsCollection(
         List<DvTargetResults> targetResultsCollection) {
 
-        for (DvTargetResults dvTargetResults : targetResultsCollection) {
-            create(dvTargetResults);
-        }
+        new BulkInserter(getDatabaseService()).insertAndEvict(
+            targetResultsCollection, "DvTargetResults");
     }
 
     /**
@@ -74,6 +74,7 @@ public class FcCrud extends AbstractCrud {
      */
     public void create(GainHistoryModel gainHistoryModel) {
         getSession().save(gainHistoryModel);
+        FcModelCache.getInstance().invalidate(HistoryModelName.GAIN);
     }
 
     /**
@@ -104,6 +105,7 @@ public class FcCrud extends AbstractCrud {
      */
     public void create(TwoDBlackImageHistoryModel twoDBlackImageHistoryModel) {
         getSession().save(twoDBlackImageHistoryModel);
+        FcModelCache.getInstance().invalidate(HistoryModelName.TWODBLACK);
     }
 
     /**
@@ -115,6 +117,7 @@ public class FcCrud extends AbstractCrud {
     public void create(
             SmallFlatFieldImageHistoryModel smallFlatFieldImageHistoryModel) {
         getSession().save(smallFlatFieldImageHistoryModel);
+        FcModelCache.getInstance().invalidate(HistoryModelName.SMALLFLATFIELD);
     }
 
     /**
@@ -135,6 +138,7 @@ public class FcCrud extends AbstractCrud {
      */
     public void create(LargeFlatFieldHistoryModel largeFlatFieldHistoryModel) {
         getSession().save(largeFlatFieldHistoryModel);
+        FcModelCache.getInstance().invalidate(HistoryModelName.LARGEFLATFIELD);
     }
 
     /**
@@ -174,6 +178,7 @@ public class FcCrud extends AbstractCrud {
      */
     public void create(GeometryHistoryModel geometryHistoryModel) {
         getSession().save(geometryHistoryModel);
+        FcModelCache.getInstance().invalidate(HistoryModelName.GEOMETRY);
     }
 
     /**
@@ -298,6 +303,7 @@ public class FcCrud extends AbstractCrud {
     
     public void create(History history) {
         getSession().save(history);
+        FcModelCache.getInstance().invalidate(history.getModelType());
     }
 
     public Gain retrieve(Gain gain, History history) {
@@ -0,0 +1,423 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.fc;
+
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
+import gov.nasa.spiffy.common.metrics.CounterMetric;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Process-wide cache of decoded focal plane characteristics models. Entries
+ * are keyed by model type, history, module/output and either the start mjd of
+ * the model itself (see {@link Key#forModel}) or, for data that depends on a
+ * time range, the mjd interval of the query that produced them. Callers of
+ * point in time lookups must first resolve which model covers the mjd so that
+ * all the mjds covered by one model share one entry. Entries are held as
+ * primitive arrays rather than Hibernate entities so they can be shared across
+ * sessions and pipeline tasks running in the same worker. The cache is bounded
+ * by an approximate total size in bytes and evicts the least recently used
+ * entries first.
+ * 
+ * Entries for a model type are dropped whenever {@link FcCrud} creates a new
+ * {@link History} or history model of that type in this process. Entries
+ * belonging to a transient {@link History} (one that has not been assigned an
+ * id yet) are never cached. Models added to an existing history by another
+ * process are not seen by this invalidation, so entries also expire
+ * {@value #MAX_AGE_SECONDS_PROP} seconds after they were cached.
+ */
+public final class FcModelCache {
+
+    private static final Log log = LogFactory.getLog(FcModelCache.class);
+
+    public static final String MAX_MEGABYTES_PROP = "fc.modelCache.maxMegaBytes";
+    public static final int DEFAULT_MAX_MEGABYTES = 512;
+    public static final String MAX_AGE_SECONDS_PROP = "fc.modelCache.maxAgeSeconds";
+    public static final int DEFAULT_MAX_AGE_SECONDS = 600;
+
+    private static final String METRIC_PREFIX = "fc.modelCache.";
+    private static final long ARRAY_OVERHEAD_BYTES = 16;
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private static FcModelCache instance;
+
+    private final long maxSizeBytes;
+    private final long maxAgeMillis;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(
+        64, 0.75f, true);
+    private long sizeBytes;
+    private long hitCount;
+    private long missCount;
+
+    public static synchronized FcModelCache getInstance() {
+        if (instance == null) {
+            Configuration config = ConfigurationServiceFactory.getInstance();
+            long maxMegaBytes = config.getInt(MAX_MEGABYTES_PROP,
+                DEFAULT_MAX_MEGABYTES);
+            long maxAgeSeconds = config.getInt(MAX_AGE_SECONDS_PROP,
+                DEFAULT_MAX_AGE_SECONDS);
+            log.info("FC model cache limited to " + maxMegaBytes + "MiB and "
+                + maxAgeSeconds + "s.");
+            instance = new FcModelCache(maxMegaBytes * 1024 * 1024,
+                maxAgeSeconds * 1000);
+        }
+        return instance;
+    }
+
+    /**
+     * @param maxSizeBytes when zero nothing is ever cached.
+     */
+    FcModelCache(long maxSizeBytes) {
+        this(maxSizeBytes, 0);
+    }
+
+    /**
+     * @param maxSizeBytes when zero nothing is ever cached.
+     * @param maxAgeMillis when zero entries never expire.
+     */
+    FcModelCache(long maxSizeBytes, long maxAgeMillis) {
+        if (maxSizeBytes < 0) {
+            throw new IllegalArgumentException("maxSizeBytes " + maxSizeBytes
+                + " must be non-negative.");
+        }
+        if (maxAgeMillis < 0) {
+            throw new IllegalArgumentException("maxAgeMillis " + maxAgeMillis
+                + " must be non-negative.");
+        }
+        this.maxSizeBytes = maxSizeBytes;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @return the cached value or null if it is not present.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T get(Key key) {
+        if (!key.isCacheable()) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry != null && maxAgeMillis > 0
+            && System.currentTimeMillis() - entry.createdMillis > maxAgeMillis) {
+            entries.remove(key);
+            sizeBytes -= entry.sizeBytes;
+            entry = null;
+        }
+        if (entry == null) {
+            missCount++;
+            CounterMetric.increment(METRIC_PREFIX + key.modelType + ".miss");
+            return null;
+        }
+        hitCount++;
+        CounterMetric.increment(METRIC_PREFIX + key.modelType + ".hit");
+        return (T) entry.value;
+    }
+
+    /**
+     * Callers must not modify value after it has been cached.
+     * 
+     * @param sizeBytes the approximate size of value.
+     */
+    public synchronized void put(Key key, Object value, long sizeBytes) {
+        if (value == null) {
+            throw new NullPointerException("value");
+        }
+        if (!key.isCacheable()) {
+            return;
+        }
+        long entrySize = sizeBytes + ENTRY_OVERHEAD_BYTES;
+        if (entrySize > maxSizeBytes) {
+            return;
+        }
+        Entry old = entries.put(key, new Entry(value, entrySize));
+        if (old != null) {
+            this.sizeBytes -= old.sizeBytes;
+        }
+        this.sizeBytes += entrySize;
+
+        Iterator<Entry> it = entries.values()
+            .iterator();
+        while (this.sizeBytes > maxSizeBytes) {
+            Entry eldest = it.next();
+            this.sizeBytes -= eldest.sizeBytes;
+            it.remove();
+        }
+    }
+
+    /**
+     * Drops all the entries for the specified model type.
+     */
+    public synchronized void invalidate(HistoryModelName modelType) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet()
+            .iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> mapEntry = it.next();
+            if (mapEntry.getKey().modelType == modelType) {
+                sizeBytes -= mapEntry.getValue().sizeBytes;
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        sizeBytes = 0;
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public static long sizeOf(double[] a) {
+        return ARRAY_OVERHEAD_BYTES + 8L * a.length;
+    }
+
+    public static long sizeOf(double[][] a) {
+        long size = ARRAY_OVERHEAD_BYTES + 8L * a.length;
+        for (double[] row : a) {
+            size += sizeOf(row);
+        }
+        return size;
+    }
+
+    /**
+     * @param sortedStartMjds the start mjds of the models in ascending order.
+     * @return the index of the model which covers mjd, the last one that
+     * starts on or before mjd, or -1 if they all start after mjd.
+     */
+    public static int coveringModel(double[] sortedStartMjds, double mjd) {
+        int index = Arrays.binarySearch(sortedStartMjds, mjd);
+        if (index < 0) {
+            return -index - 2;
+        }
+        while (index + 1 < sortedStartMjds.length
+            && sortedStartMjds[index + 1] == mjd) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @return a copy of a that does not share any rows with a.
+     */
+    public static double[][] copyOf(double[][] a) {
+        double[][] copy = new double[a.length][];
+        for (int i = 0; i < a.length; i++) {
+            copy[i] = a[i].clone();
+        }
+        return copy;
+    }
+
+    private static final class Entry {
+        private final Object value;
+        private final long sizeBytes;
+        private final long createdMillis = System.currentTimeMillis();
+
+        private Entry(Object value, long sizeBytes) {
+            this.value = value;
+            this.sizeBytes = sizeBytes;
+        }
+    }
+
+    /**
+     * Identifies a model, or a piece of a model, for a single history and
+     * module/output. Models that are not specific to a module/output use zero
+     * for both.
+     */
+    public static final class Key {
+        private final HistoryModelName modelType;
+        private final String dataName;
+        private final long historyId;
+        private final int ccdModule;
+        private final int ccdOutput;
+        private final double startMjd;
+        private final double endMjd;
+
+        /**
+         * @param dataName distinguishes the different kinds of data cached
+         * for the same model type e.g. "image" and "times".
+         */
+        public Key(HistoryModelName modelType, String dataName,
+            History history, int ccdModule, int ccdOutput, double startMjd,
+            double endMjd) {
+            this.modelType = modelType;
+            this.dataName = dataName;
+            this.historyId = history == null ? 0 : history.getId();
+            this.ccdModule = ccdModule;
+            this.ccdOutput = ccdOutput;
+            this.startMjd = startMjd;
+            this.endMjd = endMjd;
+        }
+
+        /**
+         * Identifies a single model by its own start mjd, rather than by the
+         * mjd of the query that found it.
+         */
+        public static Key forModel(HistoryModelName modelType,
+            String dataName, History history, int ccdModule, int ccdOutput,
+            double modelMjd) {
+            return new Key(modelType, dataName, history, ccdModule,
+                ccdOutput, modelMjd, modelMjd);
+        }
+
+        private boolean isCacheable() {
+            return historyId != 0;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + modelType.hashCode();
+            result = prime * result + dataName.hashCode();
+            result = prime * result + (int) (historyId ^ (historyId >>> 32));
+            result = prime * result + ccdModule;
+            result = prime * result + ccdOutput;
+            long temp = Double.doubleToLongBits(startMjd);
+            result = prime * result + (int) (temp ^ (temp >>> 32));
+            temp = Double.doubleToLongBits(endMjd);
+            result = prime * result + (int) (temp ^ (temp >>> 32));
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return modelType == other.modelType
+                && dataName.equals(other.dataName)
+                && historyId == other.historyId
+                && ccdModule == other.ccdModule
+                && ccdOutput == other.ccdOutput
+                && Double.doubleToLongBits(startMjd) == Double.doubleToLongBits(other.startMjd)
+                && Double.doubleToLongBits(endMjd) == Double.doubleToLongBits(other.endMjd);
+        }
+
+        @Override
+        public String toString() {
+            return modelType + ":" + dataName + ":" + historyId + ":"
+                + ccdModule + "/" + ccdOutput + ":" + startMjd + "-" + endMjd;
+        }
+    }
+
+    /**
+     * A decoded image and its uncertainties stored row major in flat arrays.
+     */
+    public static final class Image {
+        private final int rows;
+        private final int columns;
+        private final float[] values;
+        private final float[] uncertainties;
+
+        public static Image valueOf(float[][] values, float[][] uncertainties) {
+            int rows = values.length;
+            int columns = rows == 0 ? 0 : values[0].length;
+            return new Image(rows, columns, flatten(values, rows, columns),
+                flatten(uncertainties, rows, columns));
+        }
+
+        private static float[] flatten(float[][] image, int rows, int columns) {
+            if (image == null) {
+                return null;
+            }
+            float[] flat = new float[rows * columns];
+            for (int row = 0; row < rows; row++) {
+                System.arraycopy(image[row], 0, flat, row * columns, columns);
+            }
+            return flat;
+        }
+
+        private Image(int rows, int columns, float[] values,
+            float[] uncertainties) {
+            this.rows = rows;
+            this.columns = columns;
+            this.values = values;
+            this.uncertainties = uncertainties;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public int getColumns() {
+            return columns;
+        }
+
+        public float getValue(int row, int column) {
+            return values[index(row, column)];
+        }
+
+        public float getUncertainty(int row, int column) {
+            return uncertainties[index(row, column)];
+        }
+
+        private int index(int row, int column) {
+            if (column < 0 || column >= columns) {
+                throw new ArrayIndexOutOfBoundsException(column);
+            }
+            return row * columns + column;
+        }
+
+        public long sizeBytes() {
+            long size = 2 * ARRAY_OVERHEAD_BYTES;
+            size += 4L * values.length;
+            if (uncertainties != null) {
+                size += 4L * uncertainties.length;
+            }
+            return size;
+        }
+    }
+}
@@ -125,6 +125,10 @@ public class History {
 		this.version = version;
 	}
 
+	public long getId() {
+		return id;
+	}
+
 	public double getIngestTime() {
 		return ingestTime;
 	}
@@ -43,6 +43,7 @@ import gov.nasa.kepler.hibernate.cm.KicCrud;
 import gov.nasa.kepler.hibernate.cm.SkyGroup;
 import gov.nasa.kepler.hibernate.cm.TargetListSet;
 import gov.nasa.kepler.hibernate.cm.TargetSelectionCrud;
+import gov.nasa.kepler.hibernate.dbservice.BulkInserter;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.dr.LogCrud;
 import gov.nasa.kepler.hibernate.dr.PixelLogCrud;
@@ -174,6 +175,30 @@ public class TargetCrud extends AbstractCrud implements TargetCrudInterface {
         return list;
     }
 
+    /**
+     * Retrieves the Kepler IDs of the {@link ObservedTarget}s in the given
+     * target table, including the rejected ones.
+     * 
+     * @return a non-{@code null} list of Kepler IDs sorted in ascending order
+     */
+    public List<Integer> retrieveObservedKeplerIdsPlusRejected(
+        TargetTable ttable) {
+        IntervalMetricKey key = IntervalMetric.start();
+
+        String queryString = " select distinct ot.keplerId from ObservedTarget as ot \n"
+            + "  where ot.targetTable = :targetTableParam \n"
+            + "  order by ot.keplerId";
+        Query q = getSession().createQuery(queryString);
+        q.setParameter("targetTableParam", ttable);
+
+        List<Integer> list = list(q);
+
+        IntervalMetric.stop(
+            getMetricName("retrieveObservedKeplerIdsPlusRejected"), key);
+
+        return list;
+    }
+
     public List<Integer> retrieveObservedKeplerIds(TargetTable ttable,
         int ccdModule, int ccdOutput) {
         IntervalMetricKey key = IntervalMetric.start();
@@ -920,18 +945,8 @@ public class TargetCrud extends AbstractCrud implements TargetCrudInterface {
     public void createObservedTargets(Collection<ObservedTarget> observedTargets) {
         IntervalMetricKey key = IntervalMetric.start();
 
-        int targetCount = 0;
-        for (ObservedTarget observedTarget : observedTargets) {
-            if (targetCount % 10000 == 0) {
-                log.info("Created " + targetCount + " ObservedTargets...");
-            }
-
-            getSession().save(observedTarget);
-
-            targetCount++;
-        }
-
-        log.info("Completed creating " + targetCount + " ObservedTargets.");
+        new BulkInserter(getDatabaseService()).insert(observedTargets,
+            "ObservedTargets");
 
         IntervalMetric.stop(getMetricName("createObservedTargets"), key);
     }
@@ -940,18 +955,8 @@ public class TargetCrud extends AbstractCrud implements TargetCrudInterface {
         Collection<TargetDefinition> targetDefinitions) {
         IntervalMetricKey key = IntervalMetric.start();
 
-        int targetCount = 0;
-        for (TargetDefinition targetDefinition : targetDefinitions) {
-            if (targetCount % 10000 == 0) {
-                log.info("Created " + targetCount + " TargetDefinitions...");
-            }
-
-            getSession().save(targetDefinition);
-
-            targetCount++;
-        }
-
-        log.info("Completed creating " + targetCount + " TargetDefinitions.");
+        new BulkInserter(getDatabaseService()).insert(targetDefinitions,
+            "TargetDefinitions");
 
         IntervalMetric.stop(getMetricName("createTargetDefinitions"), key);
     }
@@ -1335,9 +1340,7 @@ public class TargetCrud extends AbstractCrud implements TargetCrudInterface {
     public void createMasks(Collection<Mask> masks) {
         IntervalMetricKey key = IntervalMetric.start();
 
-        for (Mask mask : masks) {
-            getSession().save(mask);
-        }
+        new BulkInserter(getDatabaseService()).insert(masks, "Masks");
 
         IntervalMetric.stop(getMetricName("createMasks"), key);
     }
@@ -48,6 +48,7 @@ import gov.nasa.kepler.hibernate.cm.KicCrudTest;
 import gov.nasa.kepler.hibernate.cm.KicOverrideModelCrudTest;
 import gov.nasa.kepler.hibernate.cm.KicOverrideModelTest;
 import gov.nasa.kepler.hibernate.cm.KicOverrideTest;
+import gov.nasa.kepler.hibernate.cm.KicSpatialIndexTest;
 import gov.nasa.kepler.hibernate.cm.KicTest;
 import gov.nasa.kepler.hibernate.cm.PlannedTargetTest;
 import gov.nasa.kepler.hibernate.cm.ScpKeyTest;
@@ -56,6 +57,7 @@ import gov.nasa.kepler.hibernate.cm.TargetListSetTest;
 import gov.nasa.kepler.hibernate.cm.TargetListTest;
 import gov.nasa.kepler.hibernate.cm.TargetSelectionCrudTest;
 import gov.nasa.kepler.hibernate.dbservice.AnnotatedPojoListTest;
+import gov.nasa.kepler.hibernate.dbservice.BulkInserterTest;
 import gov.nasa.kepler.hibernate.dbservice.DerbyUrlTest;
 import gov.nasa.kepler.hibernate.dbservice.DontNukeProductionDatabases;
 import gov.nasa.kepler.hibernate.dbservice.XANodeNameFactoryTest;
@@ -68,6 +70,8 @@ import gov.nasa.kepler.hibernate.dr.HistogramLogCrudTest;
 import gov.nasa.kepler.hibernate.dr.LogCrudShortToLongToShortTest;
 import gov.nasa.kepler.hibernate.dr.LogCrudTest;
 import gov.nasa.kepler.hibernate.dr.PixelLogCacheTest;
+import gov.nasa.kepler.hibernate.dr.PixelLogIndexCacheTest;
+import gov.nasa.kepler.hibernate.dr.PixelLogIndexTest;
 import gov.nasa.kepler.hibernate.dr.PixelLogRetrieverFactoryTest;
 import gov.nasa.kepler.hibernate.dr.SclkCrudTest;
 import gov.nasa.kepler.hibernate.dv.DvAbstractTargetTableDataTest;
@@ -96,6 +100,7 @@ import gov.nasa.kepler.hibernate.dv.DvTargetResultsTest;
 import gov.nasa.kepler.hibernate.dv.DvThresholdCrossingEventTest;
 import gov.nasa.kepler.hibernate.dv.DvTransitModelDescriptionsTest;
 import gov.nasa.kepler.hibernate.dynablack.DynablackCrudTest;
+import gov.nasa.kepler.hibernate.fc.FcModelCacheTest;
 import gov.nasa.kepler.hibernate.gar.CompressionCrudTest;
 import gov.nasa.kepler.hibernate.gar.ExportTableTest;
 import gov.nasa.kepler.hibernate.mc.BoundsReportTest;
@@ -166,6 +171,7 @@ public class AutoTestSuite {
         suite.addTest(new JUnit4TestAdapter(CustomTargetCrudTest.class));
         suite.addTest(new JUnit4TestAdapter(ExportTableTest.class));
         suite.addTest(new JUnit4TestAdapter(KicCrudTest.class));
+        suite.addTest(new JUnit4TestAdapter(KicSpatialIndexTest.class));
         suite.addTest(new JUnit4TestAdapter(KicTest.class));
         suite.addTest(new JUnit4TestAdapter(PlannedTargetTest.class));
         suite.addTest(new JUnit4TestAdapter(ScpKeyTest.class));
@@ -180,6 +186,7 @@ public class AutoTestSuite {
 
         // dbservice
         suite.addTest(new JUnit4TestAdapter(AnnotatedPojoListTest.class));
+        suite.addTest(new JUnit4TestAdapter(BulkInserterTest.class));
         suite.addTest(new JUnit4TestAdapter(DerbyUrlTest.class));
         suite.addTest(new JUnit4TestAdapter(DontNukeProductionDatabases.class));
         suite.addTest(new JUnit4TestAdapter(XANodeNameFactoryTest.class));
@@ -196,6 +203,8 @@ public class AutoTestSuite {
         suite.addTest(new JUnit4TestAdapter(DataAnomalyModelCrudTest.class));
         suite.addTest(new JUnit4TestAdapter(PixelLogRetrieverFactoryTest.class));
         suite.addTest(new JUnit4TestAdapter(PixelLogCacheTest.class));
+        suite.addTest(new JUnit4TestAdapter(PixelLogIndexCacheTest.class));
+        suite.addTest(new JUnit4TestAdapter(PixelLogIndexTest.class));
 
         // dv
         suite.addTest(new JUnit4TestAdapter(DvAbstractTargetTableDataTest.class));
@@ -229,6 +238,9 @@ public class AutoTestSuite {
         // dynablack
         suite.addTest(new JUnit4TestAdapter(DynablackCrudTest.class));
 
+        // fc
+        suite.addTest(new JUnit4TestAdapter(FcModelCacheTest.class));
+
         // fpg
         suite.addTest(new JUnit4TestAdapter(DoubleDbTimeSeriesCrudTest.class));
         suite.addTest(new JUnit4TestAdapter(PrfCrudTest.class));
@@ -99,6 +99,7 @@ public class KicCrudTest {
     @Before
     public void createDatabase() throws Exception {
         KicCache.clear();
+        KicSpatialIndexCache.clear();
         
         // System.setProperty("hibernate.show_sql", "true");
         databaseService = DatabaseServiceFactory.getInstance();
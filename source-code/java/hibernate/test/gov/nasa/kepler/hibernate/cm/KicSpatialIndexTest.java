@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.cm;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link KicSpatialIndex} class against a linear scan.
+ */
+public class KicSpatialIndexTest {
+
+    private static final int OBJECT_COUNT = 20000;
+    private static final double MIN_RA = 19.0;
+    private static final double MIN_DEC = 44.0;
+    private static final double DEGREES_PER_ARCSEC = 1.0 / 3600.0;
+    private static final double HOURS_PER_DEGREE = 1.0 / 15.0;
+
+    @Test
+    public void testNearbyKeplerIds() {
+        Random random = new Random(42);
+        int[] keplerIds = new int[OBJECT_COUNT];
+        double[] ras = new double[OBJECT_COUNT];
+        double[] decs = new double[OBJECT_COUNT];
+        for (int i = 0; i < OBJECT_COUNT; i++) {
+            keplerIds[i] = 1000000 + i;
+            ras[i] = MIN_RA + random.nextDouble() * 0.1;
+            decs[i] = MIN_DEC + random.nextDouble() * 1.5;
+        }
+        // an object without a position is never returned
+        ras[7] = Double.NaN;
+
+        KicSpatialIndex index = new KicSpatialIndex(42, keplerIds, ras, decs);
+        assertEquals(OBJECT_COUNT - 1, index.size());
+
+        for (float boundedBoxWidth : new float[] { 6.0F, 60.0F, 600.0F }) {
+            for (int i = 0; i < 200; i++) {
+                int target = random.nextInt(OBJECT_COUNT);
+                assertEquals(
+                    linearScan(keplerIds, ras, decs, keplerIds[target],
+                        ras[target], decs[target], boundedBoxWidth),
+                    index.nearbyKeplerIds(keplerIds[target], ras[target],
+                        decs[target], boundedBoxWidth));
+            }
+        }
+
+        // a box entirely outside the indexed region
+        assertEquals(0, index.nearbyKeplerIds(0, 2.0, -10.0, 60.0F)
+            .size());
+        assertEquals(0, index.nearbyKeplerIds(0, Double.NaN, MIN_DEC, 60.0F)
+            .size());
+    }
+
+    @Test
+    public void testKeplerIdsWithinRadius() {
+        // objects along a line of constant declination, 1 arcsec apart
+        int count = 100;
+        int[] keplerIds = new int[count];
+        double[] ras = new double[count];
+        double[] decs = new double[count];
+        for (int i = 0; i < count; i++) {
+            keplerIds[i] = i;
+            ras[i] = MIN_RA + i * DEGREES_PER_ARCSEC * HOURS_PER_DEGREE;
+            decs[i] = 0.0;
+        }
+
+        KicSpatialIndex index = new KicSpatialIndex(1, keplerIds, ras, decs);
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 45; i <= 55; i++) {
+            if (i != 50) {
+                expected.add(i);
+            }
+        }
+        assertEquals(expected,
+            index.keplerIdsWithinRadius(50, ras[50], decs[50], 5.5));
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        KicSpatialIndex index = new KicSpatialIndex(1, new int[0],
+            new double[0], new double[0]);
+
+        assertEquals(0, index.size());
+        assertEquals(0, index.nearbyKeplerIds(0, MIN_RA, MIN_DEC, 60.0F)
+            .size());
+    }
+
+    private static List<Integer> linearScan(int[] keplerIds, double[] ras,
+        double[] decs, int keplerId, double ra, double dec,
+        float boundedBoxWidth) {
+
+        double hourOffset = boundedBoxWidth / 2 * HOURS_PER_DEGREE
+            * DEGREES_PER_ARCSEC;
+        hourOffset /= Math.cos(dec * Math.PI / 180);
+        double degreeOffset = boundedBoxWidth / 2 * DEGREES_PER_ARCSEC;
+
+        List<Integer> nearby = new ArrayList<Integer>();
+        for (int i = 0; i < keplerIds.length; i++) {
+            if (keplerIds[i] != keplerId && ras[i] >= ra - hourOffset
+                && ras[i] <= ra + hourOffset && decs[i] >= dec - degreeOffset
+                && decs[i] <= dec + degreeOffset) {
+                nearby.add(keplerIds[i]);
+            }
+        }
+        Collections.sort(nearby);
+
+        return nearby;
+    }
+}
@@ -71,6 +71,8 @@ import java.util.Map;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.hibernate.exception.ConstraintViolationException;
+import org.hibernate.stat.CollectionStatistics;
+import org.hibernate.stat.Statistics;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -327,6 +329,47 @@ public class TargetSelectionCrudTest {
         }
     }
 
+    @Test
+    public void testRetrievePlannedTargetsByKeplerIdRange() {
+        populateObjects();
+        List<TargetList> targetLists = Arrays.asList(pspTargetList,
+            planetDetectionTargetList);
+
+        // Each Kepler ID is on both target lists.
+        Integer maxKeplerId = targetSelectionCrud.retrievePlannedTargetKeplerId(
+            targetLists, 3, 10);
+        assertEquals(Integer.valueOf(8), maxKeplerId);
+        assertNull(targetSelectionCrud.retrievePlannedTargetKeplerId(
+            targetLists, PLANNED_TARGET_BATCH_SIZE - 5, 10));
+
+        Statistics statistics = databaseService.getSession()
+            .getSessionFactory()
+            .getStatistics();
+        statistics.clear();
+        statistics.setStatisticsEnabled(true);
+        List<PlannedTarget> targets;
+        try {
+            targets = targetSelectionCrud.retrievePlannedTargets(targetLists,
+                3, maxKeplerId);
+        } finally {
+            statistics.setStatisticsEnabled(false);
+        }
+
+        assertEquals(10, targets.size());
+        for (int i = 0; i < targets.size(); i++) {
+            assertEquals(3 + i / 2, targets.get(i)
+                .getKeplerId());
+            assertEquals(1, targets.get(i)
+                .getLabels()
+                .size());
+        }
+
+        // Only the labels of the targets in the range are read.
+        CollectionStatistics labelStatistics = statistics.getCollectionStatistics(PlannedTarget.class.getName()
+            + ".labels");
+        assertEquals(targets.size(), labelStatistics.getLoadCount());
+    }
+
     @Test
     public void testRetrievePlannedTargetsOneLabel() {
         populateObjects();
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.dbservice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.Sequence;
+import org.jmock.integration.junit4.JMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class BulkInserterTest {
+
+    private static final int FLUSH_INTERVAL = 2;
+
+    private Mockery mockery = new Mockery();
+
+    private final DatabaseService databaseService = mockery.mock(DatabaseService.class);
+    private final Session session = mockery.mock(Session.class);
+    private final SessionFactory sessionFactory = mockery.mock(SessionFactory.class);
+
+    @Test
+    public void insert() {
+        final List<Object> entities = entities(5);
+
+        mockery.checking(new Expectations() {
+            {
+                allowing(databaseService).getSession();
+                will(returnValue(session));
+                allowing(session).getSessionFactory();
+                will(returnValue(sessionFactory));
+
+                for (Object entity : entities) {
+                    oneOf(session).save(entity);
+                }
+                never(session).flush();
+                never(session).evict(with(any(Object.class)));
+            }
+        });
+
+        new BulkInserter(databaseService, FLUSH_INTERVAL).insert(entities, "entities");
+    }
+
+    @Test
+    public void insertAndEvict() {
+        final List<Object> entities = entities(5);
+        final Sequence sequence = mockery.sequence("flushes");
+
+        mockery.checking(new Expectations() {
+            {
+                allowing(databaseService).getSession();
+                will(returnValue(session));
+                allowing(session).getSessionFactory();
+                will(returnValue(sessionFactory));
+
+                for (int i = 0; i < entities.size(); i += FLUSH_INTERVAL) {
+                    int end = Math.min(i + FLUSH_INTERVAL, entities.size());
+                    for (Object entity : entities.subList(i, end)) {
+                        oneOf(session).save(entity);
+                        inSequence(sequence);
+                    }
+                    oneOf(session).flush();
+                    inSequence(sequence);
+                    for (Object entity : entities.subList(i, end)) {
+                        oneOf(session).evict(entity);
+                        inSequence(sequence);
+                    }
+                }
+            }
+        });
+
+        new BulkInserter(databaseService, FLUSH_INTERVAL).insertAndEvict(entities, "entities");
+    }
+
+    @Test
+    public void insertAndEvictNothing() {
+        mockery.checking(new Expectations() {
+            {
+                allowing(databaseService).getSession();
+                will(returnValue(session));
+                allowing(session).getSessionFactory();
+                will(returnValue(sessionFactory));
+
+                never(session).flush();
+            }
+        });
+
+        new BulkInserter(databaseService, FLUSH_INTERVAL).insertAndEvict(entities(0), "entities");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFlushInterval() {
+        new BulkInserter(databaseService, 0);
+    }
+
+    private static List<Object> entities(int count) {
+        List<Object> entities = new ArrayList<Object>();
+        for (int i = 0; i < count; i++) {
+            entities.add("entity" + i);
+        }
+        return entities;
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.dr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import gov.nasa.kepler.common.Cadence.CadenceType;
+import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
+import gov.nasa.kepler.hibernate.dr.PixelLog.DataSetType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class PixelLogIndexCacheTest {
+
+    private Mockery mockery = new Mockery() {
+        {
+            setImposteriser(ClassImposteriser.INSTANCE);
+        }
+    };
+
+    private final int cadenceType = CadenceType.LONG.intValue();
+    private final DataSetType dataSetType = DataSetType.Target;
+    private final int startCadence = 10;
+    private final int endCadence = 19;
+
+    private final PixelLogIndexCache cache = new PixelLogIndexCache(
+        PixelLogIndexCache.DEFAULT_MAX_CADENCES, 60 * 1000L);
+
+    @Test
+    public void sharedBetweenTasks() throws Exception {
+        CountingLogCrud firstTaskCrud = new CountingLogCrud();
+        CountingLogCrud secondTaskCrud = new CountingLogCrud();
+
+        PixelLogIndex first = retrieveInTask(firstTaskCrud);
+        PixelLogIndex second = retrieveInTask(secondTaskCrud);
+
+        assertSame(first, second);
+        assertEquals(endCadence - startCadence + 1, second.size());
+        assertEquals(1, firstTaskCrud.retrieveCount);
+        assertEquals(0, secondTaskCrud.retrieveCount);
+    }
+
+    @Test
+    public void disabledByDefault() {
+        PixelLogIndexCache defaultCache = new PixelLogIndexCache(
+            PixelLogIndexCache.DEFAULT_MAX_CADENCES,
+            PixelLogIndexCache.DEFAULT_MAX_AGE_SECONDS * 1000L);
+        CountingLogCrud logCrud = new CountingLogCrud();
+
+        retrieve(defaultCache, logCrud);
+        retrieve(defaultCache, logCrud);
+
+        assertEquals(2, logCrud.retrieveCount);
+    }
+
+    @Test
+    public void notCachedUntilWriteCompletes() {
+        final Session session = mockery.mock(Session.class);
+        final Transaction transaction = mockery.mock(Transaction.class);
+        final DatabaseService databaseService = mockery.mock(DatabaseService.class);
+        final AtomicReference<Synchronization> synchronization = new AtomicReference<Synchronization>();
+        final PixelLog pixelLog = new PixelLog();
+        mockery.checking(new Expectations() {
+            {
+                allowing(databaseService).getSession();
+                will(returnValue(session));
+                allowing(session).getTransaction();
+                will(returnValue(transaction));
+                allowing(transaction).isActive();
+                will(returnValue(true));
+                oneOf(transaction).registerSynchronization(
+                    with(any(Synchronization.class)));
+                will(new CustomAction("capture synchronization") {
+                    @Override
+                    public Object invoke(Invocation invocation) {
+                        synchronization.set((Synchronization) invocation.getParameter(0));
+                        return null;
+                    }
+                });
+                exactly(2).of(session).save(pixelLog);
+            }
+        });
+        LogCrud writer = new LogCrud(databaseService);
+        CountingLogCrud reader = new CountingLogCrud();
+
+        retrieve(cache, reader);
+        writer.createPixelLog(pixelLog);
+        writer.createPixelLog(pixelLog);
+        retrieve(cache, reader);
+        retrieve(cache, reader);
+        assertEquals(3, reader.retrieveCount);
+
+        assertNotNull(synchronization.get());
+        synchronization.get().afterCompletion(Status.STATUS_COMMITTED);
+        retrieve(cache, reader);
+        retrieve(cache, reader);
+        assertEquals(4, reader.retrieveCount);
+    }
+
+    @Test
+    public void readOverlappingWriteNotCached() {
+        CountingLogCrud logCrud = new CountingLogCrud() {
+            @Override
+            public List<PixelLog> retrievePixelLog(int cadenceType,
+                DataSetType dataSetType, int startCadence, int endCadence) {
+                List<PixelLog> pixelLogs = super.retrievePixelLog(cadenceType,
+                    dataSetType, startCadence, endCadence);
+                if (retrieveCount == 1) {
+                    PixelLogIndexCache.writeStarted();
+                    PixelLogIndexCache.writeCompleted();
+                }
+                return pixelLogs;
+            }
+        };
+
+        retrieve(cache, logCrud);
+        retrieve(cache, logCrud);
+        retrieve(cache, logCrud);
+
+        assertEquals(2, logCrud.retrieveCount);
+    }
+
+    private PixelLogIndex retrieveInTask(final LogCrud logCrud)
+        throws InterruptedException {
+
+        final AtomicReference<PixelLogIndex> index = new AtomicReference<PixelLogIndex>();
+        Thread task = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                index.set(retrieve(cache, logCrud));
+            }
+        });
+        task.start();
+        task.join();
+        return index.get();
+    }
+
+    private PixelLogIndex retrieve(PixelLogIndexCache pixelLogIndexCache,
+        LogCrud logCrud) {
+        return pixelLogIndexCache.retrievePixelLogIndex(logCrud, cadenceType,
+            dataSetType, startCadence, endCadence);
+    }
+
+    private static class CountingLogCrud extends LogCrud {
+        protected int retrieveCount;
+
+        @Override
+        public List<PixelLog> retrievePixelLog(int cadenceType,
+            DataSetType dataSetType, int startCadence, int endCadence) {
+            retrieveCount++;
+            List<PixelLog> pixelLogs = new ArrayList<PixelLog>();
+            for (int cadence = startCadence; cadence <= endCadence; cadence++) {
+                PixelLog pixelLog = new PixelLog();
+                pixelLog.setCadenceNumber(cadence);
+                pixelLog.setCadenceType(cadenceType);
+                pixelLog.setDataSetType(dataSetType);
+                pixelLog.setMjdStartTime(55000.0 + cadence / 48.0);
+                pixelLog.setMjdMidTime(55000.0 + (cadence + 0.5) / 48.0);
+                pixelLog.setMjdEndTime(55000.0 + (cadence + 1) / 48.0);
+                pixelLogs.add(pixelLog);
+            }
+            return pixelLogs;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.dr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.nasa.kepler.common.Cadence.CadenceType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class PixelLogIndexTest {
+
+    private final int cadenceType = CadenceType.LONG.intValue();
+
+    @Test
+    public void lookups() {
+        PixelLogIndex index = PixelLogIndex.build(cadenceType,
+            ImmutableList.of(pixelLog(12, false), pixelLog(10, true),
+                pixelLog(13, false)));
+
+        assertEquals(3, index.size());
+        assertTrue(index.hasCadence(10));
+        assertFalse(index.hasCadence(11));
+        assertFalse(index.hasCadence(9));
+        assertFalse(index.hasCadence(14));
+        assertEquals(midMjd(12), index.cadenceToMjd(12), 0);
+        assertEquals(13, index.mjdToCadence(midMjd(13)));
+        assertEquals(-1, index.rowOfMidMjd(midMjd(11)));
+
+        int row = index.rowOf(10);
+        assertEquals(0, row);
+        assertEquals(startMjd(10), index.startMjd(row), 0);
+        assertEquals(startMjd(11), index.endMjd(row), 0);
+        assertTrue(index.isRequantEnabled(row));
+        assertTrue(index.isScrcErr(row));
+        assertFalse(index.isSefiAcc(row));
+        assertTrue(index.isMmntmDmp(row));
+        assertFalse(index.isRequantEnabled(index.rowOf(12)));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void missingCadence() {
+        PixelLogIndex.build(cadenceType,
+            ImmutableList.of(pixelLog(10, true)))
+            .cadenceToMjd(11);
+    }
+
+    @Test
+    public void sparseCadences() {
+        List<PixelLog> pixelLogs = new ArrayList<PixelLog>();
+        for (int cadence = 0; cadence < 1000000; cadence += 100000) {
+            pixelLogs.add(pixelLog(cadence, false));
+        }
+        PixelLogIndex index = PixelLogIndex.build(cadenceType, pixelLogs);
+        assertEquals(3, index.rowOf(300000));
+        assertEquals(-1, index.rowOf(300001));
+        assertEquals(midMjd(900000), index.cadenceToMjd(900000), 0);
+    }
+
+    @Test
+    public void merge() {
+        PixelLogIndex a = PixelLogIndex.build(cadenceType,
+            ImmutableList.of(pixelLog(1, false), pixelLog(3, false)));
+        PixelLogIndex b = PixelLogIndex.build(cadenceType,
+            ImmutableList.of(pixelLog(2, false), pixelLog(3, true),
+                pixelLog(4, false)));
+        PixelLogIndex merged = a.merge(b);
+
+        assertEquals(4, merged.size());
+        for (int cadence = 1; cadence <= 4; cadence++) {
+            assertEquals(cadence - 1, merged.rowOf(cadence));
+            assertEquals(midMjd(cadence), merged.cadenceToMjd(cadence), 0);
+        }
+        assertTrue(merged.isRequantEnabled(merged.rowOf(3)));
+        assertEquals(2, a.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void timeGoesBackwards() {
+        PixelLog badLog = pixelLog(2, false);
+        badLog.setMjdMidTime(midMjd(0));
+        PixelLogIndex.build(cadenceType,
+            ImmutableList.of(pixelLog(1, false), badLog));
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        PixelLogIndex index = PixelLogIndex.build(cadenceType,
+            ImmutableList.of(pixelLog(5, true), pixelLog(7, false)));
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bout));
+        PixelLogIndex read = PixelLogIndex.readFrom(new DataInputStream(
+            new ByteArrayInputStream(bout.toByteArray())));
+
+        assertEquals(cadenceType, read.cadenceType());
+        assertEquals(2, read.size());
+        assertEquals(7, read.mjdToCadence(midMjd(7)));
+        assertEquals(startMjd(5), read.startMjd(read.rowOf(5)), 0);
+        assertTrue(read.isLdeParEr(read.rowOf(5)));
+        assertFalse(read.isLdeParEr(read.rowOf(7)));
+    }
+
+    private static double startMjd(int cadence) {
+        return 55000.0 + cadence / 48.0;
+    }
+
+    private static double midMjd(int cadence) {
+        return (startMjd(cadence) + startMjd(cadence + 1)) / 2.0;
+    }
+
+    private PixelLog pixelLog(int cadence, boolean flagged) {
+        PixelLog pixelLog = new PixelLog();
+        pixelLog.setCadenceNumber(cadence);
+        pixelLog.setCadenceType(cadenceType);
+        pixelLog.setDataSetType(PixelLog.DataSetType.Target);
+        pixelLog.setMjdStartTime(startMjd(cadence));
+        pixelLog.setMjdMidTime(midMjd(cadence));
+        pixelLog.setMjdEndTime(startMjd(cadence + 1));
+        pixelLog.setDataRequantizedForDownlink(flagged);
+        pixelLog.setMmntmDmp(flagged);
+        pixelLog.setLdeParEr(flagged);
+        pixelLog.setScrcErr(flagged);
+        return pixelLog;
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.hibernate.fc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(JMock.class)
+public class FcModelCacheTest {
+
+    private static final long ENTRY_BYTES = 1024;
+
+    private Mockery mockery = new Mockery() {
+        {
+            setImposteriser(ClassImposteriser.INSTANCE);
+        }
+    };
+
+    private History history(final long id) {
+        final History history = mockery.mock(History.class, "history" + id);
+        mockery.checking(new Expectations() {
+            {
+                allowing(history).getId();
+                will(returnValue(id));
+            }
+        });
+        return history;
+    }
+
+    private static FcModelCache.Key key(HistoryModelName modelType,
+        History history, double mjd) {
+        return new FcModelCache.Key(modelType, "image", history, 2, 1, mjd,
+            mjd);
+    }
+
+    @Test
+    public void testHitAndMiss() {
+        FcModelCache cache = new FcModelCache(100 * ENTRY_BYTES);
+        History history = history(1);
+        double[] value = new double[] { 1.0 };
+
+        assertNull(cache.get(key(HistoryModelName.TWODBLACK, history, 55000.0)));
+        cache.put(key(HistoryModelName.TWODBLACK, history, 55000.0), value,
+            ENTRY_BYTES);
+        double[] cached = cache.get(key(HistoryModelName.TWODBLACK, history,
+            55000.0));
+        assertSame(value, cached);
+
+        // Different history or mjd is a different model.
+        assertNull(cache.get(key(HistoryModelName.TWODBLACK, history(2),
+            55000.0)));
+        assertNull(cache.get(key(HistoryModelName.TWODBLACK, history, 55001.0)));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        FcModelCache cache = new FcModelCache(3 * ENTRY_BYTES);
+        History history = history(1);
+
+        cache.put(key(HistoryModelName.TWODBLACK, history, 1.0), "a",
+            ENTRY_BYTES);
+        cache.put(key(HistoryModelName.TWODBLACK, history, 2.0), "b",
+            ENTRY_BYTES);
+        cache.get(key(HistoryModelName.TWODBLACK, history, 1.0));
+        cache.put(key(HistoryModelName.TWODBLACK, history, 3.0), "c",
+            ENTRY_BYTES);
+
+        assertEquals("a", cache.get(key(HistoryModelName.TWODBLACK, history,
+            1.0)));
+        assertNull(cache.get(key(HistoryModelName.TWODBLACK, history, 2.0)));
+        assertEquals("c", cache.get(key(HistoryModelName.TWODBLACK, history,
+            3.0)));
+        assertEquals(true, cache.getSizeBytes() <= 3 * ENTRY_BYTES);
+
+        // Too large to ever fit.
+        cache.put(key(HistoryModelName.TWODBLACK, history, 4.0), "d",
+            4 * ENTRY_BYTES);
+        assertNull(cache.get(key(HistoryModelName.TWODBLACK, history, 4.0)));
+        assertEquals("a", cache.get(key(HistoryModelName.TWODBLACK, history,
+            1.0)));
+    }
+
+    @Test
+    public void testInvalidate() {
+        FcModelCache cache = new FcModelCache(100 * ENTRY_BYTES);
+        History history = history(1);
+
+        cache.put(key(HistoryModelName.TWODBLACK, history, 1.0), "black",
+            ENTRY_BYTES);
+        cache.put(key(HistoryModelName.GAIN, history, 1.0), "gain",
+            ENTRY_BYTES);
+        long sizeBytes = cache.getSizeBytes();
+
+        cache.invalidate(HistoryModelName.TWODBLACK);
+
+        assertNull(cache.get(key(HistoryModelName.TWODBLACK, history, 1.0)));
+        assertEquals("gain",
+            cache.get(key(HistoryModelName.GAIN, history, 1.0)));
+        assertEquals(sizeBytes / 2, cache.getSizeBytes());
+
+        cache.clear();
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testTransientHistoryNotCached() {
+        FcModelCache cache = new FcModelCache(100 * ENTRY_BYTES);
+        History history = history(0);
+
+        cache.put(key(HistoryModelName.GEOMETRY, history, 1.0), "geometry",
+            ENTRY_BYTES);
+        assertNull(cache.get(key(HistoryModelName.GEOMETRY, history, 1.0)));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        FcModelCache cache = new FcModelCache(100 * ENTRY_BYTES, 10);
+        History history = history(1);
+
+        cache.put(key(HistoryModelName.GAIN, history, 1.0), "gain",
+            ENTRY_BYTES);
+        assertEquals("gain",
+            cache.get(key(HistoryModelName.GAIN, history, 1.0)));
+        Thread.sleep(50);
+        assertNull(cache.get(key(HistoryModelName.GAIN, history, 1.0)));
+        assertEquals(0, cache.getSizeBytes());
+    }
+
+    @Test
+    public void testCoveringModel() {
+        double[] startMjds = new double[] { 10.0, 20.0, 20.0, 30.0 };
+
+        assertEquals(-1, FcModelCache.coveringModel(startMjds, 9.0));
+        assertEquals(0, FcModelCache.coveringModel(startMjds, 10.0));
+        assertEquals(0, FcModelCache.coveringModel(startMjds, 19.9));
+        assertEquals(2, FcModelCache.coveringModel(startMjds, 20.0));
+        assertEquals(2, FcModelCache.coveringModel(startMjds, 25.0));
+        assertEquals(3, FcModelCache.coveringModel(startMjds, 1000.0));
+        assertEquals(-1, FcModelCache.coveringModel(new double[0], 1.0));
+
+        // Every mjd covered by the same model shares one entry.
+        FcModelCache cache = new FcModelCache(100 * ENTRY_BYTES);
+        History history = history(1);
+        cache.put(FcModelCache.Key.forModel(HistoryModelName.LARGEFLATFIELD,
+            "flat", history, 2, 1,
+            startMjds[FcModelCache.coveringModel(startMjds, 21.0)]), "flat",
+            ENTRY_BYTES);
+        assertEquals("flat", cache.get(FcModelCache.Key.forModel(
+            HistoryModelName.LARGEFLATFIELD, "flat", history, 2, 1,
+            startMjds[FcModelCache.coveringModel(startMjds, 29.0)])));
+    }
+
+    @Test
+    public void testImage() {
+        float[][] values = new float[][] { { 1, 2, 3 }, { 4, 5, 6 } };
+        float[][] uncertainties = new float[][] { { 7, 8, 9 }, { 10, 11, 12 } };
+
+        FcModelCache.Image image = FcModelCache.Image.valueOf(values,
+            uncertainties);
+
+        assertEquals(2, image.getRows());
+        assertEquals(3, image.getColumns());
+        for (int row = 0; row < values.length; row++) {
+            for (int column = 0; column < values[row].length; column++) {
+                assertEquals(values[row][column],
+                    image.getValue(row, column), 0);
+                assertEquals(uncertainties[row][column],
+                    image.getUncertainty(row, column), 0);
+            }
+        }
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testImageColumnOutOfBounds() {
+        FcModelCache.Image image = FcModelCache.Image.valueOf(
+            new float[][] { { 1, 2 }, { 3, 4 } }, null);
+        image.getValue(0, 2);
+    }
+}
@@ -44,6 +44,8 @@ import gov.nasa.kepler.hibernate.dr.LogCrud;
 import gov.nasa.kepler.hibernate.dr.PixelLog;
 import gov.nasa.kepler.hibernate.dr.PixelLog.DataSetType;
 import gov.nasa.kepler.hibernate.dr.PixelLogCrud;
+import gov.nasa.kepler.hibernate.dr.PixelLogIndex;
+import gov.nasa.kepler.hibernate.dr.PixelLogIndexCache;
 import gov.nasa.kepler.hibernate.pi.ModelMetadataRetriever;
 import gov.nasa.spiffy.common.persistable.Persistable;
 import gov.nasa.spiffy.common.persistable.ProxyIgnoreStatics;
@@ -51,14 +53,12 @@ import gov.nasa.spiffy.common.pi.PipelineException;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import org.apache.commons.lang.ArrayUtils;
 
@@ -70,6 +70,13 @@ import org.apache.commons.lang.ArrayUtils;
  * files received from the DMC. If those logs do not exist then cadence gaps
  * will appear in all the responses from this class.
  * 
+ * The cadence times and flags are kept in a {@link PixelLogIndex}. When this
+ * reads from the PixelLog table with a plain {@link LogCrud} cadence ranges
+ * are retrieved through the process-wide {@link PixelLogIndexCache}, which
+ * lets tasks in the same worker share them when it is enabled, and the
+ * PixelLog entities are only retrieved if {@link #pixelLogForCadence(int)} is
+ * called.
+ * 
  * @author Sean McCauliff
  * 
  */
@@ -80,14 +87,15 @@ public class MjdToCadence {
     private static final double SHORT_DELTA = 1.0 / (24.0 * 60.0) * 1.5;
     private static final double LONG_DELTA = 1.0 / (2.0 * 24.0) * 1.5;
 
-    private final SortedMap<Double, PixelLog> mjdToCadence = new TreeMap<Double, PixelLog>();
-    private final SortedMap<Integer, PixelLog> cadenceToMjd = new TreeMap<Integer, PixelLog>();
+    private PixelLogIndex pixelLogIndex;
+    private final Map<Integer, PixelLog> pixelLogs = new HashMap<Integer, PixelLog>();
     private final Set<Integer> gappedCadences = new HashSet<Integer>();
     private final DoubleIntervalSet<SimpleDoubleInterval> authoritativeMjds;
 
     private final PixelLogCrud pixelLogCrud;
     private final DataAnomalyOperations dataAnomalyOperations;
     private final CadenceType cadenceType;
+    private final boolean shareIndex;
 
     public MjdToCadence(CadenceType cadenceType,
         ModelMetadataRetriever modelMetadataRetriever) {
@@ -112,6 +120,8 @@ public class MjdToCadence {
             default:
                 throw new IllegalStateException("Unhandled case " + cadenceType);
         }
+        pixelLogIndex = PixelLogIndex.empty(cadenceType.intValue());
+        shareIndex = PixelLogIndexCache.isCacheable(pixelLogCrud);
     }
 
     public CadenceType cadenceType() {
@@ -130,11 +140,23 @@ public class MjdToCadence {
             throw new IllegalArgumentException("startCadence " + startCadence
                 + " comes after endCadence " + endCadence);
         }
-        List<PixelLog> pixelLogs = pixelLogCrud.retrievePixelLog(
-            cadenceType.intValue(), DataSetType.Target, startCadence,
-            endCadence);
-        if (!(pixelLogs.size() == 0 && !existsError)) {
-            if (pixelLogs.isEmpty()) {
+        List<PixelLog> retrievedLogs = null;
+        PixelLogIndex retrievedIndex;
+        if (shareIndex) {
+            retrievedIndex = PixelLogIndexCache.getInstance()
+                .retrievePixelLogIndex((LogCrud) pixelLogCrud,
+                    cadenceType.intValue(), DataSetType.Target, startCadence,
+                    endCadence);
+        } else {
+            retrievedLogs = pixelLogCrud.retrievePixelLog(
+                cadenceType.intValue(), DataSetType.Target, startCadence,
+                endCadence);
+            retrievedIndex = null;
+        }
+        boolean empty = retrievedLogs == null ? retrievedIndex.size() == 0
+            : retrievedLogs.isEmpty();
+        if (!(empty && !existsError)) {
+            if (empty) {
                 throw new IllegalArgumentException(
                     "At least one pixelLog must exist for the input cadence range.\n  cadenceType: "
                         + cadenceType
@@ -143,17 +165,21 @@ public class MjdToCadence {
                         + "\n  endCadence: " + endCadence);
             }
 
-            cacheInterval(pixelLogs);
+            if (retrievedLogs == null) {
+                cacheInterval(retrievedIndex);
+            } else {
+                cacheInterval(retrievedLogs);
+            }
         }
 
         /*
-         * If any of the requested cadences do not exist in cadenceToMjd at this
+         * If any of the requested cadences do not exist in the index at this
          * point, it means they do not exist in DR_PIXEL_LOG and should be
          * treated as gaps rather than cache misses
          */
         for (int cadence = startCadence; cadence >= startCadence
             && cadence <= endCadence; cadence++) {
-            if (!cadenceToMjd.containsKey(cadence)) {
+            if (!pixelLogIndex.hasCadence(cadence)) {
                 gappedCadences.add(cadence);
             }
         }
@@ -176,42 +202,56 @@ public class MjdToCadence {
         cacheInterval(pixelLogs);
     }
 
-    private void cacheInterval(List<PixelLog> pixelLogs) {
-        for (PixelLog plog : pixelLogs) {
-            cadenceToMjd.put(plog.getCadenceNumber(), plog);
-            mjdToCadence.put(plog.getMjdMidTime(), plog);
+    private void cacheInterval(List<PixelLog> retrievedLogs) {
+        for (PixelLog plog : retrievedLogs) {
+            pixelLogs.put(plog.getCadenceNumber(), plog);
         }
 
         try {
-            validateCadenceTimes(cadenceToMjd.values());
+            cacheInterval(PixelLogIndex.build(cadenceType.intValue(),
+                retrievedLogs));
         } catch (IllegalStateException x) {
-            cadenceToMjd.clear();
+            pixelLogs.clear();
+            throw x;
+        }
+    }
+
+    private void cacheInterval(PixelLogIndex retrievedIndex) {
+        try {
+            pixelLogIndex = pixelLogIndex.merge(retrievedIndex);
+        } catch (IllegalStateException x) {
+            pixelLogIndex = PixelLogIndex.empty(cadenceType.intValue());
+            pixelLogs.clear();
             gappedCadences.clear();
-            mjdToCadence.clear();
             throw x;
         }
 
-        double startMjd = pixelLogs.get(0)
-            .getMjdMidTime();
-        double endMjd = pixelLogs.get(pixelLogs.size() - 1)
-            .getMjdMidTime();
+        if (retrievedIndex.size() == 0) {
+            return;
+        }
+        double startMjd = retrievedIndex.midMjd(0);
+        double endMjd = retrievedIndex.midMjd(retrievedIndex.size() - 1);
         authoritativeMjds.mergeInterval(new SimpleDoubleInterval(startMjd,
             endMjd));
     }
 
+    private int prefetchCadences() {
+        return cadenceType == CadenceType.LONG ? LC_PREFETCH_CADENCES
+            : SC_PREFETCH_CADENCES;
+    }
+
     private void cacheMiss(int missedCadence) {
         cacheMiss(missedCadence, true);
     }
 
     private void cacheMiss(int missedCadence, boolean checkError) {
-        int prefetch = cadenceType == CadenceType.LONG ? LC_PREFETCH_CADENCES
-            : SC_PREFETCH_CADENCES;
+        int prefetch = prefetchCadences();
 
         int startCadence = Math.max(0, missedCadence - prefetch);
         int endCadence = (int) Math.min((long) Integer.MAX_VALUE, missedCadence
             + prefetch);
         cacheInterval(startCadence, endCadence, checkError);
-        if (checkError && !cadenceToMjd.containsKey(missedCadence)) {
+        if (checkError && !pixelLogIndex.hasCadence(missedCadence)) {
             throw new NoSuchElementException("Cadence " + missedCadence
                 + " does not exist.");
         }
@@ -226,7 +266,7 @@ public class MjdToCadence {
             cacheInterval(startMjd, endMjd);
         }
 
-        if (!mjdToCadence.containsKey(missedMjd)) {
+        if (pixelLogIndex.rowOfMidMjd(missedMjd) == -1) {
             throw new NoSuchElementException("Mjd mid point " + missedMjd
                 + " does not exist.");
         }
@@ -239,16 +279,14 @@ public class MjdToCadence {
      */
     public double cadenceToMjd(int cadence) {
 
-        if (cadenceToMjd.containsKey(cadence)) {
-            return cadenceToMjd.get(cadence)
-                .getMjdMidTime();
+        if (pixelLogIndex.hasCadence(cadence)) {
+            return pixelLogIndex.cadenceToMjd(cadence);
         }
 
         if (!gappedCadences.contains(cadence)) {
             cacheMiss(cadence);
 
-            return cadenceToMjd.get(cadence)
-                .getMjdMidTime();
+            return pixelLogIndex.cadenceToMjd(cadence);
         } else {
             throw new NoSuchElementException("cadence: " + cadence
                 + " does not exist");
@@ -262,25 +300,45 @@ public class MjdToCadence {
      */
     public int mjdToCadence(double mjd) {
 
-        if (mjdToCadence.containsKey(mjd)) {
-            return mjdToCadence.get(mjd)
-                .getCadenceNumber();
+        int row = pixelLogIndex.rowOfMidMjd(mjd);
+        if (row != -1) {
+            return pixelLogIndex.cadenceNumber(row);
         }
 
         cacheMiss(mjd);
 
-        return mjdToCadence.get(mjd)
-            .getCadenceNumber();
+        return pixelLogIndex.mjdToCadence(mjd);
     }
 
     /**
-     * Gets the cached PixelLog for the specified cadence.
+     * Gets the cached PixelLog for the specified cadence. If the cached cadence
+     * times came from the {@link PixelLogIndexCache} then this retrieves the
+     * pixel logs around the cadence.
      * 
      * @param cadence
      * @return This may return null.
      */
     public PixelLog pixelLogForCadence(int cadence) {
-        return cadenceToMjd.get(cadence);
+        if (!pixelLogIndex.hasCadence(cadence)) {
+            return null;
+        }
+
+        PixelLog pixelLog = pixelLogs.get(cadence);
+        if (pixelLog == null && shareIndex) {
+            int prefetch = prefetchCadences();
+            int startCadence = Math.max(0, cadence - prefetch);
+            int endCadence = (int) Math.min((long) Integer.MAX_VALUE, cadence
+                + prefetch);
+            for (PixelLog plog : pixelLogCrud.retrievePixelLog(
+                cadenceType.intValue(), DataSetType.Target, startCadence,
+                endCadence)) {
+                if (pixelLogIndex.hasCadence(plog.getCadenceNumber())) {
+                    pixelLogs.put(plog.getCadenceNumber(), plog);
+                }
+            }
+            pixelLog = pixelLogs.get(cadence);
+        }
+        return pixelLog;
     }
 
     /**
@@ -289,7 +347,7 @@ public class MjdToCadence {
      * @return returns true if the specified cadence exists else returns false.
      */
     public boolean hasCadence(int cadence) {
-        if (cadenceToMjd.containsKey(cadence)) {
+        if (pixelLogIndex.hasCadence(cadence)) {
             return true;
         }
 
@@ -297,7 +355,7 @@ public class MjdToCadence {
             cacheMiss(cadence, false);
         }
 
-        if (cadenceToMjd.containsKey(cadence)) {
+        if (pixelLogIndex.hasCadence(cadence)) {
             return true;
         }
         return false;
@@ -311,8 +369,7 @@ public class MjdToCadence {
             return false;
         }
 
-        return cadenceToMjd.get(cadence)
-            .isDataRequantizedForDownlink();
+        return pixelLogIndex.isRequantEnabled(pixelLogIndex.rowOf(cadence));
     }
 
     public boolean isSefiAcc(int cadence) {
@@ -320,8 +377,7 @@ public class MjdToCadence {
             return false;
         }
 
-        return cadenceToMjd.get(cadence)
-            .isSefiAcc();
+        return pixelLogIndex.isSefiAcc(pixelLogIndex.rowOf(cadence));
     }
 
     public boolean isSefiCad(int cadence) {
@@ -329,8 +385,7 @@ public class MjdToCadence {
             return false;
         }
 
-        return cadenceToMjd.get(cadence)
-            .isSefiCad();
+        return pixelLogIndex.isSefiCad(pixelLogIndex.rowOf(cadence));
     }
 
     public boolean isLdeOos(int cadence) {
@@ -338,8 +393,7 @@ public class MjdToCadence {
             return false;
         }
 
-        return cadenceToMjd.get(cadence)
-            .isLdeOos();
+        return pixelLogIndex.isLdeOos(pixelLogIndex.rowOf(cadence));
     }
 
     public boolean isFinePnt(int cadence) {
@@ -347,8 +401,7 @@ public class MjdToCadence {
             return false;
         }
 
-        return cadenceToMjd.get(cadence)
-            .isFinePnt();
+        return pixelLogIndex.isFinePnt(pixelLogIndex.rowOf(cadence));
     }
 
     public boolean isMmntmDmp(int cadence) {
@@ -356,8 +409,7 @@ public class MjdToCadence {
             return false;
         }
 
-        return cadenceToMjd.get(cadence)
-            .isMmntmDmp();
+        return pixelLogIndex.isMmntmDmp(pixelLogIndex.rowOf(cadence));
     }
 
     public boolean isLdeParEr(int cadence) {
@@ -365,8 +417,7 @@ public class MjdToCadence {
             return false;
         }
 
-        return cadenceToMjd.get(cadence)
-            .isLdeParEr();
+        return pixelLogIndex.isLdeParEr(pixelLogIndex.rowOf(cadence));
     }
 
     public boolean isScrcErr(int cadence) {
@@ -374,58 +425,7 @@ public class MjdToCadence {
             return false;
         }
 
-        return cadenceToMjd.get(cadence)
-            .isScrcErr();
-    }
-
-    /**
-     * 
-     * @param sortedLogs Logs should be sorted in ascending cadence order.
-     */
-    private void validateCadenceTimes(Collection<PixelLog> sortedLogs) {
-        if (sortedLogs.size() <= 1) {
-            return;
-        }
-
-        Iterator<PixelLog> it = sortedLogs.iterator();
-
-        PixelLog firstLog = it.next();
-        double prevStartMjd = firstLog.getMjdStartTime();
-        double prevMidMjd = firstLog.getMjdMidTime();
-        double prevEndMjd = firstLog.getMjdEndTime();
-
-        int prevCadence = firstLog.getCadenceNumber();
-
-        while (it.hasNext()) {
-            PixelLog log = it.next();
-            if (prevCadence != log.getCadenceNumber()) {
-                if (prevMidMjd >= log.getMjdMidTime()
-                    || prevStartMjd >= log.getMjdStartTime()
-                    || prevEndMjd >= log.getMjdEndTime()) {
-
-                    String m = "Time goes backwards or does not change in pixel logs.\n";
-                    m += "current/prev cadence " + log.getCadenceNumber() + " "
-                        + prevCadence + "\n";
-                    m += "current/prev mjd start time " + log.getMjdStartTime()
-                        + " " + prevStartMjd + "\n ";
-                    m += "current/prev mjd mid time  " + log.getMjdMidTime()
-                        + " " + prevMidMjd + "\n";
-                    m += "current/prev mjd end time " + log.getMjdEndTime()
-                        + " " + prevEndMjd + "\n";
-
-                    throw new IllegalStateException(m);
-                }
-            } else if (prevMidMjd != log.getMjdMidTime()) {
-                throw new IllegalStateException("Mjd should be " + prevMidMjd
-                    + " but found " + log.getMjdEndTime());
-            }
-
-            prevStartMjd = log.getMjdStartTime();
-            prevMidMjd = log.getMjdMidTime();
-            prevEndMjd = log.getMjdEndTime();
-            prevCadence = log.getCadenceNumber();
-
-        }
+        return pixelLogIndex.isScrcErr(pixelLogIndex.rowOf(cadence));
     }
 
     /**
@@ -485,18 +485,18 @@ public class MjdToCadence {
         for (int cadenceNo = startCadence; cadenceNo <= endCadence; cadenceNo++) {
             int index = cadenceNo - startCadence;
             if (hasCadence(cadenceNo)) {
-                PixelLog plog = cadenceToMjd.get(cadenceNo);
-                startTimestamps[index] = plog.getMjdStartTime();
-                midTimestamps[index] = plog.getMjdMidTime();
-                endTimestamps[index] = plog.getMjdEndTime();
-                requantEnabled[index] = isRequantEnabled(cadenceNo);
-                isSefiAcc[index] = isSefiAcc(cadenceNo);
-                isSefiCad[index] = isSefiCad(cadenceNo);
-                isLdeOos[index] = isLdeOos(cadenceNo);
-                isFinePnt[index] = isFinePnt(cadenceNo);
-                isMmntmDmp[index] = isMmntmDmp(cadenceNo);
-                isLdeParEr[index] = isLdeParEr(cadenceNo);
-                isScrcErr[index] = isScrcErr(cadenceNo);
+                int row = pixelLogIndex.rowOf(cadenceNo);
+                startTimestamps[index] = pixelLogIndex.startMjd(row);
+                midTimestamps[index] = pixelLogIndex.midMjd(row);
+                endTimestamps[index] = pixelLogIndex.endMjd(row);
+                requantEnabled[index] = pixelLogIndex.isRequantEnabled(row);
+                isSefiAcc[index] = pixelLogIndex.isSefiAcc(row);
+                isSefiCad[index] = pixelLogIndex.isSefiCad(row);
+                isLdeOos[index] = pixelLogIndex.isLdeOos(row);
+                isFinePnt[index] = pixelLogIndex.isFinePnt(row);
+                isMmntmDmp[index] = pixelLogIndex.isMmntmDmp(row);
+                isLdeParEr[index] = pixelLogIndex.isLdeParEr(row);
+                isScrcErr[index] = pixelLogIndex.isScrcErr(row);
                 gapIndicators[index] = false;
             } else {
                 gapIndicators[index] = true;
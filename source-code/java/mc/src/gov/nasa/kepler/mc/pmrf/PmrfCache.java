@@ -53,6 +53,7 @@ import gov.nasa.spiffy.common.collect.Pair;
 import gov.nasa.spiffy.common.pi.PipelineException;
 
 import java.io.ByteArrayInputStream;
+import java.util.Map;
 
 import nom.tam.fits.Fits;
 import nom.tam.fits.TableHDU;
@@ -90,7 +91,35 @@ public class PmrfCache {
 
     private final Duplication duplication;
 
+    /**
+     * The contents of the PMRFs this cache may use, by PMRF file name, or null
+     * if PMRFs are read from the file store.
+     */
+    private final Map<String, byte[]> pmrfBytesByFileName;
+
     public PmrfCache(CadenceType cadenceType, Duplication duplication) {
+        this(cadenceType, duplication, null);
+    }
+
+    public PmrfCache(CadenceType cadenceType) {
+        this(cadenceType, Duplication.ALLOWED);
+    }
+
+    /**
+     * Creates a cache that never calls the file store, for use on threads that
+     * do not own the file store transaction. The PMRFs should be read with
+     * {@link #readPmrf(String)} on the thread that does.
+     * 
+     * @param pmrfBytesByFileName the contents of every PMRF that will be
+     * asked for, by PMRF file name. This is not modified.
+     */
+    public PmrfCache(CadenceType cadenceType,
+        Map<String, byte[]> pmrfBytesByFileName) {
+        this(cadenceType, Duplication.ALLOWED, pmrfBytesByFileName);
+    }
+
+    private PmrfCache(CadenceType cadenceType, Duplication duplication,
+        Map<String, byte[]> pmrfBytesByFileName) {
         if (duplication == null) {
             throw new NullPointerException("duplication");
         }
@@ -99,10 +128,7 @@ public class PmrfCache {
         }
         this.duplication = duplication;
         this.cadenceType = cadenceType;
-    }
-
-    public PmrfCache(CadenceType cadenceType) {
-        this(cadenceType, Duplication.ALLOWED);
+        this.pmrfBytesByFileName = pmrfBytesByFileName;
     }
 
     public PmrfTable getPmrfTable(String pmrfFileName, DataSetType dataSetType,
@@ -140,12 +166,15 @@ public class PmrfCache {
             + ", DataSetType dataSetType=" + dataSetType + ") - start");
 
         try {
-            Configuration config = ConfigurationServiceFactory.getInstance();
-            FileStoreClient fsClient = FileStoreClientFactory.getInstance(config);
-
-            FsId fsId = DrFsIdFactory.getPmrfFile(pmrfFileName);
-            BlobResult blob = fsClient.readBlob(fsId);
-            byte[] pmrfBytes = blob.data();
+            byte[] pmrfBytes;
+            if (pmrfBytesByFileName != null) {
+                pmrfBytes = pmrfBytesByFileName.get(pmrfFileName);
+                if (pmrfBytes == null) {
+                    throw new PipelineException("pmrf was not preloaded");
+                }
+            } else {
+                pmrfBytes = readPmrf(pmrfFileName);
+            }
 
             Fits fits = new Fits(new ByteArrayInputStream(pmrfBytes));
 
@@ -171,6 +200,19 @@ public class PmrfCache {
         log.debug("fetchPmrf(String, DataSetType) - end");
     }
 
+    /**
+     * Reads the contents of a PMRF from the file store.
+     */
+    public static byte[] readPmrf(String pmrfFileName) {
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        FileStoreClient fsClient = FileStoreClientFactory.getInstance(config);
+
+        FsId fsId = DrFsIdFactory.getPmrfFile(pmrfFileName);
+        BlobResult blob = fsClient.readBlob(fsId);
+
+        return blob.data();
+    }
+
     private SciencePmrfTable[] fetchSciencePmrf(Fits fits, TargetType targetType)
         throws Exception {
         log.debug("fetchSciencePmrf(Fits fits=" + fits + ") - start");
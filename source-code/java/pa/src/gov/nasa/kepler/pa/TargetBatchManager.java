@@ -37,16 +37,22 @@
 
 package gov.nasa.kepler.pa;
 
+import gov.nasa.kepler.fs.api.FileStoreClient;
 import gov.nasa.kepler.fs.api.FileStoreException;
 import gov.nasa.kepler.fs.api.FloatTimeSeries;
 import gov.nasa.kepler.fs.api.FsId;
 import gov.nasa.kepler.fs.client.FileStoreClientFactory;
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
 import gov.nasa.kepler.mc.TimeSeriesOperations;
 import gov.nasa.kepler.mc.pa.PaTarget;
+import gov.nasa.spiffy.common.concurrent.DaemonThreadFactory;
+import gov.nasa.spiffy.common.pi.PipelineException;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -54,6 +60,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -68,7 +80,11 @@ import org.apache.commons.logging.LogFactory;
  * The given list of {@link PaTarget} instances must contain valid pixel sets,
  * in other words, the {@code getPixels} method must return the complete set of
  * pixel for the given target and they must have valid {@code FsId}s for both
- * the values and uncertainties(see {@link PaTargetOperations}).
+ * the values and uncertainties(see {@link PaTargetOperations}). </p>
+ * The pixel time series of the next {@link #PREFETCH_COUNT_PROP} batches are
+ * read on a background thread while the batch returned by {@code nextBatch}
+ * is being processed. The number of batches read ahead is limited so that
+ * they fit in {@link #MAX_PREFETCH_BYTES_PROP} bytes.
  * 
  * @author Forrest Girouard
  * 
@@ -77,6 +93,25 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
 
     private static final Log log = LogFactory.getLog(TargetBatchManager.class);
 
+    /**
+     * The number of batches to read ahead of the current batch. Zero disables
+     * prefetching.
+     */
+    public static final String PREFETCH_COUNT_PROP = "pa.targetBatch.prefetchCount";
+
+    /**
+     * The approximate number of bytes which may be used by batches that have
+     * been read ahead. Defaults to a quarter of the heap.
+     */
+    public static final String MAX_PREFETCH_BYTES_PROP = "pa.targetBatch.maxPrefetchBytes";
+
+    private static final int DEFAULT_PREFETCH_COUNT = 1;
+
+    // a float value and a gap indicator per sample
+    private static final int BYTES_PER_SAMPLE = 5;
+
+    private static final long PREFETCH_KEEP_ALIVE_SECONDS = 30;
+
     private Set<Long> producerTaskIds = new HashSet<Long>();
 
     private final List<PaTarget> targets;
@@ -97,6 +132,16 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
 
     private List<PaTarget> lastBatch = Collections.emptyList();
 
+    private final int maxBatchesInFlight;
+
+    // batches being read ahead, in target order
+    private final Deque<Prefetch> prefetches = new ArrayDeque<Prefetch>();
+
+    // index in targets list of the first target not yet being read ahead
+    private int nextPrefetchIndex;
+
+    private ThreadPoolExecutor prefetchExecutor;
+
     /**
      * Manages the fetching of pixel time series according to the
      * {@code maxReadFsIds} and {@code maxBatchSize} parameters.
@@ -116,6 +161,19 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
         final int maxReadFsIds, final int ccdModule, final int ccdOutput,
         final int startCadence, final int endCadence) {
 
+        this(targets, maxBatchSize, maxReadFsIds, ccdModule, ccdOutput,
+            startCadence, endCadence, maxBatchesInFlight(maxBatchSize));
+    }
+
+    /**
+     * @param maxBatchesInFlight The number of batches to read ahead of the
+     * current batch, zero disables prefetching.
+     */
+    TargetBatchManager(final List<PaTarget> targets, final int maxBatchSize,
+        final int maxReadFsIds, final int ccdModule, final int ccdOutput,
+        final int startCadence, final int endCadence,
+        final int maxBatchesInFlight) {
+
         if (targets == null) {
             throw new NullPointerException("targets is null");
         }
@@ -130,6 +188,7 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
         this.ccdOutput = ccdOutput;
         this.startCadence = startCadence;
         this.endCadence = endCadence;
+        this.maxBatchesInFlight = Math.max(0, maxBatchesInFlight);
 
         // derived value
         int timeSeriesCount = maxBatchSize / (endCadence - startCadence + 1);
@@ -139,9 +198,26 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
             log.debug("max batch size: " + maxBatchSize);
             log.debug("max read size: " + maxReadFsIds);
             log.debug("max time series per batch: " + maxTimeSeriesCount);
+            log.debug("max batches read ahead: " + this.maxBatchesInFlight);
         }
     }
 
+    /**
+     * The configured number of batches to read ahead, limited to the number
+     * of batches of the given size which fit in the prefetch memory budget.
+     */
+    static int maxBatchesInFlight(final int maxBatchSize) {
+
+        long defaultMaxBytes = Runtime.getRuntime()
+            .maxMemory() / 4;
+        long maxBytes = ConfigurationServiceFactory.getInstance()
+            .getLong(MAX_PREFETCH_BYTES_PROP, defaultMaxBytes);
+        int prefetchCount = ConfigurationServiceFactory.getInstance()
+            .getInt(PREFETCH_COUNT_PROP, DEFAULT_PREFETCH_COUNT);
+        long batchBytes = Math.max(1L, (long) maxBatchSize * BYTES_PER_SAMPLE);
+        return (int) Math.max(0L, Math.min(prefetchCount, maxBytes / batchBytes));
+    }
+
     @Override
     public Iterator<List<PaTarget>> iterator() {
         return new Iterator<List<PaTarget>>() {
@@ -218,7 +294,11 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
 
         List<PaTarget> nextTargets = new ArrayList<PaTarget>();
 
-        nextTargetIndex = nextTargets(nextTargets);
+        int batchStartIndex = nextTargetIndex;
+        nextTargetIndex = nextTargets(batchStartIndex, nextTargets);
+
+        // add time series read ahead for this batch to the cache
+        takePrefetch(batchStartIndex);
 
         // populate the targets from the cache
         Set<FsId> missingFsIds = populateTargets(nextTargets);
@@ -230,26 +310,32 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
         }
 
         lastBatch = nextTargets;
+
+        // start reading the following batches
+        schedulePrefetches();
+
         return nextTargets;
     }
 
     public void reset() {
+        cancelPrefetches();
         nextTargetIndex = 0;
     }
 
     public List<PaTarget> nextTargets() {
 
         List<PaTarget> nextTargets = new ArrayList<PaTarget>();
-        nextTargets(nextTargets);
+        nextTargets(nextTargetIndex, nextTargets);
         return nextTargets;
     }
 
-    private int nextTargets(final List<PaTarget> nextTargets) {
+    private int nextTargets(final int firstTargetIndex,
+        final List<PaTarget> nextTargets) {
 
         if (log.isDebugEnabled()) {
-            log.debug("next target index: " + nextTargetIndex);
+            log.debug("next target index: " + firstTargetIndex);
         }
-        int targetIndex = nextTargetIndex;
+        int targetIndex = firstTargetIndex;
         for (; targetIndex < targets.size()
             && timeSeriesCount(nextTargets)
                 + timeSeriesCount(targets.get(targetIndex)) <= maxTimeSeriesCount; targetIndex++) {
@@ -350,24 +436,167 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
             log.debug("refill cache: read " + readFsIds.size()
                 + " time series.");
         }
-        FloatTimeSeries[] fetchTimeSeries = FileStoreClientFactory.getInstance()
-            .readTimeSeriesAsFloat(
-                readFsIds.toArray(new FsId[readFsIds.size()]), startCadence,
-                endCadence, false);
+        addToCache(readTimeSeries(FileStoreClientFactory.getInstance(),
+            readFsIds));
+    }
+
+    private void addToCache(final List<FloatTimeSeries> fetchTimeSeries) {
 
         for (FloatTimeSeries timeSeries : fetchTimeSeries) {
-            if (!timeSeries.exists()) {
-                float[] fseries = new float[endCadence - startCadence + 1];
-                boolean[] gaps = new boolean[endCadence - startCadence + 1];
-                Arrays.fill(gaps, true);
-                timeSeries = new FloatTimeSeries(timeSeries.id(), fseries, startCadence, endCadence, gaps, 0L, false);
-            }
             timeSeriesCache.put(timeSeries.id(), timeSeries);
             TimeSeriesOperations.addToDataAccountability(timeSeries,
                 producerTaskIds);
         }
     }
 
+    /**
+     * Reads the given pixel time series, no more than {@code maxReadFsIds} at
+     * a time. Time series which do not exist are replaced by gapped time
+     * series. This does not modify any state so it may be called from the
+     * prefetch thread.
+     */
+    private List<FloatTimeSeries> readTimeSeries(
+        final FileStoreClient fsClient, final Set<FsId> fsIds) {
+
+        List<FloatTimeSeries> fetchedTimeSeries = new ArrayList<FloatTimeSeries>(
+            fsIds.size());
+        List<FsId> readFsIds = new ArrayList<FsId>(Math.min(fsIds.size(),
+            maxReadFsIds));
+        Iterator<FsId> it = fsIds.iterator();
+        while (it.hasNext()) {
+            readFsIds.clear();
+            while (it.hasNext() && readFsIds.size() < maxReadFsIds) {
+                readFsIds.add(it.next());
+            }
+            FloatTimeSeries[] fetchTimeSeries = fsClient.readTimeSeriesAsFloat(
+                readFsIds.toArray(new FsId[readFsIds.size()]), startCadence,
+                endCadence, false);
+
+            for (FloatTimeSeries timeSeries : fetchTimeSeries) {
+                if (!timeSeries.exists()) {
+                    float[] fseries = new float[endCadence - startCadence + 1];
+                    boolean[] gaps = new boolean[endCadence - startCadence + 1];
+                    Arrays.fill(gaps, true);
+                    timeSeries = new FloatTimeSeries(timeSeries.id(), fseries, startCadence, endCadence, gaps, 0L, false);
+                }
+                fetchedTimeSeries.add(timeSeries);
+            }
+        }
+        return fetchedTimeSeries;
+    }
+
+    /**
+     * Starts reading the pixel time series of the batches following the
+     * current batch which are not already in the cache, up to
+     * {@code maxBatchesInFlight} batches ahead. Any time series which are
+     * later found missing are read by {@code refillCache}.
+     */
+    private void schedulePrefetches() {
+
+        if (maxBatchesInFlight == 0) {
+            return;
+        }
+
+        nextPrefetchIndex = Math.max(nextPrefetchIndex, nextTargetIndex);
+        while (prefetches.size() < maxBatchesInFlight
+            && nextPrefetchIndex < targets.size()) {
+
+            List<PaTarget> prefetchTargets = new ArrayList<PaTarget>();
+            int endTargetIndex = nextTargets(nextPrefetchIndex, prefetchTargets);
+
+            final Set<FsId> prefetchFsIds = new TreeSet<FsId>();
+            for (PaTarget target : prefetchTargets) {
+                for (FsId fsId : target.getAllFsIds()) {
+                    if (!timeSeriesCache.containsKey(fsId)) {
+                        prefetchFsIds.add(fsId);
+                    }
+                }
+            }
+
+            Future<List<FloatTimeSeries>> timeSeries = null;
+            if (!prefetchFsIds.isEmpty()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("prefetch: read " + prefetchFsIds.size()
+                        + " time series.");
+                }
+                final FileStoreClient fsClient = FileStoreClientFactory.getInstance();
+                timeSeries = prefetchExecutor().submit(
+                    new Callable<List<FloatTimeSeries>>() {
+                        @Override
+                        public List<FloatTimeSeries> call() {
+                            return readTimeSeries(fsClient, prefetchFsIds);
+                        }
+                    });
+            }
+            prefetches.add(new Prefetch(nextPrefetchIndex, timeSeries));
+            nextPrefetchIndex = endTargetIndex;
+        }
+    }
+
+    /**
+     * Adds the time series read ahead for the batch starting at the given
+     * target index to the cache. Batches read ahead for any other position
+     * are discarded.
+     */
+    private void takePrefetch(final int batchStartIndex) {
+
+        if (prefetches.isEmpty()) {
+            return;
+        }
+        if (prefetches.peek().startTargetIndex != batchStartIndex) {
+            cancelPrefetches();
+            return;
+        }
+
+        Prefetch prefetch = prefetches.remove();
+        if (prefetch.timeSeries == null) {
+            return;
+        }
+        try {
+            addToCache(prefetch.timeSeries.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                .interrupt();
+            throw new PipelineException(
+                "Interrupted while reading pixel time series.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new FileStoreException("Failed to read pixel time series.",
+                cause);
+        }
+    }
+
+    private void cancelPrefetches() {
+
+        for (Prefetch prefetch : prefetches) {
+            if (prefetch.timeSeries != null) {
+                // let a read in progress complete so the file store
+                // connection of the prefetch thread remains usable
+                prefetch.timeSeries.cancel(false);
+            }
+        }
+        prefetches.clear();
+        nextPrefetchIndex = 0;
+    }
+
+    private ThreadPoolExecutor prefetchExecutor() {
+
+        if (prefetchExecutor == null) {
+            prefetchExecutor = new ThreadPoolExecutor(1, 1,
+                PREFETCH_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory(
+                    "pa-target-batch-prefetch"));
+            prefetchExecutor.allowCoreThreadTimeOut(true);
+        }
+        return prefetchExecutor;
+    }
+
     /**
      * Get the task ids of the blobs retrieved since the last call to this
      * method.
@@ -384,4 +613,22 @@ class TargetBatchManager implements Iterable<List<PaTarget>> {
     public int cacheSize() {
         return timeSeriesCache.size();
     }
+
+    /**
+     * The pixel time series of a batch which are being read ahead of the
+     * current batch.
+     */
+    private static final class Prefetch {
+
+        private final int startTargetIndex;
+
+        // null if all the time series were already in the cache
+        private final Future<List<FloatTimeSeries>> timeSeries;
+
+        Prefetch(final int startTargetIndex,
+            final Future<List<FloatTimeSeries>> timeSeries) {
+            this.startTargetIndex = startTargetIndex;
+            this.timeSeries = timeSeries;
+        }
+    }
 }
@@ -58,6 +58,7 @@ import gov.nasa.kepler.mc.cm.CelestialObjectOperations;
 import gov.nasa.kepler.mc.pa.PaTarget;
 import gov.nasa.spiffy.common.jmock.JMockTest;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -288,6 +289,42 @@ public class TargetBatchManagerTest extends JMockTest {
         assertEquals("partial reset failed", batchCount1, batchCount2);
     }
 
+    @Test
+    public void multiBatchPrefetch() {
+
+        populateObjects();
+
+        int maxReadFsIds = timeSeriesCount / 4;
+        TargetBatchManager prefetchBatchManager = new TargetBatchManager(
+            paTargets, BATCH_SIZE / TARGETS_PER_TABLE, maxReadFsIds,
+            CCD_MODULE, CCD_OUTPUT, START_CADENCE, END_CADENCE, 2);
+        List<Integer> prefetchBatchSizes = new ArrayList<Integer>();
+        while (prefetchBatchManager.hasNext()) {
+            List<PaTarget> nextBatch = prefetchBatchManager.nextBatch();
+            for (PaTarget target : nextBatch) {
+                assertTrue("target not populated", target.isPopulated());
+            }
+            prefetchBatchSizes.add(nextBatch.size());
+        }
+        assertSame("target batch manager cache is not empty", 0,
+            prefetchBatchManager.cacheSize());
+
+        TargetBatchManager targetBatchManager = new TargetBatchManager(
+            paTargets, BATCH_SIZE / TARGETS_PER_TABLE, maxReadFsIds,
+            CCD_MODULE, CCD_OUTPUT, START_CADENCE, END_CADENCE, 0);
+        List<Integer> batchSizes = new ArrayList<Integer>();
+        while (targetBatchManager.hasNext()) {
+            batchSizes.add(targetBatchManager.nextBatch()
+                .size());
+        }
+        assertEquals("batches differ", batchSizes, prefetchBatchSizes);
+    }
+
+    @Test
+    public void maxBatchesInFlight() {
+        assertEquals(1, TargetBatchManager.maxBatchesInFlight(BATCH_SIZE));
+    }
+
     private void populateObjects() {
         Set<Pixel> pixelsInUse = new HashSet<Pixel>();
         Set<FsId> sortedFsIds = new TreeSet<FsId>();
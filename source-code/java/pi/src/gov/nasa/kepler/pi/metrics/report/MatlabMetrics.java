@@ -38,8 +38,9 @@
 package gov.nasa.kepler.pi.metrics.report;
 
 import gov.nasa.kepler.pi.module.TaskDirectoryIterator;
-import gov.nasa.spiffy.common.metrics.IntervalMetric;
+import gov.nasa.spiffy.common.metrics.HistogramMetric;
 import gov.nasa.spiffy.common.metrics.Metric;
+import gov.nasa.spiffy.common.metrics.ValueMetric;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -52,6 +53,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -73,6 +75,7 @@ public class MatlabMetrics {
     private DescriptiveStatistics totalTimeStats;
     private HashMap<String, DescriptiveStatistics> functionStats;
     private TopNList topTen;
+    private TreeMap<String, HistogramMetric> histograms;
 
     public MatlabMetrics(File taskFilesDir, String moduleName) {
         this.taskFilesDir = taskFilesDir;
@@ -84,6 +87,7 @@ public class MatlabMetrics {
         public DescriptiveStatistics totalTime;
         public HashMap<String,DescriptiveStatistics> function;
         public TopNList topTen;
+        public TreeMap<String, HistogramMetric> histograms;
     }
     
     public void parseFiles() throws Exception{
@@ -91,6 +95,7 @@ public class MatlabMetrics {
             totalTimeStats = new DescriptiveStatistics(); 
             functionStats = new HashMap<String,DescriptiveStatistics>(); 
             topTen = new TopNList(10);
+            histograms = new TreeMap<String, HistogramMetric>();
             
             File cacheFile = new File(taskFilesDir, MATLAB_METRICS_CACHE_FILENAME);
 
@@ -105,6 +110,9 @@ public class MatlabMetrics {
                 totalTimeStats = cacheContents.totalTime;
                 functionStats = cacheContents.function;
                 topTen = cacheContents.topTen;
+                if(cacheContents.histograms != null){
+                    histograms = cacheContents.histograms;
+                }
             }else{ // no cache
                 log.info("No cache file found, parsing files");
                 File[] taskDirs = taskFilesDir.listFiles(new FileFilter(){
@@ -143,13 +151,23 @@ public class MatlabMetrics {
                                         
                                         log.debug("STM: " + metricName + ": " + metric.toString());
 
+                                        if(metric instanceof HistogramMetric){
+                                            HistogramMetric histogram = histograms.get(metricName);
+                                            if(histogram == null){
+                                                histograms.put(metricName, ((HistogramMetric)metric).makeCopy());
+                                            }else{
+                                                histogram.merge(metric);
+                                            }
+                                            continue;
+                                        }
+                                        
                                         DescriptiveStatistics metricStats = functionStats.get(metricName);
                                         if(metricStats == null){
                                             metricStats = new DescriptiveStatistics();
                                             functionStats.put(metricName, metricStats);
                                         }
                                         
-                                        IntervalMetric totalTimeMetric = (IntervalMetric)metric; 
+                                        ValueMetric totalTimeMetric = (ValueMetric)metric; 
                                         metricStats.addValue(totalTimeMetric.getAverage());
                                     }
                                 }
@@ -158,7 +176,7 @@ public class MatlabMetrics {
                                 if(metric != null){
                                     String subTaskName = subTaskDir.getParentFile().getName() + "/" + subTaskDir.getName();
                                     
-                                    IntervalMetric totalTimeMetric = (IntervalMetric)metric; 
+                                    ValueMetric totalTimeMetric = (ValueMetric)metric; 
                                     double mean = totalTimeMetric.getAverage();
                                     totalTimeStats.addValue(mean);
                                     topTen.add((long) mean, subTaskName);
@@ -183,6 +201,7 @@ public class MatlabMetrics {
                     cache.totalTime = totalTimeStats;
                     cache.function = functionStats;
                     cache.topTen = topTen;
+                    cache.histograms = histograms;
                     
                     oos.writeObject(cache);
                     oos.flush();
@@ -212,4 +231,12 @@ public class MatlabMetrics {
     public TopNList getTopTen() {
         return topTen;
     }
+
+    /**
+     * @return The histogram metrics of all the sub-tasks merged by metric
+     * name.
+     */
+    public Map<String, HistogramMetric> getHistograms() {
+        return histograms;
+    }
 }
@@ -129,6 +129,11 @@ public class MatlabReport extends Report {
 
         generateSummaryTable("MATLAB Controller", matlabStats, matlabMetrics.getTopTen(), new TimeMillisFormat());
 
+        if(!matlabMetrics.getHistograms().isEmpty()){
+            pdfRenderer.printText(" ");
+            generatePercentileTable("MATLAB Percentiles", matlabMetrics.getHistograms(), new TimeMillisFormat());
+        }
+
         pdfRenderer.newPage();
     }
     
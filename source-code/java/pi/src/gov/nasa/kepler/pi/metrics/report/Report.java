@@ -39,9 +39,11 @@ package gov.nasa.kepler.pi.metrics.report;
 
 import gov.nasa.kepler.pi.common.DisplayModel;
 import gov.nasa.spiffy.common.collect.Pair;
+import gov.nasa.spiffy.common.metrics.HistogramMetric;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.lang.time.DurationFormatUtils;
 import org.apache.commons.logging.Log;
@@ -239,6 +241,39 @@ public abstract class Report {
         pdfRenderer.add(layoutTable);        
     }
 
+    /**
+     * One row per histogram metric with the tail percentiles which are lost
+     * when only the mean of each sub-task is kept.
+     */
+    protected void generatePercentileTable(String label, Map<String, HistogramMetric> histograms, Format f) throws Exception{
+        log.info("Generating percentile report for: " + label);            
+
+        PdfPTable percentileTable = new PdfPTable(new float[]{4,1,1,1,1,1,1});
+        
+        addCell(percentileTable, label, true, 7);
+        
+        addCell(percentileTable, "Metric", true);
+        addCell(percentileTable, "N", true);
+        addCell(percentileTable, "50%", true);
+        addCell(percentileTable, "90%", true);
+        addCell(percentileTable, "99%", true);
+        addCell(percentileTable, "99.9%", true);
+        addCell(percentileTable, "Max", true);
+
+        for (Map.Entry<String, HistogramMetric> entry : histograms.entrySet()) {
+            HistogramMetric histogram = entry.getValue();
+            addCell(percentileTable, entry.getKey());
+            addCell(percentileTable, String.format("%d", histogram.getCount()));
+            addCell(percentileTable, f.format(histogram.getPercentile(0.5)));
+            addCell(percentileTable, f.format(histogram.getPercentile(0.9)));
+            addCell(percentileTable, f.format(histogram.getPercentile(0.99)));
+            addCell(percentileTable, f.format(histogram.getPercentile(0.999)));
+            addCell(percentileTable, f.format(histogram.getMax()));
+        }
+        
+        pdfRenderer.add(percentileTable);        
+    }
+
     protected JFreeChart generateHistogram(String title, String xCaption, String yCaption, List<Double> values, int numBins) throws Exception {
         if(values == null || values.size() == 0){
             return null;
@@ -40,9 +40,11 @@ package gov.nasa.kepler.pi.module;
 import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
 import gov.nasa.kepler.hibernate.dbservice.PropertyUtils;
 import gov.nasa.kepler.pi.module.io.MatlabBinFileUtils;
+import gov.nasa.kepler.pi.module.io.matlab.MatlabMain;
 import gov.nasa.kepler.services.cmdrunner.NamedPumpStreamHandler;
 import gov.nasa.kepler.services.cmdrunner.WriterLogOutputStream;
 import gov.nasa.kepler.services.process.ExternalProcess;
+import gov.nasa.spiffy.common.metrics.HistogramMetric;
 import gov.nasa.spiffy.common.metrics.IntervalMetric;
 import gov.nasa.spiffy.common.metrics.IntervalMetricKey;
 import gov.nasa.spiffy.common.os.OperatingSystemType;
@@ -52,6 +54,7 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -72,6 +75,12 @@ import org.apache.commons.logging.LogFactory;
  * This class uses {@link ExternalProcess} to launch and monitor
  * the standalone executable.
  * 
+ * If {@link MatlabMcrServerPool#POOL_SIZE_PROPERTY_NAME} is set, algorithm
+ * runs are handed to an already running MATLAB process from a
+ * {@link MatlabMcrServerPool} instead, which avoids paying the MCR startup
+ * cost for each sub-task.  A new process is launched for the sub-task if
+ * no warm process is available.
+ * 
  * @author tklaus
  * 
  */
@@ -185,7 +194,8 @@ public class MatlabMcrExecutable {
         commandLineArgs.add("" + sequenceNum);
 
         Configuration config = ConfigurationServiceFactory.getInstance();
-        if (config.getBoolean(MODULE_EXE_SAVE_MAT_FILES_PROPERTY_NAME, false)) {
+        boolean saveMatFiles = config.getBoolean(MODULE_EXE_SAVE_MAT_FILES_PROPERTY_NAME, false);
+        if (saveMatFiles) {
             commandLineArgs.add("1"); // save as .mat files
         } else {
             commandLineArgs.add("0");
@@ -204,9 +214,14 @@ public class MatlabMcrExecutable {
         IntervalMetricKey key = IntervalMetric.start();
         try{
             key = IntervalMetric.start();
-            retCode = run(commandLineArgs, "" + sequenceNum);
+            Integer serverRetCode = runOnServer(sequenceNum, saveMatFiles);
+            if (serverRetCode != null) {
+                retCode = serverRetCode;
+            } else {
+                retCode = run(commandLineArgs, "" + sequenceNum);
+            }
         }finally{
-            IntervalMetric.stop(MATLAB_PROCESS_EXEC_METRIC, key);
+            HistogramMetric.stop(MATLAB_PROCESS_EXEC_METRIC, key);
         }
 
         if (retCode == 0) {
@@ -252,6 +267,82 @@ public class MatlabMcrExecutable {
     
     private int run(List<String> commandLineArgs, String logSuffix) throws Exception {
 
+        expandCtf();
+
+        log.debug("running with args");
+        return runCommandline(commandLineArgs, binaryName + "-", logSuffix);
+    }
+
+    /**
+     * Run the algorithm on a warm MATLAB process from the
+     * {@link MatlabMcrServerPool}.
+     * 
+     * @return the return code, or null if no warm process is available, in
+     * which case the caller should launch a new process.
+     * @throws Exception
+     */
+    private Integer runOnServer(int sequenceNum, boolean saveMatFiles) throws Exception {
+        File exe = new File(binaryDir, binaryName);
+        MatlabMcrServerPool pool = MatlabMcrServerPool.getInstance(exe.getCanonicalPath());
+        if (pool == null) {
+            return null;
+        }
+
+        expandCtf();
+
+        List<String> serverCommandLine = new ArrayList<String>();
+        serverCommandLine.add(exe.getCanonicalPath());
+        serverCommandLine.add(".");
+        serverCommandLine.add("0");
+        serverCommandLine.add("0");
+        serverCommandLine.add(exe.getCanonicalPath());
+        serverCommandLine.add("0"); // isChild=false
+        serverCommandLine.add(MatlabMain.SERVER_USER_DATA);
+
+        MatlabMcrServer server = pool.acquire(serverCommandLine, processEnvironment(), workingDir);
+        if (server == null) {
+            log.info("no warm MATLAB process available, launching a new one");
+            return null;
+        }
+
+        log.info("running sub-task on MATLAB process " + server.getPid());
+        FileWriter stdOutWriter = null;
+        FileWriter stdErrWriter = null;
+        IntervalMetricKey key = IntervalMetric.start();
+        try {
+            stdOutWriter = new FileWriter(new File(workingDir, binaryName + "-stdout-" + sequenceNum + ".log"));
+            stdErrWriter = new FileWriter(new File(workingDir, binaryName + "-stderr-" + sequenceNum + ".log"));
+            WriterLogOutputStream stdout = new WriterLogOutputStream(stdOutWriter, logOutput);
+            WriterLogOutputStream stderr = new WriterLogOutputStream(stdErrWriter, logOutput);
+            try {
+                return server.execute(workingDir, sequenceNum, saveMatFiles, stdout, stderr,
+                    timeoutSecs * 1000L);
+            } finally {
+                stdout.close();
+                stderr.close();
+            }
+        } finally {
+            pool.release(server);
+            if (stdOutWriter != null) {
+                try {
+                    stdOutWriter.close();
+                } catch (IOException e) {
+                    log.warn("failed to close stdOutWriter", e);
+                }
+            }
+            if (stdErrWriter != null) {
+                try {
+                    stdErrWriter.close();
+                } catch (IOException e) {
+                    log.warn("failed to close stdErrWriter", e);
+                }
+            }
+            IntervalMetric.stop("pipeline.module.externalProcess." + binaryName + ".execTime", key);
+        }
+    }
+
+    private void expandCtf() throws Exception {
+
         /*
          * When a matlab-generated exe runs for the very first time, it expands
          * the foo.ctf file into a foo_mcr directory structure. This logic
@@ -276,9 +367,6 @@ public class MatlabMcrExecutable {
                 }
             }
         }
-
-        log.debug("running with args");
-        return runCommandline(commandLineArgs, binaryName + "-", logSuffix);
     }
 
     private int runCommandline(List<String> commandline, String logPrefix, String logSuffix) throws Exception {
@@ -300,40 +388,7 @@ public class MatlabMcrExecutable {
             stdOutWriter = new FileWriter(new File(workingDir, logPrefix + "stdout-" + logSuffix + ".log"));
             stdErrWriter = new FileWriter(new File(workingDir, logPrefix + "stderr-" + logSuffix + ".log"));
 
-            @SuppressWarnings("unchecked")
-            Map<String, String> env = EnvironmentUtils.getProcEnvironment();
-            
-            updateEnvForConfig(env);
-
-            // make sure DISPLAY is not set, so MATLAB can't pop up windows
-            // (which block the exe from exiting)
-            env.remove("DISPLAY");
-            
-            /*
-             * 
-             * http://www.mathworks.com/support/solutions/en/data/1-D40UP3/index.html
-             * 
-             * "When running a deployed application, please make sure that the environment 
-             * variable MATLABHOME is always set to MCRROOT. If not, the application will 
-             * run as though it is running inside MATLAB. Hence, the licensing server will be contacted."
-             * 
-             */
-            Configuration config = ConfigurationServiceFactory.getInstance();
-            String mcrRoot = config.getString(MODULE_EXE_MCRROOT_PROPERTY_NAME);
-            
-            if(mcrRoot != null){
-                env.put(MATLABHOME_ENV_NAME, mcrRoot);
-                env.put(MCRROOT_ENV_NAME, mcrRoot);
-            }else{
-                env.put(MATLABHOME_ENV_NAME, "");
-                env.put(MCRROOT_ENV_NAME, "");
-            }
-            
-            env.put(osType.getSharedObjectPathEnvVar(), libPath);
-            
-            // Make sure LM_LICENSE_FILE is set to /dev/null since it otherwise may cause 
-            // undesirable access to the MATLAB license server at run time
-            env.put(LM_LICENSE_FILE_ENV_NAME, "/dev/null");
+            Map<String, String> env = processEnvironment();
             
             int retCode = 0;
             IntervalMetricKey key = IntervalMetric.start();
@@ -384,6 +439,50 @@ public class MatlabMcrExecutable {
         }
     }
 
+    /**
+     * The environment of the MATLAB process.
+     * 
+     * @throws Exception
+     */
+    private Map<String, String> processEnvironment() throws Exception {
+        @SuppressWarnings("unchecked")
+        Map<String, String> env = EnvironmentUtils.getProcEnvironment();
+        
+        updateEnvForConfig(env);
+
+        // make sure DISPLAY is not set, so MATLAB can't pop up windows
+        // (which block the exe from exiting)
+        env.remove("DISPLAY");
+        
+        /*
+         * 
+         * http://www.mathworks.com/support/solutions/en/data/1-D40UP3/index.html
+         * 
+         * "When running a deployed application, please make sure that the environment 
+         * variable MATLABHOME is always set to MCRROOT. If not, the application will 
+         * run as though it is running inside MATLAB. Hence, the licensing server will be contacted."
+         * 
+         */
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        String mcrRoot = config.getString(MODULE_EXE_MCRROOT_PROPERTY_NAME);
+        
+        if(mcrRoot != null){
+            env.put(MATLABHOME_ENV_NAME, mcrRoot);
+            env.put(MCRROOT_ENV_NAME, mcrRoot);
+        }else{
+            env.put(MATLABHOME_ENV_NAME, "");
+            env.put(MCRROOT_ENV_NAME, "");
+        }
+        
+        env.put(osType.getSharedObjectPathEnvVar(), libPath);
+        
+        // Make sure LM_LICENSE_FILE is set to /dev/null since it otherwise may cause 
+        // undesirable access to the MATLAB license server at run time
+        env.put(LM_LICENSE_FILE_ENV_NAME, "/dev/null");
+        
+        return env;
+    }
+
     private static void markSubTaskFailed(File workingDir) {
         AlgorithmStateFile subTaskState = new AlgorithmStateFile(workingDir);
         if(subTaskState.currentState() != AlgorithmStateFile.TaskState.FAILED){
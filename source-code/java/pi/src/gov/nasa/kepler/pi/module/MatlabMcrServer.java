@@ -0,0 +1,446 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.pi.module;
+
+import gov.nasa.kepler.pi.module.io.matlab.MatlabMain;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A long-lived MATLAB executable that processes one sub-task after another.
+ * 
+ * The executable is started in server mode (see {@link MatlabMain}) and
+ * receives the working directory of each sub-task on standard input.  The
+ * output of the process while it works on a sub-task is copied to the
+ * stdout and stderr streams of that sub-task, so the sub-task logs look the
+ * same as those of a process launched for a single sub-task.  The process
+ * ends each sub-task by writing {@link MatlabMain#DONE_REPLY} and the
+ * sub-task's sequence number to both streams, and the next sub-task is not
+ * started until both have been read, so no output is copied to the log of
+ * another sub-task.
+ * 
+ * Instances are not thread-safe, {@link MatlabMcrServerPool} hands each one
+ * to a single thread at a time.
+ */
+class MatlabMcrServer {
+    private static final Log log = LogFactory.getLog(MatlabMcrServer.class);
+
+    private static final String PROC_STATUS_FILE = "/proc/%d/status";
+    private static final String PROC_CLEAR_REFS_FILE = "/proc/%d/clear_refs";
+    private static final String RSS_FIELD = "VmRSS:";
+
+    /** Written to clear_refs to reset the peak resident set size (VmHWM) */
+    private static final String CLEAR_PEAK_RSS = "5";
+
+    /** Put on a reply queue when the process closes the stream */
+    private static final String EOF_REPLY = "";
+
+    private static final long EXIT_WAIT_MILLIS = 10 * 1000;
+    private static final long EXIT_POLL_MILLIS = 100;
+
+    /**
+     * How long to wait for the end of the stderr of a sub-task once its
+     * stdout has ended.  The process writes to stderr first, so this only
+     * needs to cover the time taken to copy the output.
+     */
+    private static final long STDERR_DRAIN_MILLIS = 10 * 1000;
+
+    private final String binaryName;
+    private final Process process;
+    private final Writer commandWriter;
+    private final BlockingQueue<String> replies = new LinkedBlockingQueue<String>();
+    private final BlockingQueue<String> stderrReplies = new LinkedBlockingQueue<String>();
+    private final OutputRouter stdoutRouter;
+    private final OutputRouter stderrRouter;
+
+    private int pid = -1;
+    private int tasksCompleted = 0;
+    private long lastUsedMillis = System.currentTimeMillis();
+    private boolean healthy = true;
+
+    private MatlabMcrServer(String binaryName, Process process) {
+        this.binaryName = binaryName;
+        this.process = process;
+        commandWriter = new OutputStreamWriter(process.getOutputStream());
+        stdoutRouter = new OutputRouter(process.getInputStream(), replies);
+        stderrRouter = new OutputRouter(process.getErrorStream(), stderrReplies);
+    }
+
+    /**
+     * Starts the executable in server mode and waits until it is ready to
+     * accept sub-tasks.  The output of the process until then is written to
+     * startupLogDir.
+     * 
+     * @return null if the process did not become ready within the timeout, in
+     * which case it has been destroyed.
+     */
+    static MatlabMcrServer start(String binaryName, List<String> command,
+        Map<String, String> env, File startupLogDir, long startupTimeoutMillis)
+        throws IOException {
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command);
+        processBuilder.environment().clear();
+        processBuilder.environment().putAll(env);
+        processBuilder.directory(startupLogDir);
+
+        log.info("starting MATLAB server: " + command);
+        MatlabMcrServer server = new MatlabMcrServer(binaryName, processBuilder.start());
+        server.stdoutRouter.start(binaryName + "-server-stdout");
+        server.stderrRouter.start(binaryName + "-server-stderr");
+
+        Writer stdout = new FileWriter(new File(startupLogDir, binaryName + "-server-stdout.log"));
+        Writer stderr = new FileWriter(new File(startupLogDir, binaryName + "-server-stderr.log"));
+        try {
+            server.stdoutRouter.routeTo(stdout);
+            server.stderrRouter.routeTo(stderr);
+            String reply = server.waitForReply(server.replies,
+                MatlabMain.READY_REPLY, startupTimeoutMillis);
+            if (reply == null) {
+                log.warn(binaryName + " server did not become ready, see " + startupLogDir);
+                server.destroy();
+                return null;
+            }
+            try {
+                server.pid = Integer.parseInt(reply.substring(MatlabMain.READY_REPLY.length()).trim());
+            } catch (NumberFormatException e) {
+                log.warn("unable to parse pid from MATLAB server reply: " + reply);
+            }
+        } finally {
+            server.stdoutRouter.routeTo(null);
+            server.stderrRouter.routeTo(null);
+            closeQuietly(stdout);
+            closeQuietly(stderr);
+        }
+
+        log.info(binaryName + " server ready, pid = " + server.pid);
+        return server;
+    }
+
+    /**
+     * Processes the sub-task in workingDir.
+     * 
+     * @return zero if the process reported completion of the sub-task within
+     * the timeout, otherwise non-zero, in which case the process has been
+     * destroyed.  As with a one-shot process, MATLAB errors are reported in
+     * the error file of the sub-task rather than in the return code.  The
+     * process is also destroyed if the end of the sub-task's stderr was not
+     * seen, so that the rest of it cannot reach the log of a later sub-task.
+     */
+    int execute(File workingDir, int sequenceNum, boolean saveMatFiles,
+        OutputStream stdout, OutputStream stderr, long timeoutMillis)
+        throws IOException {
+
+        clearPeakResidentSetSize();
+
+        stdoutRouter.routeTo(new OutputStreamWriter(stdout));
+        stderrRouter.routeTo(new OutputStreamWriter(stderr));
+        try {
+            sendCommand(MatlabMain.RUN_COMMAND + "\t" + workingDir.getCanonicalPath()
+                + "\t" + sequenceNum + "\t" + (saveMatFiles ? "1" : "0"));
+            String doneReply = MatlabMain.DONE_REPLY + " " + sequenceNum;
+            String reply = waitForReply(replies, doneReply, timeoutMillis);
+            if (reply == null) {
+                log.warn(binaryName + " server (pid " + pid + ") did not complete " 
+                    + workingDir + " within " + timeoutMillis + " ms");
+                destroy();
+                return -1;
+            }
+            tasksCompleted++;
+            if (waitForReply(stderrReplies, doneReply,
+                Math.min(timeoutMillis, STDERR_DRAIN_MILLIS)) == null) {
+                log.warn(binaryName + " server (pid " + pid
+                    + ") did not end the stderr of " + workingDir
+                    + ", discarding server");
+                destroy();
+            }
+            return 0;
+        } finally {
+            stdoutRouter.routeTo(null);
+            stderrRouter.routeTo(null);
+            lastUsedMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @return true if the process answers a ping within the timeout.
+     */
+    boolean ping(long timeoutMillis) {
+        if (!isAlive()) {
+            return false;
+        }
+        try {
+            sendCommand(MatlabMain.PING_COMMAND);
+        } catch (IOException e) {
+            log.warn("failed to ping " + binaryName + " server (pid " + pid + "), caught e = " + e);
+            healthy = false;
+            return false;
+        }
+        return waitForReply(replies, MatlabMain.PONG_REPLY, timeoutMillis) != null;
+    }
+
+    /**
+     * Asks the process to exit, destroying it if it has not exited shortly
+     * afterwards.
+     */
+    void shutdown() {
+        if (isAlive()) {
+            try {
+                sendCommand(MatlabMain.EXIT_COMMAND);
+            } catch (IOException e) {
+                log.debug("failed to send exit command, caught e = " + e);
+            }
+            long deadline = System.currentTimeMillis() + EXIT_WAIT_MILLIS;
+            try {
+                while (isAlive() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(EXIT_POLL_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        destroy();
+    }
+
+    private void destroy() {
+        healthy = false;
+        closeQuietly(commandWriter);
+        process.destroy();
+    }
+
+    boolean isAlive() {
+        if (!healthy) {
+            return false;
+        }
+        try {
+            process.exitValue();
+            healthy = false;
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    int getPid() {
+        return pid;
+    }
+
+    int getTasksCompleted() {
+        return tasksCompleted;
+    }
+
+    long getLastUsedMillis() {
+        return lastUsedMillis;
+    }
+
+    /**
+     * @return the current resident set size (VmRSS) of the process in
+     * kilobytes or -1 if it is not available.
+     */
+    long residentSetSizeKiloBytes() {
+        if (pid < 0) {
+            return -1;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(String.format(PROC_STATUS_FILE, pid)));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith(RSS_FIELD)) {
+                    String[] fields = line.substring(RSS_FIELD.length()).trim().split("\\s+");
+                    return Long.parseLong(fields[0]);
+                }
+            }
+        } catch (Exception e) {
+            log.debug("unable to read resident set size of pid " + pid + ", caught e = " + e);
+        } finally {
+            closeQuietly(reader);
+        }
+        return -1;
+    }
+
+    /**
+     * Resets the peak resident set size of the process so that the peak
+     * sampled by {@link ProcessMemorySampler} is that of the current sub-task
+     * rather than that of the life of the process.
+     */
+    private void clearPeakResidentSetSize() {
+        if (pid < 0) {
+            return;
+        }
+        Writer writer = null;
+        try {
+            writer = new FileWriter(String.format(PROC_CLEAR_REFS_FILE, pid));
+            writer.write(CLEAR_PEAK_RSS);
+        } catch (IOException e) {
+            log.debug("unable to reset peak resident set size of pid " + pid + ", caught e = " + e);
+        } finally {
+            closeQuietly(writer);
+        }
+    }
+
+    private void sendCommand(String command) throws IOException {
+        commandWriter.write(command);
+        commandWriter.write("\n");
+        commandWriter.flush();
+    }
+
+    /**
+     * Waits for a reply line which is expectedReply, optionally followed by a
+     * space and more text, discarding any stale replies.
+     * 
+     * @return the reply, or null if it did not arrive within the timeout or
+     * the process closed the stream.
+     */
+    private String waitForReply(BlockingQueue<String> replyQueue,
+        String expectedReply, long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (true) {
+                long remaining = deadline - System.currentTimeMillis();
+                String reply = replyQueue.poll(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                if (reply == null) {
+                    return null;
+                }
+                if (reply.equals(EOF_REPLY)) {
+                    healthy = false;
+                    return null;
+                }
+                if (reply.equals(expectedReply)
+                    || reply.startsWith(expectedReply + " ")) {
+                    return reply;
+                }
+                log.debug("discarding unexpected MATLAB server reply: " + reply);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.debug("failed to close, caught e = " + e);
+            }
+        }
+    }
+
+    /**
+     * Copies lines from a stream of the process to the log of the current
+     * sub-task.  Lines that are replies to commands are put on the reply
+     * queue instead.  Lines written while there is no current sub-task are
+     * logged with the name of the stream.
+     */
+    private static class OutputRouter implements Runnable {
+        private static final String REPLY_PREFIX = "__MCR_SERVER_";
+
+        private final InputStream input;
+        private final BlockingQueue<String> replies;
+        private Writer destination;
+        private String name;
+
+        OutputRouter(InputStream input, BlockingQueue<String> replies) {
+            this.input = input;
+            this.replies = replies;
+        }
+
+        void start(String threadName) {
+            name = threadName;
+            Thread thread = new Thread(this, threadName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        synchronized void routeTo(Writer destination) throws IOException {
+            if (this.destination != null) {
+                this.destination.flush();
+            }
+            this.destination = destination;
+        }
+
+        @Override
+        public void run() {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+            try {
+                for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                    if (line.startsWith(REPLY_PREFIX)) {
+                        replies.add(line);
+                    } else {
+                        write(line);
+                    }
+                }
+            } catch (IOException e) {
+                log.debug("MATLAB server stream closed, caught e = " + e);
+            } finally {
+                replies.add(EOF_REPLY);
+            }
+        }
+
+        private synchronized void write(String line) {
+            if (destination == null) {
+                log.info(name + ": " + line);
+                return;
+            }
+            try {
+                destination.write(line);
+                destination.write("\n");
+            } catch (IOException e) {
+                log.info("Unable to write log output, caught e = " + e, e);
+            }
+        }
+    }
+}
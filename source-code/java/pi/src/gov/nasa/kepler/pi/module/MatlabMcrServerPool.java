@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.pi.module;
+
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.commons.configuration.Configuration;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A pool of warm {@link MatlabMcrServer}s for one MATLAB executable.
+ * 
+ * The pool is disabled unless {@link #POOL_SIZE_PROPERTY_NAME} is greater
+ * than zero.  When it is disabled, when all of its processes are busy or when
+ * a process can not be started, {@link #acquire(List, Map, File)} returns
+ * null and the caller launches a process for the sub-task as before.  If a
+ * process fails to start the pool is disabled for the life of this JVM, since
+ * this usually means the executable was built without support for server
+ * mode.
+ * 
+ * Processes are health checked before they are handed out and are recycled
+ * after {@link #MAX_TASKS_PROPERTY_NAME} sub-tasks or when their resident
+ * memory exceeds {@link #MAX_RESIDENT_MB_PROPERTY_NAME}.  Processes which
+ * have been idle for {@link #IDLE_TIMEOUT_PROPERTY_NAME} are shut down so
+ * that they do not hold memory the {@link WorkerMemoryManager} does not know
+ * about.
+ */
+class MatlabMcrServerPool {
+    private static final Log log = LogFactory.getLog(MatlabMcrServerPool.class);
+
+    public static final String POOL_SIZE_PROPERTY_NAME = "pi.worker.moduleExe.warmPool.size";
+    public static final String MAX_TASKS_PROPERTY_NAME = "pi.worker.moduleExe.warmPool.maxTasksPerProcess";
+    public static final String MAX_RESIDENT_MB_PROPERTY_NAME = "pi.worker.moduleExe.warmPool.maxResidentMegaBytes";
+    public static final String STARTUP_TIMEOUT_PROPERTY_NAME = "pi.worker.moduleExe.warmPool.startupTimeoutSecs";
+    public static final String IDLE_TIMEOUT_PROPERTY_NAME = "pi.worker.moduleExe.warmPool.idleTimeoutSecs";
+
+    public static final int POOL_SIZE_DEFAULT = 0;
+    public static final int MAX_TASKS_DEFAULT = 50;
+    public static final int MAX_RESIDENT_MB_DEFAULT = 0;
+    public static final int STARTUP_TIMEOUT_SECS_DEFAULT = 300;
+    public static final int IDLE_TIMEOUT_SECS_DEFAULT = 600;
+
+    private static final long PING_TIMEOUT_MILLIS = 30 * 1000;
+    private static final long REAP_INTERVAL_MILLIS = 60 * 1000;
+    private static final int KILO = 1024;
+
+    private static final Map<String, MatlabMcrServerPool> poolsByBinary = new HashMap<String, MatlabMcrServerPool>();
+    private static Timer reaper;
+
+    private final String binaryName;
+    private final int poolSize;
+    private final int maxTasksPerProcess;
+    private final long maxResidentKiloBytes;
+    private final long startupTimeoutMillis;
+    private final long idleTimeoutMillis;
+
+    /** Most recently used first */
+    private final LinkedList<MatlabMcrServer> idleServers = new LinkedList<MatlabMcrServer>();
+    private int processCount = 0;
+    private boolean disabled = false;
+
+    MatlabMcrServerPool(String binaryName, int poolSize, int maxTasksPerProcess,
+        long maxResidentKiloBytes, long startupTimeoutMillis, long idleTimeoutMillis) {
+        this.binaryName = binaryName;
+        this.poolSize = poolSize;
+        this.maxTasksPerProcess = maxTasksPerProcess;
+        this.maxResidentKiloBytes = maxResidentKiloBytes;
+        this.startupTimeoutMillis = startupTimeoutMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @param binaryPath the canonical path of the executable.
+     * @return the pool for the executable, or null if pooling is disabled.
+     */
+    static synchronized MatlabMcrServerPool getInstance(String binaryPath) {
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        int poolSize = config.getInt(POOL_SIZE_PROPERTY_NAME, POOL_SIZE_DEFAULT);
+        if (poolSize <= 0) {
+            return null;
+        }
+
+        MatlabMcrServerPool pool = poolsByBinary.get(binaryPath);
+        if (pool == null) {
+            pool = new MatlabMcrServerPool(new File(binaryPath).getName(), poolSize,
+                config.getInt(MAX_TASKS_PROPERTY_NAME, MAX_TASKS_DEFAULT),
+                (long) config.getInt(MAX_RESIDENT_MB_PROPERTY_NAME, MAX_RESIDENT_MB_DEFAULT) * KILO,
+                config.getInt(STARTUP_TIMEOUT_PROPERTY_NAME, STARTUP_TIMEOUT_SECS_DEFAULT) * 1000L,
+                config.getInt(IDLE_TIMEOUT_PROPERTY_NAME, IDLE_TIMEOUT_SECS_DEFAULT) * 1000L);
+            poolsByBinary.put(binaryPath, pool);
+            log.info("created MATLAB server pool for " + binaryPath + ", size = " + poolSize);
+
+            if (reaper == null) {
+                startReaper();
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Returns a healthy server for the exclusive use of the caller, which
+     * must pass it to {@link #release(MatlabMcrServer)} when the sub-task
+     * completes.
+     * 
+     * @param command the command line which starts the executable in server
+     * mode.
+     * @param env the environment of the executable.
+     * @param startupLogDir where the output of a new process is written until
+     * it is ready.
+     * @return null if no server is available.
+     */
+    MatlabMcrServer acquire(List<String> command, Map<String, String> env, File startupLogDir) {
+        while (true) {
+            MatlabMcrServer server = null;
+            synchronized (this) {
+                if (disabled) {
+                    return null;
+                }
+                if (idleServers.isEmpty()) {
+                    if (processCount >= poolSize) {
+                        return null;
+                    }
+                    processCount++;
+                } else {
+                    server = idleServers.removeFirst();
+                }
+            }
+
+            if (server == null) {
+                return startServer(command, env, startupLogDir);
+            }
+            if (server.ping(PING_TIMEOUT_MILLIS)) {
+                return server;
+            }
+            log.warn(binaryName + " server (pid " + server.getPid() + ") failed health check");
+            discard(server);
+        }
+    }
+
+    /**
+     * Returns the server to the pool, or shuts it down if it should be
+     * recycled.
+     */
+    void release(MatlabMcrServer server) {
+        String recycleReason = null;
+        if (!server.isAlive()) {
+            recycleReason = "it is no longer running";
+        } else if (maxTasksPerProcess > 0 && server.getTasksCompleted() >= maxTasksPerProcess) {
+            recycleReason = "it completed " + server.getTasksCompleted() + " sub-tasks";
+        } else if (maxResidentKiloBytes > 0) {
+            long residentKiloBytes = server.residentSetSizeKiloBytes();
+            if (residentKiloBytes > maxResidentKiloBytes) {
+                recycleReason = "its resident size is " + residentKiloBytes / KILO + " MB";
+            }
+        }
+
+        if (recycleReason != null) {
+            log.info("recycling " + binaryName + " server (pid " + server.getPid() + ") because " + recycleReason);
+            discard(server);
+            return;
+        }
+
+        synchronized (this) {
+            idleServers.addFirst(server);
+        }
+    }
+
+    /**
+     * Shuts down the servers which have been idle for longer than the idle
+     * timeout.
+     */
+    void shutdownIdleServers(long nowMillis) {
+        List<MatlabMcrServer> expired = new ArrayList<MatlabMcrServer>();
+        synchronized (this) {
+            for (Iterator<MatlabMcrServer> it = idleServers.iterator(); it.hasNext();) {
+                MatlabMcrServer server = it.next();
+                if (nowMillis - server.getLastUsedMillis() > idleTimeoutMillis) {
+                    it.remove();
+                    expired.add(server);
+                }
+            }
+        }
+        for (MatlabMcrServer server : expired) {
+            log.info("shutting down idle " + binaryName + " server (pid " + server.getPid() + ")");
+            discard(server);
+        }
+    }
+
+    synchronized int getProcessCount() {
+        return processCount;
+    }
+
+    synchronized int getIdleCount() {
+        return idleServers.size();
+    }
+
+    private MatlabMcrServer startServer(List<String> command, Map<String, String> env, File startupLogDir) {
+        MatlabMcrServer server = null;
+        try {
+            server = MatlabMcrServer.start(binaryName, command, env, startupLogDir, startupTimeoutMillis);
+        } catch (Exception e) {
+            log.warn("failed to start " + binaryName + " server, caught e = " + e, e);
+        }
+
+        if (server == null) {
+            synchronized (this) {
+                processCount--;
+                if (!disabled) {
+                    log.warn("disabling the MATLAB server pool for " + binaryName
+                        + ", sub-tasks will be run in new processes");
+                    disabled = true;
+                }
+            }
+        }
+        return server;
+    }
+
+    private void discard(MatlabMcrServer server) {
+        try {
+            server.shutdown();
+        } finally {
+            synchronized (this) {
+                processCount--;
+            }
+        }
+    }
+
+    private static void startReaper() {
+        reaper = new Timer("matlab-server-reaper", true);
+        reaper.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                for (MatlabMcrServerPool pool : pools()) {
+                    pool.shutdownIdleServers(System.currentTimeMillis());
+                }
+            }
+        }, REAP_INTERVAL_MILLIS, REAP_INTERVAL_MILLIS);
+
+        Runtime.getRuntime().addShutdownHook(new Thread("matlab-server-shutdown") {
+            @Override
+            public void run() {
+                for (MatlabMcrServerPool pool : pools()) {
+                    pool.shutdownIdleServers(Long.MAX_VALUE);
+                }
+            }
+        });
+    }
+
+    private static synchronized List<MatlabMcrServerPool> pools() {
+        return new ArrayList<MatlabMcrServerPool>(poolsByBinary.values());
+    }
+}
@@ -55,6 +55,7 @@ import gov.nasa.kepler.pi.module.remote.StateFile;
 import gov.nasa.kepler.pi.worker.TaskFileCopy;
 import gov.nasa.kepler.pi.worker.TaskFileCopyParameters;
 import gov.nasa.kepler.pi.worker.WorkerTaskRequestDispatcher;
+import gov.nasa.spiffy.common.metrics.HistogramMetric;
 import gov.nasa.spiffy.common.metrics.IntervalMetric;
 import gov.nasa.spiffy.common.metrics.IntervalMetricKey;
 import gov.nasa.spiffy.common.metrics.Metric;
@@ -327,6 +328,9 @@ public abstract class MatlabPipelineModule extends
             if (metric != null && metric instanceof ValueMetric) {
                 ValueMetric iMetric = (ValueMetric) metric;
                 totalTime = iMetric.getSum();
+            } else if (metric != null && metric instanceof HistogramMetric) {
+                HistogramMetric hMetric = (HistogramMetric) metric;
+                totalTime = hMetric.getSum();
             } else {
                 log.warn("No metric found with name = " + metricName);
             }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.pi.module;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Keeps the most recent peak memory observations for each pipeline module and
+ * predicts how much memory the next task of that module will need.
+ * 
+ * The prediction is the largest recent peak plus a headroom fraction, so a
+ * module that uses much less than its static requirement can run more tasks
+ * concurrently, while a module that has been seen to exceed its static
+ * requirement reserves what it actually uses.  Modules with no observations
+ * use their static requirement.
+ */
+public class ModuleMemoryHistory {
+
+    public static final int DEFAULT_HISTORY_SIZE = 10;
+    public static final double DEFAULT_HEADROOM_FRACTION = 0.1;
+
+    private final int historySize;
+    private final double headroomFraction;
+
+    private final Map<String, LinkedList<Integer>> peaksByModule = new HashMap<String, LinkedList<Integer>>();
+
+    public ModuleMemoryHistory() {
+        this(DEFAULT_HISTORY_SIZE, DEFAULT_HEADROOM_FRACTION);
+    }
+
+    public ModuleMemoryHistory(int historySize, double headroomFraction) {
+        if (historySize < 1) {
+            throw new IllegalArgumentException("historySize must be positive, got: " + historySize);
+        }
+        if (headroomFraction < 0) {
+            throw new IllegalArgumentException("headroomFraction must not be negative, got: " + headroomFraction);
+        }
+        this.historySize = historySize;
+        this.headroomFraction = headroomFraction;
+    }
+
+    /**
+     * Record the peak resident memory observed for a completed task.
+     */
+    public synchronized void recordPeakMegaBytes(String moduleName, int peakMegaBytes) {
+        LinkedList<Integer> peaks = peaksByModule.get(moduleName);
+        if (peaks == null) {
+            peaks = new LinkedList<Integer>();
+            peaksByModule.put(moduleName, peaks);
+        }
+        peaks.addLast(peakMegaBytes);
+        if (peaks.size() > historySize) {
+            peaks.removeFirst();
+        }
+    }
+
+    /**
+     * @return the predicted memory requirement for the next task of the
+     * specified module, or staticMegaBytes if nothing has been observed yet.
+     */
+    public synchronized int predictMegaBytes(String moduleName, int staticMegaBytes) {
+        LinkedList<Integer> peaks = peaksByModule.get(moduleName);
+        if (peaks == null || peaks.isEmpty()) {
+            return staticMegaBytes;
+        }
+
+        int maxPeak = 0;
+        for (int peak : peaks) {
+            maxPeak = Math.max(maxPeak, peak);
+        }
+
+        return (int) Math.ceil(maxPeak * (1.0 + headroomFraction));
+    }
+
+    public synchronized int observationCount(String moduleName) {
+        LinkedList<Integer> peaks = peaksByModule.get(moduleName);
+        return peaks == null ? 0 : peaks.size();
+    }
+}
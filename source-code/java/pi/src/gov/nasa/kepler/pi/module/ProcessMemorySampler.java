@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.pi.module;
+
+import gov.nasa.spiffy.common.io.FileUtil;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Periodically samples the peak resident memory (VmHWM in /proc/PID/status)
+ * of all descendants of this JVM and attributes it to the active
+ * {@link MemoryReservation} whose working directory contains the current
+ * working directory of the process.
+ * 
+ * Only supported on Linux.
+ */
+class ProcessMemorySampler implements Runnable {
+    private static final Log log = LogFactory.getLog(ProcessMemorySampler.class);
+
+    private static final String PROC_DIR = "/proc";
+    private static final String PROC_STATUS_FILE = "/proc/%d/status";
+    private static final String PROC_CWD_LINK = "/proc/%d/cwd";
+
+    private static final int KILO = 1024;
+
+    private final WorkerMemoryManager memoryManager;
+    private final int rootPid;
+    private final long intervalMillis;
+
+    private volatile boolean running = true;
+
+    public ProcessMemorySampler(WorkerMemoryManager memoryManager, int rootPid, long intervalMillis) {
+        this.memoryManager = memoryManager;
+        this.rootPid = rootPid;
+        this.intervalMillis = intervalMillis;
+    }
+
+    @Override
+    public void run() {
+        log.info("Sampling memory of child processes of pid " + rootPid + " every " + intervalMillis + " ms");
+
+        while (running) {
+            try {
+                sample();
+            } catch (Exception e) {
+                log.warn("failed to sample child process memory, caught e = " + e, e);
+            }
+
+            try {
+                Thread.sleep(intervalMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    void sample() throws IOException {
+        List<MemoryReservation> reservations = new ArrayList<MemoryReservation>();
+        List<String> reservationDirs = new ArrayList<String>();
+        for (MemoryReservation reservation : memoryManager.activeReservations()) {
+            File workingDir = reservation.getWorkingDir();
+            if (workingDir != null) {
+                reservations.add(reservation);
+                reservationDirs.add(workingDir.getCanonicalPath());
+            }
+        }
+
+        if (reservations.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, ProcStatus> statusByPid = new HashMap<Integer, ProcStatus>();
+        File[] procFiles = new File(PROC_DIR).listFiles();
+        if (procFiles == null) {
+            return;
+        }
+        for (File procFile : procFiles) {
+            try {
+                int pid = Integer.parseInt(procFile.getName());
+                statusByPid.put(pid, readStatus(pid));
+            } catch (Exception e) {
+                // ignore files that are not a number (PID) or processes that
+                // exited while we were scanning
+            }
+        }
+
+        long[] kiloBytesByReservation = new long[reservations.size()];
+        for (int pid : descendants(rootPid, statusByPid)) {
+            String cwd;
+            try {
+                cwd = new File(String.format(PROC_CWD_LINK, pid)).getCanonicalPath();
+            } catch (IOException e) {
+                continue;
+            }
+
+            for (int i = 0; i < reservations.size(); i++) {
+                String dir = reservationDirs.get(i);
+                if (cwd.equals(dir) || cwd.startsWith(dir + File.separator)) {
+                    kiloBytesByReservation[i] += statusByPid.get(pid).peakKiloBytes;
+                    break;
+                }
+            }
+        }
+
+        for (int i = 0; i < reservations.size(); i++) {
+            if (kiloBytesByReservation[i] > 0) {
+                reservations.get(i)
+                    .updatePeakMegaBytes((int) (kiloBytesByReservation[i] / KILO));
+            }
+        }
+    }
+
+    private static List<Integer> descendants(int rootPid, Map<Integer, ProcStatus> statusByPid) {
+        Map<Integer, List<Integer>> childrenByPid = new HashMap<Integer, List<Integer>>();
+        for (Map.Entry<Integer, ProcStatus> entry : statusByPid.entrySet()) {
+            int ppid = entry.getValue().ppid;
+            List<Integer> children = childrenByPid.get(ppid);
+            if (children == null) {
+                children = new ArrayList<Integer>();
+                childrenByPid.put(ppid, children);
+            }
+            children.add(entry.getKey());
+        }
+
+        List<Integer> descendants = new ArrayList<Integer>();
+        LinkedList<Integer> toVisit = new LinkedList<Integer>();
+        toVisit.add(rootPid);
+        while (!toVisit.isEmpty()) {
+            List<Integer> children = childrenByPid.get(toVisit.removeFirst());
+            if (children != null) {
+                descendants.addAll(children);
+                toVisit.addAll(children);
+            }
+        }
+        return descendants;
+    }
+
+    private static ProcStatus readStatus(int pid) throws IOException {
+        ProcStatus status = new ProcStatus();
+        long rssKiloBytes = 0;
+
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(String.format(PROC_STATUS_FILE, pid)));
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.startsWith("PPid:")) {
+                    status.ppid = Integer.parseInt(value(line));
+                } else if (line.startsWith("VmHWM:")) {
+                    status.peakKiloBytes = Long.parseLong(value(line));
+                } else if (line.startsWith("VmRSS:")) {
+                    rssKiloBytes = Long.parseLong(value(line));
+                }
+            }
+        } finally {
+            FileUtil.close(reader);
+        }
+
+        status.peakKiloBytes = Math.max(status.peakKiloBytes, rssKiloBytes);
+        return status;
+    }
+
+    /**
+     * "VmHWM:     1234 kB" -> "1234"
+     */
+    private static String value(String line) {
+        String[] tokens = line.substring(line.indexOf(':') + 1)
+            .trim()
+            .split("\\s+");
+        return tokens[0];
+    }
+
+    private static class ProcStatus {
+        int ppid = -1;
+        long peakKiloBytes = 0;
+    }
+}
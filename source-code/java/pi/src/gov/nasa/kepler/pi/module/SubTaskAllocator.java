@@ -40,7 +40,10 @@ package gov.nasa.kepler.pi.module;
 import gov.nasa.spiffy.common.collect.Pair;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +59,13 @@ import org.apache.commons.logging.LogFactory;
  * This class is typically accessed over a socket using
  * {@link SubTaskServer} and {@link SubTaskClient}
  * 
+ * Clients that prefetch (see {@link SubTaskPrefetcher}) reserve several
+ * sub-tasks at a time with {@link #reserveSubTasks(String, int, long)} and
+ * then claim each one with {@link #claimSubTask(String, int, int)} just before
+ * it starts executing.  Reservations that have not yet been claimed may be
+ * stolen by an idle client so that a node with a deep local queue does not
+ * hold work that another node could be running.
+ * 
  * @author Todd Klaus todd.klaus@nasa.gov
  *
  */
@@ -83,6 +93,11 @@ public class SubTaskAllocator {
     
     private Map<Integer,AllocationGroup> subTasks = new HashMap<Integer,AllocationGroup>();
     
+    /** Reserved but unclaimed sub-tasks, oldest first, mapped to the owning client id. */
+    private final Map<Pair<Integer,Integer>, String> reservations = new LinkedHashMap<Pair<Integer,Integer>, String>();
+    
+    private int stolenCount = 0;
+    
     public SubTaskAllocator(InputsHandler inputsHandler) {
         if(inputsHandler.numGroups() > 0){
             numGroups = inputsHandler.numGroups();
@@ -108,10 +123,15 @@ public class SubTaskAllocator {
         }
     }
 
-    public boolean markSubTaskComplete(int groupIndex, int subTaskIndex){
+    public synchronized boolean markSubTaskComplete(int groupIndex, int subTaskIndex){
         
         dump();
         
+        reservations.remove(Pair.of(groupIndex, subTaskIndex));
+        
+        // completing a sub-task may unblock the next pool in this group
+        notifyAll();
+        
         AllocationGroup ag = subTasks.get(groupIndex);
         if(ag == null){
             log.warn("No sub-tasks found for groupIndex: " + groupIndex);
@@ -139,7 +159,7 @@ public class SubTaskAllocator {
      * 
      * @return
      */
-    public SubTaskAllocation nextSubTask() {
+    public synchronized SubTaskAllocation nextSubTask() {
         
         dump();
         
@@ -180,6 +200,102 @@ public class SubTaskAllocator {
         }
     }
 
+    /**
+     * Reserve up to maxSubTasks sub-tasks for the specified client.
+     * 
+     * If no sub-tasks are available from the pools, the oldest unclaimed
+     * reservation held by another client is stolen.  If nothing can be
+     * reserved or stolen, this method waits up to waitMillis for a
+     * sub-task to complete before giving up.
+     * 
+     * @return the reserved sub-tasks, or a single allocation with a status
+     * of TRY_AGAIN or NO_MORE if nothing could be reserved.
+     * @throws InterruptedException 
+     */
+    public synchronized List<SubTaskAllocation> reserveSubTasks(String clientId, int maxSubTasks, long waitMillis)
+        throws InterruptedException {
+        
+        long deadline = System.currentTimeMillis() + waitMillis;
+        
+        while(true){
+            List<SubTaskAllocation> reserved = new ArrayList<SubTaskAllocation>();
+            SubTaskServer.ResponseType status = SubTaskServer.ResponseType.NO_MORE;
+            
+            while(reserved.size() < maxSubTasks){
+                SubTaskAllocation next = nextSubTask();
+                status = next.getStatus();
+                if(status != SubTaskServer.ResponseType.OK){
+                    break;
+                }
+                reservations.put(Pair.of(next.getGroupIndex(), next.getSubTaskIndex()), clientId);
+                reserved.add(next);
+            }
+            
+            if(reserved.isEmpty()){
+                SubTaskAllocation stolen = steal(clientId);
+                if(stolen != null){
+                    reserved.add(stolen);
+                }
+            }
+            
+            if(!reserved.isEmpty()){
+                return reserved;
+            }
+            
+            long remainingMillis = deadline - System.currentTimeMillis();
+            if(status == SubTaskServer.ResponseType.NO_MORE || remainingMillis <= 0){
+                return Collections.singletonList(new SubTaskAllocation(status, -1, -1));
+            }
+            
+            wait(remainingMillis);
+        }
+    }
+    
+    /**
+     * Called by a client just before it starts executing a reserved sub-task.
+     * 
+     * @return true if the sub-task is still reserved for this client, false
+     * if it was stolen by another client and should be skipped.
+     */
+    public synchronized boolean claimSubTask(String clientId, int groupIndex, int subTaskIndex){
+        Pair<Integer,Integer> key = Pair.of(groupIndex, subTaskIndex);
+        String owner = reservations.get(key);
+        
+        if(clientId.equals(owner)){
+            reservations.remove(key);
+            return true;
+        }
+        
+        log.debug("claim for " + key + " by " + clientId + " rejected, current owner: " + owner);
+        return false;
+    }
+
+    /**
+     * Number of reservations that have been stolen by idle clients.
+     */
+    public synchronized int getStolenCount(){
+        return stolenCount;
+    }
+    
+    private SubTaskAllocation steal(String clientId){
+        Iterator<Map.Entry<Pair<Integer,Integer>, String>> it = reservations.entrySet().iterator();
+        while(it.hasNext()){
+            Map.Entry<Pair<Integer,Integer>, String> entry = it.next();
+            if(!entry.getValue().equals(clientId)){
+                Pair<Integer,Integer> key = entry.getKey();
+                it.remove();
+                // re-insert so that the stolen sub-task becomes the youngest reservation
+                reservations.put(key, clientId);
+                stolenCount++;
+                
+                log.info(clientId + " stole sub-task " + key + " from " + entry.getValue());
+                
+                return new SubTaskAllocation(SubTaskServer.ResponseType.OK, key.left, key.right);
+            }
+        }
+        return null;
+    }
+
     private SubTaskAllocation nextSubTaskForGroup(int groupIndex) {
         AllocationGroup ag = subTasks.get(groupIndex);
         if(ag == null){
@@ -238,7 +354,7 @@ public class SubTaskAllocator {
         }
     }
     
-    public boolean isEmpty(){
+    public synchronized boolean isEmpty(){
         return subTasks.isEmpty();
     }
 }
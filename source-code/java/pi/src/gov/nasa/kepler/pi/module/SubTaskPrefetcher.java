@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.pi.module;
+
+import gov.nasa.kepler.pi.module.SubTaskServer.Request;
+import gov.nasa.kepler.pi.module.SubTaskServer.RequestType;
+import gov.nasa.kepler.pi.module.SubTaskServer.Response;
+import gov.nasa.kepler.pi.module.SubTaskServer.ResponseType;
+import gov.nasa.spiffy.common.collect.Pair;
+import gov.nasa.spiffy.common.pi.PipelineException;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Node-local client for a {@link SubTaskServer} that keeps a small queue of
+ * reserved sub-tasks so that the threads on a node do not have to make a
+ * round trip to the head node (or poll with TRY_AGAIN) between sub-tasks.
+ * 
+ * Allocation requests long-poll the server instead of sleeping, completions
+ * are reported asynchronously and reserved sub-tasks are claimed just before
+ * they are executed; a sub-task that was stolen by an idle node in the
+ * meantime is skipped.
+ * 
+ * One instance is shared by all of the threads on a node.
+ */
+public class SubTaskPrefetcher {
+    private static final Log log = LogFactory.getLog(SubTaskPrefetcher.class);
+
+    /** How long the server may hold an allocation request before answering TRY_AGAIN */
+    public static final long DEFAULT_WAIT_MILLIS = 60000;
+    
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10 * 60 * 1000;
+    
+    private final String clientId;
+    private final int prefetchDepth;
+    private final long waitMillis;
+    
+    private final LinkedList<Pair<Integer,Integer>> queue = new LinkedList<Pair<Integer,Integer>>();
+    private boolean noMore = false;
+    
+    /** used only by next(), which may block in a long-poll */
+    private final Connection allocationConnection;
+    /** used for claims and completion reports */
+    private final Connection controlConnection;
+    
+    private final ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+    
+    public SubTaskPrefetcher(String host, String clientId, int prefetchDepth) {
+        this(host, clientId, prefetchDepth, DEFAULT_WAIT_MILLIS);
+    }
+
+    public SubTaskPrefetcher(String host, String clientId, int prefetchDepth, long waitMillis) {
+        if(prefetchDepth < 1){
+            throw new IllegalArgumentException("prefetchDepth must be positive, got: " + prefetchDepth);
+        }
+        
+        this.clientId = clientId;
+        this.prefetchDepth = prefetchDepth;
+        this.waitMillis = waitMillis;
+        this.allocationConnection = new Connection(host);
+        this.controlConnection = new Connection(host);
+    }
+
+    /**
+     * Returns the next sub-task to execute, blocking until one is available.
+     * 
+     * @return the (groupIndex, subTaskIndex) of the next sub-task, or null
+     * if there are no more sub-tasks for this node.
+     * @throws PipelineException if the calling thread is interrupted while
+     * the server can not be reached.
+     */
+    public synchronized Pair<Integer,Integer> next(){
+        while(true){
+            if(queue.isEmpty()){
+                if(noMore){
+                    return null;
+                }
+                fill();
+                continue;
+            }
+            
+            Pair<Integer,Integer> subTask = queue.remove();
+            Request claimRequest = new Request(RequestType.CLAIM, subTask.left, subTask.right);
+            claimRequest.clientId = clientId;
+            Response claim = controlConnection.request(claimRequest);
+            
+            if(claim.successful()){
+                log.debug(clientId + ": claimed sub-task: " + subTask);
+                return subTask;
+            }
+            
+            log.info(clientId + ": sub-task " + subTask + " was stolen by another node, skipping");
+        }
+    }
+
+    /**
+     * Report a completed sub-task to the server after delayMillis without
+     * blocking the caller.
+     */
+    public void reportSubTaskComplete(final int groupIndex, final int subTaskIndex, long delayMillis){
+        reporter.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Response response = controlConnection.request(new Request(RequestType.REPORT_DONE, 
+                    groupIndex, subTaskIndex));
+                log.debug(clientId + ": reported " + Pair.of(groupIndex, subTaskIndex) + ", response: " + response);
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits for all outstanding completion reports to be delivered and
+     * closes the connections to the server.
+     * 
+     * @throws InterruptedException 
+     */
+    public void shutdown() throws InterruptedException{
+        reporter.shutdown();
+        if(!reporter.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)){
+            log.warn(clientId + ": timed out waiting for completion reports to be sent");
+        }
+        allocationConnection.close();
+        controlConnection.close();
+    }
+    
+    private void fill(){
+        Request request = new Request(RequestType.GET_BATCH, clientId, prefetchDepth - queue.size(), waitMillis);
+        Response response = allocationConnection.request(request);
+        
+        if(response.status == ResponseType.OK){
+            for (int i = 0; i < response.batchSize(); i++) {
+                queue.add(Pair.of(response.groupIndices[i], response.subTaskIndices[i]));
+            }
+            log.debug(clientId + ": prefetched: " + response);
+        }else if(response.status == ResponseType.NO_MORE){
+            noMore = true;
+        }
+        // TRY_AGAIN: the server already waited, so just ask again
+    }
+
+    /**
+     * A persistent connection to the {@link SubTaskServer} which is
+     * re-established if it fails.
+     */
+    private static class Connection{
+        private final String host;
+        private Socket socket;
+        private ObjectOutputStream out;
+        private ObjectInputStream in;
+        
+        public Connection(String host) {
+            this.host = host;
+        }
+
+        /**
+         * Sends the request, reconnecting and retrying until it succeeds.
+         * 
+         * @throws PipelineException if the calling thread is interrupted
+         * while waiting to retry.  The interrupt status is kept set.
+         */
+        public synchronized Response request(Request request){
+            while(true){
+                try {
+                    if(socket == null){
+                        log.debug("Connecting to sub-task server at: " + host);
+                        socket = new Socket(host, SubTaskServer.SERVER_PORT);
+                        out = new ObjectOutputStream(socket.getOutputStream());
+                        out.flush();
+                        in = new ObjectInputStream(socket.getInputStream());
+                    }
+                    
+                    out.writeObject(request);
+                    out.reset();
+                    out.flush();
+                    
+                    return (Response) in.readObject();
+                } catch (Exception e) {
+                    long sleepTime = (long)(Math.random() * 100000.0);
+                    
+                    log.error("failed to communicate with sub-task server." + 
+                        "\n  server: " + host + 
+                        "\n  port: " + SubTaskServer.SERVER_PORT + 
+                        "\n  request: " + request + 
+                        "\n  sleepTime: " + sleepTime + 
+                        "\n  caught exception: " + e);
+                    
+                    close();
+                    
+                    try {
+                        Thread.sleep(sleepTime);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new PipelineException("Interrupted while waiting to retry request: " 
+                            + request, ie);
+                    }
+                    log.error("Retrying...");
+                }
+            }
+        }
+        
+        public synchronized void close(){
+            if(socket != null){
+                try {
+                    socket.close();
+                } catch (IOException ignore) {
+                }
+                socket = null;
+                out = null;
+                in = null;
+            }
+        }
+    }
+}
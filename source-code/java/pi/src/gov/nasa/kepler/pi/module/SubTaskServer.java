@@ -39,13 +39,19 @@ package gov.nasa.kepler.pi.module;
 
 import gov.nasa.spiffy.common.pi.PipelineException;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,8 +59,13 @@ import org.apache.commons.logging.LogFactory;
 /**
  * Serves sub-tasks to clients using {@link SubClassAllocator}.
  * 
- * Clients should use {@link SubTaskClient} to communicate with an 
- * instance of this class.
+ * Clients should use {@link SubTaskClient} or {@link SubTaskPrefetcher} to 
+ * communicate with an instance of this class.
+ * 
+ * Each accepted connection is serviced by its own handler thread so that a
+ * client that is long-polling for a sub-task (GET_BATCH with a non-zero
+ * waitMillis) does not block other clients.  A connection may carry any
+ * number of requests; it is closed when the client closes its end.
  * 
  * @author tklaus
  *
@@ -69,7 +80,9 @@ public class SubTaskServer implements Runnable {
     private ServerSocket serverSocket;
     private SubTaskAllocator subTaskAllocator = null;
     private CountDownLatch serverThreadReady = new CountDownLatch(1);
-    private boolean shuttingDown = false;
+    private volatile boolean shuttingDown = false;
+    private final ExecutorService connectionHandlers = 
+        Executors.newCachedThreadPool(new HandlerThreadFactory());
     
     public SubTaskServer(String host) {
         this.host = host;
@@ -99,6 +112,7 @@ public class SubTaskServer implements Runnable {
         if(serverSocket != null){
             serverSocket.close();
         }
+        connectionHandlers.shutdownNow();
     }
     
 
@@ -106,7 +120,11 @@ public class SubTaskServer implements Runnable {
     public enum RequestType{
         NOOP(-1),
         GET_NEXT(1),
-        REPORT_DONE(2);
+        REPORT_DONE(2),
+        /** reserve up to maxSubTasks sub-tasks, waiting up to waitMillis */
+        GET_BATCH(3),
+        /** claim a previously reserved sub-task just before executing it */
+        CLAIM(4);
         
         private final int v;
 
@@ -122,7 +140,9 @@ public class SubTaskServer implements Runnable {
     public enum ResponseType{
         OK(0),
         TRY_AGAIN(-1),
-        NO_MORE(-2);
+        NO_MORE(-2),
+        /** the reserved sub-task was given to another client */
+        STOLEN(-3);
         
         private final int v;
 
@@ -137,6 +157,7 @@ public class SubTaskServer implements Runnable {
                 case 0: return OK;
                 case -1: return TRY_AGAIN;
                 case -2: return NO_MORE;
+                case -3: return STOLEN;
                 default: throw new IllegalArgumentException("invalid value: " + v);
             }
         }
@@ -150,6 +171,11 @@ public class SubTaskServer implements Runnable {
         public RequestType type;
         public int groupIndex;
         public int subTaskIndex;
+        
+        // used by GET_BATCH and CLAIM
+        public String clientId;
+        public int maxSubTasks = 1;
+        public long waitMillis = 0;
 
         public Request(RequestType type, int groupIndex, int subTaskIndex) {
             this.type = type;
@@ -157,6 +183,13 @@ public class SubTaskServer implements Runnable {
             this.subTaskIndex = subTaskIndex;
         }
 
+        public Request(RequestType type, String clientId, int maxSubTasks, long waitMillis) {
+            this(type, NONE, NONE);
+            this.clientId = clientId;
+            this.maxSubTasks = maxSubTasks;
+            this.waitMillis = waitMillis;
+        }
+
         @Override
         public String toString() {
             StringBuffer sb = new StringBuffer();
@@ -166,6 +199,10 @@ public class SubTaskServer implements Runnable {
             sb.append(groupIndex);
             sb.append(", subTaskIndex=");
             sb.append(subTaskIndex);
+            if(clientId != null){
+                sb.append(", clientId=");
+                sb.append(clientId);
+            }
             sb.append("]");
             
             return  sb.toString();
@@ -179,6 +216,10 @@ public class SubTaskServer implements Runnable {
         public int groupIndex = -1;
         public int subTaskIndex = -1;
         
+        // the sub-tasks reserved by a GET_BATCH request
+        public int[] groupIndices;
+        public int[] subTaskIndices;
+        
         public Response(ResponseType status) {
             this.status = status;
         }
@@ -193,6 +234,10 @@ public class SubTaskServer implements Runnable {
             return status == ResponseType.OK;
         }
         
+        public int batchSize(){
+            return subTaskIndices == null ? 0 : subTaskIndices.length;
+        }
+        
         @Override
         public String toString() {
             StringBuffer sb = new StringBuffer();
@@ -202,6 +247,12 @@ public class SubTaskServer implements Runnable {
             sb.append(groupIndex);
             sb.append(", subTaskIndex=");
             sb.append(subTaskIndex);
+            if(subTaskIndices != null){
+                sb.append(", batch=");
+                for (int i = 0; i < subTaskIndices.length; i++) {
+                    sb.append("(").append(groupIndices[i]).append(",").append(subTaskIndices[i]).append(")");
+                }
+            }
             sb.append("]");
             
             return  sb.toString();
@@ -234,44 +285,7 @@ public class SubTaskServer implements Runnable {
                 
                 log.debug("Accepted new connection: " + clientSocket.toString());
 
-                ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
-
-                Request request = (Request) in.readObject();
-
-                log.debug("listen[server,before]: request: " + request);
-                
-                Response response = null;
-
-                RequestType type = request.type;
-                
-                if(type == RequestType.GET_NEXT){
-                    SubTaskAllocation nextSubTask = subTaskAllocator.nextSubTask();
-                    
-                    log.debug("Allocated: " + nextSubTask);
-                    
-                    ResponseType status = nextSubTask.getStatus();
-                    int groupIndex = nextSubTask.getGroupIndex();
-                    int subTaskIndex = nextSubTask.getSubTaskIndex();
-                    
-                    response = new Response(status, groupIndex, subTaskIndex);
-                }else if(type == RequestType.REPORT_DONE){
-                    subTaskAllocator.markSubTaskComplete(request.groupIndex, request.subTaskIndex);
-                    response = new Response(ResponseType.OK);
-                }else if(type == RequestType.NOOP){
-                    log.debug("Got a NO-OP");
-                    response = new Response(ResponseType.OK);
-                }else{
-                    log.error("Unknown command: " + type);
-                }
-
-                log.debug("listen[server,after], response: " + response);
-
-                out.writeObject(response);
-                
-                out.close();
-                in.close();
-                clientSocket.close();
+                connectionHandlers.execute(new ConnectionHandler(clientSocket));
             } catch (Exception e) {
                 if(shuttingDown){
                     log.info("Got shutdown signal, exiting server thread");
@@ -285,4 +299,120 @@ public class SubTaskServer implements Runnable {
             }
         }
     }
+
+    Response process(Request request) throws InterruptedException{
+        log.debug("process[server,before]: request: " + request);
+        
+        Response response = null;
+
+        RequestType type = request.type;
+        
+        if(type == RequestType.GET_NEXT){
+            SubTaskAllocation nextSubTask = subTaskAllocator.nextSubTask();
+            
+            log.debug("Allocated: " + nextSubTask);
+            
+            ResponseType status = nextSubTask.getStatus();
+            int groupIndex = nextSubTask.getGroupIndex();
+            int subTaskIndex = nextSubTask.getSubTaskIndex();
+            
+            response = new Response(status, groupIndex, subTaskIndex);
+        }else if(type == RequestType.GET_BATCH){
+            List<SubTaskAllocation> reserved = subTaskAllocator.reserveSubTasks(request.clientId, 
+                request.maxSubTasks, request.waitMillis);
+            
+            log.debug("Reserved: " + reserved);
+            
+            ResponseType status = reserved.get(0).getStatus();
+            response = new Response(status);
+            if(status == ResponseType.OK){
+                response.groupIndices = new int[reserved.size()];
+                response.subTaskIndices = new int[reserved.size()];
+                for (int i = 0; i < reserved.size(); i++) {
+                    response.groupIndices[i] = reserved.get(i).getGroupIndex();
+                    response.subTaskIndices[i] = reserved.get(i).getSubTaskIndex();
+                }
+            }
+        }else if(type == RequestType.CLAIM){
+            boolean claimed = subTaskAllocator.claimSubTask(request.clientId, request.groupIndex, request.subTaskIndex);
+            response = new Response(claimed ? ResponseType.OK : ResponseType.STOLEN, 
+                request.groupIndex, request.subTaskIndex);
+        }else if(type == RequestType.REPORT_DONE){
+            subTaskAllocator.markSubTaskComplete(request.groupIndex, request.subTaskIndex);
+            response = new Response(ResponseType.OK);
+        }else if(type == RequestType.NOOP){
+            log.debug("Got a NO-OP");
+            response = new Response(ResponseType.OK);
+        }else{
+            log.error("Unknown command: " + type);
+        }
+
+        log.debug("process[server,after], response: " + response);
+        
+        return response;
+    }
+    
+    /**
+     * Services all of the requests sent over a single connection.
+     */
+    private class ConnectionHandler implements Runnable{
+        private final Socket clientSocket;
+        
+        public ConnectionHandler(Socket clientSocket) {
+            this.clientSocket = clientSocket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                ObjectOutputStream out = new ObjectOutputStream(clientSocket.getOutputStream());
+                out.flush();
+                ObjectInputStream in = new ObjectInputStream(clientSocket.getInputStream());
+
+                try{
+                    while(true){
+                        Request request = null;
+                        try{
+                            request = (Request) in.readObject();
+                        }catch(EOFException eof){
+                            // client closed the connection
+                            break;
+                        }
+                        
+                        Response response = process(request);
+
+                        out.writeObject(response);
+                        // responses are not shared between requests
+                        out.reset();
+                        out.flush();
+                    }
+                }finally{
+                    out.close();
+                    in.close();
+                }
+            } catch (InterruptedException e) {
+                log.info("Connection handler interrupted, closing: " + clientSocket);
+            } catch (Exception e) {
+                if(!shuttingDown){
+                    log.error("Connection " + clientSocket + " failed, caught e = "+ e, e);
+                }
+            } finally {
+                try {
+                    clientSocket.close();
+                } catch (IOException ignore) {
+                }
+            }
+        }
+    }
+    
+    private static class HandlerThreadFactory implements ThreadFactory{
+        private final AtomicInteger threadNumber = new AtomicInteger();
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "SubTaskServer-handler-" + threadNumber.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
 }
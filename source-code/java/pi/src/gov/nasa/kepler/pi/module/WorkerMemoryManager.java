@@ -37,25 +37,46 @@
 
 package gov.nasa.kepler.pi.module;
 
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
 import gov.nasa.kepler.hibernate.pi.PipelineModuleDefinition;
 import gov.nasa.kepler.pi.worker.WorkerTaskRequestDispatcher;
 import gov.nasa.spiffy.common.os.MemInfo;
 import gov.nasa.spiffy.common.os.OperatingSystemType;
+import gov.nasa.spiffy.common.os.ProcessUtils;
 
-import java.util.concurrent.Semaphore;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * This class maintains a {@link Semaphore} that manages the amount of physical
- * memory available for external processes.
+ * This class manages the amount of physical memory available for external
+ * processes.
  * 
  * Before executing a task, the {@link WorkerTaskRequestDispatcher} should call
- * this class to acquire the necessary memory (as specified in the
- * {@link PipelineModuleDefinition}) and call this class again to release the
- * memory once the task is complete. If insufficient memory is available, the
- * acquire() method will block until the memory becomes available.
+ * this class to acquire the necessary memory and call this class again to
+ * release the memory once the task is complete. If insufficient memory is
+ * available, the acquire methods will block until the memory becomes
+ * available.
+ * 
+ * Waiting requests are admitted first-fit: when memory is released, every
+ * waiting request that fits in the available memory is admitted, in arrival
+ * order, so small tasks can run alongside a large task instead of queuing
+ * behind it. A request that has been passed over {@link #MAX_BYPASS_COUNT}
+ * times blocks later requests until it fits, so large tasks are not starved.
+ * 
+ * When adaptive sizing is enabled (it is disabled by default, see
+ * {@link #ADAPTIVE_ENABLED_PROP}), the amount reserved for a task is predicted
+ * from the peak resident memory of previous tasks of the same module (see
+ * {@link ModuleMemoryHistory}) rather than taken from the static requirement
+ * in the {@link PipelineModuleDefinition}. Peaks are measured by sampling the
+ * external processes launched by each task (see {@link ProcessMemorySampler}).
  * 
  * @author Todd Klaus tklaus@arc.nasa.gov
  * 
@@ -63,11 +84,42 @@ import org.apache.commons.logging.LogFactory;
 public class WorkerMemoryManager {
     private static final Log log = LogFactory.getLog(WorkerMemoryManager.class);
 
+    public static final String ADAPTIVE_ENABLED_PROP = "pi.worker.memoryManager.adaptive.enabled";
+    public static final boolean ADAPTIVE_ENABLED_DEFAULT = false;
+
+    public static final String SAMPLE_INTERVAL_MILLIS_PROP = "pi.worker.memoryManager.sampleIntervalMillis";
+    public static final long SAMPLE_INTERVAL_MILLIS_DEFAULT = 5000;
+
+    public static final String HEADROOM_FRACTION_PROP = "pi.worker.memoryManager.headroomFraction";
+
+    static final int MAX_BYPASS_COUNT = 16;
+
     private static final int KILO = 1024;
 
-    private Semaphore memorySemaphore;
     private int availableMegaBytes;
 
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+    private int poolMegaBytes;
+
+    private final List<MemoryReservation> activeReservations = new ArrayList<MemoryReservation>();
+    private ModuleMemoryHistory memoryHistory = null;
+
+    /**
+     * A thread blocked waiting for memory.
+     */
+    private static class Waiter {
+        final int megaBytes;
+        final Condition admitted;
+        boolean granted = false;
+        int bypassCount = 0;
+
+        public Waiter(int megaBytes, Condition admitted) {
+            this.megaBytes = megaBytes;
+            this.admitted = admitted;
+        }
+    }
+
     public WorkerMemoryManager() throws Exception {
         MemInfo memInfo = OperatingSystemType.getInstance().getMemInfo();
         long physicalMemoryMegaBytes = memInfo.getTotalMemoryKB() / KILO;
@@ -107,45 +159,171 @@ public class WorkerMemoryManager {
             }
         }
 
-        initSemaphore();
+        initPool();
+
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        boolean adaptive = config.getBoolean(ADAPTIVE_ENABLED_PROP, ADAPTIVE_ENABLED_DEFAULT);
+        OperatingSystemType osType = OperatingSystemType.getInstance();
+
+        if (adaptive && (osType == OperatingSystemType.LINUX || osType == OperatingSystemType.DEFAULT)) {
+            long sampleIntervalMillis = config.getLong(SAMPLE_INTERVAL_MILLIS_PROP, SAMPLE_INTERVAL_MILLIS_DEFAULT);
+            double headroomFraction = config.getDouble(HEADROOM_FRACTION_PROP,
+                ModuleMemoryHistory.DEFAULT_HEADROOM_FRACTION);
+
+            memoryHistory = new ModuleMemoryHistory(ModuleMemoryHistory.DEFAULT_HISTORY_SIZE, headroomFraction);
+            ProcessMemorySampler sampler = new ProcessMemorySampler(this, ProcessUtils.getPid(), sampleIntervalMillis);
+
+            Thread samplerThread = new Thread(sampler, "WorkerMemoryManager-sampler");
+            samplerThread.setDaemon(true);
+            samplerThread.start();
+        } else {
+            log.info("adaptive memory sizing disabled, using static module memory requirements");
+        }
     }
 
     public WorkerMemoryManager(int availableMegaBytes) {
         this.availableMegaBytes = availableMegaBytes;
 
-        initSemaphore();
+        initPool();
     }
 
-    private void initSemaphore() {
-        memorySemaphore = new Semaphore(availableMegaBytes, true);
+    /**
+     * Use the specified history to size module reservations. Peak memory must
+     * be reported with {@link MemoryReservation#updatePeakMegaBytes(int)}
+     * since no sampler is started. Used by unit tests.
+     */
+    WorkerMemoryManager(int availableMegaBytes, ModuleMemoryHistory memoryHistory) {
+        this(availableMegaBytes);
+
+        this.memoryHistory = memoryHistory;
+    }
+
+    private void initPool() {
+        poolMegaBytes = availableMegaBytes;
 
         log.info("availableMegaBytes in memory manager pool: " + availableMegaBytes);
     }
 
+    /**
+     * Reserve memory for a task of the specified module, blocking until it
+     * is available.
+     * 
+     * The amount reserved is the predicted peak for the module if enough
+     * history is available, otherwise staticMegaBytes. It is capped at the
+     * size of the pool so that an over-sized request cannot block forever.
+     * 
+     * @param moduleName
+     * @param staticMegaBytes the requirement from the
+     * {@link PipelineModuleDefinition}
+     * @return the reservation, which must be passed to
+     * {@link #releaseMemory(MemoryReservation)} when the task completes.
+     * @throws InterruptedException
+     */
+    public MemoryReservation acquireMemory(String moduleName, int staticMegaBytes) throws InterruptedException {
+        int megaBytes = staticMegaBytes;
+        if (memoryHistory != null) {
+            megaBytes = memoryHistory.predictMegaBytes(moduleName, staticMegaBytes);
+            if (megaBytes != staticMegaBytes) {
+                log.info("Using predicted requirement of " + megaBytes + " megabytes for " + moduleName
+                    + " (static requirement is " + staticMegaBytes + " megabytes)");
+            }
+        }
+        if (megaBytes > availableMegaBytes) {
+            log.warn(moduleName + " requires " + megaBytes + " megabytes, but the pool only has " + availableMegaBytes
+                + ", limiting the request to the size of the pool");
+            megaBytes = availableMegaBytes;
+        }
+
+        acquireMemoryMegaBytes(megaBytes);
+
+        MemoryReservation reservation = new MemoryReservation(moduleName, megaBytes);
+        lock.lock();
+        try {
+            activeReservations.add(reservation);
+        } finally {
+            lock.unlock();
+        }
+        return reservation;
+    }
+
+    /**
+     * Release the memory held by a reservation and record the peak memory
+     * observed for it, if any.
+     */
+    public void releaseMemory(MemoryReservation reservation) {
+        lock.lock();
+        try {
+            activeReservations.remove(reservation);
+        } finally {
+            lock.unlock();
+        }
+
+        if (memoryHistory != null && reservation.getPeakMegaBytes() > 0) {
+            log.info("Observed peak of " + reservation.getPeakMegaBytes() + " megabytes for "
+                + reservation.getModuleName() + " (reserved " + reservation.getMegaBytes() + " megabytes)");
+            memoryHistory.recordPeakMegaBytes(reservation.getModuleName(), reservation.getPeakMegaBytes());
+        }
+
+        releaseMemoryMegaBytes(reservation.getMegaBytes());
+    }
+
+    List<MemoryReservation> activeReservations() {
+        lock.lock();
+        try {
+            return new ArrayList<MemoryReservation>(activeReservations);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * @param megaBytes
      * @throws InterruptedException
-     * @see java.util.concurrent.Semaphore#acquire(int)
      */
     public void acquireMemoryMegaBytes(int megaBytes) throws InterruptedException {
         if(megaBytes == 0){
             return;
         }
-        logAcquirePrediction(megaBytes);
+        lock.lock();
+        try {
+            logAcquirePrediction(megaBytes);
 
-        memorySemaphore.acquire(megaBytes);
+            if (!canBarge(megaBytes)) {
+                Waiter waiter = new Waiter(megaBytes, lock.newCondition());
+                waiters.add(waiter);
+                admitWaiters();
 
-        log.info(megaBytes + " megabytes acquired, new pool size: " + availableMemoryMegaBytes());
+                while (!waiter.granted) {
+                    try {
+                        waiter.admitted.await();
+                    } catch (InterruptedException e) {
+                        if (!waiter.granted) {
+                            waiters.remove(waiter);
+                            // this waiter may have been blocking others
+                            admitWaiters();
+                            throw e;
+                        }
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            } else {
+                grant(megaBytes);
+            }
+
+            log.info(megaBytes + " megabytes acquired, new pool size: " + poolMegaBytes);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * @param megaBytes
      */
     private void logAcquirePrediction(int megaBytes) {
-        int numAvailPermits = memorySemaphore.availablePermits();
+        int numAvailPermits = poolMegaBytes;
         if (numAvailPermits < megaBytes) {
             log.info("Requesting " + megaBytes + " megabytes from pool, but only " + numAvailPermits
-                + " megabytes available, " + memorySemaphore.getQueueLength()
+                + " megabytes available, " + waiters.size()
                 + " threads already waiting (will probably block)...");
         } else {
             log.info("Requesting " + megaBytes + " megabytes from pool (probably won't block)...");
@@ -154,7 +332,6 @@ public class WorkerMemoryManager {
 
     /**
      * @param megaBytes
-     * @see java.util.concurrent.Semaphore#release(int)
      */
     public void releaseMemoryMegaBytes(int megaBytes) {
         if(megaBytes == 0){
@@ -163,30 +340,115 @@ public class WorkerMemoryManager {
         
         log.info("Releasing " + megaBytes + " megabytes from pool...");
 
-        memorySemaphore.release(megaBytes);
+        lock.lock();
+        try {
+            poolMegaBytes += megaBytes;
+            admitWaiters();
 
-        log.info(megaBytes + " megabytes released, new pool size: " + availableMemoryMegaBytes());
+            log.info(megaBytes + " megabytes released, new pool size: " + poolMegaBytes);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * @return
-     * @see java.util.concurrent.Semaphore#availablePermits()
+     * @return the number of megabytes currently available in the pool
      */
     public int availableMemoryMegaBytes() {
-        return memorySemaphore.availablePermits();
+        lock.lock();
+        try {
+            return poolMegaBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of threads waiting for memory
+     */
+    public int waitingCount() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * @return
-     * @see java.util.concurrent.Semaphore#tryAcquire()
+     * Acquire the memory only if it is available without waiting.
      */
     public boolean tryAcquireMegaBytes(int megaBytes) {
         if(megaBytes == 0){
             return true;
         }
 
-        logAcquirePrediction(megaBytes);
-        
-        return memorySemaphore.tryAcquire(megaBytes);
+        lock.lock();
+        try {
+            logAcquirePrediction(megaBytes);
+
+            if (canBarge(megaBytes)) {
+                grant(megaBytes);
+                return true;
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * True if a new request for megaBytes can be granted immediately.
+     * Must be called with the lock held.
+     */
+    private boolean canBarge(int megaBytes) {
+        if (megaBytes > poolMegaBytes) {
+            return false;
+        }
+        for (Waiter waiter : waiters) {
+            if (waiter.bypassCount >= MAX_BYPASS_COUNT) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Grant a new request ahead of any waiting requests. Must be called with
+     * the lock held.
+     */
+    private void grant(int megaBytes) {
+        poolMegaBytes -= megaBytes;
+        for (Waiter waiter : waiters) {
+            waiter.bypassCount++;
+        }
+    }
+
+    /**
+     * Admit waiting requests first-fit in arrival order. Must be called with
+     * the lock held.
+     */
+    private void admitWaiters() {
+        List<Waiter> bypassed = new ArrayList<Waiter>();
+        Iterator<Waiter> it = waiters.iterator();
+        while (it.hasNext() && poolMegaBytes > 0) {
+            Waiter waiter = it.next();
+            if (waiter.megaBytes <= poolMegaBytes) {
+                poolMegaBytes -= waiter.megaBytes;
+                waiter.granted = true;
+                it.remove();
+                waiter.admitted.signal();
+
+                for (Waiter bypassedWaiter : bypassed) {
+                    bypassedWaiter.bypassCount++;
+                }
+            } else {
+                if (waiter.bypassCount >= MAX_BYPASS_COUNT) {
+                    // reserve the released memory for the starved request
+                    break;
+                }
+                bypassed.add(waiter);
+            }
+        }
     }
 }
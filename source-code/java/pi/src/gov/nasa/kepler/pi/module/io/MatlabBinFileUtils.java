@@ -37,6 +37,7 @@
 
 package gov.nasa.kepler.pi.module.io;
 
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
 import gov.nasa.kepler.pi.module.AlgorithmStateFile;
 import gov.nasa.kepler.pi.module.io.matlab.MatlabErrorReturn;
 import gov.nasa.spiffy.common.persistable.BinaryPersistableFilter;
@@ -46,6 +47,7 @@ import gov.nasa.spiffy.common.pi.PipelineException;
 
 import java.io.File;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -53,6 +55,13 @@ import org.apache.commons.logging.LogFactory;
 public class MatlabBinFileUtils {
     private static final Log log = LogFactory.getLog(MatlabBinFileUtils.class);
 
+    /**
+     * When true the inputs and outputs .bin files are written and read
+     * through memory mapped files.
+     */
+    public static final String MEMORY_MAPPED_BIN_FILES_PROPERTY_NAME = "pi.worker.moduleExe.memoryMappedBinFiles";
+    public static final boolean MEMORY_MAPPED_BIN_FILES_DEFAULT = false;
+
     private MatlabBinFileUtils() {
     }
 
@@ -83,7 +92,7 @@ public class MatlabBinFileUtils {
     	
         File inputFile = new File(dataDir + "/" + moduleName + "-inputs-" + seqNum + ".bin");
         
-        PersistableUtils.writeBinFile(inputs, inputFile, filter);
+        PersistableUtils.writeBinFile(inputs, inputFile, filter, memoryMappedBinFiles());
     }
 
     /**
@@ -139,7 +148,7 @@ public class MatlabBinFileUtils {
             AlgorithmStateFile state = new AlgorithmStateFile(dataDir);
             if(state.currentState() == AlgorithmStateFile.TaskState.COMPLETE){
                 File outputFile = new File(dataDir + "/" + moduleName + "-outputs-" + seqNum + ".bin");
-                PersistableUtils.readBinFile(outputs, outputFile);
+                PersistableUtils.readBinFile(outputs, outputFile, memoryMappedBinFiles());
                 if(deleteBin){
                     // remove the .bin file to save disk space
                     if(!FileUtils.deleteQuietly(outputFile)){
@@ -156,6 +165,11 @@ public class MatlabBinFileUtils {
         return errorReturn;
     }
     
+    private static boolean memoryMappedBinFiles() {
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        return config.getBoolean(MEMORY_MAPPED_BIN_FILES_PROPERTY_NAME, MEMORY_MAPPED_BIN_FILES_DEFAULT);
+    }
+    
     public static MatlabErrorReturn dumpErrorFile(File errorFile){
         MatlabErrorReturn errorReturn = new MatlabErrorReturn();
         String errorMessage;
@@ -50,9 +50,36 @@ import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+/**
+ * Generates the MATLAB entry function, NAME_main(), of a module executable.
+ * 
+ * When the userData argument is {@value #SERVER_USER_DATA} the executable
+ * does not process a sub-task itself. Instead it reads commands, one per
+ * line, from standard input and answers each one with a line on standard
+ * output, so that a single MCR process may process many sub-tasks
+ * (see MatlabMcrServer).
+ * <ul>
+ * <li>RUN&lt;tab&gt;binaryFileDir&lt;tab&gt;binaryFileId&lt;tab&gt;saveMatFiles
+ * processes a sub-task exactly as a one-shot invocation would and then
+ * writes {@value #DONE_REPLY} and binaryFileId to standard error and then to
+ * standard output.</li>
+ * <li>PING writes {@value #PONG_REPLY}.</li>
+ * <li>EXIT, or the end of standard input, stops the process.</li>
+ * </ul>
+ * Once it is ready to accept commands the process writes
+ * {@value #READY_REPLY} followed by its process id.
+ */
 public class MatlabMain {
     private static final Log log = LogFactory.getLog(MatlabMain.class);
 
+    public static final String SERVER_USER_DATA = "__server__";
+    public static final String RUN_COMMAND = "RUN";
+    public static final String PING_COMMAND = "PING";
+    public static final String EXIT_COMMAND = "EXIT";
+    public static final String READY_REPLY = "__MCR_SERVER_READY__";
+    public static final String PONG_REPLY = "__MCR_SERVER_PONG__";
+    public static final String DONE_REPLY = "__MCR_SERVER_DONE__";
+
     private String name;
     private String inputsClassName;
     private String outputsClassName;
@@ -83,6 +110,10 @@ public class MatlabMain {
         String functionDeclaration = "function " + functionName + 
         "(binaryFileDir, binaryFileId, saveMatFiles, exeName, isChild, userData)";
         String functionDeclarationNoArgs = "function " + functionName + "()";
+        String runFunctionName = moduleName + "_run_sub_task";
+        String runFunctionDeclaration = "function " + runFunctionName
+            + "(binaryFileDir, binaryFileId, saveMatFiles, exeName, isChild, controllerUserData)";
+        String serveFunctionName = moduleName + "_serve_sub_tasks";
         String algorithmCallCodeSingleArg = "outputsStruct = " + controllerName + "(inputsStruct)";
         String algorithmCallCodeVarArg = "outputsStruct = " + controllerName + "(inputsStruct, childCmdLine, controllerUserData)";
 
@@ -96,10 +127,6 @@ public class MatlabMain {
         pw.println("% Manual edits to this file will be overwritten.");
         pw.println();
 
-        pw.println("childCmdLine = [exeName ' ' binaryFileDir ' ' binaryFileId ' ' saveMatFiles ' ' exeName ' 1 '];");
-        pw.println("disp(['child process command line: ' childCmdLine]);");
-        pw.println();
-        
         pw.println("if(nargin == 0)");
         pw.println("  disp('" + functionDeclarationNoArgs + ": no args supplied, doing nothing (expand CTF only)');");
         pw.println("  return;");
@@ -111,6 +138,12 @@ public class MatlabMain {
         pw.println("end;");
         pw.println();
         
+        pw.println("if(nargin == 6 && strcmp(userData, '" + SERVER_USER_DATA + "'))");
+        pw.println("  " + serveFunctionName + "(exeName);");
+        pw.println("  return;");
+        pw.println("end;");
+        pw.println();
+        
         pw.println("if(nargin == 6)");
         pw.println("  if(strcmp(userData, '__init__'))");
         pw.println("    controllerUserData = [];");
@@ -122,6 +155,20 @@ public class MatlabMain {
         pw.println("end;");
         pw.println();
         
+        pw.println(runFunctionName + "(binaryFileDir, binaryFileId, saveMatFiles, exeName, isChild, controllerUserData);");
+        pw.println("clear classes;");
+        pw.println();
+        pw.println("return;");
+        pw.println();
+        
+        generateServeFunction(pw, serveFunctionName, runFunctionName);
+        
+        pw.println(runFunctionDeclaration);
+        pw.println();
+        pw.println("childCmdLine = [exeName ' ' binaryFileDir ' ' binaryFileId ' ' saveMatFiles ' ' exeName ' 1 '];");
+        pw.println("disp(['child process command line: ' childCmdLine]);");
+        pw.println();
+        
         pw.println("% Environment Variables:");
         pw.println(genPrintEnvCode("HOSTNAME"));
         pw.println(genPrintEnvCode("PWD"));
@@ -250,13 +297,53 @@ public class MatlabMain {
         pw.println();
         pw.println("% Close any remaining figure windows, including hidden ones, to squelch warnings");
         pw.println("close all hidden;");
-        pw.println("clear classes;");
 
         pw.println();
         pw.println("return;");
         pw.close();
     }
     
+    /**
+     * Generates the command loop used when the executable is started with
+     * {@value #SERVER_USER_DATA}.  Metrics are cleared before each sub-task so
+     * that each metrics file only contains the metrics of its own sub-task.
+     */
+    private void generateServeFunction(PrintWriter pw, String serveFunctionName,
+        String runFunctionName) {
+        
+        pw.println("function " + serveFunctionName + "(exeName)");
+        pw.println();
+        pw.println("import gov.nasa.spiffy.common.metrics.Metric;");
+        pw.println();
+        pw.println("fprintf(1, '%s %d\\n', '" + READY_REPLY + "', feature('getpid'));");
+        pw.println("while(true)");
+        pw.println("  try");
+        pw.println("    command = input('', 's');");
+        pw.println("  catch");
+        pw.println("    command = '';");
+        pw.println("  end;");
+        pw.println();
+        pw.println("  % an empty line means standard input was closed");
+        pw.println("  if(isempty(command) || strcmp(command, '" + EXIT_COMMAND + "'))");
+        pw.println("    break;");
+        pw.println("  elseif(strcmp(command, '" + PING_COMMAND + "'))");
+        pw.println("    fprintf(1, '%s\\n', '" + PONG_REPLY + "');");
+        pw.println("  elseif(strncmp(command, '" + RUN_COMMAND + "', " + RUN_COMMAND.length() + "))");
+        pw.println("    args = regexp(command, '\\t', 'split');");
+        pw.println("    Metric.clear();");
+        pw.println("    cd(args{2});");
+        pw.println("    " + runFunctionName + "(args{2}, args{3}, args{4}, exeName, '0', []);");
+        pw.println("    fprintf(2, '%s %s\\n', '" + DONE_REPLY + "', args{3});");
+        pw.println("    fprintf(1, '%s %s\\n', '" + DONE_REPLY + "', args{3});");
+        pw.println("  else");
+        pw.println("    disp(['Ignoring unknown command: ' command]);");
+        pw.println("  end;");
+        pw.println("end;");
+        pw.println();
+        pw.println("return;");
+        pw.println();
+    }
+    
     private String genPrintEnvCode(String envname){
         return("disp(['" + envname + " = [' getenv('"+ envname +"') +']']);");
     }
@@ -37,6 +37,8 @@
 
 package gov.nasa.kepler.pi.module.remote;
 
+import gov.nasa.kepler.pi.module.SubTaskPrefetcher;
+
 import java.io.IOException;
 import java.util.concurrent.Semaphore;
 
@@ -89,9 +91,12 @@ public class RemoteNodeMaster {
 
             Semaphore complete = new Semaphore(coresPerNode);
             
+            // keep one sub-task queued for each core
+            SubTaskPrefetcher subTaskPrefetcher = new SubTaskPrefetcher(headNode, node, coresPerNode);
+            
             for (int i = 0; i < coresPerNode; i++) {
                 complete.acquire();
-                Thread t = new Thread(new RemoteSubTaskMaster(i, node, headNode, complete, 
+                Thread t = new Thread(new RemoteSubTaskMaster(i, node, subTaskPrefetcher, complete, 
                     binaryName, workingDir, timeoutSecs, distDir),
                     "SubTaskMaster[" + i + "]");
                 t.start();
@@ -106,6 +111,10 @@ public class RemoteNodeMaster {
                 }
             }
             
+            log.info("Waiting for sub-task completion reports to be sent");
+            
+            subTaskPrefetcher.shutdown();
+            
             log.info("All sub-tasks DONE for node: " + node);
         } catch(Exception e){
             log.fatal("Failed to start sub-task threads, giving up!");
@@ -39,8 +39,7 @@ package gov.nasa.kepler.pi.module.remote;
 
 import gov.nasa.kepler.pi.module.AlgorithmStateFile;
 import gov.nasa.kepler.pi.module.InputsHandler;
-import gov.nasa.kepler.pi.module.SubTaskClient;
-import gov.nasa.kepler.pi.module.SubTaskServer;
+import gov.nasa.kepler.pi.module.SubTaskPrefetcher;
 import gov.nasa.spiffy.common.collect.Pair;
 import gov.nasa.spiffy.common.pi.PipelineException;
 
@@ -58,21 +57,25 @@ import org.apache.commons.logging.LogFactory;
 public class RemoteSubTaskMaster implements Runnable{
     private static final Log log = LogFactory.getLog(RemoteSubTaskMaster.class);
 
+    // delay before reporting up the call chain to flush NFS caches
+    // AlgorithmStateFile and Matlab files have just been created and/or written to
+    private static final long NFS_CONSISTENCY_DELAY_MILLIS = 65000;
+
     int threadNumber = -1;
     private String node;
-    private String headNode;
+    private SubTaskPrefetcher subTaskPrefetcher;
     private Semaphore complete;
     private String binaryName;
     private String taskDir;
     private int timeoutSecs;
     private String distDir;
         
-    public RemoteSubTaskMaster(int threadNumber, String node, String headNode, Semaphore complete, String binaryName,
+    public RemoteSubTaskMaster(int threadNumber, String node, SubTaskPrefetcher subTaskPrefetcher, Semaphore complete, String binaryName,
         String taskDir, int timeoutSecs, String distDir) {
         
         this.threadNumber = threadNumber;
         this.node = node;
-        this.headNode = headNode;
+        this.subTaskPrefetcher = subTaskPrefetcher;
         this.complete = complete;
         this.binaryName = binaryName;
         this.taskDir = taskDir;
@@ -87,18 +90,16 @@ public class RemoteSubTaskMaster implements Runnable{
             boolean done = false;
             
             while(!done){
-                SubTaskClient subTaskClient = null;
-                SubTaskServer.Response response = null;
+                Pair<Integer,Integer> subTask = null;
 
                 try {
-                    subTaskClient = new SubTaskClient(headNode);
-                    response = subTaskClient.getNextSubTask();
+                    subTask = subTaskPrefetcher.next();
 
-                    if(response.successful()){
-                        int groupIndex = response.groupIndex;
-                        int subTaskIndex = response.subTaskIndex;
+                    if(subTask != null){
+                        int groupIndex = subTask.left;
+                        int subTaskIndex = subTask.right;
                         
-                        log.debug(threadNumber + ": Processing sub-task: " + Pair.of(groupIndex, subTaskIndex));
+                        log.debug(threadNumber + ": Processing sub-task: " + subTask);
                         
                         File subTaskDir = InputsHandler.subTaskDirectory(new File(taskDir), groupIndex, subTaskIndex);
                         
@@ -106,22 +107,21 @@ public class RemoteSubTaskMaster implements Runnable{
                             executeSubTask(subTaskDir, threadNumber, groupIndex, subTaskIndex);
                         }
                         
-                        // sleep-hack to flush NFS caches before reporting up the call chain
-                        // AlgorithmStateFile and Matlab files have just been created and/or written to
-                        try {
-                            Thread.sleep(65000);
-                        } catch (InterruptedException e) {
-                            log.warn("NFS consistency sleep awoken by e:" + e, e);
-                        }
-                            
-                        subTaskClient.reportSubTaskComplete(groupIndex, subTaskIndex);
+                        // the report is delayed for NFS consistency, but this
+                        // thread moves on to the next sub-task immediately
+                        subTaskPrefetcher.reportSubTaskComplete(groupIndex, subTaskIndex, NFS_CONSISTENCY_DELAY_MILLIS);
                     }else{
-                        // no more available or error
+                        // no more available
                         done = true;
                     }
                 } catch (Exception e) {
-                    log.error(threadNumber + ": Failed to process sub task " + response
+                    log.error(threadNumber + ": Failed to process sub task " + subTask
                         + ", caught:", e);
+                    
+                    if(Thread.currentThread().isInterrupted()){
+                        log.warn(threadNumber + ": Interrupted, thread exiting");
+                        done = true;
+                    }
                 }                
             }
             log.info("Node: " + node + "[" + threadNumber + "]: No more subtasks to process, thread exiting");
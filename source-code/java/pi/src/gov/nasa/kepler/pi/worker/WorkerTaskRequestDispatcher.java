@@ -57,6 +57,7 @@ import gov.nasa.kepler.hibernate.pi.PipelineTaskAttributes.ProcessingState;
 import gov.nasa.kepler.hibernate.pi.PipelineTaskCrud;
 import gov.nasa.kepler.hibernate.pi.TaskCounts;
 import gov.nasa.kepler.hibernate.pi.TaskExecutionLog;
+import gov.nasa.kepler.pi.module.MemoryReservation;
 import gov.nasa.kepler.pi.module.WorkerMemoryManager;
 import gov.nasa.kepler.pi.module.remote.RemoteExecutionParameters;
 import gov.nasa.kepler.pi.pipeline.PipelineExecutor;
@@ -110,6 +111,7 @@ public class WorkerTaskRequestDispatcher implements StatusReporter {
     private WorkerThreadContext context = null;
 
     private WorkerMemoryManager memoryManager = null;
+    private String currentModuleDefinitionName = null;
     private String lastErrorMessage = "";
 
     private boolean useXa = false;
@@ -150,6 +152,12 @@ public class WorkerTaskRequestDispatcher implements StatusReporter {
     public static void registerWorkingDir(File workingDir){
         WorkerThreadContext currentContext = threadContext.get();
         currentContext.setCurrentTaskWorkingDir(workingDir);
+        
+        // lets the memory manager measure the processes launched in this dir
+        MemoryReservation memoryReservation = currentContext.getCurrentMemoryReservation();
+        if(memoryReservation != null){
+            memoryReservation.setWorkingDir(workingDir);
+        }
     }
     
     /**
@@ -357,6 +365,7 @@ public class WorkerTaskRequestDispatcher implements StatusReporter {
             PipelineModuleDefinition moduleDefinition = pipelineTask.getPipelineInstanceNode()
             .getPipelineModuleDefinition();
             context.setCurrentMinMemoryMegaBytes(moduleDefinition.getMinMemoryMegaBytes());
+            currentModuleDefinitionName = moduleDefinition.getName().getName();
 
             /*
              * If the user requested that only the transition logic be re-run,
@@ -406,7 +415,8 @@ public class WorkerTaskRequestDispatcher implements StatusReporter {
              * starting the transaction
              */
             if (memoryManager != null) {
-                memoryManager.acquireMemoryMegaBytes(context.getCurrentMinMemoryMegaBytes());
+                context.setCurrentMemoryReservation(memoryManager.acquireMemory(currentModuleDefinitionName,
+                    context.getCurrentMinMemoryMegaBytes()));
             }
 
             // reset the file store connection in case it is stale
@@ -493,8 +503,10 @@ public class WorkerTaskRequestDispatcher implements StatusReporter {
 
             throw t;
         } finally {
-            if (memoryManager != null) {
-                memoryManager.releaseMemoryMegaBytes(context.getCurrentMinMemoryMegaBytes());
+            MemoryReservation memoryReservation = context.getCurrentMemoryReservation();
+            if (memoryManager != null && memoryReservation != null) {
+                memoryManager.releaseMemory(memoryReservation);
+                context.setCurrentMemoryReservation(null);
             }
 
             if (moduleExecMetricPrefix != null) {
@@ -40,6 +40,7 @@ package gov.nasa.kepler.pi.worker;
 import gov.nasa.kepler.hibernate.pi.PipelineInstance;
 import gov.nasa.kepler.hibernate.pi.PipelineModule;
 import gov.nasa.kepler.hibernate.pi.PipelineTask;
+import gov.nasa.kepler.pi.module.MemoryReservation;
 import gov.nasa.kepler.pi.worker.messages.WorkerTaskRequest;
 import gov.nasa.spiffy.common.metrics.Metric;
 
@@ -66,6 +67,7 @@ public class WorkerThreadContext {
     private long currentProcessingStartTimeMillis = 0;
     private int currentMinMemoryMegaBytes = 0;
     private File currentTaskWorkingDir = null;
+    private MemoryReservation currentMemoryReservation = null;
     private TaskLog taskLog = null;
     private long moduleExecTime = 0L;
     private Map<String, Metric> threadMetrics = null;
@@ -153,6 +155,14 @@ public class WorkerThreadContext {
         this.currentTaskWorkingDir = currentTaskWorkingDir;
     }
 
+    public MemoryReservation getCurrentMemoryReservation() {
+        return currentMemoryReservation;
+    }
+
+    public void setCurrentMemoryReservation(MemoryReservation currentMemoryReservation) {
+        this.currentMemoryReservation = currentMemoryReservation;
+    }
+
     public TaskLog getTaskLog() {
         return taskLog;
     }
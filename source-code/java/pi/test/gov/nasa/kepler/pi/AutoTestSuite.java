@@ -41,6 +41,8 @@ import gov.nasa.kepler.pi.dacct.DataAccountabilityReportTest;
 import gov.nasa.kepler.pi.models.ModelMetadataOperationsTest;
 import gov.nasa.kepler.pi.models.ModelOperationsTest;
 import gov.nasa.kepler.pi.module.InputsHandlerTest;
+import gov.nasa.kepler.pi.module.MatlabMcrServerTest;
+import gov.nasa.kepler.pi.module.SubTaskPrefetcherTest;
 import gov.nasa.kepler.pi.module.io.MatlabProxyGeneratorTest;
 import gov.nasa.kepler.pi.notification.PipelineEventNotifierTest;
 import gov.nasa.kepler.pi.parameters.ParametersOperationsTest;
@@ -62,6 +64,8 @@ public class AutoTestSuite {
 
         // gov.nasa.kepler.pi.module
         suite.addTest(new JUnit4TestAdapter(InputsHandlerTest.class));
+        suite.addTest(new JUnit4TestAdapter(MatlabMcrServerTest.class));
+        suite.addTest(new JUnit4TestAdapter(SubTaskPrefetcherTest.class));
         
         // gov.nasa.kepler.pi.module.io
         suite.addTest(new JUnit4TestAdapter(MatlabProxyGeneratorTest.class));
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.pi.module;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import gov.nasa.kepler.pi.module.io.matlab.MatlabMain;
+import gov.nasa.spiffy.common.io.Filenames;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives {@link MatlabMcrServer} against a shell script that speaks the
+ * {@link MatlabMain} server protocol.
+ */
+public class MatlabMcrServerTest {
+
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    private File testDir;
+    private File script;
+    private MatlabMcrServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        testDir = new File(Filenames.BUILD_TMP, "MatlabMcrServerTest");
+        FileUtils.deleteDirectory(testDir);
+        testDir.mkdirs();
+
+        script = writeScript("fake_server.sh", true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (server != null) {
+            server.shutdown();
+        }
+        FileUtils.deleteDirectory(testDir);
+    }
+
+    @Test
+    public void testSubTasks() throws Exception {
+        server = startServer();
+        assertNotNull("server started", server);
+        assertTrue("pid", server.getPid() > 0);
+        assertTrue("ping", server.ping(TIMEOUT_MILLIS));
+
+        for (int i = 0; i < 3; i++) {
+            File subTaskDir = new File(testDir, "st-" + i);
+            subTaskDir.mkdirs();
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+
+            int retCode = server.execute(subTaskDir, i, false, stdout, stderr, TIMEOUT_MILLIS);
+
+            assertEquals("retCode", 0, retCode);
+            assertTrue("sub-task ran", new File(subTaskDir, "done").exists());
+            assertTrue("stdout", stdout.toString().contains(subTaskDir.getCanonicalPath()));
+            assertFalse("protocol replies are not logged",
+                stdout.toString().contains(MatlabMain.DONE_REPLY));
+            // stderr has been drained by the time execute() returns
+            assertEquals("stderr", "oops " + i + "\n", stderr.toString());
+            assertTrue("isAlive", server.isAlive());
+        }
+        assertEquals("tasksCompleted", 3, server.getTasksCompleted());
+
+        server.shutdown();
+        assertFalse("isAlive", server.isAlive());
+        assertFalse("ping after shutdown", server.ping(TIMEOUT_MILLIS));
+        server = null;
+    }
+
+    @Test
+    public void testStderrNotEnded() throws Exception {
+        script = writeScript("old_fake_server.sh", false);
+        server = startServer();
+        assertNotNull("server started", server);
+
+        File subTaskDir = new File(testDir, "st-0");
+        subTaskDir.mkdirs();
+        int retCode = server.execute(subTaskDir, 0, false,
+            new ByteArrayOutputStream(), new ByteArrayOutputStream(), 1000);
+
+        assertEquals("retCode", 0, retCode);
+        assertFalse("discarded", server.isAlive());
+    }
+
+    @Test
+    public void testPoolDisabledByDefault() throws Exception {
+        assertEquals("pool", null, MatlabMcrServerPool.getInstance(script.getCanonicalPath()));
+    }
+
+    /**
+     * @param endStderr whether the script ends the stderr of each sub-task,
+     * as executables generated before that was added do not.
+     */
+    private File writeScript(String name, boolean endStderr) throws Exception {
+        File file = new File(testDir, name);
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write("#!/bin/sh\n"
+                + "echo \"" + MatlabMain.READY_REPLY + " $$\"\n"
+                + "while read line; do\n"
+                + "  case \"$line\" in\n"
+                + "    " + MatlabMain.PING_COMMAND + ") echo " + MatlabMain.PONG_REPLY + " ;;\n"
+                + "    " + MatlabMain.EXIT_COMMAND + ") exit 0 ;;\n"
+                + "    " + MatlabMain.RUN_COMMAND + "*)\n"
+                + "      dir=`echo \"$line\" | cut -f2`\n"
+                + "      id=`echo \"$line\" | cut -f3`\n"
+                + "      echo \"running in $dir\"\n"
+                + "      echo \"oops $id\" 1>&2\n"
+                + "      touch \"$dir/done\"\n"
+                + (endStderr ? "      echo \"" + MatlabMain.DONE_REPLY + " $id\" 1>&2\n" : "")
+                + "      echo \"" + MatlabMain.DONE_REPLY + " $id\" ;;\n"
+                + "  esac\n"
+                + "done\n");
+        } finally {
+            writer.close();
+        }
+        file.setExecutable(true);
+        return file;
+    }
+
+    private MatlabMcrServer startServer() throws Exception {
+        Map<String, String> env = new HashMap<String, String>(System.getenv());
+        return MatlabMcrServer.start("fake_server", Arrays.asList(script.getCanonicalPath()),
+            env, testDir, TIMEOUT_MILLIS);
+    }
+}
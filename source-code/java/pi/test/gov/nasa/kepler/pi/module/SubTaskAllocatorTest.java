@@ -38,9 +38,13 @@
 package gov.nasa.kepler.pi.module;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import gov.nasa.kepler.pi.module.SubTaskServer.ResponseType;
 import gov.nasa.spiffy.common.collect.Pair;
 
+import java.util.List;
+
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.junit.Test;
@@ -235,6 +239,106 @@ public class SubTaskAllocatorTest {
         verifyGetNext(allocator, SubTaskServer.ResponseType.NO_MORE);
 }
 
+    @Test
+    public void testReserveAndClaim() throws Exception {
+        header();
+        
+        InputsHandler sequence = new InputsHandler();
+        InputsGroup group = sequence.createGroup();
+        group.add(SUBTASK_0, SUBTASK_3);
+        group.add(SUBTASK_4);
+        
+        SubTaskAllocator allocator = new SubTaskAllocator(sequence);
+        
+        List<SubTaskAllocation> reserved = allocator.reserveSubTasks("a", 3, 0);
+        assertEquals("reserved.size", 3, reserved.size());
+        for (int i = 0; i < reserved.size(); i++) {
+            assertEquals("subTaskIndex", i, reserved.get(i).getSubTaskIndex());
+        }
+        
+        assertTrue("claim", allocator.claimSubTask("a", GROUP_0, SUBTASK_0));
+        assertFalse("claim twice", allocator.claimSubTask("a", GROUP_0, SUBTASK_0));
+        assertFalse("claim by non-owner", allocator.claimSubTask("b", GROUP_0, SUBTASK_1));
+        
+        // the only remaining sub-task in the pool
+        reserved = allocator.reserveSubTasks("a", 3, 0);
+        assertEquals("reserved.size", 1, reserved.size());
+        assertEquals("subTaskIndex", SUBTASK_3, reserved.get(0).getSubTaskIndex());
+        
+        // nothing left to reserve or steal for "a"
+        reserved = allocator.reserveSubTasks("a", 3, 0);
+        assertEquals("status", ResponseType.TRY_AGAIN, reserved.get(0).getStatus());
+        assertEquals("stolenCount", 0, allocator.getStolenCount());
+    }
+
+    @Test
+    public void testSteal() throws Exception {
+        header();
+        
+        InputsHandler sequence = new InputsHandler();
+        InputsGroup group = sequence.createGroup();
+        group.add(SUBTASK_0, SUBTASK_2);
+        
+        SubTaskAllocator allocator = new SubTaskAllocator(sequence);
+        
+        List<SubTaskAllocation> reserved = allocator.reserveSubTasks("a", 3, 0);
+        assertEquals("reserved.size", 3, reserved.size());
+        assertTrue("claim", allocator.claimSubTask("a", GROUP_0, SUBTASK_0));
+        
+        // "b" is idle, so it takes the oldest unclaimed reservation from "a"
+        reserved = allocator.reserveSubTasks("b", 3, 0);
+        assertEquals("reserved.size", 1, reserved.size());
+        assertEquals("groupIndex", GROUP_0, reserved.get(0).getGroupIndex());
+        assertEquals("subTaskIndex", SUBTASK_1, reserved.get(0).getSubTaskIndex());
+        assertEquals("stolenCount", 1, allocator.getStolenCount());
+        
+        assertFalse("claim stolen", allocator.claimSubTask("a", GROUP_0, SUBTASK_1));
+        assertTrue("claim by thief", allocator.claimSubTask("b", GROUP_0, SUBTASK_1));
+        assertTrue("claim", allocator.claimSubTask("a", GROUP_0, SUBTASK_2));
+        
+        verifyReport(allocator, GROUP_0, SUBTASK_0);
+        verifyReport(allocator, GROUP_0, SUBTASK_1);
+        verifyReport(allocator, GROUP_0, SUBTASK_2);
+        
+        reserved = allocator.reserveSubTasks("b", 3, 0);
+        assertEquals("status", ResponseType.NO_MORE, reserved.get(0).getStatus());
+    }
+
+    @Test
+    public void testReserveWaitsForCompletion() throws Exception {
+        header();
+        
+        InputsHandler sequence = new InputsHandler();
+        InputsGroup group = sequence.createGroup();
+        group.add(SUBTASK_0);
+        group.add(SUBTASK_1);
+        group.add(SUBTASK_2);
+        
+        final SubTaskAllocator allocator = new SubTaskAllocator(sequence);
+        
+        List<SubTaskAllocation> reserved = allocator.reserveSubTasks("a", 1, 0);
+        assertTrue("claim", allocator.claimSubTask("a", GROUP_0, SUBTASK_0));
+        
+        Thread reporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException ignore) {
+                }
+                allocator.markSubTaskComplete(GROUP_0, SUBTASK_0);
+            }
+        });
+        reporter.start();
+        
+        // blocked on the first pool until the report arrives
+        reserved = allocator.reserveSubTasks("b", 1, 60000);
+        reporter.join();
+        
+        assertEquals("status", ResponseType.OK, reserved.get(0).getStatus());
+        assertEquals("subTaskIndex", SUBTASK_1, reserved.get(0).getSubTaskIndex());
+    }
+
     private void verifyGetNext(SubTaskAllocator allocator, ResponseType expectedStatus){
         SubTaskAllocation response = allocator.nextSubTask();
         log.info("response: " + response);
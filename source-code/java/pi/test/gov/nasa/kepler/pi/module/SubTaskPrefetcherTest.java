@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.pi.module;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.nasa.spiffy.common.pi.PipelineException;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SubTaskPrefetcherTest {
+
+    private ServerSocket serverSocket;
+    private Thread acceptor;
+    private final CountDownLatch connected = new CountDownLatch(1);
+    
+    /**
+     * Stands in for a sub-task server which drops every connection, so that
+     * the prefetcher keeps retrying.
+     */
+    @Before
+    public void setUp() throws Exception {
+        serverSocket = new ServerSocket(SubTaskServer.SERVER_PORT);
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(true){
+                        Socket socket = serverSocket.accept();
+                        socket.close();
+                        connected.countDown();
+                    }
+                } catch (Exception closed) {
+                }
+            }
+        }, "SubTaskPrefetcherTest-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+    
+    @After
+    public void tearDown() throws Exception {
+        serverSocket.close();
+        acceptor.join(10000);
+    }
+    
+    @Test
+    public void interruptedWhileRetrying() throws Exception {
+        final SubTaskPrefetcher prefetcher = 
+            new SubTaskPrefetcher("localhost", "test-client", 1, 1000);
+        final AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+        final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+        
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prefetcher.next();
+                } catch (Throwable t) {
+                    thrown.set(t);
+                }
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        }, "SubTaskPrefetcherTest-client");
+        client.setDaemon(true);
+        client.start();
+        
+        assertTrue(connected.await(10, TimeUnit.SECONDS));
+        client.interrupt();
+        client.join(10000);
+        
+        assertFalse("request should have been aborted", client.isAlive());
+        assertTrue(thrown.get() instanceof PipelineException);
+        assertTrue(interrupted.get());
+        
+        prefetcher.shutdown();
+    }
+}
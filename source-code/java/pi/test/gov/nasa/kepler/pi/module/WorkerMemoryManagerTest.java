@@ -41,6 +41,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import org.junit.Test;
 
 
@@ -80,4 +83,122 @@ public class WorkerMemoryManagerTest {
         //availableMemory == 400
         assertEquals("availableMemory", semaphore.availableMemoryMegaBytes(), AVAILABLE_MEGA_BYTES - ALLOCATION_SIZE);
     }
+
+    @Test
+    public void testPrediction() {
+        ModuleMemoryHistory history = new ModuleMemoryHistory(2, 0.5);
+        
+        assertEquals("no history", ALLOCATION_SIZE, history.predictMegaBytes("pa", ALLOCATION_SIZE));
+        
+        history.recordPeakMegaBytes("pa", 100);
+        history.recordPeakMegaBytes("pa", 200);
+        assertEquals("max peak plus headroom", 300, history.predictMegaBytes("pa", ALLOCATION_SIZE));
+        
+        // the oldest observation ages out
+        history.recordPeakMegaBytes("pa", 50);
+        history.recordPeakMegaBytes("pa", 60);
+        assertEquals("recent peaks only", 90, history.predictMegaBytes("pa", ALLOCATION_SIZE));
+        assertEquals("observationCount", 2, history.observationCount("pa"));
+        
+        assertEquals("other module", ALLOCATION_SIZE, history.predictMegaBytes("pdc", ALLOCATION_SIZE));
+    }
+
+    @Test
+    public void testReservationFeedsHistory() throws Exception {
+        ModuleMemoryHistory history = new ModuleMemoryHistory(10, 0.0);
+        WorkerMemoryManager memoryManager = new WorkerMemoryManager(AVAILABLE_MEGA_BYTES, history);
+        
+        MemoryReservation reservation = memoryManager.acquireMemory("pa", ALLOCATION_SIZE);
+        assertEquals("static requirement", ALLOCATION_SIZE, reservation.getMegaBytes());
+        assertEquals("activeReservations", 1, memoryManager.activeReservations().size());
+        
+        reservation.updatePeakMegaBytes(150);
+        reservation.updatePeakMegaBytes(100);
+        memoryManager.releaseMemory(reservation);
+        assertEquals("availableMemory", AVAILABLE_MEGA_BYTES, memoryManager.availableMemoryMegaBytes());
+        assertEquals("activeReservations", 0, memoryManager.activeReservations().size());
+        
+        // six small tasks fit where only one fit with the static requirement
+        for (int i = 0; i < 6; i++) {
+            reservation = memoryManager.acquireMemory("pa", ALLOCATION_SIZE);
+            assertEquals("predicted requirement", 150, reservation.getMegaBytes());
+        }
+        assertEquals("availableMemory", AVAILABLE_MEGA_BYTES - 900, memoryManager.availableMemoryMegaBytes());
+        
+        // an outlier larger than the pool is capped
+        history.recordPeakMegaBytes("pdc", 2 * AVAILABLE_MEGA_BYTES);
+        assertEquals("capped", AVAILABLE_MEGA_BYTES, 
+            new WorkerMemoryManager(AVAILABLE_MEGA_BYTES, history).acquireMemory("pdc", 10).getMegaBytes());
+    }
+
+    @Test
+    public void testFirstFitAdmission() throws Exception {
+        final WorkerMemoryManager memoryManager = new WorkerMemoryManager(AVAILABLE_MEGA_BYTES);
+        
+        assertTrue("first acquire", memoryManager.tryAcquireMegaBytes(ALLOCATION_SIZE));
+        
+        // 600 + 600 does not fit, so this one waits
+        final CountDownLatch largeAdmitted = new CountDownLatch(1);
+        Thread large = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    memoryManager.acquireMemoryMegaBytes(ALLOCATION_SIZE);
+                    largeAdmitted.countDown();
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        large.setDaemon(true);
+        large.start();
+        waitForWaiters(memoryManager, 1);
+        
+        // a small request still fits alongside the running task
+        assertTrue("small acquire", memoryManager.tryAcquireMegaBytes(300));
+        assertEquals("availableMemory", 100, memoryManager.availableMemoryMegaBytes());
+        
+        memoryManager.releaseMemoryMegaBytes(ALLOCATION_SIZE);
+        assertTrue("large admitted", largeAdmitted.await(10, TimeUnit.SECONDS));
+        assertEquals("availableMemory", 100, memoryManager.availableMemoryMegaBytes());
+    }
+
+    @Test
+    public void testStarvationGuard() throws Exception {
+        final WorkerMemoryManager memoryManager = new WorkerMemoryManager(AVAILABLE_MEGA_BYTES);
+        
+        assertTrue("first acquire", memoryManager.tryAcquireMegaBytes(ALLOCATION_SIZE));
+        
+        Thread large = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    memoryManager.acquireMemoryMegaBytes(AVAILABLE_MEGA_BYTES);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        large.setDaemon(true);
+        large.start();
+        waitForWaiters(memoryManager, 1);
+        
+        for (int i = 0; i < WorkerMemoryManager.MAX_BYPASS_COUNT; i++) {
+            assertTrue("small acquire " + i, memoryManager.tryAcquireMegaBytes(1));
+            memoryManager.releaseMemoryMegaBytes(1);
+        }
+        
+        // the large request has been passed over too many times
+        assertFalse("small acquire after starvation", memoryManager.tryAcquireMegaBytes(1));
+        
+        memoryManager.releaseMemoryMegaBytes(ALLOCATION_SIZE);
+        large.join(10000);
+        assertFalse("large admitted", large.isAlive());
+        assertEquals("availableMemory", 0, memoryManager.availableMemoryMegaBytes());
+    }
+
+    private void waitForWaiters(WorkerMemoryManager memoryManager, int count) throws InterruptedException {
+        for (int i = 0; i < 1000 && memoryManager.waitingCount() < count; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("waitingCount", count, memoryManager.waitingCount());
+    }
 }
@@ -42,6 +42,7 @@ import gov.nasa.kepler.hibernate.metrics.MetricValue;
 import gov.nasa.spiffy.common.collect.Pair;
 import gov.nasa.spiffy.common.io.FileUtil;
 import gov.nasa.spiffy.common.metrics.CounterMetric;
+import gov.nasa.spiffy.common.metrics.HistogramMetric;
 import gov.nasa.spiffy.common.metrics.ValueMetric;
 
 import java.io.BufferedReader;
@@ -162,7 +163,8 @@ public class MetricsFileParser {
     }
     
     private <T> T metricTypeSwitch(String metricTypeStr, T valueCase, T counterCase) {
-        if (metricTypeStr.equals(ValueMetric.VALUE_TYPE)) {
+        if (metricTypeStr.equals(ValueMetric.VALUE_TYPE) ||
+            metricTypeStr.equals(HistogramMetric.HISTOGRAM_TYPE)) {
             return valueCase;
         } else if (metricTypeStr.equals(CounterMetric.COUNTER_TYPE)) {
             return counterCase;
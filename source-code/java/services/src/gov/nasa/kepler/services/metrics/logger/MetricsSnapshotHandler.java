@@ -44,6 +44,7 @@ import gov.nasa.kepler.services.process.StatusMessage;
 import gov.nasa.kepler.services.process.StatusMessageHandler;
 import gov.nasa.kepler.services.process.StatusMessageListener;
 import gov.nasa.spiffy.common.metrics.CounterMetric;
+import gov.nasa.spiffy.common.metrics.HistogramMetric;
 import gov.nasa.spiffy.common.metrics.Metric;
 import gov.nasa.spiffy.common.metrics.ValueMetric;
 
@@ -130,6 +131,10 @@ public class MetricsSnapshotHandler implements StatusMessageHandler {
         if (metric instanceof CounterMetric) {
             CounterMetric cm = (CounterMetric) metric;
             newCount = cm.getCount();
+        } else if (metric instanceof HistogramMetric) {
+            HistogramMetric hm = (HistogramMetric) metric;
+            newCount = hm.getCount();
+            newSum = hm.getSum();
         } else {
             ValueMetric vm = (ValueMetric) metric;
             newCount = vm.getCount();
@@ -40,6 +40,8 @@ package gov.nasa.kepler.tad.peer.merge;
 import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
 import static com.google.common.collect.Sets.newHashSet;
+import gnu.trove.TIntHashSet;
+import gnu.trove.TIntObjectHashMap;
 import gov.nasa.kepler.common.TargetManagementConstants;
 import gov.nasa.kepler.fc.rolltime.RollTimeOperations;
 import gov.nasa.kepler.hibernate.cm.KicCrud;
@@ -48,6 +50,8 @@ import gov.nasa.kepler.hibernate.cm.SkyGroup;
 import gov.nasa.kepler.hibernate.cm.TargetList;
 import gov.nasa.kepler.hibernate.cm.TargetListSet;
 import gov.nasa.kepler.hibernate.cm.TargetSelectionCrud;
+import gov.nasa.kepler.hibernate.dbservice.BulkInserter;
+import gov.nasa.kepler.hibernate.dbservice.ConfigurationServiceFactory;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
 import gov.nasa.kepler.hibernate.dbservice.DatabaseServiceFactory;
 import gov.nasa.kepler.hibernate.gar.ExportTable.State;
@@ -78,6 +82,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.configuration.Configuration;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -86,6 +91,11 @@ import org.apache.commons.logging.LogFactory;
  * pipeline run. Preconditions: {@link TargetListSet} is LOCKED or TAD_COMPLETE.
  * Postconditions: {@link TargetTable} and {@link ObservedTarget}s are generated
  * for the {@link TargetListSet}.
+ * <p>
+ * The {@link PlannedTarget}s are read and evicted in pages sorted by keplerId
+ * and merged one keplerId at a time, and the {@link ObservedTarget}s are
+ * written and evicted in batches, so the memory needed does not grow with the
+ * size of the target lists.
  * 
  * @author Miles Cote
  */
@@ -95,15 +105,21 @@ public class MergePipelineModule extends PipelineModule {
 
     public static final String MODULE_NAME = "merge";
 
+    /**
+     * The number of {@link PlannedTarget}s to retrieve from the database at
+     * once.
+     */
+    public static final String PAGE_SIZE_PROPERTY_NAME = "tad.merge.pageSize";
+    static final int PAGE_SIZE_DEFAULT = 10000;
+
     private static final Log log = LogFactory.getLog(MergePipelineModule.class);
 
     private PipelineTask pipelineTask;
     private TargetListSet targetListSet;
     private TargetListSet associatedLcTargetListSet;
 
-    private Map<Integer, Set<String>> targetLabelMap;
-    private Map<Integer, PlannedTarget> includeMap;
-    private Set<Integer> excludeKeplerIds;
+    private int pageSize = PAGE_SIZE_DEFAULT;
+    private int batchSize = BulkInserter.FLUSH_INTERVAL_DEFAULT;
 
     private final TargetCrud targetCrud;
     private final TargetSelectionCrud targetSelectionCrud;
@@ -120,6 +136,11 @@ public class MergePipelineModule extends PipelineModule {
             new TargetTableFactory(), new MaskTableFactory(),
             new RollTimeOperations(), new TadLabelValidatorFactory(),
             DatabaseServiceFactory.getInstance(), new ObservedTargetFactory());
+
+        Configuration config = ConfigurationServiceFactory.getInstance();
+        pageSize = config.getInt(PAGE_SIZE_PROPERTY_NAME, PAGE_SIZE_DEFAULT);
+        batchSize = config.getInt(BulkInserter.FLUSH_INTERVAL_PROPERTY_NAME,
+            BulkInserter.FLUSH_INTERVAL_DEFAULT);
     }
 
     MergePipelineModule(TargetCrud targetCrud,
@@ -298,155 +319,202 @@ public class MergePipelineModule extends PipelineModule {
      * by creating {@link ObservedTarget}s associated with the
      * {@link TargetTable}. If the {@link PlannedTarget}s to merge have
      * {@link Aperture}s, they are copied into the {@link ObservedTarget}s.
-     * 
-     * @throws PipelineException
+     * <p>
+     * When a keplerId is on more than one target list, the
+     * {@link PlannedTarget} on the last of them provides the aperture and sky
+     * group, and the labels of all of them are combined.
      * 
      * @throws PipelineException
      */
     private void merge() {
         TargetTable targetTable = targetListSet.getTargetTable();
 
-        log.info("Retrieve the existing observedTargets from the last merge.");
-        List<ObservedTarget> observedTargets = targetCrud.retrieveObservedTargetsPlusRejected(targetTable);
+        log.info("Retrieve the keplerIds of the existing observedTargets from the last merge.");
+        TIntHashSet observedKeplerIds = new TIntHashSet();
+        for (int keplerId : targetCrud.retrieveObservedKeplerIdsPlusRejected(targetTable)) {
+            observedKeplerIds.add(keplerId);
+        }
+        log.info("Found " + observedKeplerIds.size() + " ObservedTargets.");
 
-        log.info("Found " + observedTargets.size()
-            + " ObservedTargets. Create the includeMap of PlannedTargets.");
-        includeMap = newHashMap();
-        targetLabelMap = newHashMap();
         AmaModuleParameters amaModuleParams = pipelineTask.getParameters(AmaModuleParameters.class);
         TadLabelValidator tadLabelValidator = tadLabelValidatorFactory.create(amaModuleParams);
+
+        Map<String, Integer> targetListIndexByName = newHashMap();
         for (TargetList targetList : targetListSet.getTargetLists()) {
-            List<PlannedTarget> targets = targetSelectionCrud.retrievePlannedTargets(targetList);
+            targetListIndexByName.put(targetList.getName(),
+                targetListIndexByName.size());
+        }
 
-            tadLabelValidator.validate(targets);
+        TIntObjectHashMap<SkyGroup> skyGroupIdToSkyGroup = retrieveSkyGroups();
 
-            log.info("Found " + targets.size() + " PlannedTargets.");
-            for (PlannedTarget plannedTarget : targets) {
-                int keplerId = plannedTarget.getKeplerId();
+        PlannedTargetGroupIterator includeGroups = new PlannedTargetGroupIterator(
+            targetSelectionCrud, databaseService,
+            targetListSet.getTargetLists(), pageSize);
+        PlannedTargetGroupIterator excludeGroups = new PlannedTargetGroupIterator(
+            targetSelectionCrud, databaseService,
+            targetListSet.getExcludedTargetLists(), pageSize);
 
-                // Fail if an invalid keplerId is found.
-                if (keplerId == TargetManagementConstants.INVALID_KEPLER_ID) {
-                    throw new ModuleFatalProcessingException(
-                        "PlannedTargets on inclusion lists must have valid keplerIds."
-                            + TargetListSetOperations.getTlsInfo(targetListSet));
-                }
+        List<ObservedTarget> targetsToCreate = newArrayList();
+        int includedKeplerIdCount = 0;
+        int createdTargetsSize = 0;
 
-                includeMap.put(keplerId, plannedTarget);
+        log.info("Merge the PlannedTargets.");
+        List<PlannedTarget> excludeGroup = nextExcludeGroup(excludeGroups);
+        while (includeGroups.hasNext()) {
+            List<PlannedTarget> includeGroup = includeGroups.next();
+            int keplerId = includeGroup.get(0)
+                .getKeplerId();
 
-                // Labels logic.
-                Set<String> targetLabels = targetLabelMap.get(keplerId);
-                if (targetLabels == null) {
-                    targetLabels = newHashSet();
-                    targetLabelMap.put(keplerId, targetLabels);
-                }
+            // Fail if an invalid keplerId is found.
+            if (keplerId == TargetManagementConstants.INVALID_KEPLER_ID) {
+                throw new ModuleFatalProcessingException(
+                    "PlannedTargets on inclusion lists must have valid keplerIds."
+                        + TargetListSetOperations.getTlsInfo(targetListSet));
+            }
 
-                for (String label : plannedTarget.getLabels()) {
-                    targetLabels.add(label);
-                }
+            tadLabelValidator.validateKeplerIdGroup(includeGroup);
+            includedKeplerIdCount++;
+
+            while (excludeGroup != null && excludeGroup.get(0)
+                .getKeplerId() < keplerId) {
+                excludeGroup = nextExcludeGroup(excludeGroups);
+            }
+            boolean excluded = excludeGroup != null && excludeGroup.get(0)
+                .getKeplerId() == keplerId;
+
+            if (!excluded && !observedKeplerIds.contains(keplerId)) {
+                targetsToCreate.add(createObservedTarget(targetTable,
+                    includeGroup, targetListIndexByName, skyGroupIdToSkyGroup));
+            }
+
+            if (targetsToCreate.size() >= batchSize) {
+                createdTargetsSize += createObservedTargets(targetsToCreate);
             }
         }
 
-        log.info("Checking that the includeMap is not empty.");
-        if (includeMap.isEmpty()) {
+        log.info("Checking that PlannedTargets were found.");
+        if (includedKeplerIdCount == 0) {
             throw new ModuleFatalProcessingException(
                 "No PlannedTargets or ObservedTargets were retrieved from the database."
                     + TargetListSetOperations.getTlsInfo(targetListSet));
         }
 
-        log.info("Create the excludeSet of keplerIds.");
-        excludeKeplerIds = newHashSet();
-        for (TargetList excludeList : targetListSet.getExcludedTargetLists()) {
-            for (PlannedTarget excludeTarget : targetSelectionCrud.retrievePlannedTargets(excludeList)) {
-                int keplerId = excludeTarget.getKeplerId();
-
-                // Fail if an invalid keplerId is found.
-                if (keplerId == TargetManagementConstants.INVALID_KEPLER_ID) {
-                    throw new ModuleFatalProcessingException(
-                        "PlannedTargets on exclusion lists must have valid keplerIds."
-                            + TargetListSetOperations.getTlsInfo(targetListSet));
-                }
-
-                excludeKeplerIds.add(keplerId);
-            }
+        // Check the keplerIds of the rest of the exclusion lists.
+        while (excludeGroup != null) {
+            excludeGroup = nextExcludeGroup(excludeGroups);
         }
 
-        // Caching includeMapSize so that includeMap can be garbage collected.
-        int includeMapSize = includeMap.size();
+        createdTargetsSize += createObservedTargets(targetsToCreate);
 
-        int createdTargetsSize = createNewObservedTargets(targetTable,
-            observedTargets);
-
-        log.info("Merged " + includeMapSize + " targets in "
+        log.info("Merged " + includedKeplerIdCount + " targets in "
             + targetListSet.getTargetLists()
                 .size() + " target lists into " + createdTargetsSize
             + " distinct targets in " + targetListSet.getName()
             + " target list set.");
     }
 
-    /**
-     * Create new {@link ObservedTarget}s.
-     * 
-     * @throws PipelineException
-     */
-    private int createNewObservedTargets(TargetTable targetTable,
-        List<ObservedTarget> observedTargets) {
-        Set<ObservedTarget> targetsToCreate = newHashSet();
-
-        log.info("Add new observedTargets to observedTargets.");
-        for (PlannedTarget plannedTarget : includeMap.values()) {
-            ObservedTarget observedTarget = observedTargetFactory.create(plannedTarget.getKeplerId());
-            observedTarget.setTargetTable(targetTable);
-            observedTarget.setPipelineTask(pipelineTask);
-            observedTarget.setLabels(targetLabelMap.get(plannedTarget.getKeplerId()));
-
-            if (plannedTarget.getAperture() != null) {
-                Aperture aperture = plannedTarget.getAperture()
-                    .createCopy();
-                observedTarget.setAperture(aperture);
-                aperture.setTargetTable(targetTable);
-                observedTarget.setAperturePixelCount(aperture.getOffsets()
-                    .size());
-            }
+    private List<PlannedTarget> nextExcludeGroup(
+        PlannedTargetGroupIterator excludeGroups) {
+        if (!excludeGroups.hasNext()) {
+            return null;
+        }
 
-            if (!observedTargets.contains(observedTarget)
-                && !excludeKeplerIds.contains(plannedTarget.getKeplerId())) {
-                targetsToCreate.add(observedTarget);
-            }
+        List<PlannedTarget> excludeGroup = excludeGroups.next();
+
+        // Fail if an invalid keplerId is found.
+        if (excludeGroup.get(0)
+            .getKeplerId() == TargetManagementConstants.INVALID_KEPLER_ID) {
+            throw new ModuleFatalProcessingException(
+                "PlannedTargets on exclusion lists must have valid keplerIds."
+                    + TargetListSetOperations.getTlsInfo(targetListSet));
         }
 
+        return excludeGroup;
+    }
+
+    private TIntObjectHashMap<SkyGroup> retrieveSkyGroups() {
         log.info("Retrieving all SkyGroups for this season for in-memory lookup.");
         int observingSeason = targetListSet.getTargetTable()
             .getObservingSeason();
-        Map<Integer, SkyGroup> skyGroupIdToSkyGroupMap = newHashMap();
+        TIntObjectHashMap<SkyGroup> skyGroupIdToSkyGroup = new TIntObjectHashMap<SkyGroup>();
         for (SkyGroup skyGroup : kicCrud.retrieveAllSkyGroups()) {
             // Only add the skyGroup if it's in this season.
             if (skyGroup.getObservingSeason() == observingSeason) {
-                skyGroupIdToSkyGroupMap.put(skyGroup.getSkyGroupId(), skyGroup);
+                skyGroupIdToSkyGroup.put(skyGroup.getSkyGroupId(), skyGroup);
             }
         }
 
-        log.info("Set the module/outputs of the new observedTargets.");
-        for (ObservedTarget observedTarget : targetsToCreate) {
-            int skyGroupId = includeMap.get(observedTarget.getKeplerId())
-                .getSkyGroupId();
-
-            // Reject targets whose skyGroupId == 0.
-            if (skyGroupId == 0) {
-                observedTarget.setRejected(true);
-            } else {
-                SkyGroup skyGroup = skyGroupIdToSkyGroupMap.get(skyGroupId);
+        return skyGroupIdToSkyGroup;
+    }
 
-                observedTarget.setModOut(ModOut.of(skyGroup.getCcdModule(),
-                    skyGroup.getCcdOutput()));
+    /**
+     * Create a new {@link ObservedTarget} from the {@link PlannedTarget}s with
+     * the same keplerId.
+     */
+    private ObservedTarget createObservedTarget(TargetTable targetTable,
+        List<PlannedTarget> plannedTargets,
+        Map<String, Integer> targetListIndexByName,
+        TIntObjectHashMap<SkyGroup> skyGroupIdToSkyGroup) {
+
+        PlannedTarget plannedTarget = null;
+        int plannedTargetListIndex = -1;
+        Set<String> targetLabels = newHashSet();
+        for (PlannedTarget target : plannedTargets) {
+            int targetListIndex = targetListIndexByName.get(target.getTargetList()
+                .getName());
+            if (targetListIndex >= plannedTargetListIndex) {
+                plannedTarget = target;
+                plannedTargetListIndex = targetListIndex;
             }
+            targetLabels.addAll(target.getLabels());
+        }
+
+        ObservedTarget observedTarget = observedTargetFactory.create(plannedTarget.getKeplerId());
+        observedTarget.setTargetTable(targetTable);
+        observedTarget.setPipelineTask(pipelineTask);
+        observedTarget.setLabels(targetLabels);
+
+        if (plannedTarget.getAperture() != null) {
+            Aperture aperture = plannedTarget.getAperture()
+                .createCopy();
+            observedTarget.setAperture(aperture);
+            aperture.setTargetTable(targetTable);
+            observedTarget.setAperturePixelCount(aperture.getOffsets()
+                .size());
+        }
+
+        // Reject targets whose skyGroupId == 0.
+        int skyGroupId = plannedTarget.getSkyGroupId();
+        if (skyGroupId == 0) {
+            observedTarget.setRejected(true);
+        } else {
+            SkyGroup skyGroup = skyGroupIdToSkyGroup.get(skyGroupId);
+
+            observedTarget.setModOut(ModOut.of(skyGroup.getCcdModule(),
+                skyGroup.getCcdOutput()));
         }
 
-        databaseService.evictAll(newArrayList(includeMap.values()));
-        includeMap = null;
+        return observedTarget;
+    }
+
+    /**
+     * Create a batch of new {@link ObservedTarget}s and evict them from the
+     * session. The session is flushed first, so that the evictions that
+     * cascade to the {@link TargetTable} do not lose any of its changes.
+     * 
+     * @return the number of {@link ObservedTarget}s created
+     */
+    private int createObservedTargets(List<ObservedTarget> targetsToCreate) {
+        int createdTargetsSize = targetsToCreate.size();
+        if (createdTargetsSize > 0) {
+            targetCrud.createObservedTargets(targetsToCreate);
+            databaseService.flush();
+            databaseService.evictAll(targetsToCreate);
+        }
 
-        targetCrud.createObservedTargets(targetsToCreate);
+        targetsToCreate.clear();
 
-        return targetsToCreate.size();
+        return createdTargetsSize;
     }
 
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.tad.peer.merge;
+
+import static com.google.common.collect.Lists.newArrayList;
+import gov.nasa.kepler.hibernate.cm.PlannedTarget;
+import gov.nasa.kepler.hibernate.cm.TargetList;
+import gov.nasa.kepler.hibernate.cm.TargetSelectionCrud;
+import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
+import gov.nasa.kepler.hibernate.tad.TargetTable;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the {@link PlannedTarget}s on a set of {@link TargetList}s in
+ * order of keplerId, returning all of the {@link PlannedTarget}s with the same
+ * keplerId together. The targets are retrieved a page at a time, so only a
+ * page of them needs to be in memory.
+ * 
+ * The targets of a page are evicted from the session once all of its groups
+ * have been returned. The session is flushed first, so that the evictions
+ * that cascade through the apertures to a {@link TargetTable} do not lose any
+ * of its changes.
+ */
+class PlannedTargetGroupIterator implements Iterator<List<PlannedTarget>> {
+
+    private final TargetSelectionCrud targetSelectionCrud;
+    private final DatabaseService databaseService;
+    private final Collection<TargetList> targetLists;
+    private final int pageSize;
+
+    private final Deque<PlannedTarget> page = new ArrayDeque<PlannedTarget>();
+    private final List<PlannedTarget> targetsToEvict = newArrayList();
+    private int nextMinKeplerId = Integer.MIN_VALUE;
+    private boolean lastPageRetrieved;
+
+    PlannedTargetGroupIterator(TargetSelectionCrud targetSelectionCrud,
+        DatabaseService databaseService, Collection<TargetList> targetLists,
+        int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive, not "
+                + pageSize);
+        }
+        this.targetSelectionCrud = targetSelectionCrud;
+        this.databaseService = databaseService;
+        this.targetLists = targetLists;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    public boolean hasNext() {
+        retrievePageIfEmpty();
+        return !page.isEmpty();
+    }
+
+    @Override
+    public List<PlannedTarget> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        int keplerId = page.peekFirst()
+            .getKeplerId();
+        List<PlannedTarget> group = newArrayList();
+        while (!page.isEmpty() && page.peekFirst()
+            .getKeplerId() == keplerId) {
+            group.add(page.removeFirst());
+        }
+
+        return group;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * A page holds the targets with keplerIds below that of the target
+     * pageSize targets on, so that all of the targets with one keplerId are
+     * retrieved together. The page is a single keplerId in the unlikely event
+     * that it has more targets than pageSize.
+     */
+    private void retrievePageIfEmpty() {
+        if (!page.isEmpty()) {
+            return;
+        }
+
+        if (!targetsToEvict.isEmpty()) {
+            databaseService.flush();
+            databaseService.evictAll(targetsToEvict);
+            targetsToEvict.clear();
+        }
+
+        while (page.isEmpty() && !lastPageRetrieved) {
+            Integer maxKeplerId = targetSelectionCrud.retrievePlannedTargetKeplerId(
+                targetLists, nextMinKeplerId, pageSize);
+            if (maxKeplerId != null && maxKeplerId == nextMinKeplerId) {
+                maxKeplerId = nextMinKeplerId == Integer.MAX_VALUE ? null
+                    : nextMinKeplerId + 1;
+            }
+
+            List<PlannedTarget> targets = targetSelectionCrud.retrievePlannedTargets(
+                targetLists, nextMinKeplerId, maxKeplerId);
+            page.addAll(targets);
+            targetsToEvict.addAll(targets);
+            if (maxKeplerId == null) {
+                lastPageRetrieved = true;
+            } else {
+                nextMinKeplerId = maxKeplerId;
+            }
+        }
+    }
+}
@@ -113,6 +113,22 @@ class TadLabelValidator {
     }
 
     void validate(List<PlannedTarget> plannedTargets) {
+        validate(plannedTargets, keplerIdToValidatorTarget);
+    }
+
+    /**
+     * Validates the given {@link PlannedTarget}s against each other, but not
+     * against those of earlier calls. Use this when all of the
+     * {@link PlannedTarget}s with a given keplerId are passed in one call, as
+     * it does not remember them.
+     */
+    void validateKeplerIdGroup(List<PlannedTarget> plannedTargets) {
+        Map<Integer, ValidatorTarget> groupValidatorTargets = newHashMap();
+        validate(plannedTargets, groupValidatorTargets);
+    }
+
+    private void validate(List<PlannedTarget> plannedTargets,
+        Map<Integer, ValidatorTarget> keplerIdToValidatorTarget) {
         for (PlannedTarget plannedTarget : plannedTargets) {
             int keplerId = plannedTarget.getKeplerId();
 
@@ -76,6 +76,7 @@ import gov.nasa.kepler.tad.peer.coa.CoaOutputsTest;
 import gov.nasa.kepler.tad.peer.coa.CoaPipelineModuleTest;
 import gov.nasa.kepler.tad.peer.coa.DistanceFromEdgeCalculatorTest;
 import gov.nasa.kepler.tad.peer.merge.MergePipelineModuleTest;
+import gov.nasa.kepler.tad.peer.merge.PlannedTargetGroupIteratorTest;
 import gov.nasa.kepler.tad.peer.merge.TadLabelValidatorTest;
 import gov.nasa.kepler.tad.peer.rpts.RptsInputsTest;
 import gov.nasa.kepler.tad.peer.rpts.RptsOutputsTest;
@@ -161,6 +162,7 @@ import org.junit.runners.Suite.SuiteClasses;
 
     // gov.nasa.kepler.tad.peer.merge
     MergePipelineModuleTest.class,
+    PlannedTargetGroupIteratorTest.class,
     TadLabelValidatorTest.class,
 
     // gov.nasa.kepler.tad.peer.rpts
@@ -127,6 +127,7 @@ public class MergePipelineModuleTest extends JMockTest {
     private static final State STATE = State.LOCKED;
     private static final List<TargetList> TARGET_LISTS = newArrayList();
     private static final Set<String> LABELS = ImmutableSet.of("LABEL");
+    private static final String TARGET_LIST_NAME = "TARGET_LIST_NAME";
 
     private TargetListSet targetListSet = new TargetListSet(
         TARGET_LIST_SET_NAME) {
@@ -230,7 +231,6 @@ public class MergePipelineModuleTest extends JMockTest {
     @Test
     public void testProcessTaskWithTargetOnTwoTargetLists() {
         TARGET_LISTS.add(targetList);
-        setPerTargetListExpectations();
 
         setAllowances();
 
@@ -247,8 +247,6 @@ public class MergePipelineModuleTest extends JMockTest {
     public void testProcessTaskWithTargetOnThreeTargetLists() {
         TARGET_LISTS.add(targetList);
         TARGET_LISTS.add(targetList);
-        setPerTargetListExpectations();
-        setPerTargetListExpectations();
 
         setAllowances();
 
@@ -282,9 +280,16 @@ public class MergePipelineModuleTest extends JMockTest {
 
         oneOf(observedTarget).setModOut(MOD_OUT);
 
-        oneOf(databaseService).evictAll(plannedTargets);
+        oneOf(targetCrud).createObservedTargets(ImmutableList.of(observedTarget));
 
-        oneOf(targetCrud).createObservedTargets(ImmutableSet.of(observedTarget));
+        oneOf(databaseService).flush();
+
+        oneOf(databaseService).evictAll(ImmutableList.of(observedTarget));
+
+        // The page of PlannedTargets is flushed and evicted on its own.
+        oneOf(databaseService).flush();
+
+        oneOf(databaseService).evictAll(plannedTargetsOnAllTargetLists());
 
         oneOf(observedTarget).setTargetTable(targetTable);
 
@@ -298,11 +303,20 @@ public class MergePipelineModuleTest extends JMockTest {
 
         oneOf(observedTarget).setAperturePixelCount(APERTURE_PIXEL_COUNT);
 
-        setPerTargetListExpectations();
+        oneOf(tadLabelValidator).validateKeplerIdGroup(
+            plannedTargetsOnAllTargetLists());
     }
 
-    private void setPerTargetListExpectations() {
-        oneOf(tadLabelValidator).validate(plannedTargets);
+    /**
+     * The page of {@link PlannedTarget}s retrieved for the target list set,
+     * which has the target once for each target list.
+     */
+    private List<PlannedTarget> plannedTargetsOnAllTargetLists() {
+        List<PlannedTarget> targets = newArrayList();
+        for (int i = 0; i < TARGET_LISTS.size(); i++) {
+            targets.addAll(plannedTargets);
+        }
+        return targets;
     }
 
     private void setAllowances() {
@@ -545,7 +559,7 @@ public class MergePipelineModuleTest extends JMockTest {
         allowing(rollTimeOperations).mjdToSeason(END_MJD);
         will(returnValue(OBSERVING_SEASON));
 
-        allowing(targetCrud).retrieveObservedTargetsPlusRejected(targetTable);
+        allowing(targetCrud).retrieveObservedKeplerIdsPlusRejected(targetTable);
         will(returnValue(ImmutableList.of()));
 
         allowing(pipelineTask).getParameters(AmaModuleParameters.class);
@@ -554,8 +568,29 @@ public class MergePipelineModuleTest extends JMockTest {
         allowing(tadLabelValidatorFactory).create(amaModuleParameters);
         will(returnValue(tadLabelValidator));
 
-        allowing(targetSelectionCrud).retrievePlannedTargets(targetList);
-        will(returnValue(plannedTargets));
+        allowing(targetSelectionCrud).retrievePlannedTargetKeplerId(
+            TARGET_LISTS, Integer.MIN_VALUE,
+            MergePipelineModule.PAGE_SIZE_DEFAULT);
+        will(returnValue(null));
+
+        allowing(targetSelectionCrud).retrievePlannedTargets(TARGET_LISTS,
+            Integer.MIN_VALUE, null);
+        will(returnValue(plannedTargetsOnAllTargetLists()));
+
+        allowing(targetSelectionCrud).retrievePlannedTargetKeplerId(
+            targetListSet.getExcludedTargetLists(), Integer.MIN_VALUE,
+            MergePipelineModule.PAGE_SIZE_DEFAULT);
+        will(returnValue(null));
+
+        allowing(targetSelectionCrud).retrievePlannedTargets(
+            targetListSet.getExcludedTargetLists(), Integer.MIN_VALUE, null);
+        will(returnValue(ImmutableList.of()));
+
+        allowing(plannedTarget).getTargetList();
+        will(returnValue(targetList));
+
+        allowing(targetList).getName();
+        will(returnValue(TARGET_LIST_NAME));
 
         allowing(plannedTarget).getKeplerId();
         will(returnValue(keplerId));
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2017 United States Government as represented by the
+ * Administrator of the National Aeronautics and Space Administration.
+ * All Rights Reserved.
+ * 
+ * This file is available under the terms of the NASA Open Source Agreement
+ * (NOSA). You should have received a copy of this agreement with the
+ * Kepler source code; see the file NASA-OPEN-SOURCE-AGREEMENT.doc.
+ * 
+ * No Warranty: THE SUBJECT SOFTWARE IS PROVIDED "AS IS" WITHOUT ANY
+ * WARRANTY OF ANY KIND, EITHER EXPRESSED, IMPLIED, OR STATUTORY,
+ * INCLUDING, BUT NOT LIMITED TO, ANY WARRANTY THAT THE SUBJECT SOFTWARE
+ * WILL CONFORM TO SPECIFICATIONS, ANY IMPLIED WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE, OR FREEDOM FROM
+ * INFRINGEMENT, ANY WARRANTY THAT THE SUBJECT SOFTWARE WILL BE ERROR
+ * FREE, OR ANY WARRANTY THAT DOCUMENTATION, IF PROVIDED, WILL CONFORM
+ * TO THE SUBJECT SOFTWARE. THIS AGREEMENT DOES NOT, IN ANY MANNER,
+ * CONSTITUTE AN ENDORSEMENT BY GOVERNMENT AGENCY OR ANY PRIOR RECIPIENT
+ * OF ANY RESULTS, RESULTING DESIGNS, HARDWARE, SOFTWARE PRODUCTS OR ANY
+ * OTHER APPLICATIONS RESULTING FROM USE OF THE SUBJECT SOFTWARE.
+ * FURTHER, GOVERNMENT AGENCY DISCLAIMS ALL WARRANTIES AND LIABILITIES
+ * REGARDING THIRD-PARTY SOFTWARE, IF PRESENT IN THE ORIGINAL SOFTWARE,
+ * AND DISTRIBUTES IT "AS IS."
+ * 
+ * Waiver and Indemnity: RECIPIENT AGREES TO WAIVE ANY AND ALL CLAIMS
+ * AGAINST THE UNITED STATES GOVERNMENT, ITS CONTRACTORS AND
+ * SUBCONTRACTORS, AS WELL AS ANY PRIOR RECIPIENT. IF RECIPIENT'S USE OF
+ * THE SUBJECT SOFTWARE RESULTS IN ANY LIABILITIES, DEMANDS, DAMAGES,
+ * EXPENSES OR LOSSES ARISING FROM SUCH USE, INCLUDING ANY DAMAGES FROM
+ * PRODUCTS BASED ON, OR RESULTING FROM, RECIPIENT'S USE OF THE SUBJECT
+ * SOFTWARE, RECIPIENT SHALL INDEMNIFY AND HOLD HARMLESS THE UNITED
+ * STATES GOVERNMENT, ITS CONTRACTORS AND SUBCONTRACTORS, AS WELL AS ANY
+ * PRIOR RECIPIENT, TO THE EXTENT PERMITTED BY LAW. RECIPIENT'S SOLE
+ * REMEDY FOR ANY SUCH MATTER SHALL BE THE IMMEDIATE, UNILATERAL
+ * TERMINATION OF THIS AGREEMENT.
+ */
+
+package gov.nasa.kepler.tad.peer.merge;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import gov.nasa.kepler.hibernate.cm.PlannedTarget;
+import gov.nasa.kepler.hibernate.cm.TargetList;
+import gov.nasa.kepler.hibernate.cm.TargetSelectionCrud;
+import gov.nasa.kepler.hibernate.dbservice.DatabaseService;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JMock;
+import org.jmock.lib.action.CustomAction;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import com.google.common.collect.ImmutableList;
+
+@RunWith(JMock.class)
+public class PlannedTargetGroupIteratorTest {
+
+    private static final int SKY_GROUP_ID = 1;
+
+    private final TargetList targetList1 = new TargetList("targetList1");
+    private final TargetList targetList2 = new TargetList("targetList2");
+    private final List<TargetList> targetLists = ImmutableList.of(targetList1,
+        targetList2);
+
+    private final Mockery mockery = new Mockery();
+
+    private List<PlannedTarget> plannedTargets;
+    private int retrieveCount;
+    private final List<List<PlannedTarget>> evictedPages = newArrayList();
+
+    private final TargetSelectionCrud targetSelectionCrud = new TargetSelectionCrud() {
+        @Override
+        public Integer retrievePlannedTargetKeplerId(
+            Collection<TargetList> targetLists, int minKeplerId, int offset) {
+            List<PlannedTarget> targets = plannedTargets(targetLists,
+                minKeplerId, null);
+            return offset < targets.size() ? targets.get(offset)
+                .getKeplerId() : null;
+        }
+
+        @Override
+        public List<PlannedTarget> retrievePlannedTargets(
+            Collection<TargetList> targetLists, int minKeplerId,
+            Integer maxKeplerId) {
+            retrieveCount++;
+            return plannedTargets(targetLists, minKeplerId, maxKeplerId);
+        }
+    };
+
+    private final DatabaseService databaseService = mockery.mock(DatabaseService.class);
+
+    @Before
+    public void setUp() {
+        mockery.checking(new Expectations() {
+            {
+                allowing(databaseService).flush();
+                allowing(databaseService).evictAll(
+                    with(any(Collection.class)));
+                will(new CustomAction("record evicted page") {
+                    @Override
+                    public Object invoke(Invocation invocation) {
+                        List<PlannedTarget> page = newArrayList();
+                        for (Object target : (Collection<?>) invocation.getParameter(0)) {
+                            page.add((PlannedTarget) target);
+                        }
+                        evictedPages.add(page);
+                        return null;
+                    }
+                });
+            }
+        });
+
+        // Sorted by keplerId as the database would return them.
+        plannedTargets = newArrayList();
+        plannedTargets.add(new PlannedTarget(1, SKY_GROUP_ID, targetList1));
+        plannedTargets.add(new PlannedTarget(2, SKY_GROUP_ID, targetList1));
+        plannedTargets.add(new PlannedTarget(2, SKY_GROUP_ID, targetList2));
+        plannedTargets.add(new PlannedTarget(3, SKY_GROUP_ID, targetList2));
+        plannedTargets.add(new PlannedTarget(4, SKY_GROUP_ID, targetList1));
+        plannedTargets.add(new PlannedTarget(4, SKY_GROUP_ID, targetList2));
+        plannedTargets.add(new PlannedTarget(5, SKY_GROUP_ID, targetList1));
+    }
+
+    @Test
+    public void testSinglePage() {
+        List<List<PlannedTarget>> groups = groups(100);
+
+        assertGroups(groups);
+        assertEquals("retrieveCount", 1, retrieveCount);
+        assertEquals(ImmutableList.of(plannedTargets), evictedPages);
+    }
+
+    @Test
+    public void testGroupsSpanningPages() {
+        for (int pageSize = 2; pageSize <= plannedTargets.size() + 1; pageSize++) {
+            retrieveCount = 0;
+            evictedPages.clear();
+            assertGroups(groups(pageSize));
+            assertEvictedPages(pageSize);
+        }
+    }
+
+    @Test
+    public void testPagesEvictedSeparately() {
+        List<List<PlannedTarget>> groups = groups(3);
+
+        assertGroups(groups);
+        assertEquals(ImmutableList.of(plannedTargets.subList(0, 3),
+            plannedTargets.subList(3, 6), plannedTargets.subList(6, 7)),
+            evictedPages);
+    }
+
+    @Test
+    public void testGroupLargerThanPage() {
+        List<List<PlannedTarget>> groups = groups(1);
+
+        assertGroups(groups);
+        assertEquals("evictedPages", 5, evictedPages.size());
+    }
+
+    @Test
+    public void testNoTargets() {
+        plannedTargets.clear();
+
+        PlannedTargetGroupIterator iterator = new PlannedTargetGroupIterator(
+            targetSelectionCrud, databaseService, targetLists, 10);
+
+        assertFalse(iterator.hasNext());
+        assertEquals("retrieveCount", 1, retrieveCount);
+        assertTrue(evictedPages.isEmpty());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testNextPastEnd() {
+        plannedTargets.clear();
+
+        new PlannedTargetGroupIterator(targetSelectionCrud, databaseService,
+            targetLists, 10).next();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPageSize() {
+        new PlannedTargetGroupIterator(targetSelectionCrud, databaseService,
+            targetLists, 0);
+    }
+
+    private List<List<PlannedTarget>> groups(int pageSize) {
+        PlannedTargetGroupIterator iterator = new PlannedTargetGroupIterator(
+            targetSelectionCrud, databaseService, targetLists, pageSize);
+        List<List<PlannedTarget>> groups = newArrayList();
+        while (iterator.hasNext()) {
+            groups.add(iterator.next());
+        }
+        return groups;
+    }
+
+    private void assertGroups(List<List<PlannedTarget>> groups) {
+        assertEquals("groups", 5, groups.size());
+        assertEquals(plannedTargets.subList(0, 1), groups.get(0));
+        assertEquals(plannedTargets.subList(1, 3), groups.get(1));
+        assertEquals(plannedTargets.subList(3, 4), groups.get(2));
+        assertEquals(plannedTargets.subList(4, 6), groups.get(3));
+        assertEquals(plannedTargets.subList(6, 7), groups.get(4));
+    }
+
+    /**
+     * Each target must be evicted once, in a page of no more than pageSize
+     * targets.
+     */
+    private void assertEvictedPages(int pageSize) {
+        List<PlannedTarget> evicted = newArrayList();
+        for (List<PlannedTarget> page : evictedPages) {
+            assertTrue("page size", page.size() <= pageSize);
+            evicted.addAll(page);
+        }
+        assertEquals(plannedTargets, evicted);
+    }
+
+    private List<PlannedTarget> plannedTargets(
+        Collection<TargetList> targetLists, int minKeplerId,
+        Integer maxKeplerId) {
+        List<PlannedTarget> targets = newArrayList();
+        for (PlannedTarget plannedTarget : plannedTargets) {
+            if (targetLists.contains(plannedTarget.getTargetList())
+                && plannedTarget.getKeplerId() >= minKeplerId
+                && (maxKeplerId == null || plannedTarget.getKeplerId() < maxKeplerId)) {
+                targets.add(plannedTarget);
+            }
+        }
+        return targets;
+    }
+}
@@ -200,4 +200,34 @@ public class TadLabelValidatorTest {
         tadLabelValidator.validate(ImmutableList.of(plannedTargetWithLabels));
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testValidateKeplerIdGroupInconsistent() {
+        final PlannedTarget plannedTargetNoLabels = new PlannedTarget(
+            STELLAR_KEPLER_ID, SKY_GROUP_ID, targetList);
+
+        final PlannedTarget plannedTargetWithLabels = new PlannedTarget(
+            STELLAR_KEPLER_ID, SKY_GROUP_ID, targetList);
+        plannedTargetWithLabels.addLabel(NON_DEFAULT_STELLAR_HALO_LABEL);
+
+        TadLabelValidator tadLabelValidator = new TadLabelValidator(
+            amaModuleParameters);
+        tadLabelValidator.validateKeplerIdGroup(ImmutableList.of(
+            plannedTargetNoLabels, plannedTargetWithLabels));
+    }
+
+    @Test
+    public void testValidateKeplerIdGroupsAreIndependent() {
+        final PlannedTarget plannedTargetNoLabels = new PlannedTarget(
+            STELLAR_KEPLER_ID, SKY_GROUP_ID, targetList);
+
+        final PlannedTarget plannedTargetWithLabels = new PlannedTarget(
+            STELLAR_KEPLER_ID, SKY_GROUP_ID, targetList);
+        plannedTargetWithLabels.addLabel(NON_DEFAULT_STELLAR_HALO_LABEL);
+
+        TadLabelValidator tadLabelValidator = new TadLabelValidator(
+            amaModuleParameters);
+        tadLabelValidator.validateKeplerIdGroup(ImmutableList.of(plannedTargetNoLabels));
+        tadLabelValidator.validateKeplerIdGroup(ImmutableList.of(plannedTargetWithLabels));
+    }
+
 }